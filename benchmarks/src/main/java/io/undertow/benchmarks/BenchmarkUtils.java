@@ -0,0 +1,304 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerConnection;
+import io.undertow.server.HttpServerExchange;
+import org.xnio.BufferAllocator;
+import org.xnio.Buffers;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.ChannelListener;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ReadReadyHandler;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * Support code shared by the benchmarks. This allows exchanges and conduits to be exercised without
+ * any real network IO, so that the benchmarks only measure the code under test.
+ */
+public final class BenchmarkUtils {
+
+    public static final int BUFFER_SIZE = 8192;
+
+    private BenchmarkUtils() {
+    }
+
+    public static Pool<ByteBuffer> createBufferPool() {
+        return new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, BUFFER_SIZE, BUFFER_SIZE * 64);
+    }
+
+    /**
+     * Creates a connection that is not backed by a real channel. Any IO on the underlying channel is a no-op.
+     */
+    public static HttpServerConnection createConnection(final Pool<ByteBuffer> pool) {
+        final ConnectedStreamChannel channel = (ConnectedStreamChannel) Proxy.newProxyInstance(BenchmarkUtils.class.getClassLoader(), new Class[]{ConnectedStreamChannel.class}, new NoOpHandler());
+        return new HttpServerConnection(channel, pool, null, OptionMap.EMPTY, BUFFER_SIZE);
+    }
+
+    public static HttpServerExchange createExchange(final HttpServerConnection connection) {
+        return new HttpServerExchange(connection, null, null);
+    }
+
+    /**
+     * Creates a request body of the given size, filled with printable data.
+     */
+    public static byte[] createData(final int size) {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) ('a' + (i % 26));
+        }
+        return data;
+    }
+
+    private static final class NoOpHandler implements InvocationHandler {
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final Class<?> type = method.getReturnType();
+            if (type == ChannelListener.Setter.class) {
+                return new ChannelListener.Setter<Object>() {
+                    @Override
+                    public void set(final ChannelListener<? super Object> listener) {
+                    }
+                };
+            } else if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("toString")) {
+                return "benchmark channel";
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A sink conduit that accepts and discards everything written to it.
+     */
+    public static class DiscardingSinkConduit implements StreamSinkConduit {
+
+        private long written;
+
+        public long getWritten() {
+            return written;
+        }
+
+        public void reset() {
+            written = 0;
+        }
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            written += count;
+            return count;
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            throughBuffer.clear().limit(0);
+            return 0;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int remaining = src.remaining();
+            src.position(src.limit());
+            written += remaining;
+            return remaining;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+            long total = 0;
+            for (int i = offs; i < offs + len; ++i) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean isWriteShutdown() {
+            return false;
+        }
+
+        @Override
+        public void resumeWrites() {
+        }
+
+        @Override
+        public void suspendWrites() {
+        }
+
+        @Override
+        public void wakeupWrites() {
+        }
+
+        @Override
+        public boolean isWriteResumed() {
+            return false;
+        }
+
+        @Override
+        public void awaitWritable() throws IOException {
+        }
+
+        @Override
+        public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
+        }
+
+        @Override
+        public XnioIoThread getWriteThread() {
+            return null;
+        }
+
+        @Override
+        public void setWriteReadyHandler(final WriteReadyHandler handler) {
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            return true;
+        }
+
+        @Override
+        public XnioWorker getWorker() {
+            return null;
+        }
+    }
+
+    /**
+     * A source conduit that returns the contents of a byte array, and then EOF. The conduit can be reset
+     * so the same data can be read again.
+     */
+    public static class ByteArraySourceConduit implements StreamSourceConduit {
+
+        private final ByteBuffer data;
+
+        public ByteArraySourceConduit(final byte[] data) {
+            this.data = ByteBuffer.wrap(data);
+        }
+
+        public void reset() {
+            data.clear();
+        }
+
+        @Override
+        public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            return Buffers.copy(dst, data);
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            return Buffers.copy(dsts, offs, len, data);
+        }
+
+        @Override
+        public void terminateReads() throws IOException {
+        }
+
+        @Override
+        public boolean isReadShutdown() {
+            return false;
+        }
+
+        @Override
+        public void resumeReads() {
+        }
+
+        @Override
+        public void suspendReads() {
+        }
+
+        @Override
+        public void wakeupReads() {
+        }
+
+        @Override
+        public boolean isReadResumed() {
+            return false;
+        }
+
+        @Override
+        public void awaitReadable() throws IOException {
+        }
+
+        @Override
+        public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+        }
+
+        @Override
+        public XnioIoThread getReadThread() {
+            return null;
+        }
+
+        @Override
+        public void setReadReadyHandler(final ReadReadyHandler handler) {
+        }
+
+        @Override
+        public XnioWorker getWorker() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.conduits.ChunkedStreamSinkConduit;
+import io.undertow.conduits.ChunkedStreamSourceConduit;
+import io.undertow.conduits.ReadDataStreamSourceConduit;
+import io.undertow.server.HttpServerConnection;
+import io.undertow.server.HttpServerExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.Pooled;
+
+/**
+ * Benchmarks encoding and decoding of chunked bodies with {@link ChunkedStreamSinkConduit} and
+ * {@link ChunkedStreamSourceConduit}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ChunkedConduitBenchmark {
+
+    @Param({"128", "8192", "131072"})
+    int bodySize;
+
+    @Param({"1024", "8192"})
+    int chunkSize;
+
+    private ByteBuffer body;
+    private BenchmarkUtils.DiscardingSinkConduit sink;
+    private BenchmarkUtils.ByteArraySourceConduit source;
+    private HttpServerConnection connection;
+    private HttpServerExchange exchange;
+    private ByteBuffer readBuffer;
+
+    @Setup
+    public void setup() {
+        final byte[] data = BenchmarkUtils.createData(bodySize);
+        body = ByteBuffer.wrap(data);
+        sink = new BenchmarkUtils.DiscardingSinkConduit();
+        source = new BenchmarkUtils.ByteArraySourceConduit(chunk(data, chunkSize));
+        connection = BenchmarkUtils.createConnection(BenchmarkUtils.createBufferPool());
+        exchange = BenchmarkUtils.createExchange(connection);
+        readBuffer = ByteBuffer.allocate(BenchmarkUtils.BUFFER_SIZE);
+    }
+
+    private static byte[] chunk(final byte[] data, final int chunkSize) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int pos = 0; pos < data.length; pos += chunkSize) {
+            final int length = Math.min(chunkSize, data.length - pos);
+            final byte[] header = (Integer.toHexString(length) + "\r\n").getBytes();
+            out.write(header, 0, header.length);
+            out.write(data, pos, length);
+            out.write('\r');
+            out.write('\n');
+        }
+        final byte[] last = "0\r\n\r\n".getBytes();
+        out.write(last, 0, last.length);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        final ByteBuffer body = this.body;
+        sink.reset();
+        final ChunkedStreamSinkConduit conduit = new ChunkedStreamSinkConduit(sink, false, false, null);
+        body.clear();
+        while (body.hasRemaining()) {
+            body.limit(Math.min(body.capacity(), body.position() + chunkSize));
+            conduit.write(body);
+        }
+        conduit.terminateWrites();
+        while (!conduit.flush()) {
+        }
+        return sink.getWritten();
+    }
+
+    @Benchmark
+    public long decode() throws IOException {
+        source.reset();
+        final ChunkedStreamSourceConduit conduit = new ChunkedStreamSourceConduit(new ReadDataStreamSourceConduit(source, connection), exchange, null, Long.MAX_VALUE);
+        final ByteBuffer readBuffer = this.readBuffer;
+        long total = 0;
+        int res;
+        do {
+            readBuffer.clear();
+            res = conduit.read(readBuffer);
+            if (res > 0) {
+                total += res;
+            }
+        } while (res != -1);
+        //the conduit may have pushed back data it did not need
+        final Pooled<ByteBuffer> extra = connection.getExtraBytes();
+        if (extra != null) {
+            extra.free();
+            connection.setExtraBytes(null);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.conduits.DeflatingStreamSinkConduit;
+import io.undertow.server.HttpServerConnection;
+import io.undertow.util.ConduitFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Benchmarks compressing a response body with {@link DeflatingStreamSinkConduit}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DeflatingConduitBenchmark {
+
+    @Param({"1024", "16384", "131072"})
+    int bodySize;
+
+    private ByteBuffer body;
+    private BenchmarkUtils.DiscardingSinkConduit sink;
+    private ConduitFactory<StreamSinkConduit> factory;
+    private HttpServerConnection connection;
+
+    @Setup
+    public void setup() {
+        //text compresses in a similar way to typical html/css/js content
+        final StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (sb.length() < bodySize) {
+            sb.append("<div class=\"item item-").append(i % 17).append("\"><span>Item number ").append(i++).append("</span></div>\n");
+        }
+        body = ByteBuffer.wrap(sb.substring(0, bodySize).getBytes());
+        sink = new BenchmarkUtils.DiscardingSinkConduit();
+        factory = new ConduitFactory<StreamSinkConduit>() {
+            @Override
+            public StreamSinkConduit create() {
+                return sink;
+            }
+        };
+        connection = BenchmarkUtils.createConnection(BenchmarkUtils.createBufferPool());
+    }
+
+    @Benchmark
+    public long deflate() throws IOException {
+        final ByteBuffer body = this.body;
+        sink.reset();
+        final DeflatingStreamSinkConduit conduit = new DeflatingStreamSinkConduit(factory, BenchmarkUtils.createExchange(connection));
+        body.clear();
+        while (body.hasRemaining()) {
+            body.limit(Math.min(body.capacity(), body.position() + BenchmarkUtils.BUFFER_SIZE));
+            conduit.write(body);
+        }
+        conduit.terminateWrites();
+        while (!conduit.flush()) {
+        }
+        return sink.getWritten();
+    }
+}
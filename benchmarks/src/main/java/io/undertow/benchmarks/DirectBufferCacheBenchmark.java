@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.TinyLfuAdmissionPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link DirectBufferCache} lookups from multiple threads.
+ * <p/>
+ * The key space is larger than the cache can hold, so the benchmark also exercises allocation and
+ * eviction. The keys are drawn from a skewed distribution, so a small set of keys is hot, which is
+ * what a static file cache typically sees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class DirectBufferCacheBenchmark {
+
+    private static final int SLICE_SIZE = 1024;
+    private static final int KEYS = 4096;
+
+    /**
+     * The total cache size, in slices
+     */
+    @Param({"1024", "8192"})
+    int cacheSlices;
+
+    @Param({"512", "4096"})
+    int entrySize;
+
+    /**
+     * If the TinyLFU admission policy should be used
+     */
+    @Param({"false", "true"})
+    boolean admissionPolicy;
+
+    private DirectBufferCache<String> cache;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        cache = new DirectBufferCache<String>(SLICE_SIZE, SLICE_SIZE * cacheSlices, admissionPolicy ? new TinyLfuAdmissionPolicy(cacheSlices) : null);
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; ++i) {
+            keys[i] = "/static/file-" + i + ".css";
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private final int[] indexes = new int[1 << 14];
+        private int pos;
+
+        @Setup
+        public void setup() {
+            final Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < indexes.length; ++i) {
+                //squaring a uniform value skews the distribution towards the low keys
+                final double d = random.nextDouble();
+                indexes[i] = (int) (d * d * KEYS);
+            }
+        }
+
+        int next() {
+            return indexes[pos++ & (indexes.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public Object getOrAdd(final ThreadState state) {
+        final String key = keys[state.next()];
+        DirectBufferCache.CacheEntry<String> entry = cache.get(key);
+        if (entry == null) {
+            entry = cache.add(key, entrySize);
+        }
+        if (entry.enabled() && entry.reference()) {
+            entry.dereference();
+        } else if (entry.buffers().length > 0 && entry.claimEnable()) {
+            //simulate the first request populating the entry
+            entry.enable();
+        }
+        return entry;
+    }
+
+    @Benchmark
+    public Object evict(final ThreadState state) {
+        final String key = keys[state.next()];
+        cache.remove(key);
+        return cache.add(key, entrySize);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.FlexBase64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link FlexBase64} encoding and decoding, for both the array and buffer based APIs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlexBase64Benchmark {
+
+    /**
+     * 48 bytes is about the size of a basic auth header, the larger sizes are typical of bodies
+     */
+    @Param({"48", "1024", "65536"})
+    int size;
+
+    private byte[] data;
+    private String encoded;
+    private ByteBuffer source;
+    private ByteBuffer target;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkUtils.createData(size);
+        encoded = FlexBase64.encodeString(data, false);
+        source = ByteBuffer.allocateDirect(size);
+        source.put(data).flip();
+        target = ByteBuffer.allocateDirect(size * 2);
+    }
+
+    @Benchmark
+    public String encodeString() {
+        return FlexBase64.encodeString(data, false);
+    }
+
+    @Benchmark
+    public ByteBuffer decodeString() throws IOException {
+        return FlexBase64.decode(encoded);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBuffer() {
+        source.clear();
+        target.clear();
+        final FlexBase64.Encoder encoder = FlexBase64.createEncoder(false);
+        encoder.encode(source, target);
+        encoder.complete(target);
+        return target;
+    }
+}
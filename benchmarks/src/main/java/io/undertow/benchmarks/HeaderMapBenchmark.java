@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the common {@link HeaderMap} operations, using the headers of a typical browser request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HeaderMapBenchmark {
+
+    private static final HttpString[] NAMES = {
+            Headers.HOST,
+            Headers.CONNECTION,
+            Headers.ACCEPT,
+            Headers.USER_AGENT,
+            Headers.REFERER,
+            Headers.ACCEPT_ENCODING,
+            Headers.ACCEPT_LANGUAGE,
+            Headers.ACCEPT_CHARSET,
+            Headers.COOKIE,
+            Headers.IF_MODIFIED_SINCE,
+            new HttpString("X-Request-Id"),
+            new HttpString("X-Forwarded-For")
+    };
+
+    private static final String[] VALUES = {
+            "www.example.com",
+            "keep-alive",
+            "*/*",
+            "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.31 (KHTML, like Gecko) Chrome/26.0.1410.43 Safari/537.31",
+            "http://www.example.com/index.html",
+            "gzip,deflate,sdch",
+            "en-US,en;q=0.8",
+            "ISO-8859-1,utf-8;q=0.7,*;q=0.3",
+            "JSESSIONID=7EA2B0C2C8E4A4E3F3C1D8A0B6C9E2F1",
+            "Tue, 02 Apr 2013 10:15:30 GMT",
+            "6f1c0b7e-4b5a-4a8e-9d8b-2f4a3c1e5d6f",
+            "10.0.0.1"
+    };
+
+    /**
+     * Lookups with names that are equal to, but not the same instance as, the stored names
+     */
+    private static final HttpString[] LOOKUP_NAMES = new HttpString[NAMES.length];
+
+    static {
+        for (int i = 0; i < NAMES.length; ++i) {
+            LOOKUP_NAMES[i] = new HttpString(NAMES[i].toString().toLowerCase());
+        }
+    }
+
+    private HeaderMap populated;
+    private HeaderMap reused;
+
+    @Setup
+    public void setup() {
+        populated = new HeaderMap();
+        fill(populated);
+        populated.add(Headers.COOKIE, "_ga=GA1.2.1234567890.1365000000");
+        reused = new HeaderMap();
+    }
+
+    private static void fill(final HeaderMap map) {
+        for (int i = 0; i < NAMES.length; ++i) {
+            map.add(NAMES[i], VALUES[i]);
+        }
+    }
+
+    @Benchmark
+    public HeaderMap putNew() {
+        final HeaderMap map = new HeaderMap();
+        fill(map);
+        return map;
+    }
+
+    @Benchmark
+    public HeaderMap putReused() {
+        final HeaderMap map = reused;
+        map.clear();
+        fill(map);
+        return map;
+    }
+
+    @Benchmark
+    public void getSameInstance(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        for (HttpString name : NAMES) {
+            blackhole.consume(map.getFirst(name));
+        }
+    }
+
+    @Benchmark
+    public void getEqualInstance(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        for (HttpString name : LOOKUP_NAMES) {
+            blackhole.consume(map.getFirst(name));
+        }
+    }
+
+    @Benchmark
+    public void iterate(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        for (HttpString name : map) {
+            blackhole.consume(map.get(name));
+        }
+    }
+
+    @Benchmark
+    public void fastIterate(final Blackhole blackhole) {
+        final HeaderMap map = populated;
+        for (int i = map.fiFirst(); i != -1; i = map.fiNext(i)) {
+            blackhole.consume(map.fiName(i));
+            final int count = map.fiValueCount(i);
+            for (int j = 0; j < count; ++j) {
+                blackhole.consume(map.fiValue(i, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.SecureHashMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link SecureHashMap} with {@link ConcurrentHashMap} for a read mostly workload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class SecureHashMapBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"secure", "concurrent"})
+    String implementation;
+
+    private Map<String, String> map;
+    private String[] keys;
+
+    @Setup
+    public void setup() {
+        if (implementation.equals("secure")) {
+            map = new SecureHashMap<String, String>();
+        } else {
+            map = new ConcurrentHashMap<String, String>();
+        }
+        keys = new String[KEYS];
+        for (int i = 0; i < KEYS; ++i) {
+            keys[i] = "/app/resource/" + i;
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int pos;
+    }
+
+    @Benchmark
+    public String get(final ThreadState state) {
+        return map.get(keys[state.pos++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public String getMiss(final ThreadState state) {
+        return map.get(keys[state.pos++ & (KEYS - 1)] + "/missing");
+    }
+
+    @Benchmark
+    public String putAndRemove(final ThreadState state) {
+        final String key = keys[state.pos++ & (KEYS - 1)];
+        map.remove(key);
+        return map.put(key, key);
+    }
+}
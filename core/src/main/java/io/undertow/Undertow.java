@@ -8,6 +8,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
 import io.undertow.ajp.AjpOpenListener;
 import io.undertow.security.api.AuthenticationMechanism;
 import io.undertow.security.api.AuthenticationMode;
@@ -23,6 +26,8 @@ import io.undertow.security.impl.GSSAPIAuthenticationMechanism;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpOpenListener;
+import io.undertow.server.HttpParser;
+import io.undertow.server.ThreadAffineBufferPool;
 import io.undertow.server.handlers.CookieHandler;
 import io.undertow.server.handlers.NameVirtualHostHandler;
 import io.undertow.server.handlers.PathHandler;
@@ -30,6 +35,7 @@ import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.cache.CacheHandler;
 import io.undertow.server.handlers.cache.CachedHttpRequest;
 import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.TinyLfuAdmissionPolicy;
 import io.undertow.server.handlers.error.SimpleErrorPageHandler;
 import io.undertow.server.handlers.form.FormEncodedDataHandler;
 import org.xnio.BufferAllocator;
@@ -43,7 +49,10 @@ import org.xnio.Pool;
 import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.ConnectedSslStreamChannel;
 import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.ssl.JsseXnioSsl;
+import org.xnio.ssl.XnioSsl;
 
 /**
  * Convenience class used to build an Undertow server.
@@ -54,18 +63,31 @@ import org.xnio.channels.ConnectedStreamChannel;
  */
 public class Undertow {
 
+    /**
+     * The maximum amount of application data in a single TLS record.
+     */
+    private static final int TLS_RECORD_SIZE = 16 * 1024;
+
     private final int bufferSize;
     private final int buffersPerRegion;
     private final int ioThreads;
     private final int workerThreads;
     private final int cacheSize;
     private final boolean directBuffers;
+    private final boolean threadAffineBuffers;
+    private final int bufferLeakDetectionInterval;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
+    private final boolean recycleExchanges;
+    private final List<String> internedHeaders = new ArrayList<String>();
+    private final List<String> internedHeaderValues = new ArrayList<String>();
     private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
     private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
 
     private XnioWorker worker;
     private List<AcceptingChannel<? extends ConnectedStreamChannel>> channels;
     private Xnio xnio;
+    private DirectBufferCache<CachedHttpRequest> responseCache;
 
     private Undertow(Builder builder) {
         this.bufferSize = builder.bufferSize;
@@ -74,6 +96,13 @@ public class Undertow {
         this.workerThreads = builder.workerThreads;
         this.cacheSize = builder.cacheSize;
         this.directBuffers = builder.directBuffers;
+        this.threadAffineBuffers = builder.threadAffineBuffers;
+        this.bufferLeakDetectionInterval = builder.bufferLeakDetectionInterval;
+        this.sslSessionCacheSize = builder.sslSessionCacheSize;
+        this.sslSessionTimeout = builder.sslSessionTimeout;
+        this.recycleExchanges = builder.recycleExchanges;
+        this.internedHeaders.addAll(builder.internedHeaders);
+        this.internedHeaderValues.addAll(builder.internedHeaderValues);
         this.listeners.addAll(builder.listeners);
         this.hosts.addAll(builder.hosts);
     }
@@ -128,9 +157,15 @@ public class Undertow {
                     .set(Options.REUSE_ADDRESSES, true)
                     .getMap();
 
-            Pool<ByteBuffer> buffers = new ByteBufferSlicePool(directBuffers ? BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR : BufferAllocator.BYTE_BUFFER_ALLOCATOR, bufferSize, bufferSize * buffersPerRegion);
+            Pool<ByteBuffer> buffers = createBufferPool(directBuffers ? BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR : BufferAllocator.BYTE_BUFFER_ALLOCATOR, bufferSize);
 
             HttpHandler rootHandler = buildHandlerChain();
+            Pool<ByteBuffer> sslBuffers = null;
+            OptionMap undertowOptions = OptionMap.builder()
+                    .set(UndertowOptions.BUFFER_PIPELINED_DATA, true)
+                    .set(UndertowOptions.RECYCLE_EXCHANGES, recycleExchanges)
+                    .getMap();
+            final HttpParser parser = HttpParser.create(internedHeaders, internedHeaderValues);
 
             for (ListenerConfig listener : listeners) {
                 if (listener.type == ListenerType.AJP) {
@@ -141,14 +176,28 @@ public class Undertow {
                     server.resumeAccepts();
                     channels.add(server);
                 } else if (listener.type == ListenerType.HTTP) {
-                    HttpOpenListener openListener = new HttpOpenListener(buffers, OptionMap.create(UndertowOptions.BUFFER_PIPELINED_DATA, true), bufferSize);
+                    HttpOpenListener openListener = new HttpOpenListener(buffers, undertowOptions, bufferSize);
                     openListener.setRootHandler(rootHandler);
+                    openListener.setParser(parser);
                     ChannelListener<AcceptingChannel<ConnectedStreamChannel>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
                     AcceptingChannel<? extends ConnectedStreamChannel> server = worker.createStreamServer(new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, serverOptions);
                     server.resumeAccepts();
                     channels.add(server);
+                } else if (listener.type == ListenerType.HTTPS) {
+                    if (sslBuffers == null) {
+                        //application data buffers are sized so that a full buffer fits in a single TLS record
+                        sslBuffers = createBufferPool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, TLS_RECORD_SIZE);
+                    }
+                    configureSessionContext(listener.sslContext.getServerSessionContext());
+                    HttpOpenListener openListener = new HttpOpenListener(sslBuffers, undertowOptions, TLS_RECORD_SIZE);
+                    openListener.setRootHandler(rootHandler);
+                    openListener.setParser(parser);
+                    ChannelListener<AcceptingChannel<ConnectedSslStreamChannel>> acceptListener = ChannelListeners.<ConnectedSslStreamChannel>openListenerAdapter(openListener);
+                    XnioSsl xnioSsl = new JsseXnioSsl(xnio, OptionMap.create(Options.USE_DIRECT_BUFFERS, true), listener.sslContext);
+                    AcceptingChannel<ConnectedSslStreamChannel> server = xnioSsl.createSslTcpServer(worker, new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), acceptListener, serverOptions);
+                    server.resumeAccepts();
+                    channels.add(server);
                 }
-                //TODO: https
             }
 
         } catch (Exception e) {
@@ -156,6 +205,25 @@ public class Undertow {
         }
     }
 
+    private Pool<ByteBuffer> createBufferPool(final BufferAllocator<ByteBuffer> allocator, final int bufferSize) {
+        if (threadAffineBuffers) {
+            return new ThreadAffineBufferPool(allocator, bufferSize, bufferSize * buffersPerRegion, ThreadAffineBufferPool.DEFAULT_THREAD_CACHE_SIZE, bufferLeakDetectionInterval);
+        }
+        return new ByteBufferSlicePool(allocator, bufferSize, bufferSize * buffersPerRegion);
+    }
+
+    private void configureSessionContext(final SSLSessionContext sessionContext) {
+        if (sessionContext == null) {
+            return;
+        }
+        if (sslSessionCacheSize >= 0) {
+            sessionContext.setSessionCacheSize(sslSessionCacheSize);
+        }
+        if (sslSessionTimeout >= 0) {
+            sessionContext.setSessionTimeout(sslSessionTimeout);
+        }
+    }
+
     public synchronized void stop() {
         for (AcceptingChannel<? extends ConnectedStreamChannel> channel : channels) {
             IoUtils.safeClose(channel);
@@ -164,6 +232,17 @@ public class Undertow {
         worker.shutdownNow();
         worker = null;
         xnio = null;
+        responseCache = null;
+    }
+
+    /**
+     * Returns the response cache, which can be used to monitor the cache or register it with JMX. This is only
+     * available once the server has been started, and only if caching was enabled using {@link Builder#enableCache(int)}.
+     *
+     * @return The response cache, or <code>null</code> if caching is not enabled
+     */
+    public synchronized DirectBufferCache<CachedHttpRequest> getResponseCache() {
+        return responseCache;
     }
 
     private HttpHandler buildHandlerChain() {
@@ -195,7 +274,8 @@ public class Undertow {
         //TODO: multipart
 
         if(cacheSize > 0) {
-            root = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(1024, cacheSize * 1024 * 1024), root);
+            responseCache = new DirectBufferCache<CachedHttpRequest>(1024, cacheSize * 1024 * 1024, new TinyLfuAdmissionPolicy(cacheSize * 1024));
+            root = new CacheHandler(responseCache, root);
         }
 
         return root;
@@ -235,11 +315,13 @@ public class Undertow {
         final ListenerType type;
         final int port;
         final String host;
+        final SSLContext sslContext;
 
-        private ListenerConfig(final ListenerType type, final int port, final String host) {
+        private ListenerConfig(final ListenerType type, final int port, final String host, final SSLContext sslContext) {
             this.type = type;
             this.port = port;
             this.host = host;
+            this.sslContext = sslContext;
         }
     }
 
@@ -365,7 +447,14 @@ public class Undertow {
         private int ioThreads;
         private int workerThreads;
         private boolean directBuffers;
+        private boolean threadAffineBuffers;
+        private int bufferLeakDetectionInterval;
         private int cacheSize;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeout = -1;
+        private boolean recycleExchanges;
+        private final List<String> internedHeaders = new ArrayList<String>();
+        private final List<String> internedHeaderValues = new ArrayList<String>();
         private final List<ListenerConfig> listeners = new ArrayList<ListenerConfig>();
         private final List<VirtualHost> hosts = new ArrayList<VirtualHost>();
         private final VirtualHost defaultHost = new VirtualHost(true);
@@ -410,7 +499,78 @@ public class Undertow {
         }
 
         public Builder addListener(int port, String host) {
-            listeners.add(new ListenerConfig(ListenerType.HTTP, port, host));
+            listeners.add(new ListenerConfig(ListenerType.HTTP, port, host, null));
+            return this;
+        }
+
+        public Builder addHttpsListener(int port, String host, SSLContext sslContext) {
+            if (sslContext == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("sslContext");
+            }
+            listeners.add(new ListenerConfig(ListenerType.HTTPS, port, host, sslContext));
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of SSL sessions that are cached for resumption by HTTPS listeners.
+         *
+         * @param sslSessionCacheSize The cache size, or 0 for no limit
+         */
+        public Builder setSslSessionCacheSize(final int sslSessionCacheSize) {
+            this.sslSessionCacheSize = sslSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the time in seconds that cached SSL sessions can be resumed for.
+         *
+         * @param sslSessionTimeout The timeout in seconds, or 0 for no limit
+         */
+        public Builder setSslSessionTimeout(final int sslSessionTimeout) {
+            this.sslSessionTimeout = sslSessionTimeout;
+            return this;
+        }
+
+        /**
+         * If this is true then the state of the exchange for each HTTP connection is reset and reused for every
+         * request on the connection, instead of being allocated again. Handlers must not use an exchange after
+         * it has completed if this is enabled.
+         *
+         * @see UndertowOptions#RECYCLE_EXCHANGES
+         */
+        public Builder setRecycleExchanges(final boolean recycleExchanges) {
+            this.recycleExchanges = recycleExchanges;
+            return this;
+        }
+
+        /**
+         * Adds a request header name that the HTTP parser matches in addition to the standard headers, so the
+         * same {@link io.undertow.util.HttpString} is used for it in every request. If any headers are added
+         * the parser is generated when the server is started, which requires the parser generator
+         * (<code>io.undertow:undertow-parser-generator</code>) to be added to the class path, as undertow-core
+         * only has a provided dependency on it.
+         *
+         * @param headerName The header name, as it is normally sent by clients
+         */
+        public Builder addInternedHeader(final String headerName) {
+            if (headerName == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("headerName");
+            }
+            internedHeaders.add(headerName);
+            return this;
+        }
+
+        /**
+         * Adds a common request header value, such as <code>gzip, deflate</code>. Header values that are equal to
+         * it are added to the exchange as this string, instead of being decoded into a new string.
+         *
+         * @param headerValue The header value, with no leading or trailing whitespace
+         */
+        public Builder addInternedHeaderValue(final String headerValue) {
+            if (headerValue == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("headerValue");
+            }
+            internedHeaderValues.add(headerValue);
             return this;
         }
 
@@ -439,6 +599,28 @@ public class Undertow {
             return this;
         }
 
+        /**
+         * If this is true then each IO thread keeps its own free list of buffers, instead of all threads sharing
+         * a single pool. This reduces contention when there are many IO threads.
+         *
+         * @see ThreadAffineBufferPool
+         */
+        public Builder setThreadAffineBuffers(final boolean threadAffineBuffers) {
+            this.threadAffineBuffers = threadAffineBuffers;
+            return this;
+        }
+
+        /**
+         * Enables sampled leak detection for thread affine buffer pools. On average one in this many buffer
+         * allocations will be tracked, and logged if the buffer is garbage collected without being freed.
+         *
+         * @param bufferLeakDetectionInterval The sampling interval, or zero to disable leak detection
+         */
+        public Builder setBufferLeakDetectionInterval(final int bufferLeakDetectionInterval) {
+            this.bufferLeakDetectionInterval = bufferLeakDetectionInterval;
+            return this;
+        }
+
         public Builder addVirtualHost(final String hostName) {
             VirtualHost host = new VirtualHost(false);
             host.addHostName(hostName);
@@ -28,6 +28,7 @@ import org.jboss.logging.annotations.MessageLogger;
 import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.net.URI;
 
 /**
  * log messages start at 5000
@@ -81,4 +82,32 @@ public interface UndertowLogger extends BasicLogger {
     @Message(id = 5010, value = "Verification of authentication tokens for user '%s' has failed using mechanism '%s'.")
     void authenticationFailed(final String userName, final String mechanism);
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5011, value = "Failed to watch directory %s for changes, cached files will not be invalidated")
+    void failedToWatchDirectory(File directory, @Cause IOException e);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5012, value = "Proxy backend %s failed %s consecutive requests and will not be used for %s ms")
+    void proxyBackendEjected(URI backend, int failures, long ejectionTime);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5013, value = "A pooled buffer was garbage collected without being freed, the buffer was allocated at the location in the stack trace")
+    void bufferLeakDetected(@Cause Throwable allocationSite);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5014, value = "Failed to register MBean %s")
+    void failedToRegisterMBean(String name, @Cause Exception e);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5015, value = "Failed to unregister MBean %s")
+    void failedToUnregisterMBean(String name, @Cause Exception e);
+
+    @LogMessage(level = Logger.Level.ERROR)
+    @Message(id = 5016, value = "Failed to write to access log %s")
+    void errorWritingAccessLog(File file, @Cause IOException e);
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 5017, value = "The queue for access log %s is full, %s entries have been dropped")
+    void accessLogEntriesDropped(File file, long dropped);
+
 }
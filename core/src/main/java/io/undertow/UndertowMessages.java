@@ -23,6 +23,7 @@ import org.jboss.logging.annotations.Cause;
 import org.jboss.logging.annotations.Message;
 import org.jboss.logging.annotations.MessageBundle;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 
@@ -127,4 +128,43 @@ public interface UndertowMessages {
 
     @Message(id = 34, value = "Stream is closed")
     IOException streamIsClosed();
+
+    @Message(id = 35, value = "Header map has been locked and can no longer be modified")
+    IllegalStateException headerMapLocked();
+
+    @Message(id = 36, value = "Maximum cached file size %s is larger than the cache size %s")
+    IllegalArgumentException maxCachedFileSizeExceedsBudget(long maxFileSize, long maxMemory);
+
+    @Message(id = 37, value = "Connection was closed before the response was received")
+    IOException connectionClosedBeforeResponse();
+
+    @Message(id = 38, value = "Malformed HTTP response")
+    IOException malformedResponse();
+
+    @Message(id = 39, value = "Response header was larger than the maximum size %s")
+    IOException responseHeaderTooLarge(int maxSize);
+
+    @Message(id = 40, value = "The HTTP client has been closed")
+    IOException httpClientClosed();
+
+    @Message(id = 41, value = "The request body has already been started")
+    IllegalStateException requestBodyAlreadyStarted();
+
+    @Message(id = 42, value = "Unsupported URI scheme %s")
+    IllegalArgumentException unsupportedUriScheme(String scheme);
+
+    @Message(id = 43, value = "Connection upgrades are not supported by this client")
+    IOException upgradeNotSupported();
+
+    @Message(id = 44, value = "Invalid access log pattern '%s' at position %s")
+    IllegalArgumentException invalidAccessLogPattern(String pattern, int position);
+
+    @Message(id = 45, value = "Could not rename access log %s to %s")
+    IOException couldNotRotateAccessLog(File file, File target);
+
+    @Message(id = 46, value = "The exchange has already completed")
+    IllegalStateException exchangeAlreadyComplete();
+
+    @Message(id = 47, value = "The parser generator (io.undertow:undertow-parser-generator) must be on the class path at runtime to add headers to the HTTP parser")
+    IllegalStateException parserGeneratorNotAvailable(@Cause Throwable cause);
 }
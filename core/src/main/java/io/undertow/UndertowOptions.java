@@ -56,6 +56,26 @@ public class UndertowOptions {
      */
     public static final Option<Integer> IDLE_TIMEOUT = Option.simple(UndertowOptions.class, "IDLE_TIMEOUT", Integer.class);
 
+    /**
+     * If the server should add a Date header to every response. Defaults to true.
+     */
+    public static final Option<Boolean> ALWAYS_SET_DATE = Option.simple(UndertowOptions.class, "ALWAYS_SET_DATE", Boolean.class);
+
+    /**
+     * The value of the Server header that is added to every response. If this is not set no Server header is sent.
+     */
+    public static final Option<String> SERVER_HEADER = Option.simple(UndertowOptions.class, "SERVER_HEADER", String.class);
+
+    /**
+     * If the exchange, and the parser state used to read it, should be reset and reused for the next request on a
+     * persistent connection instead of being reallocated. Defaults to false.
+     * <p/>
+     * When this is enabled handlers must not use an exchange once it has completed, as its header maps and
+     * attachments are reused for the next request on the connection. Once that happens, accessing them through the
+     * old exchange throws an {@link IllegalStateException}.
+     */
+    public static final Option<Boolean> RECYCLE_EXCHANGES = Option.simple(UndertowOptions.class, "RECYCLE_EXCHANGES", Boolean.class);
+
     private UndertowOptions() {
 
     }
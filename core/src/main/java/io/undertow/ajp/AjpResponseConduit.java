@@ -30,6 +30,7 @@ import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
@@ -171,16 +172,24 @@ final class AjpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCondu
             buffer.put((byte) 4);
             putInt(buffer, exchange.getResponseCode());
             putString(buffer, StatusCodes.getReason(exchange.getResponseCode()));
-            putInt(buffer, exchange.getResponseHeaders().getHeaderNames().size());
-            for (final HttpString header : exchange.getResponseHeaders()) {
-                for (String headerValue : exchange.getResponseHeaders().get(header)) {
-                    Integer headerCode = HEADER_MAP.get(header);
+            final HeaderMap responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.lock();
+            int headerCount = 0;
+            for (int i = responseHeaders.fiFirst(); i != -1; i = responseHeaders.fiNext(i)) {
+                headerCount += responseHeaders.fiValueCount(i);
+            }
+            putInt(buffer, headerCount);
+            for (int i = responseHeaders.fiFirst(); i != -1; i = responseHeaders.fiNext(i)) {
+                final HttpString header = responseHeaders.fiName(i);
+                final Integer headerCode = HEADER_MAP.get(header);
+                final int valueCount = responseHeaders.fiValueCount(i);
+                for (int j = 0; j < valueCount; ++j) {
                     if (headerCode != null) {
                         putInt(buffer, headerCode);
                     } else {
                         putString(buffer, header.toString());
                     }
-                    putString(buffer, headerValue);
+                    putString(buffer, responseHeaders.fiValue(i, j));
                 }
             }
 
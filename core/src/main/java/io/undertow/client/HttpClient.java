@@ -38,6 +38,17 @@ public abstract class HttpClient implements Closeable {
         this.worker = worker;
     }
 
+    /**
+     * Create a new non-blocking HTTP client.
+     *
+     * @param worker the worker that is used to open connections
+     * @param optionMap the client options, see {@link HttpClientOptions}
+     * @return the new client
+     */
+    public static HttpClient create(final XnioWorker worker, final OptionMap optionMap) {
+        return new HttpClientImpl(worker, optionMap);
+    }
+
     public XnioWorker getWorker() {
         return worker;
     }
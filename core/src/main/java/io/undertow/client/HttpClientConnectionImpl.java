@@ -0,0 +1,540 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
+import io.undertow.conduits.ChunkedStreamSourceConduit;
+import io.undertow.conduits.ConduitListener;
+import io.undertow.conduits.FixedLengthStreamSourceConduit;
+import io.undertow.conduits.PushBackHandler;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.xnio.Buffers;
+import org.xnio.ChannelListener;
+import org.xnio.FailedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSourceConduit;
+import org.xnio.conduits.ConduitReadableByteChannel;
+import org.xnio.conduits.EmptyStreamSourceConduit;
+import org.xnio.conduits.StreamSourceChannelWrappingConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * A HTTP/1.1 client connection.
+ * <p/>
+ * Requests are written in the order they are created, and responses are read in the same order. If pipelining
+ * is enabled a new request can be sent as soon as the previous request has been completely written, otherwise
+ * a new request can only be sent once the previous response has been fully read.
+ * <p/>
+ * A request or response must only be used by one thread at a time. Responses are read by the connection's
+ * IO thread.
+ */
+final class HttpClientConnectionImpl extends HttpClientConnection implements PushBackHandler {
+
+    private final ConnectedStreamChannel channel;
+    private final Pool<ByteBuffer> bufferPool;
+    private final HttpClientImpl.HostPool hostPool;
+    private final boolean pipeline;
+    private final int maxPipelinedRequests;
+    private final int maxHeaderSize;
+
+    /**
+     * Requests that have been sent, and are waiting for a response. The response to the first request in the queue
+     * is the one that is currently being read.
+     */
+    private final Deque<HttpClientRequestImpl> pendingResponses = new ArrayDeque<HttpClientRequestImpl>();
+
+    /**
+     * The request that is currently being written, or null if no request is being written
+     */
+    private HttpClientRequestImpl currentWriter;
+
+    /**
+     * If the connection can be re-used once the current response has been read
+     */
+    private boolean persistent = true;
+
+    /**
+     * Any extra bytes that were read from the channel. This could be data for the current response, or the next one.
+     */
+    private Pooled<ByteBuffer> extraBytes;
+
+    HttpClientConnectionImpl(final HttpClient client, final ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final OptionMap options, final HttpClientImpl.HostPool hostPool) {
+        super(client);
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.hostPool = hostPool;
+        this.pipeline = options.get(HttpClientOptions.PIPELINE, false);
+        this.maxPipelinedRequests = pipeline ? options.get(HttpClientOptions.MAX_PIPELINED_REQUESTS, HttpClientOptions.DEFAULT_MAX_PIPELINED_REQUESTS) : 1;
+        this.maxHeaderSize = options.get(HttpClientOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
+        channel.getCloseSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+            @Override
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                connectionClosed();
+            }
+        });
+    }
+
+    @Override
+    public HttpClientRequest sendRequest(final String method, final URI target) {
+        final HttpClientRequestImpl request;
+        final boolean startReading;
+        synchronized (this) {
+            if (!persistent || !channel.isOpen() || currentWriter != null || pendingResponses.size() >= maxPipelinedRequests) {
+                return null;
+            }
+            request = new HttpClientRequestImpl(this, method, target);
+            currentWriter = request;
+            pendingResponses.add(request);
+            startReading = pendingResponses.size() == 1;
+        }
+        if (startReading) {
+            startReading();
+        }
+        return request;
+    }
+
+    @Override
+    public IoFuture<ConnectedStreamChannel> upgradeToWebSocket(final String service, final OptionMap optionMap) {
+        return new FailedIoFuture<ConnectedStreamChannel>(UndertowMessages.MESSAGES.upgradeNotSupported());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    ConnectedStreamChannel getChannel() {
+        return channel;
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     *
+     * @return <code>true</code> if a request could be pipelined on this connection
+     */
+    synchronized boolean canPipeline() {
+        return pipeline && persistent && channel.isOpen() && currentWriter == null
+                && !pendingResponses.isEmpty() && pendingResponses.size() < maxPipelinedRequests;
+    }
+
+    /**
+     * Starts watching an idle connection, so that it is closed if the remote end closes it.
+     */
+    void idle() {
+        channel.getReadSetter().set(new IdleReadListener());
+        channel.resumeReads();
+    }
+
+    void requestWritten(final HttpClientRequestImpl request) {
+        final boolean idle;
+        synchronized (this) {
+            if (currentWriter != request) {
+                return;
+            }
+            currentWriter = null;
+            idle = pendingResponses.isEmpty();
+        }
+        if (idle) {
+            connectionIdle();
+        }
+    }
+
+    @Override
+    public void unget(final Pooled<ByteBuffer> unget) {
+        if (extraBytes == null) {
+            extraBytes = unget;
+        } else {
+            final ByteBuffer existing = extraBytes.getResource();
+            final ByteBuffer buffer = unget.getResource();
+            final ByteBuffer combined = ByteBuffer.allocate(buffer.remaining() + existing.remaining());
+            combined.put(buffer);
+            combined.put(existing);
+            combined.flip();
+            unget.free();
+            extraBytes.free();
+            extraBytes = new UnpooledBuffer(combined);
+        }
+    }
+
+    private void startReading() {
+        channel.getReadSetter().set(new ResponseReadListener());
+        if (extraBytes != null) {
+            channel.wakeupReads();
+        } else {
+            channel.resumeReads();
+        }
+    }
+
+    private void responseComplete(final HttpClientRequestImpl request) {
+        final boolean close;
+        final boolean next;
+        final boolean idle;
+        synchronized (this) {
+            if (pendingResponses.peek() != request) {
+                return;
+            }
+            pendingResponses.poll();
+            close = !persistent;
+            next = !close && !pendingResponses.isEmpty();
+            idle = !close && pendingResponses.isEmpty() && currentWriter == null;
+        }
+        if (close) {
+            IoUtils.safeClose(this);
+        } else if (next) {
+            startReading();
+        } else if (idle) {
+            connectionIdle();
+        }
+    }
+
+    private void connectionIdle() {
+        if (hostPool != null) {
+            hostPool.returnConnection(this);
+        } else {
+            idle();
+        }
+    }
+
+    private void connectionClosed() {
+        final List<HttpClientRequestImpl> failed;
+        synchronized (this) {
+            persistent = false;
+            failed = new ArrayList<HttpClientRequestImpl>(pendingResponses);
+            pendingResponses.clear();
+            currentWriter = null;
+        }
+        if (extraBytes != null) {
+            extraBytes.free();
+            extraBytes = null;
+        }
+        for (HttpClientRequestImpl request : failed) {
+            request.failed(UndertowMessages.MESSAGES.connectionClosedBeforeResponse());
+        }
+        if (hostPool != null) {
+            hostPool.connectionClosed(this);
+        }
+    }
+
+    /**
+     * Sets up the conduit that the response body is read from, and decides if the connection can be re-used once
+     * the body has been read.
+     *
+     * @return <code>true</code> if the response has no body, and is already complete
+     */
+    private boolean setupResponseBody(final HttpClientRequestImpl request, final HttpClientResponseImpl response) {
+        final HeaderMap headers = response.getResponseHeaders();
+        final String connectionHeader = headers.getFirst(Headers.CONNECTION);
+        final boolean keepAlive;
+        if (Protocols.HTTP_1_1.equals(response.getProtocol())) {
+            keepAlive = connectionHeader == null || !Headers.CLOSE.equals(new HttpString(connectionHeader));
+        } else {
+            keepAlive = connectionHeader != null && Headers.KEEP_ALIVE.equals(new HttpString(connectionHeader));
+        }
+        synchronized (this) {
+            persistent &= keepAlive;
+        }
+
+        final int code = response.getResponseCode();
+        final StreamSourceConduit next = new ReadDataStreamSourceConduit(new StreamSourceChannelWrappingConduit(channel));
+        if (request.getMethod().equals(Methods.HEAD) || (100 <= code && code <= 199) || code == 204 || code == 304) {
+            response.setBodyConduit(new EmptyStreamSourceConduit(channel.getIoThread()));
+            return true;
+        }
+        final String transferEncoding = headers.getLast(Headers.TRANSFER_ENCODING);
+        if (transferEncoding != null && !Headers.IDENTITY.equals(new HttpString(transferEncoding))) {
+            response.setBodyConduit(new ChunkedStreamSourceConduit(next, bufferPool, this, new ConduitListener<ChunkedStreamSourceConduit>() {
+                @Override
+                public void handleEvent(final ChunkedStreamSourceConduit conduit) {
+                    if (!conduit.isFinished()) {
+                        notPersistent();
+                    }
+                    responseComplete(request);
+                }
+            }, Long.MAX_VALUE));
+            return false;
+        }
+        final long contentLength = response.getContentLength();
+        if (contentLength == 0) {
+            response.setBodyConduit(new EmptyStreamSourceConduit(channel.getIoThread()));
+            return true;
+        } else if (contentLength > 0) {
+            response.setBodyConduit(new FixedLengthStreamSourceConduit(next, contentLength, new ConduitListener<FixedLengthStreamSourceConduit>() {
+                @Override
+                public void handleEvent(final FixedLengthStreamSourceConduit conduit) {
+                    if (conduit.getRemaining() > 0) {
+                        notPersistent();
+                    }
+                    responseComplete(request);
+                }
+            }));
+            return false;
+        }
+        //the body is delimited by the connection being closed
+        notPersistent();
+        response.setBodyConduit(next);
+        return false;
+    }
+
+    private synchronized void notPersistent() {
+        persistent = false;
+    }
+
+    /**
+     * Listener which reads the response status line and headers for the request at the head of the queue.
+     */
+    private final class ResponseReadListener implements ChannelListener<StreamSourceChannel> {
+
+        private final ResponseParseState state = new ResponseParseState();
+        private HttpClientResponseImpl response = new HttpClientResponseImpl(HttpClientConnectionImpl.this);
+        private int read = 0;
+
+        @Override
+        public void handleEvent(final StreamSourceChannel channel) {
+            final HttpClientRequestImpl request;
+            synchronized (HttpClientConnectionImpl.this) {
+                request = pendingResponses.peek();
+            }
+            if (request == null) {
+                channel.suspendReads();
+                return;
+            }
+            Pooled<ByteBuffer> existing = extraBytes;
+            final Pooled<ByteBuffer> pooled = existing == null ? bufferPool.allocate() : existing;
+            final ByteBuffer buffer = pooled.getResource();
+            boolean free = true;
+            try {
+                do {
+                    int res;
+                    if (existing == null) {
+                        buffer.clear();
+                        res = channel.read(buffer);
+                    } else {
+                        res = buffer.remaining();
+                    }
+                    if (res == 0) {
+                        if (!channel.isReadResumed()) {
+                            channel.resumeReads();
+                        }
+                        return;
+                    } else if (res == -1) {
+                        request.failed(UndertowMessages.MESSAGES.connectionClosedBeforeResponse());
+                        IoUtils.safeClose(HttpClientConnectionImpl.this);
+                        return;
+                    }
+                    if (existing != null) {
+                        existing = null;
+                        extraBytes = null;
+                    } else {
+                        buffer.flip();
+                    }
+                    int remaining = HttpResponseParser.handle(buffer, res, state, response);
+                    read += res - remaining;
+                    if (read > maxHeaderSize) {
+                        request.failed(UndertowMessages.MESSAGES.responseHeaderTooLarge(maxHeaderSize));
+                        IoUtils.safeClose(HttpClientConnectionImpl.this);
+                        return;
+                    }
+                    if (state.isComplete() && response.getResponseCode() < 200 && response.getResponseCode() != 101) {
+                        //an interim response, such as 100-continue, the real response follows
+                        state.reset();
+                        response = new HttpClientResponseImpl(HttpClientConnectionImpl.this);
+                        read = 0;
+                    }
+                    if (remaining > 0) {
+                        if (state.isComplete()) {
+                            free = false;
+                            extraBytes = pooled;
+                        } else {
+                            //there is still data in the buffer to parse
+                            existing = pooled;
+                        }
+                    }
+                } while (!state.isComplete());
+
+                channel.getReadSetter().set(null);
+                channel.suspendReads();
+                final boolean complete = setupResponseBody(request, response);
+                request.setResponse(response);
+                if (complete) {
+                    responseComplete(request);
+                }
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to read HTTP response");
+                request.failed(e);
+            } finally {
+                if (free) {
+                    pooled.free();
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener that is active while the connection is idle. Idle connections should never receive any data, so
+     * the connection is closed if anything is read, including EOF.
+     */
+    private final class IdleReadListener implements ChannelListener<StreamSourceChannel> {
+
+        @Override
+        public void handleEvent(final StreamSourceChannel channel) {
+            final Pooled<ByteBuffer> pooled = bufferPool.allocate();
+            try {
+                if (channel.read(pooled.getResource()) != 0) {
+                    IoUtils.safeClose(HttpClientConnectionImpl.this);
+                }
+            } catch (IOException e) {
+                IoUtils.safeClose(HttpClientConnectionImpl.this);
+            } finally {
+                pooled.free();
+            }
+        }
+    }
+
+    /**
+     * Conduit that returns any data that was read past the end of the response headers, before reading from the
+     * channel. Reads are only terminated at this level if the response body was abandoned, or if the body is delimited
+     * by the end of the connection, so the connection is closed.
+     */
+    private final class ReadDataStreamSourceConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
+
+        ReadDataStreamSourceConduit(final StreamSourceConduit next) {
+            super(next);
+        }
+
+        @Override
+        public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+            return target.transferFrom(new ConduitReadableByteChannel(this), position, count);
+        }
+
+        @Override
+        public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+            return IoUtils.transfer(new ConduitReadableByteChannel(this), count, throughBuffer, target);
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            final Pooled<ByteBuffer> eb = extraBytes;
+            if (eb == null) {
+                return next.read(dst);
+            }
+            final ByteBuffer buffer = eb.getResource();
+            final int result = Buffers.copy(dst, buffer);
+            if (!buffer.hasRemaining()) {
+                eb.free();
+                extraBytes = null;
+            }
+            return result;
+        }
+
+        @Override
+        public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+            final Pooled<ByteBuffer> eb = extraBytes;
+            if (eb == null) {
+                return next.read(dsts, offs, len);
+            }
+            final ByteBuffer buffer = eb.getResource();
+            final int result = Buffers.copy(dsts, offs, len, buffer);
+            if (!buffer.hasRemaining()) {
+                eb.free();
+                extraBytes = null;
+            }
+            return result;
+        }
+
+        @Override
+        public void terminateReads() throws IOException {
+            notPersistent();
+            HttpClientConnectionImpl.this.close();
+        }
+
+        @Override
+        public void resumeReads() {
+            if (extraBytes != null) {
+                wakeupReads();
+            } else {
+                super.resumeReads();
+            }
+        }
+
+        @Override
+        public void awaitReadable() throws IOException {
+            if (extraBytes == null) {
+                super.awaitReadable();
+            }
+        }
+
+        @Override
+        public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+            if (extraBytes == null) {
+                super.awaitReadable(time, timeUnit);
+            }
+        }
+    }
+
+    /**
+     * A heap buffer that is not associated with a pool.
+     */
+    private static final class UnpooledBuffer implements Pooled<ByteBuffer> {
+
+        private final ByteBuffer buffer;
+
+        UnpooledBuffer(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void discard() {
+        }
+
+        @Override
+        public void free() {
+        }
+
+        @Override
+        public ByteBuffer getResource() throws IllegalStateException {
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.undertow.UndertowMessages;
+import io.undertow.util.ConcreteIoFuture;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.FailedIoFuture;
+import org.xnio.FinishedIoFuture;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.XnioWorker;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * Non-blocking {@link HttpClient} implementation.
+ * <p/>
+ * Requests sent with {@link #sendRequest(String, String, org.xnio.OptionMap)} use a pool of persistent connections
+ * for each destination. The number of connections to each destination is limited by
+ * {@link HttpClientOptions#MAX_CONNECTIONS_PER_HOST}, once this limit is reached requests are queued until a
+ * connection becomes available. Connections are returned to the pool once the response has been fully read.
+ */
+final class HttpClientImpl extends HttpClient {
+
+    private final OptionMap options;
+    private final Pool<ByteBuffer> bufferPool;
+    private final ConcurrentMap<InetSocketAddress, HostPool> hostPools = new ConcurrentHashMap<InetSocketAddress, HostPool>();
+    private final int maxConnectionsPerHost;
+    private final int maxIdleConnectionsPerHost;
+    private volatile boolean closed;
+
+    HttpClientImpl(final XnioWorker worker, final OptionMap options) {
+        super(worker);
+        this.options = options;
+        final int bufferSize = options.get(HttpClientOptions.BUFFER_SIZE, HttpClientOptions.DEFAULT_BUFFER_SIZE);
+        this.bufferPool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, bufferSize, bufferSize * 16);
+        this.maxConnectionsPerHost = options.get(HttpClientOptions.MAX_CONNECTIONS_PER_HOST, HttpClientOptions.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        this.maxIdleConnectionsPerHost = options.get(HttpClientOptions.MAX_IDLE_CONNECTIONS_PER_HOST, HttpClientOptions.DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST);
+    }
+
+    @Override
+    public IoFuture<HttpClientConnection> connect(final SocketAddress destination, final OptionMap optionMap) {
+        final OptionMap connectionOptions = mergeOptions(optionMap);
+        final ConcreteIoFuture<HttpClientConnection> result = new ConcreteIoFuture<HttpClientConnection>();
+        getWorker().connectStream(destination, null, connectionOptions).addNotifier(new IoFuture.HandlingNotifier<ConnectedStreamChannel, Void>() {
+            @Override
+            public void handleFailed(final IOException exception, final Void attachment) {
+                result.setException(exception);
+            }
+
+            @Override
+            public void handleDone(final ConnectedStreamChannel channel, final Void attachment) {
+                result.setResult(new HttpClientConnectionImpl(HttpClientImpl.this, channel, bufferPool, connectionOptions, null));
+            }
+        }, null);
+        return result;
+    }
+
+    @Override
+    public IoFuture<HttpClientRequest> sendRequest(final String method, final String requestUri, final OptionMap optionMap) {
+        final URI uri = URI.create(requestUri);
+        if (!"http".equalsIgnoreCase(uri.getScheme())) {
+            throw UndertowMessages.MESSAGES.unsupportedUriScheme(uri.getScheme());
+        }
+        if (closed) {
+            return new FailedIoFuture<HttpClientRequest>(UndertowMessages.MESSAGES.httpClientClosed());
+        }
+        //the pools are keyed by host name, so the name does not have to be resolved for every request
+        final InetSocketAddress destination = InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort() == -1 ? 80 : uri.getPort());
+        final OptionMap requestOptions = mergeOptions(optionMap);
+        for (;;) {
+            HostPool hostPool = hostPools.get(destination);
+            if (hostPool == null) {
+                final HostPool existing = hostPools.putIfAbsent(destination, hostPool = new HostPool(destination));
+                if (existing != null) {
+                    hostPool = existing;
+                }
+            }
+            final IoFuture<HttpClientRequest> result = hostPool.sendRequest(method, uri, requestOptions);
+            if (result != null) {
+                return result;
+            }
+            //the pool was removed as it had no connections left, try again with a new one
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (HostPool hostPool : hostPools.values()) {
+            hostPool.close();
+        }
+    }
+
+    private OptionMap mergeOptions(final OptionMap optionMap) {
+        if (optionMap == null || optionMap.size() == 0) {
+            return options;
+        }
+        return OptionMap.builder().addAll(options).addAll(optionMap).getMap();
+    }
+
+    /**
+     * The connections to a single destination.
+     */
+    final class HostPool {
+
+        /**
+         * The unresolved destination, which is the key of this pool
+         */
+        private final InetSocketAddress destination;
+
+        /**
+         * The resolved destination, or null if the host name has not been resolved yet. The name is resolved once
+         * for the lifetime of the pool, so as the pool is removed when it is unused it will eventually be resolved
+         * again.
+         */
+        private volatile InetSocketAddress address;
+
+        /**
+         * Idle connections, most recently used first
+         */
+        private final Deque<HttpClientConnectionImpl> idle = new ArrayDeque<HttpClientConnectionImpl>();
+
+        /**
+         * All open connections, including idle ones
+         */
+        private final List<HttpClientConnectionImpl> connections = new ArrayList<HttpClientConnectionImpl>();
+
+        /**
+         * Requests that are waiting for a connection
+         */
+        private final Deque<PendingRequest> waiting = new ArrayDeque<PendingRequest>();
+
+        /**
+         * The number of connections that are currently being opened
+         */
+        private int connecting;
+
+        /**
+         * If this pool has been removed from the host pools, as it has no connections or waiting requests
+         */
+        private boolean removed;
+
+        HostPool(final InetSocketAddress destination) {
+            this.destination = destination;
+        }
+
+        /**
+         * Sends a request using one of the connections in this pool
+         *
+         * @return The request, or null if this pool has been removed and the request should be retried with a new pool
+         */
+        IoFuture<HttpClientRequest> sendRequest(final String method, final URI uri, final OptionMap optionMap) {
+            HttpClientConnectionImpl connection;
+            for (;;) {
+                synchronized (this) {
+                    connection = idle.pollFirst();
+                }
+                if (connection == null) {
+                    break;
+                }
+                final HttpClientRequest request = connection.sendRequest(method, uri);
+                if (request != null) {
+                    return new FinishedIoFuture<HttpClientRequest>(request);
+                }
+            }
+            if (optionMap.get(HttpClientOptions.PIPELINE, false)) {
+                synchronized (this) {
+                    for (HttpClientConnectionImpl candidate : connections) {
+                        if (candidate.canPipeline()) {
+                            connection = candidate;
+                            break;
+                        }
+                    }
+                }
+                if (connection != null) {
+                    final HttpClientRequest request = connection.sendRequest(method, uri);
+                    if (request != null) {
+                        return new FinishedIoFuture<HttpClientRequest>(request);
+                    }
+                }
+            }
+            final PendingRequest pending = new PendingRequest(method, uri, optionMap);
+            final boolean connect;
+            synchronized (this) {
+                if (removed) {
+                    return null;
+                }
+                connect = connections.size() + connecting < maxConnectionsPerHost;
+                if (connect) {
+                    ++connecting;
+                } else {
+                    waiting.add(pending);
+                }
+            }
+            if (connect) {
+                openConnection(pending);
+            }
+            return pending.future;
+        }
+
+        void returnConnection(final HttpClientConnectionImpl connection) {
+            final PendingRequest pending;
+            boolean close = false;
+            synchronized (this) {
+                if (!connection.isOpen()) {
+                    return;
+                }
+                pending = waiting.poll();
+                if (pending == null) {
+                    if (closed || idle.size() >= maxIdleConnectionsPerHost) {
+                        close = true;
+                    } else {
+                        idle.addFirst(connection);
+                    }
+                }
+            }
+            if (pending != null) {
+                final HttpClientRequest request = connection.sendRequest(pending.method, pending.uri);
+                if (request != null) {
+                    pending.future.setResult(request);
+                } else {
+                    synchronized (this) {
+                        waiting.addFirst(pending);
+                    }
+                    IoUtils.safeClose(connection);
+                }
+            } else if (close) {
+                IoUtils.safeClose(connection);
+            } else {
+                connection.idle();
+            }
+        }
+
+        void connectionClosed(final HttpClientConnectionImpl connection) {
+            synchronized (this) {
+                connections.remove(connection);
+                idle.remove(connection);
+            }
+            dispatchWaiting();
+            removeIfUnused();
+        }
+
+        void close() {
+            final List<HttpClientConnectionImpl> toClose;
+            final List<PendingRequest> toFail;
+            synchronized (this) {
+                toClose = new ArrayList<HttpClientConnectionImpl>(idle);
+                idle.clear();
+                toFail = new ArrayList<PendingRequest>(waiting);
+                waiting.clear();
+            }
+            for (HttpClientConnectionImpl connection : toClose) {
+                IoUtils.safeClose(connection);
+            }
+            for (PendingRequest pending : toFail) {
+                pending.future.setException(UndertowMessages.MESSAGES.httpClientClosed());
+            }
+        }
+
+        /**
+         * Removes this pool from the host pools once it has no connections and no waiting requests, so that
+         * the client does not hold on to an entry for every host it has ever connected to.
+         */
+        private void removeIfUnused() {
+            synchronized (this) {
+                if (removed || !connections.isEmpty() || connecting > 0 || !waiting.isEmpty()) {
+                    return;
+                }
+                removed = true;
+            }
+            hostPools.remove(destination, this);
+        }
+
+        /**
+         * Opens a new connection for the next waiting request, if the connection limit allows it.
+         */
+        private void dispatchWaiting() {
+            final PendingRequest pending;
+            synchronized (this) {
+                if (closed || waiting.isEmpty() || connections.size() + connecting >= maxConnectionsPerHost) {
+                    return;
+                }
+                pending = waiting.poll();
+                ++connecting;
+            }
+            openConnection(pending);
+        }
+
+        private void openConnection(final PendingRequest pending) {
+            final InetSocketAddress address = this.address;
+            if (address != null) {
+                connectTo(address, pending);
+                return;
+            }
+            //resolving the host name may block, so it is not done on the calling thread, which may be an IO thread
+            getWorker().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final InetSocketAddress resolved = new InetSocketAddress(destination.getHostString(), destination.getPort());
+                    if (resolved.isUnresolved()) {
+                        connectFailed(pending, new UnknownHostException(destination.getHostString()));
+                        return;
+                    }
+                    HostPool.this.address = resolved;
+                    connectTo(resolved, pending);
+                }
+            });
+        }
+
+        private void connectFailed(final PendingRequest pending, final IOException exception) {
+            synchronized (this) {
+                --connecting;
+            }
+            pending.future.setException(exception);
+            dispatchWaiting();
+            removeIfUnused();
+        }
+
+        private void connectTo(final InetSocketAddress address, final PendingRequest pending) {
+            getWorker().connectStream(address, null, pending.optionMap).addNotifier(new IoFuture.HandlingNotifier<ConnectedStreamChannel, Void>() {
+                @Override
+                public void handleFailed(final IOException exception, final Void attachment) {
+                    connectFailed(pending, exception);
+                }
+
+                @Override
+                public void handleDone(final ConnectedStreamChannel channel, final Void attachment) {
+                    final HttpClientConnectionImpl connection = new HttpClientConnectionImpl(HttpClientImpl.this, channel, bufferPool, pending.optionMap, HostPool.this);
+                    synchronized (HostPool.this) {
+                        --connecting;
+                        connections.add(connection);
+                    }
+                    final HttpClientRequest request = connection.sendRequest(pending.method, pending.uri);
+                    if (request == null) {
+                        pending.future.setException(UndertowMessages.MESSAGES.connectionClosedBeforeResponse());
+                        IoUtils.safeClose(connection);
+                    } else {
+                        pending.future.setResult(request);
+                    }
+                }
+            }, null);
+        }
+    }
+
+    /**
+     * A request that is waiting for a connection to become available.
+     */
+    private static final class PendingRequest {
+        final String method;
+        final URI uri;
+        final OptionMap optionMap;
+        final ConcreteIoFuture<HttpClientRequest> future = new ConcreteIoFuture<HttpClientRequest>();
+
+        PendingRequest(final String method, final URI uri, final OptionMap optionMap) {
+            this.method = method;
+            this.uri = uri;
+            this.optionMap = optionMap;
+        }
+    }
+}
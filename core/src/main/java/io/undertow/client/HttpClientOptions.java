@@ -0,0 +1,69 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import org.xnio.Option;
+
+/**
+ * Options that control the behaviour of a {@link HttpClient}.
+ */
+public class HttpClientOptions {
+
+    /**
+     * The maximum number of connections that will be opened to a single destination. Defaults to 10.
+     */
+    public static final Option<Integer> MAX_CONNECTIONS_PER_HOST = Option.simple(HttpClientOptions.class, "MAX_CONNECTIONS_PER_HOST", Integer.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+
+    /**
+     * The maximum number of idle connections that are kept open to a single destination. Defaults to 5.
+     */
+    public static final Option<Integer> MAX_IDLE_CONNECTIONS_PER_HOST = Option.simple(HttpClientOptions.class, "MAX_IDLE_CONNECTIONS_PER_HOST", Integer.class);
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+
+    /**
+     * If requests should be pipelined on connections that are already in use. Defaults to false.
+     */
+    public static final Option<Boolean> PIPELINE = Option.simple(HttpClientOptions.class, "PIPELINE", Boolean.class);
+
+    /**
+     * The maximum number of outstanding requests on a pipelined connection. Defaults to 5.
+     */
+    public static final Option<Integer> MAX_PIPELINED_REQUESTS = Option.simple(HttpClientOptions.class, "MAX_PIPELINED_REQUESTS", Integer.class);
+
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 5;
+
+    /**
+     * The maximum size in bytes of a response header. Defaults to {@link io.undertow.UndertowOptions#DEFAULT_MAX_HEADER_SIZE}.
+     */
+    public static final Option<Integer> MAX_HEADER_SIZE = Option.simple(HttpClientOptions.class, "MAX_HEADER_SIZE", Integer.class);
+
+    /**
+     * The size of the buffers used to read responses. Defaults to 8192.
+     */
+    public static final Option<Integer> BUFFER_SIZE = Option.simple(HttpClientOptions.class, "BUFFER_SIZE", Integer.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private HttpClientOptions() {
+
+    }
+}
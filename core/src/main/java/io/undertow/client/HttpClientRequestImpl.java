@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+import io.undertow.UndertowMessages;
+import io.undertow.conduits.ChunkedStreamSinkConduit;
+import io.undertow.conduits.ConduitListener;
+import io.undertow.conduits.FinishableStreamSinkConduit;
+import io.undertow.conduits.FixedLengthStreamSinkConduit;
+import io.undertow.util.ConcreteIoFuture;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.conduits.ConduitStreamSinkChannel;
+import org.xnio.conduits.StreamSinkChannelWrappingConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * A request that is sent over a {@link HttpClientConnectionImpl}.
+ * <p/>
+ * The request is sent when {@link #writeRequestBody(long)} is called. If {@link #getResponse()} is called first then
+ * the request is sent without a body.
+ */
+final class HttpClientRequestImpl extends HttpClientRequest {
+
+    private static final byte[] HTTP_1_1 = " HTTP/1.1\r\n".getBytes();
+
+    private final HttpClientConnectionImpl connection;
+    private final HttpString method;
+    private final URI target;
+    private final ConcreteIoFuture<HttpClientResponse> response = new ConcreteIoFuture<HttpClientResponse>();
+    private StreamSinkChannel requestChannel;
+
+    HttpClientRequestImpl(final HttpClientConnectionImpl connection, final String method, final URI target) {
+        super(connection);
+        this.connection = connection;
+        this.method = new HttpString(method);
+        this.target = target;
+    }
+
+    /**
+     * Starts sending the request. The caller must shut down writes on the returned channel and flush it once the
+     * body has been written, even if the body is empty.
+     *
+     * @param contentLength The length of the request body, or -1 if the length is not known and the body should be chunked
+     * @return The channel that the request body should be written to
+     */
+    @Override
+    public StreamSinkChannel writeRequestBody(final long contentLength) throws IOException {
+        if (requestChannel != null) {
+            throw UndertowMessages.MESSAGES.requestBodyAlreadyStarted();
+        }
+        final HeaderMap headers = getRequestHeaders();
+        if (!headers.contains(Headers.HOST)) {
+            headers.put(Headers.HOST, target.getPort() == -1 ? target.getHost() : target.getHost() + ":" + target.getPort());
+        }
+        if (contentLength < 0) {
+            headers.remove(Headers.CONTENT_LENGTH);
+            headers.put(Headers.TRANSFER_ENCODING, Headers.CHUNKED.toString());
+        } else if (contentLength > 0 || !(method.equals(Methods.GET) || method.equals(Methods.HEAD))) {
+            headers.put(Headers.CONTENT_LENGTH, contentLength);
+        }
+
+        final StreamSinkConduit next = new HttpRequestConduit(new StreamSinkChannelWrappingConduit(connection.getChannel()), encodeHeader());
+        final StreamSinkConduit body;
+        if (contentLength < 0) {
+            body = new ChunkedStreamSinkConduit(next, true, false, null);
+        } else {
+            body = new FixedLengthStreamSinkConduit(next, contentLength, true, false, null, null);
+        }
+        final FinishableStreamSinkConduit conduit = new FinishableStreamSinkConduit(body, new ConduitListener<FinishableStreamSinkConduit>() {
+            @Override
+            public void handleEvent(final FinishableStreamSinkConduit channel) {
+                connection.requestWritten(HttpClientRequestImpl.this);
+            }
+        });
+        return requestChannel = new ConduitStreamSinkChannel(connection.getChannel(), conduit);
+    }
+
+    @Override
+    public IoFuture<HttpClientResponse> getResponse() {
+        if (requestChannel == null) {
+            try {
+                final StreamSinkChannel channel = writeRequestBody(0);
+                channel.shutdownWrites();
+                if (!channel.flush()) {
+                    channel.getWriteSetter().set(ChannelListeners.<StreamSinkChannel>flushingChannelListener(null, new ChannelExceptionHandler<StreamSinkChannel>() {
+                        @Override
+                        public void handleException(final StreamSinkChannel channel, final IOException exception) {
+                            failed(exception);
+                        }
+                    }));
+                    channel.resumeWrites();
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        return response;
+    }
+
+    HttpString getMethod() {
+        return method;
+    }
+
+    void setResponse(final HttpClientResponseImpl response) {
+        this.response.setResult(response);
+    }
+
+    void failed(final IOException exception) {
+        if (response.setException(exception)) {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    private ByteBuffer encodeHeader() {
+        String path = target.getRawPath();
+        if (path == null || path.isEmpty()) {
+            path = "/";
+        }
+        final String query = target.getRawQuery();
+        final String requestTarget = query == null ? path : path + "?" + query;
+
+        final HeaderMap headers = getRequestHeaders();
+        int length = method.length() + 1 + requestTarget.length() + HTTP_1_1.length + 2;
+        for (int i = headers.fiFirst(); i != -1; i = headers.fiNext(i)) {
+            final int nameLength = headers.fiName(i).length();
+            final int valueCount = headers.fiValueCount(i);
+            for (int j = 0; j < valueCount; ++j) {
+                length += nameLength + 2 + headers.fiValue(i, j).length() + 2;
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        method.appendTo(buffer);
+        buffer.put((byte) ' ');
+        putString(buffer, requestTarget);
+        buffer.put(HTTP_1_1);
+        for (int i = headers.fiFirst(); i != -1; i = headers.fiNext(i)) {
+            final HttpString name = headers.fiName(i);
+            final int valueCount = headers.fiValueCount(i);
+            for (int j = 0; j < valueCount; ++j) {
+                name.appendTo(buffer);
+                buffer.put((byte) ':').put((byte) ' ');
+                putString(buffer, headers.fiValue(i, j));
+                buffer.put((byte) '\r').put((byte) '\n');
+            }
+        }
+        buffer.put((byte) '\r').put((byte) '\n');
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+}
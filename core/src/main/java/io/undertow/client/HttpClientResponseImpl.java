@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ConduitStreamSourceChannel;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * A response that has been read from a {@link HttpClientConnectionImpl}.
+ */
+final class HttpClientResponseImpl extends HttpClientResponse {
+
+    private final HttpClientConnectionImpl connection;
+    private HttpString protocol;
+    private int responseCode;
+    private String reasonPhrase;
+    private StreamSourceConduit bodyConduit;
+    private StreamSourceChannel replyBody;
+
+    HttpClientResponseImpl(final HttpClientConnectionImpl connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public long getContentLength() {
+        final String contentLength = getResponseHeaders().getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the channel that the reply body can be read from. The body must be read until EOF, or the channel
+     * closed, before the connection can be used for another request.
+     *
+     * @return The reply body
+     */
+    @Override
+    public StreamSourceChannel readReplyBody() throws IOException {
+        if (replyBody == null) {
+            replyBody = new ConduitStreamSourceChannel(connection.getChannel(), bodyConduit);
+        }
+        return replyBody;
+    }
+
+    public HttpString getProtocol() {
+        return protocol;
+    }
+
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    void setProtocol(final HttpString protocol) {
+        this.protocol = protocol;
+    }
+
+    void setResponseCode(final int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    void setReasonPhrase(final String reasonPhrase) {
+        this.reasonPhrase = reasonPhrase;
+    }
+
+    void setBodyConduit(final StreamSourceConduit bodyConduit) {
+        this.bodyConduit = bodyConduit;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Conduit that writes the encoded request line and headers before any of the request body. Where possible the
+ * headers and the first part of the body are written with a single gathering write.
+ */
+final class HttpRequestConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+    /**
+     * The encoded request header, or null once it has been written
+     */
+    private ByteBuffer header;
+
+    HttpRequestConduit(final StreamSinkConduit next, final ByteBuffer header) {
+        super(next);
+        this.header = header;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (header == null) {
+            return next.write(src);
+        }
+        final int remaining = src.remaining();
+        next.write(new ByteBuffer[]{header, src}, 0, 2);
+        if (header.hasRemaining()) {
+            return 0;
+        }
+        header = null;
+        return remaining - src.remaining();
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+        if (header == null) {
+            return next.write(srcs, offs, len);
+        }
+        final ByteBuffer[] buffers = new ByteBuffer[len + 1];
+        buffers[0] = header;
+        System.arraycopy(srcs, offs, buffers, 1, len);
+        final int headerRemaining = header.remaining();
+        final long written = next.write(buffers, 0, buffers.length);
+        if (header.hasRemaining()) {
+            return 0;
+        }
+        header = null;
+        return written - headerRemaining;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        if (!writeHeader()) {
+            return 0;
+        }
+        return next.transferFrom(src, position, count);
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        return writeHeader() && next.flush();
+    }
+
+    private boolean writeHeader() throws IOException {
+        if (header == null) {
+            return true;
+        }
+        next.write(header);
+        if (header.hasRemaining()) {
+            return false;
+        }
+        header = null;
+        return true;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpParser;
+import io.undertow.util.HttpString;
+
+import static io.undertow.client.ResponseParseState.AWAIT_DATA_END;
+import static io.undertow.client.ResponseParseState.HEADER_NAME;
+import static io.undertow.client.ResponseParseState.HEADER_VALUE;
+import static io.undertow.client.ResponseParseState.HEADER_VALUE_END;
+import static io.undertow.client.ResponseParseState.LINE_START;
+import static io.undertow.client.ResponseParseState.PARSE_COMPLETE;
+import static io.undertow.client.ResponseParseState.REASON_PHRASE;
+import static io.undertow.client.ResponseParseState.STATUS_CODE;
+import static io.undertow.client.ResponseParseState.VERSION;
+
+/**
+ * Parser for HTTP response headers.
+ * <p/>
+ * Like {@link HttpParser} this is an incremental state machine, that can be invoked repeatedly as data arrives.
+ * Header names and protocols are resolved against the same interned {@link HttpString} instances that the generated
+ * request parser uses, so comparisons against the constants in {@link io.undertow.util.Headers} take the == fast path.
+ */
+final class HttpResponseParser {
+
+    private static final Map<HttpString, HttpString> INTERNED;
+
+    static {
+        final Map<HttpString, HttpString> interned = new HashMap<HttpString, HttpString>();
+        for (HttpString value : HttpParser.httpStrings().values()) {
+            interned.put(value, value);
+        }
+        INTERNED = interned;
+    }
+
+    private HttpResponseParser() {
+
+    }
+
+    /**
+     * Parses response data.
+     *
+     * @param buffer    The buffer
+     * @param remaining The number of bytes remaining
+     * @param state     The current state
+     * @param response  The response to populate
+     * @return The number of bytes remaining
+     * @throws IOException If the response is malformed
+     */
+    static int handle(final ByteBuffer buffer, int remaining, final ResponseParseState state, final HttpClientResponseImpl response) throws IOException {
+        final StringBuilder stringBuilder = state.stringBuilder;
+        while (remaining > 0 && state.state != PARSE_COMPLETE) {
+            final byte next = buffer.get();
+            --remaining;
+            switch (state.state) {
+                case VERSION: {
+                    if (next == ' ') {
+                        if (stringBuilder.length() > 0) {
+                            response.setProtocol(intern(stringBuilder.toString()));
+                            stringBuilder.setLength(0);
+                            state.state = STATUS_CODE;
+                        }
+                    } else if (next == '\r' || next == '\n') {
+                        if (stringBuilder.length() > 0) {
+                            throw UndertowMessages.MESSAGES.malformedResponse();
+                        }
+                        //the line ending after the previous response body
+                    } else {
+                        stringBuilder.append((char) next);
+                    }
+                    break;
+                }
+                case STATUS_CODE: {
+                    if (next >= '0' && next <= '9') {
+                        state.statusCode = state.statusCode * 10 + (next - '0');
+                        if (state.statusCode > 999) {
+                            throw UndertowMessages.MESSAGES.malformedResponse();
+                        }
+                    } else if (next == ' ' && state.statusCode == 0) {
+                        //extra whitespace before the status code
+                    } else if (state.statusCode < 100) {
+                        throw UndertowMessages.MESSAGES.malformedResponse();
+                    } else {
+                        response.setResponseCode(state.statusCode);
+                        if (next == '\n') {
+                            response.setReasonPhrase("");
+                            state.state = LINE_START;
+                        } else {
+                            state.state = REASON_PHRASE;
+                        }
+                    }
+                    break;
+                }
+                case REASON_PHRASE: {
+                    if (next == '\n') {
+                        response.setReasonPhrase(stringBuilder.toString().trim());
+                        stringBuilder.setLength(0);
+                        state.state = LINE_START;
+                    } else if (next != '\r') {
+                        stringBuilder.append((char) next);
+                    }
+                    break;
+                }
+                case LINE_START: {
+                    if (next == '\r') {
+                        state.state = AWAIT_DATA_END;
+                    } else if (next == '\n') {
+                        state.state = PARSE_COMPLETE;
+                    } else {
+                        stringBuilder.append((char) next);
+                        state.state = HEADER_NAME;
+                    }
+                    break;
+                }
+                case AWAIT_DATA_END: {
+                    if (next != '\n') {
+                        throw UndertowMessages.MESSAGES.malformedResponse();
+                    }
+                    state.state = PARSE_COMPLETE;
+                    break;
+                }
+                case HEADER_NAME: {
+                    if (next == ':') {
+                        state.nextHeader = intern(stringBuilder.toString().trim());
+                        stringBuilder.setLength(0);
+                        state.skipWhitespace = true;
+                        state.state = HEADER_VALUE;
+                    } else if (next == '\r' || next == '\n') {
+                        throw UndertowMessages.MESSAGES.malformedResponse();
+                    } else {
+                        stringBuilder.append((char) next);
+                    }
+                    break;
+                }
+                case HEADER_VALUE: {
+                    if (next == '\n') {
+                        state.state = HEADER_VALUE_END;
+                    } else if (next == '\r') {
+                        //ignore, the line ends at the \n
+                    } else if (state.skipWhitespace && (next == ' ' || next == '\t')) {
+                        //leading whitespace is not part of the value
+                    } else {
+                        state.skipWhitespace = false;
+                        stringBuilder.append((char) next);
+                    }
+                    break;
+                }
+                case HEADER_VALUE_END: {
+                    if (next == ' ' || next == '\t') {
+                        //this is a continuation
+                        stringBuilder.setLength(trimmedLength(stringBuilder));
+                        if (stringBuilder.length() > 0) {
+                            stringBuilder.append(' ');
+                        }
+                        state.skipWhitespace = true;
+                        state.state = HEADER_VALUE;
+                    } else {
+                        //we have a header
+                        response.getResponseHeaders().add(state.nextHeader, trimTrailing(stringBuilder));
+                        stringBuilder.setLength(0);
+                        state.nextHeader = null;
+                        if (next == '\r') {
+                            state.state = AWAIT_DATA_END;
+                        } else if (next == '\n') {
+                            state.state = PARSE_COMPLETE;
+                        } else {
+                            stringBuilder.append((char) next);
+                            state.state = HEADER_NAME;
+                        }
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+        return remaining;
+    }
+
+    private static String trimTrailing(final StringBuilder stringBuilder) {
+        return stringBuilder.substring(0, trimmedLength(stringBuilder));
+    }
+
+    private static int trimmedLength(final StringBuilder stringBuilder) {
+        int end = stringBuilder.length();
+        while (end > 0 && (stringBuilder.charAt(end - 1) == ' ' || stringBuilder.charAt(end - 1) == '\t')) {
+            --end;
+        }
+        return end;
+    }
+
+    private static HttpString intern(final String value) {
+        final HttpString string = new HttpString(value);
+        final HttpString interned = INTERNED.get(string);
+        return interned == null ? string : interned;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.client;
+
+import io.undertow.util.HttpString;
+
+/**
+ * The current state of the response parser. This class is mutable and not thread safe.
+ * <p/>
+ * fields are not private to allow for efficient putfield / getfield access
+ */
+final class ResponseParseState {
+
+    //parsing states
+    static final int VERSION = 0;
+    static final int STATUS_CODE = 1;
+    static final int REASON_PHRASE = 2;
+    static final int LINE_START = 3;
+    static final int HEADER_NAME = 4;
+    static final int HEADER_VALUE = 5;
+    static final int HEADER_VALUE_END = 6;
+    static final int AWAIT_DATA_END = 7;
+    static final int PARSE_COMPLETE = 8;
+
+    /**
+     * The actual state of response parsing
+     */
+    int state;
+
+    /**
+     * The token that has been read so far
+     */
+    final StringBuilder stringBuilder = new StringBuilder();
+
+    /**
+     * The status code that has been read so far
+     */
+    int statusCode;
+
+    /**
+     * If leading whitespace should be skipped when reading the next header value byte
+     */
+    boolean skipWhitespace;
+
+    /**
+     * The name of the header that is currently being read
+     */
+    HttpString nextHeader;
+
+    boolean isComplete() {
+        return state == PARSE_COMPLETE;
+    }
+
+    void reset() {
+        state = VERSION;
+        stringBuilder.setLength(0);
+        statusCode = 0;
+        skipWhitespace = false;
+        nextHeader = null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.conduits.AbstractStreamSourceConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * A conduit that counts the number of bytes read from the next conduit.
+ */
+public class BytesReceivedStreamSourceConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
+
+    private long bytesReceived;
+
+    public BytesReceivedStreamSourceConduit(final StreamSourceConduit next) {
+        super(next);
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final FileChannel target) throws IOException {
+        final long res = next.transferTo(position, count, target);
+        if (res > 0) {
+            bytesReceived += res;
+        }
+        return res;
+    }
+
+    @Override
+    public long transferTo(final long count, final ByteBuffer throughBuffer, final StreamSinkChannel target) throws IOException {
+        final long res = next.transferTo(count, throughBuffer, target);
+        if (res > 0) {
+            bytesReceived += res;
+        }
+        return res;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int res = next.read(dst);
+        if (res > 0) {
+            bytesReceived += res;
+        }
+        return res;
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offs, final int len) throws IOException {
+        final long res = next.read(dsts, offs, len);
+        if (res > 0) {
+            bytesReceived += res;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * A conduit that counts the number of bytes written to the next conduit. Transfers are passed straight
+ * through, so zero copy transfers are not affected.
+ */
+public class BytesSentStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+    private long bytesSent;
+
+    public BytesSentStreamSinkConduit(final StreamSinkConduit next) {
+        super(next);
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        final long res = next.transferFrom(src, position, count);
+        if (res > 0) {
+            bytesSent += res;
+        }
+        return res;
+    }
+
+    @Override
+    public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+        final long res = next.transferFrom(source, count, throughBuffer);
+        if (res > 0) {
+            bytesSent += res;
+        }
+        return res;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        final int res = next.write(src);
+        if (res > 0) {
+            bytesSent += res;
+        }
+        return res;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
+        final long res = next.write(srcs, offs, len);
+        if (res > 0) {
+            bytesSent += res;
+        }
+        return res;
+    }
+}
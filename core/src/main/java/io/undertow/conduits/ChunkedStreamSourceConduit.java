@@ -26,6 +26,7 @@ import java.nio.channels.FileChannel;
 import io.undertow.UndertowMessages;
 import io.undertow.server.HttpServerExchange;
 import org.xnio.IoUtils;
+import org.xnio.Pool;
 import org.xnio.Pooled;
 import org.xnio.channels.StreamSinkChannel;
 import org.xnio.conduits.AbstractStreamSourceConduit;
@@ -44,7 +45,8 @@ import static org.xnio.Bits.longBitMask;
  */
 public class ChunkedStreamSourceConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
 
-    private final HttpServerExchange exchange;
+    private final Pool<ByteBuffer> bufferPool;
+    private final PushBackHandler pushBackHandler;
 
     private final ConduitListener<? super ChunkedStreamSourceConduit> finishListener;
 
@@ -63,8 +65,27 @@ public class ChunkedStreamSourceConduit extends AbstractStreamSourceConduit<Stre
     private static final long MASK_COUNT = longBitMask(0, 56);
 
     public ChunkedStreamSourceConduit(final StreamSourceConduit next, final HttpServerExchange exchange, final ConduitListener<? super ChunkedStreamSourceConduit> finishListener, final long maxLength) {
+        this(next, exchange.getConnection().getBufferPool(), new PushBackHandler() {
+            @Override
+            public void unget(final Pooled<ByteBuffer> unget) {
+                exchange.ungetRequestBytes(unget);
+            }
+        }, finishListener, maxLength);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param next            the conduit to read the chunked data from
+     * @param bufferPool      the pool used to allocate read buffers
+     * @param pushBackHandler the handler that receives any data that was read past the end of the current read
+     * @param finishListener  the listener to call once the last chunk has been read
+     * @param maxLength       the maximum amount of data that can be read
+     */
+    public ChunkedStreamSourceConduit(final StreamSourceConduit next, final Pool<ByteBuffer> bufferPool, final PushBackHandler pushBackHandler, final ConduitListener<? super ChunkedStreamSourceConduit> finishListener, final long maxLength) {
         super(next);
-        this.exchange = exchange;
+        this.bufferPool = bufferPool;
+        this.pushBackHandler = pushBackHandler;
         this.finishListener = finishListener;
         this.remainingAllowed = maxLength;
         this.maxSize = maxLength;
@@ -121,14 +142,16 @@ public class ChunkedStreamSourceConduit extends AbstractStreamSourceConduit<Stre
         }
 
         long chunkRemaining = oldVal & MASK_COUNT;
-        Pooled<ByteBuffer> pooled = exchange.getConnection().getBufferPool().allocate();
+        Pooled<ByteBuffer> pooled = bufferPool.allocate();
         ByteBuffer buf = pooled.getResource();
         int r = next.read(buf);
         buf.flip();
         if (r == -1) {
+            pooled.free();
             //Channel is broken, not sure how best to report it
             throw new ClosedChannelException();
         } else if (r == 0) {
+            pooled.free();
             return 0;
         }
 
@@ -281,7 +304,9 @@ public class ChunkedStreamSourceConduit extends AbstractStreamSourceConduit<Stre
             newVal = (newVal & ~MASK_COUNT) | chunkRemaining;
             state = newVal;
             if (buf.hasRemaining()) {
-                exchange.ungetRequestBytes(pooled);
+                pushBackHandler.unget(pooled);
+            } else {
+                pooled.free();
             }
             if (allAreClear(oldVal, FLAG_FINISHED) && allAreSet(newVal, FLAG_FINISHED)) {
                 callFinish();
@@ -8,6 +8,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
 
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.DeflaterPool;
 import io.undertow.util.ConduitFactory;
 import io.undertow.util.Headers;
 import org.xnio.IoUtils;
@@ -23,12 +24,20 @@ import static org.xnio.Bits.anyAreSet;
 
 /**
  * Channel that handles deflate compression
+ * <p/>
+ * If a {@link DeflaterPool} is provided the deflater is taken from the pool, and returned once the
+ * response is complete. Otherwise a new deflater is created, and is ended once the response is complete.
  *
  * @author Stuart Douglas
  */
 public class DeflatingStreamSinkConduit implements StreamSinkConduit {
 
     private final Deflater deflater;
+    private final DeflaterPool deflaterPool;
+    /**
+     * The buffer that the deflater writes into, before it is copied to the current buffer
+     */
+    private final byte[] deflateBuffer = new byte[1024];
     private final ConduitFactory<StreamSinkConduit> conduitFactory;
     private final HttpServerExchange exchange;
 
@@ -52,15 +61,45 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
     private static final int FLUSHING_BUFFER = 1 << 2;
     private static final int WRITES_RESUMED = 1 << 3;
     private static final int CLOSED = 1 << 4;
+    private static final int TRAILER_WRITTEN = 1 << 5;
+    private static final int DEFLATER_RELEASED = 1 << 6;
 
     public DeflatingStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange) {
+        this(conduitFactory, exchange, null);
+    }
 
-        deflater = new Deflater(Deflater.DEFLATED, true);
+    public DeflatingStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange, final DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+        this.deflater = deflaterPool == null ? new Deflater(Deflater.DEFLATED, true) : deflaterPool.allocate();
         this.currentBuffer = exchange.getConnection().getBufferPool().allocate();
         this.exchange = exchange;
         this.conduitFactory = conduitFactory;
     }
 
+    /**
+     * Called with the uncompressed data before it is passed to the deflater. Subclasses can override this to
+     * compute a checksum of the data.
+     */
+    protected void preDeflate(final byte[] data, final int offset, final int length) {
+    }
+
+    /**
+     * Subclasses can override this to add a trailer after the compressed data.
+     *
+     * @return The trailer, or <code>null</code> if there is no trailer
+     */
+    protected byte[] getTrailer() {
+        return null;
+    }
+
+    /**
+     * Writes data that is sent before any compressed data, such as a header. This must only be called from the
+     * constructor of a subclass, and the header must fit in a single buffer.
+     */
+    protected final void writeHeader(final byte[] header) {
+        currentBuffer.getResource().put(header);
+    }
+
     @Override
     public int write(final ByteBuffer src) throws IOException {
         if (anyAreSet(SHUTDOWN | CLOSED, state)) {
@@ -74,6 +113,7 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
         }
         byte[] data = new byte[src.remaining()];
         src.get(data);
+        preDeflate(data, 0, data.length);
         deflater.setInput(data);
         deflateData();
         return data.length;
@@ -242,6 +282,20 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
                     }
                     //ok the deflater is flushed, now we need to flush the buffer
                     if (!anyAreSet(FLUSHING_BUFFER, state)) {
+                        if (!anyAreSet(TRAILER_WRITTEN, state)) {
+                            state |= TRAILER_WRITTEN;
+                            final byte[] trailer = getTrailer();
+                            if (trailer != null) {
+                                final ByteBuffer buffer = currentBuffer.getResource();
+                                final int remaining = buffer.remaining();
+                                if (remaining >= trailer.length) {
+                                    buffer.put(trailer);
+                                } else {
+                                    buffer.put(trailer, 0, remaining);
+                                    additionalBuffer = ByteBuffer.wrap(trailer, remaining, trailer.length - remaining);
+                                }
+                            }
+                        }
                         currentBuffer.getResource().flip();
                         state |= FLUSHING_BUFFER;
                         if(next == null) {
@@ -252,6 +306,7 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
                     if (performFlushIfRequired()) {
                         state |= next_SHUTDOWN;
                         currentBuffer.free();
+                        releaseDeflater();
                         next.terminateWrites();
                         return next.flush();
                     } else {
@@ -310,6 +365,13 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
             if(additionalBuffer != null) {
                 remaining += additionalBuffer.remaining();
             }
+            if (!anyAreSet(TRAILER_WRITTEN, state)) {
+                //the trailer will be written once this buffer has been flushed
+                final byte[] trailer = getTrailer();
+                if (trailer != null) {
+                    remaining += trailer.length;
+                }
+            }
             exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Integer.toString(remaining));
         } else {
             exchange.getResponseHeaders().remove(Headers.CONTENT_LENGTH);
@@ -333,7 +395,7 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
 
             final boolean shutdown = anyAreSet(SHUTDOWN, state);
 
-            byte[] buffer = new byte[1024]; //TODO: we should pool this and make it configurable or something
+            final byte[] buffer = this.deflateBuffer;
             while (!deflater.needsInput() || (shutdown && !deflater.finished())) {
                 int count = deflater.deflate(buffer);
                 if (count != 0) {
@@ -375,6 +437,25 @@ public class DeflatingStreamSinkConduit implements StreamSinkConduit {
             currentBuffer.free();
         }
         state |= CLOSED;
-        next.truncateWrites();
+        releaseDeflater();
+        if (next != null) {
+            next.truncateWrites();
+        }
+    }
+
+    /**
+     * Returns the deflater to the pool, or releases its native resources if it is not pooled. This is
+     * called once all data has been deflated, or when the response is truncated.
+     */
+    private void releaseDeflater() {
+        if (anyAreSet(DEFLATER_RELEASED, state)) {
+            return;
+        }
+        state |= DEFLATER_RELEASED;
+        if (deflaterPool == null) {
+            deflater.end();
+        } else {
+            deflaterPool.free(deflater);
+        }
     }
 }
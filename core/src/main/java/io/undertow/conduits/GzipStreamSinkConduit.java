@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.DeflaterPool;
+import io.undertow.util.ConduitFactory;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Channel that handles gzip compression. The data is compressed with a raw deflater, and wrapped with the
+ * gzip header and trailer as described in RFC-1952.
+ */
+public class GzipStreamSinkConduit extends DeflatingStreamSinkConduit {
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final CRC32 crc = new CRC32();
+    private long length;
+
+    public GzipStreamSinkConduit(final ConduitFactory<StreamSinkConduit> conduitFactory, final HttpServerExchange exchange, final DeflaterPool deflaterPool) {
+        super(conduitFactory, exchange, deflaterPool);
+        writeHeader(HEADER);
+    }
+
+    @Override
+    protected void preDeflate(final byte[] data, final int offset, final int length) {
+        crc.update(data, offset, length);
+        this.length += length;
+    }
+
+    @Override
+    protected byte[] getTrailer() {
+        final long crc = this.crc.getValue();
+        //the length is stored modulo 2^32
+        final long length = this.length;
+        return new byte[]{
+                (byte) crc, (byte) (crc >> 8), (byte) (crc >> 16), (byte) (crc >> 24),
+                (byte) length, (byte) (length >> 8), (byte) (length >> 16), (byte) (length >> 24)};
+    }
+}
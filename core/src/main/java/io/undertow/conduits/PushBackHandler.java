@@ -0,0 +1,36 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.conduits;
+
+import java.nio.ByteBuffer;
+
+import org.xnio.Pooled;
+
+/**
+ * Receives data that was read from a channel but not consumed, so that it can be returned by the next read.
+ */
+public interface PushBackHandler {
+
+    /**
+     * Pushes back unconsumed data. The handler takes ownership of the buffer, and is responsible for freeing it.
+     *
+     * @param unget the data that was not consumed
+     */
+    void unget(Pooled<ByteBuffer> unget);
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.undertow.util.DateUtils;
+import io.undertow.util.Headers;
+import org.xnio.XnioIoThread;
+
+/**
+ * Pre-encoded response headers that are common to every response sent by a server.
+ * <p>
+ * The block contains the <code>Date</code> header, followed by the <code>Server</code> header. Either header
+ * can be disabled. The block is copied into the header buffer by {@link HttpResponseConduit} in a single bulk put.
+ * <p>
+ * The date is refreshed once a second by a timer that runs on an IO thread. If no responses are sent for a
+ * whole second the timer is stopped, and it is restarted by the next response.
+ */
+final class CommonResponseHeaders implements Runnable {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] DATE_PREFIX = (Headers.DATE_STRING + ": ").getBytes(US_ASCII);
+
+    private static final int DATE_LINE_LENGTH = DATE_PREFIX.length + DateUtils.RFC1123_LENGTH + 2;
+
+    private static final String KEEP_ALIVE = Headers.KEEP_ALIVE.toString();
+    private static final String CLOSE = Headers.CLOSE.toString();
+    private static final byte[] CONNECTION_KEEP_ALIVE = (Headers.CONNECTION_STRING + ": " + KEEP_ALIVE + "\r\n").getBytes(US_ASCII);
+    private static final byte[] CONNECTION_CLOSE = (Headers.CONNECTION_STRING + ": " + CLOSE + "\r\n").getBytes(US_ASCII);
+
+    private final int dateLength;
+    private final byte[] serverLine;
+    private final AtomicBoolean timerRunning = new AtomicBoolean();
+    private volatile byte[] block;
+    private volatile boolean used;
+
+    /**
+     * @param date       If the date header should be sent
+     * @param serverName The value of the server header, or null if no server header should be sent
+     */
+    CommonResponseHeaders(final boolean date, final String serverName) {
+        dateLength = date ? DATE_LINE_LENGTH : 0;
+        if (serverName == null) {
+            serverLine = new byte[0];
+        } else {
+            serverLine = (Headers.SERVER_STRING + ": " + serverName + "\r\n").getBytes(US_ASCII);
+        }
+        block = createBlock();
+    }
+
+    /**
+     * Returns the pre-encoded header block. The first {@link #getDateLength()} bytes are the date header,
+     * and the remainder is the server header.
+     *
+     * @param ioThread The IO thread to use to run the refresh timer, if it is not running
+     * @return The header block
+     */
+    byte[] getBlock(final XnioIoThread ioThread) {
+        if (dateLength == 0) {
+            return block;
+        }
+        if (!used) {
+            used = true;
+        }
+        if (!timerRunning.get() && ioThread != null && timerRunning.compareAndSet(false, true)) {
+            block = createBlock();
+            scheduleRefresh(ioThread);
+        }
+        return block;
+    }
+
+    /**
+     * @return The length of the date header line at the start of the block, including the trailing CRLF
+     */
+    int getDateLength() {
+        return dateLength;
+    }
+
+    /**
+     * Returns the pre-encoded header line for the given connection header value, or null if the value
+     * is not one of the common values.
+     */
+    static byte[] getConnectionLine(final String value) {
+        if (KEEP_ALIVE.equals(value)) {
+            return CONNECTION_KEEP_ALIVE;
+        } else if (CLOSE.equals(value)) {
+            return CONNECTION_CLOSE;
+        }
+        return null;
+    }
+
+    @Override
+    public void run() {
+        if (!used) {
+            //nothing has been sent since the last refresh, stop the timer until it is needed again
+            timerRunning.set(false);
+            return;
+        }
+        used = false;
+        block = createBlock();
+        final XnioIoThread thread = Thread.currentThread() instanceof XnioIoThread ? (XnioIoThread) Thread.currentThread() : null;
+        if (thread == null) {
+            timerRunning.set(false);
+        } else {
+            scheduleRefresh(thread);
+        }
+    }
+
+    private void scheduleRefresh(final XnioIoThread ioThread) {
+        //run just after the start of the next second
+        final long delay = 1000 - System.currentTimeMillis() % 1000;
+        try {
+            ioThread.executeAfter(this, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            //the thread is shutting down
+            timerRunning.set(false);
+        }
+    }
+
+    private byte[] createBlock() {
+        final byte[] block = new byte[dateLength + serverLine.length];
+        final ByteBuffer buffer = ByteBuffer.wrap(block);
+        if (dateLength != 0) {
+            buffer.put(DATE_PREFIX);
+            DateUtils.formatDate(System.currentTimeMillis(), buffer);
+            buffer.put((byte) '\r');
+            buffer.put((byte) '\n');
+        }
+        buffer.put(serverLine);
+        return block;
+    }
+}
@@ -22,6 +22,7 @@ import java.nio.ByteBuffer;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
 import io.undertow.channels.ReadTimeoutStreamSourceChannel;
 import io.undertow.channels.WriteTimeoutStreamSinkChannel;
 import org.xnio.ChannelListener;
@@ -50,6 +51,10 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
 
     private volatile OptionMap undertowOptions;
 
+    private volatile CommonResponseHeaders commonResponseHeaders;
+
+    private volatile HttpParser parser = HttpParser.INSTANCE;
+
     public HttpOpenListener(final Pool<ByteBuffer> pool, final int bufferSize) {
         this(pool, OptionMap.EMPTY, bufferSize);
     }
@@ -58,6 +63,7 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
         this.undertowOptions = undertowOptions;
         this.bufferPool = pool;
         this.bufferSize = bufferSize;
+        this.commonResponseHeaders = createCommonResponseHeaders(undertowOptions);
     }
 
     public void handleEvent(final ConnectedStreamChannel channel) {
@@ -82,6 +88,8 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
         }
 
         HttpServerConnection connection = new HttpServerConnection(assembledChannel, bufferPool, rootHandler, undertowOptions, bufferSize);
+        connection.setCommonResponseHeaders(commonResponseHeaders);
+        connection.setParser(parser);
         HttpReadListener readListener = new HttpReadListener(writeChannel, readChannel, connection);
         readChannel.getReadSetter().set(readListener);
         readListener.handleEvent(readChannel);
@@ -108,5 +116,36 @@ public final class HttpOpenListener implements ChannelListener<ConnectedStreamCh
             throw UndertowMessages.MESSAGES.argumentCannotBeNull("undertowOptions");
         }
         this.undertowOptions = undertowOptions;
+        this.commonResponseHeaders = createCommonResponseHeaders(undertowOptions);
+    }
+
+    /**
+     * @return The parser that is used for new connections
+     */
+    public HttpParser getParser() {
+        return parser;
+    }
+
+    /**
+     * Sets the parser that is used for new connections. Existing connections continue to use the parser they
+     * were opened with.
+     *
+     * @param parser The parser
+     * @see HttpParser#create(java.util.Collection, java.util.Collection)
+     */
+    public void setParser(final HttpParser parser) {
+        if (parser == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("parser");
+        }
+        this.parser = parser;
+    }
+
+    private static CommonResponseHeaders createCommonResponseHeaders(final OptionMap undertowOptions) {
+        final boolean date = undertowOptions.get(UndertowOptions.ALWAYS_SET_DATE, true);
+        final String serverHeader = undertowOptions.get(UndertowOptions.SERVER_HEADER);
+        if (!date && serverHeader == null) {
+            return null;
+        }
+        return new CommonResponseHeaders(date, serverHeader);
     }
 }
@@ -20,9 +20,14 @@ package io.undertow.server;
 
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import io.undertow.UndertowMessages;
 import io.undertow.annotationprocessor.HttpParserConfig;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
@@ -84,6 +89,9 @@ import static io.undertow.util.Protocols.HTTP_1_1_STRING;
  * The actual processor is a state machine, that means that for common header, method, protocol values
  * it will return an interned string, rather than creating a new string for each one.
  * <p/>
+ * Applications that commonly see other headers can use {@link #create(Collection, Collection)} to generate a
+ * parser at runtime that also matches them, and that returns the same string for common header values.
+ * <p/>
  * TODO: we need to benchmark this and determine if it provides enough of a benefit to justify the additional complexity
  *
  * @author Stuart Douglas
@@ -151,6 +159,105 @@ public abstract class HttpParser {
         }
     }
 
+    /**
+     * Header values that are added to the exchange as the same string every time they are seen, indexed by
+     * {@link #valueHash(byte[], int, int)}. These are null unless the parser was created with known values.
+     */
+    private String[] knownValues;
+    private byte[][] knownValueBytes;
+    private int knownValueMask;
+
+    /**
+     * Creates a parser that matches the given header names as well as the standard ones, so they are interned
+     * rather than a new {@link HttpString} being created for every request. Header values that match one of the
+     * given values are added to the exchange as the given string. Values are matched after leading and trailing
+     * whitespace has been removed and other whitespace has been replaced by a single space.
+     * <p/>
+     * If there are additional headers a new parser class is generated, which is defined in its own class loader.
+     * This requires the parser generator (<code>io.undertow:undertow-parser-generator</code>) to be on the class
+     * path at runtime, as it is only a provided dependency of this module.
+     *
+     * @param headers      The additional header names
+     * @param headerValues The common header values
+     * @return The parser
+     */
+    public static HttpParser create(final Collection<String> headers, final Collection<String> headerValues) {
+        if (headers.isEmpty() && headerValues.isEmpty()) {
+            return INSTANCE;
+        }
+        final HttpParser parser;
+        try {
+            if (headers.isEmpty()) {
+                parser = INSTANCE.getClass().newInstance();
+            } else {
+                parser = HttpParserClassLoader.createParser(headers);
+            }
+        } catch (NoClassDefFoundError e) {
+            throw UndertowMessages.MESSAGES.parserGeneratorNotAvailable(e);
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        if (!headerValues.isEmpty()) {
+            parser.setKnownValues(headerValues);
+        }
+        return parser;
+    }
+
+    private void setKnownValues(final Collection<String> values) {
+        int size = 1;
+        while (size < values.size() * 2) {
+            size <<= 1;
+        }
+        final int mask = size - 1;
+        final String[] strings = new String[size];
+        final byte[][] bytes = new byte[size][];
+        for (final String value : values) {
+            if (value.isEmpty()) {
+                continue;
+            }
+            final byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            int i = valueHash(valueBytes, 0, valueBytes.length) & mask;
+            while (bytes[i] != null && !Arrays.equals(bytes[i], valueBytes)) {
+                i = (i + 1) & mask;
+            }
+            if (bytes[i] == null) {
+                bytes[i] = valueBytes;
+                strings[i] = value;
+            }
+        }
+        this.knownValueMask = mask;
+        this.knownValueBytes = bytes;
+        this.knownValues = strings;
+    }
+
+    private static int valueHash(final byte[] data, final int start, final int length) {
+        return (length * 31 + data[start]) * 31 + data[start + length - 1];
+    }
+
+    /**
+     * @return The known value that is equal to the given bytes, or null if there is none
+     */
+    private String knownValue(final byte[] data, final int start, final int length) {
+        final byte[][] bytes = knownValueBytes;
+        final int mask = knownValueMask;
+        int i = valueHash(data, start, length) & mask;
+        byte[] candidate;
+        while ((candidate = bytes[i]) != null) {
+            if (candidate.length == length) {
+                int j = 0;
+                while (j < length && candidate[j] == data[start + j]) {
+                    ++j;
+                }
+                if (j == length) {
+                    return knownValues[i];
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
 
     /**
      * This method is implemented by a generated subclass
@@ -199,11 +306,134 @@ public abstract class HttpParser {
     }
 
 
-    abstract int handleHttpVerb(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+    protected abstract int handleHttpVerb(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+
+    protected abstract int handleHttpVersion(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+
+    protected abstract int handleHeader(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+
+    /*
+     * Accessors for the parse state, used by parsers that are generated at runtime. These are defined in their
+     * own class loader, so unlike the parser generated at build time they cannot access the fields directly.
+     */
+
+    protected static int getParseState(final ParseState state) {
+        return state.parseState;
+    }
+
+    protected static void setParseState(final ParseState state, final int parseState) {
+        state.parseState = parseState;
+    }
+
+    protected static int getPos(final ParseState state) {
+        return state.pos;
+    }
+
+    protected static void setPos(final ParseState state, final int pos) {
+        state.pos = pos;
+    }
+
+    protected static HttpString getCurrent(final ParseState state) {
+        return state.current;
+    }
+
+    protected static void setCurrent(final ParseState state, final HttpString current) {
+        state.current = current;
+    }
+
+    protected static byte[] getCurrentBytes(final ParseState state) {
+        return state.currentBytes;
+    }
 
-    abstract int handleHttpVersion(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+    protected static void setCurrentBytes(final ParseState state, final byte[] currentBytes) {
+        state.currentBytes = currentBytes;
+    }
 
-    abstract int handleHeader(ByteBuffer buffer, int noBytes, final ParseState currentState, final HttpServerExchange builder);
+    protected static StringBuilder getStringBuilder(final ParseState state) {
+        return state.stringBuilder;
+    }
+
+    protected static void setStringBuilder(final ParseState state, final StringBuilder stringBuilder) {
+        state.stringBuilder = stringBuilder;
+    }
+
+    protected static byte getLeftOver(final ParseState state) {
+        return state.leftOver;
+    }
+
+    protected static void setLeftOver(final ParseState state, final byte leftOver) {
+        state.leftOver = leftOver;
+    }
+
+    protected static void setNextHeader(final ParseState state, final HttpString nextHeader) {
+        state.nextHeader = nextHeader;
+    }
+
+    protected static void setState(final ParseState state, final int value) {
+        state.state = value;
+    }
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long COLONS = 0x3A3A3A3A3A3A3A3AL;
+    private static final long QUESTION_MARKS = 0x3F3F3F3F3F3F3F3FL;
+
+    /**
+     * Finds the number of bytes, starting at the current position of the buffer, that can be copied without
+     * being looked at by the byte at a time state machines. The buffer is read 8 bytes at a time, and the scan
+     * stops at the first word that contains a control character or a space, or if requested a {@code :} or
+     * {@code ?}. Bytes that do not fill a whole word are not checked, and are left to the state machine.
+     * <p/>
+     * The checks are exact, the high bit of a byte in the mask is only set if that byte actually matched, so
+     * the position of the first set bit gives the number of bytes before the delimiter.
+     *
+     * @param buffer         The buffer, which is not modified
+     * @param remaining      The number of bytes that may be read
+     * @param pathDelimiters If {@code :} and {@code ?} should also stop the scan
+     * @return The number of bytes before the first delimiter
+     */
+    private static int scan(final ByteBuffer buffer, final int remaining, final boolean pathDelimiters) {
+        final int start = buffer.position();
+        int count = 0;
+        while (remaining - count >= 8) {
+            final long word = buffer.getLong(start + count);
+            //high bit set for bytes less than 0x21, i.e. control characters and space
+            long mask = ~(((word & LOW_BITS) + 0x5F5F5F5F5F5F5F5FL) | word) & HIGH_BITS;
+            if (pathDelimiters) {
+                mask |= matches(word, COLONS) | matches(word, QUESTION_MARKS);
+            }
+            if (mask != 0) {
+                if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+                    return count + (Long.numberOfLeadingZeros(mask) >>> 3);
+                } else {
+                    return count + (Long.numberOfTrailingZeros(mask) >>> 3);
+                }
+            }
+            count += 8;
+        }
+        return count;
+    }
+
+    /**
+     * @return A word with the high bit of each byte set if that byte of the word is equal to the same byte of the pattern
+     */
+    private static long matches(final long word, final long pattern) {
+        final long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+
+    /**
+     * Copies the given number of bytes from the buffer into the request bytes of the state
+     *
+     * @return The request bytes, which may have been replaced by a larger array
+     */
+    private static byte[] copy(final ByteBuffer buffer, final int count, final ParseState state, byte[] data, final int length) {
+        while (data == null || length + count > data.length) {
+            data = state.growRequestBytes();
+        }
+        buffer.get(data, length, count);
+        return data;
+    }
 
     /**
      * The parse states for parsing the path.
@@ -213,11 +443,14 @@ public abstract class HttpParser {
     private static final int FIRST_SLASH = 2;
     private static final int SECOND_SLASH = 3;
     private static final int HOST_DONE = 4;
-    private static final int QUERY_PARAM_NAME = 5;
-    private static final int QUERY_PARAM_VALUE = 6;
+    private static final int QUERY_STRING = 5;
 
     /**
      * Parses a path value. This is called from the generated  bytecode.
+     * <p/>
+     * The path is copied into {@link ParseState#requestBytes}. The path itself is always needed to route the
+     * request so it is turned into a string straight away, the query string is left as bytes in the exchange
+     * and is only decoded and split into parameters if it is used.
      *
      * @param buffer    The buffer
      * @param remaining The number of bytes remaining
@@ -227,43 +460,44 @@ public abstract class HttpParser {
      */
     @SuppressWarnings("unused")
     final int handlePath(ByteBuffer buffer, int remaining, ParseState state, HttpServerExchange exchange) {
-        StringBuilder stringBuilder = state.stringBuilder;
+        byte[] data = state.requestBytes;
+        int length = state.requestBytesLength;
+        int start = state.valueStart;
+        if (start == -1) {
+            state.valueStart = start = length;
+        }
         int parseState = state.parseState;
         int canonicalPathStart = state.pos;
-        int queryParamPos = state.queryParamPos;
         int requestEnd = state.requestEnd;
-        String nextQueryParam = state.nextQueryParam;
-        if (stringBuilder == null) {
-            state.stringBuilder = stringBuilder = new StringBuilder();
-        }
         while (remaining > 0) {
-            final char next = (char) buffer.get();
+            if (remaining >= 8 && (parseState == START || parseState >= HOST_DONE)) {
+                //no state changes happen in these states until we see a delimiter, so copy everything up to it
+                final int run = scan(buffer, remaining, parseState != QUERY_STRING);
+                if (run != 0) {
+                    data = copy(buffer, run, state, data, length);
+                    length += run;
+                    remaining -= run;
+                    if (remaining == 0) {
+                        break;
+                    }
+                }
+            }
+            final byte next = buffer.get();
             --remaining;
             if (next == ' ' || next == '\t') {
-                if (stringBuilder.length() != 0) {
-                    final String path = stringBuilder.toString();
-                    if (parseState < QUERY_PARAM_NAME) {
-                        exchange.setRequestURI(path);
-                        if (parseState < HOST_DONE) {
-                            exchange.setParsedRequestPath(path);
-                        } else {
-                            exchange.setParsedRequestPath(path.substring(canonicalPathStart));
-                        }
+                if (length != start) {
+                    if (parseState < QUERY_STRING) {
+                        setRequestPath(exchange, data, start, length, parseState, canonicalPathStart);
                         exchange.setQueryString("");
                     } else {
-                        exchange.setQueryString(path.substring(requestEnd));
-                    }
-                    if (parseState == QUERY_PARAM_NAME) {
-                        exchange.addQueryParam(stringBuilder.substring(queryParamPos), "");
-                    } else if (parseState == QUERY_PARAM_VALUE) {
-                        exchange.addQueryParam(nextQueryParam, stringBuilder.substring(queryParamPos));
+                        exchange.setRawQueryString(data, requestEnd, length - requestEnd);
                     }
                     state.state = ParseState.VERSION;
-                    state.stringBuilder = null;
+                    state.requestBytesLength = length;
+                    state.valueStart = -1;
                     state.parseState = 0;
                     state.pos = 0;
                     state.nextHeader = null;
-                    state.queryParamPos = 0;
                     state.requestEnd = 0;
                     return remaining;
                 }
@@ -276,48 +510,38 @@ public abstract class HttpParser {
                     parseState = SECOND_SLASH;
                 } else if (next == '/' && parseState == SECOND_SLASH) {
                     parseState = HOST_DONE;
-                    canonicalPathStart = stringBuilder.length();
+                    canonicalPathStart = length;
                 } else if (parseState == FIRST_COLON || parseState == FIRST_SLASH) {
                     parseState = START;
                 } else if (next == '?' && (parseState == START || parseState == HOST_DONE)) {
-                    final String path = stringBuilder.toString();
-                    exchange.setRequestURI(path);
-                    if (parseState < HOST_DONE) {
-                        exchange.setParsedRequestPath(path);
-                    } else {
-                        exchange.setParsedRequestPath(path.substring(canonicalPathStart));
-                    }
-                    parseState = QUERY_PARAM_NAME;
-                    queryParamPos = stringBuilder.length() + 1;
-                    requestEnd = queryParamPos;
-                } else if (next == '=' && parseState == QUERY_PARAM_NAME) {
-                    parseState = QUERY_PARAM_VALUE;
-                    nextQueryParam = stringBuilder.substring(queryParamPos);
-                    queryParamPos = stringBuilder.length() + 1;
-                } else if (next == '&' && parseState == QUERY_PARAM_NAME) {
-                    parseState = QUERY_PARAM_NAME;
-                    exchange.addQueryParam(stringBuilder.substring(queryParamPos), "");
-                    nextQueryParam = null;
-                    queryParamPos = stringBuilder.length() + 1;
-                } else if (next == '&' && parseState == QUERY_PARAM_VALUE) {
-                    parseState = QUERY_PARAM_NAME;
-                    exchange.addQueryParam(nextQueryParam, stringBuilder.substring(queryParamPos));
-                    nextQueryParam = null;
-                    queryParamPos = stringBuilder.length() + 1;
+                    setRequestPath(exchange, data, start, length, parseState, canonicalPathStart);
+                    parseState = QUERY_STRING;
+                    requestEnd = length + 1;
+                }
+                if (data == null || length == data.length) {
+                    data = state.growRequestBytes();
                 }
-                stringBuilder.append(next);
+                data[length++] = next;
             }
 
         }
-        state.stringBuilder = stringBuilder;
+        state.requestBytesLength = length;
         state.parseState = parseState;
         state.pos = canonicalPathStart;
-        state.nextQueryParam = nextQueryParam;
-        state.queryParamPos = queryParamPos;
         state.requestEnd = requestEnd;
         return remaining;
     }
 
+    private static void setRequestPath(final HttpServerExchange exchange, final byte[] data, final int start, final int end, final int parseState, final int canonicalPathStart) {
+        final String path = end == start ? "" : new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+        exchange.setRequestURI(path);
+        if (parseState < HOST_DONE) {
+            exchange.setParsedRequestPath(path);
+        } else {
+            exchange.setParsedRequestPath(path.substring(canonicalPathStart - start));
+        }
+    }
+
     /**
      * The parse states for parsing heading values
      */
@@ -329,6 +553,11 @@ public abstract class HttpParser {
 
     /**
      * Parses a header value. This is called from the generated  bytecode.
+     * <p/>
+     * The value is copied into {@link ParseState#requestBytes}, with leading and trailing whitespace removed and
+     * any other run of whitespace (including line continuations) replaced by a single space. It is added to the
+     * exchange as a range of the array, and is only turned into a string if it is read, unless it is one of the
+     * known values the parser was created with.
      *
      * @param buffer    The buffer
      * @param remaining The number of bytes remaining
@@ -338,15 +567,28 @@ public abstract class HttpParser {
      */
     @SuppressWarnings("unused")
     final int handleHeaderValue(ByteBuffer buffer, int remaining, ParseState state, HttpServerExchange builder) {
-        StringBuilder stringBuilder = state.stringBuilder;
-        if (stringBuilder == null) {
-            stringBuilder = new StringBuilder();
+        byte[] data = state.requestBytes;
+        int length = state.requestBytesLength;
+        int start = state.valueStart;
+        if (start == -1) {
+            state.valueStart = start = length;
             state.parseState = 0;
         }
 
-
         int parseState = state.parseState;
         while (remaining > 0) {
+            if (parseState == NORMAL && remaining >= 8) {
+                //copy everything up to the next whitespace or line end
+                final int run = scan(buffer, remaining, false);
+                if (run != 0) {
+                    data = copy(buffer, run, state, data, length);
+                    length += run;
+                    remaining -= run;
+                    if (remaining == 0) {
+                        break;
+                    }
+                }
+            }
             final byte next = buffer.get();
             --remaining;
             switch (parseState) {
@@ -358,7 +600,10 @@ public abstract class HttpParser {
                     } else if (next == ' ' || next == '\t') {
                         parseState = WHITESPACE;
                     } else {
-                        stringBuilder.append((char) next);
+                        if (data == null || length == data.length) {
+                            data = state.growRequestBytes();
+                        }
+                        data[length++] = next;
                     }
                     break;
                 }
@@ -369,10 +614,13 @@ public abstract class HttpParser {
                         parseState = LINE_END;
                     } else if (next == ' ' || next == '\t') {
                     } else {
-                        if (stringBuilder.length() > 0) {
-                            stringBuilder.append(' ');
+                        if (data == null || length + 1 >= data.length) {
+                            data = state.growRequestBytes();
+                        }
+                        if (length != start) {
+                            data[length++] = ' ';
                         }
-                        stringBuilder.append((char) next);
+                        data[length++] = next;
                         parseState = NORMAL;
                     }
                     break;
@@ -388,18 +636,27 @@ public abstract class HttpParser {
                     } else {
                         //we have a header
                         HttpString nextStandardHeader = state.nextHeader;
-                        String headerValue = stringBuilder.toString();
 
                         //TODO: we need to decode this according to RFC-2047 if we have seen a =? symbol
-                        builder.getRequestHeaders().add(nextStandardHeader, headerValue);
+                        if (length == start) {
+                            builder.getRequestHeaders().add(nextStandardHeader, "");
+                        } else {
+                            final String knownValue = knownValues == null ? null : knownValue(data, start, length - start);
+                            if (knownValue != null) {
+                                builder.getRequestHeaders().add(nextStandardHeader, knownValue);
+                            } else {
+                                builder.getRequestHeaders().addRaw(nextStandardHeader, data, start, length - start);
+                            }
+                        }
 
                         state.nextHeader = null;
 
                         state.leftOver = next;
-                        state.stringBuilder = null;
+                        state.requestBytesLength = length;
                         if (next == '\r') {
                             parseState = AWAIT_DATA_END;
                         } else {
+                            state.valueStart = -1;
                             state.state = ParseState.HEADER;
                             state.parseState = 0;
                             return remaining;
@@ -408,6 +665,7 @@ public abstract class HttpParser {
                     break;
                 }
                 case AWAIT_DATA_END: {
+                    state.valueStart = -1;
                     state.state = ParseState.PARSE_COMPLETE;
                     return remaining;
                 }
@@ -415,7 +673,7 @@ public abstract class HttpParser {
         }
         //we only write to the state if we did not finish parsing
         state.parseState = parseState;
-        state.stringBuilder = stringBuilder;
+        state.requestBytesLength = length;
         return remaining;
     }
 
@@ -454,9 +712,9 @@ public abstract class HttpParser {
      * in the static fields of the relevant classes. This means that in most cases a HttpString comparison
      * will take the fast path == route, as they will be the same object
      *
-     * @return
+     * @return The interned header, method and protocol strings, keyed by their string value
      */
-    protected static Map<String, HttpString> httpStrings() {
+    public static Map<String, HttpString> httpStrings() {
         final Map<String, HttpString> results = new HashMap<String, HttpString>();
         final Class[] classs = {Headers.class, Methods.class, Protocols.class};
 
@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import io.undertow.annotationprocessor.HttpParserConfig;
+import io.undertow.annotationprocessor.ParserGenerator;
+
+/**
+ * The class loader that parsers generated at runtime are defined in. Each parser gets its own loader, so
+ * parsers with different headers can be generated with the same class name, and the class can be unloaded
+ * once the parser is no longer in use.
+ * <p/>
+ * The parser is generated from the {@link HttpParserConfig} of {@link HttpParser}, with the additional headers
+ * added to the standard ones. As the generated class is not in the same runtime package as {@link ParseState} it
+ * uses the protected static accessors of {@link HttpParser} to read and write the parse state.
+ */
+final class HttpParserClassLoader extends ClassLoader {
+
+    private static final String CLASS_NAME = HttpParser.class.getName() + "$$runtime";
+
+    private HttpParserClassLoader() {
+        super(HttpParser.class.getClassLoader());
+    }
+
+    static HttpParser createParser(final Collection<String> additionalHeaders) throws InstantiationException, IllegalAccessException {
+        final HttpParserConfig config = HttpParser.class.getAnnotation(HttpParserConfig.class);
+        final Set<String> headers = new LinkedHashSet<String>(Arrays.asList(config.headers()));
+        headers.addAll(additionalHeaders);
+        final byte[] bytes = ParserGenerator.createTokenizer(HttpParser.class.getName(), CLASS_NAME, config.methods(), config.protocols(), headers.toArray(new String[headers.size()]));
+        final Class<?> parserClass = new HttpParserClassLoader().defineClass(CLASS_NAME, bytes, 0, bytes.length);
+        return (HttpParser) parserClass.newInstance();
+    }
+}
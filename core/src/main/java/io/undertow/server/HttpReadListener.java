@@ -46,19 +46,56 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
     private HttpServerExchange httpServerExchange;
 
     private final HttpServerConnection connection;
+    private final HttpParser parser;
 
     private int read = 0;
     private final int maxRequestSize;
 
+    /**
+     * If this is not null then this listener and its parse state are reused for every request on the connection,
+     * and the header maps, lists and attachment slots of each exchange are handed on to the next one.
+     *
+     * @see UndertowOptions#RECYCLE_EXCHANGES
+     */
+    private final StartNextRequestAction recycleAction;
+
+    /**
+     * Set once the current exchange has completed. The exchange is not reset straight away, as the code that
+     * completed it may still be running, instead it is reset when we start reading the next request.
+     */
+    private boolean recyclePending;
+
     HttpReadListener(final StreamSinkChannel responseChannel, final StreamSourceChannel requestChannel, final HttpServerConnection connection) {
         this.responseChannel = responseChannel;
         this.connection = connection;
+        this.parser = connection.getParser();
         maxRequestSize = connection.getUndertowOptions().get(UndertowOptions.MAX_HEADER_SIZE, UndertowOptions.DEFAULT_MAX_HEADER_SIZE);
-        httpServerExchange = new HttpServerExchange(connection, requestChannel, this.responseChannel);
-        httpServerExchange.addExchangeCompleteListener(new StartNextRequestAction(requestChannel, responseChannel));
+        final boolean recycle = connection.getUndertowOptions().get(UndertowOptions.RECYCLE_EXCHANGES, false);
+        httpServerExchange = new HttpServerExchange(connection, requestChannel, this.responseChannel, recycle);
+        if (recycle) {
+            recycleAction = new StartNextRequestAction(requestChannel, responseChannel, this);
+            httpServerExchange.addExchangeCompleteListener(recycleAction);
+        } else {
+            recycleAction = null;
+            httpServerExchange.addExchangeCompleteListener(new StartNextRequestAction(requestChannel, responseChannel, null));
+        }
+    }
+
+    /**
+     * Resets the parse state, and replaces the exchange with one that reuses its state, for the next request
+     */
+    private void recycle() {
+        recyclePending = false;
+        read = 0;
+        state.reset();
+        httpServerExchange = httpServerExchange.recycle();
+        httpServerExchange.addExchangeCompleteListener(recycleAction);
     }
 
     public void handleEvent(final StreamSourceChannel channel) {
+        if (recyclePending) {
+            recycle();
+        }
 
         Pooled<ByteBuffer> existing = connection.getExtraBytes();
 
@@ -118,7 +155,7 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
                 } else {
                     buffer.flip();
                 }
-                int remaining = HttpParser.INSTANCE.handle(buffer, res, state, httpServerExchange);
+                int remaining = parser.handle(buffer, res, state, httpServerExchange);
                 if (remaining > 0) {
                     free = false;
                     connection.setExtraBytes(pooled);
@@ -138,12 +175,15 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
             channel.suspendReads();
 
             final HttpServerExchange httpServerExchange = this.httpServerExchange;
+            httpServerExchange.setRequestStartTime(System.nanoTime());
             httpServerExchange.putAttachment(UndertowOptions.ATTACHMENT_KEY, connection.getUndertowOptions());
             try {
                 httpServerExchange.setRequestScheme(connection.getSslSession() != null ? "https" : "http"); //todo: determine if this is https
-                state = null;
-                this.httpServerExchange = null;
-                this.httpServerExchange = null;HttpTransferEncoding.handleRequest(httpServerExchange, connection.getRootHandler());
+                if (recycleAction == null) {
+                    state = null;
+                    this.httpServerExchange = null;
+                }
+                HttpTransferEncoding.handleRequest(httpServerExchange, connection.getRootHandler());
 
             } catch (Throwable t) {
                 //TODO: we should attempt to return a 500 status code in this situation
@@ -167,18 +207,28 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
 
         private StreamSourceChannel requestChannel;
         private StreamSinkChannel responseChannel;
+        /**
+         * The listener to reuse for the next request, or null if a new listener should be created
+         */
+        private final HttpReadListener recycledListener;
 
-
-        public StartNextRequestAction(final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel) {
+        public StartNextRequestAction(final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel, final HttpReadListener recycledListener) {
             this.requestChannel = requestChannel;
             this.responseChannel = responseChannel;
+            this.recycledListener = recycledListener;
         }
 
         @Override
         public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
             if (exchange.isPersistent() && !exchange.isUpgrade()) {
                 final StreamSourceChannel channel = this.requestChannel;
-                final HttpReadListener listener = new HttpReadListener(responseChannel, channel, exchange.getConnection());
+                final HttpReadListener listener;
+                if (recycledListener == null) {
+                    listener = new HttpReadListener(responseChannel, channel, exchange.getConnection());
+                } else {
+                    listener = recycledListener;
+                    listener.recyclePending = true;
+                }
                 if(exchange.getConnection().getExtraBytes() == null) {
                     //if we are not pipelining we just register a listener
                     channel.getReadSetter().set(listener);
@@ -189,8 +239,10 @@ final class HttpReadListener implements ChannelListener<StreamSourceChannel> {
                     }
                     WorkerDispatcher.dispatchNextRequest(channel, new DoNextRequestRead(listener, channel));
                 }
-                responseChannel = null;
-                this.requestChannel = null;
+                if (recycledListener == null) {
+                    responseChannel = null;
+                    this.requestChannel = null;
+                }
             }
             nextListener.proceed();
         }
@@ -22,10 +22,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
-import java.util.Iterator;
 
 import io.undertow.util.ConduitFactory;
 import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.StatusCodes;
 import org.jboss.logging.Logger;
@@ -50,10 +50,10 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
 
     private int state = STATE_START;
 
-    private Iterator<HttpString> nameIterator;
     private String string;
     private HttpString headerName;
-    private Iterator<String> valueIterator;
+    private int headerIndex;
+    private int valueIndex;
     private int charIndex;
     private Pooled<ByteBuffer> pooledBuffer;
     private final HttpServerExchange exchange;
@@ -104,8 +104,9 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
             pooledBuffer = pool.allocate();
         }
         ByteBuffer buffer = pooledBuffer.getResource();
-        Iterator<HttpString> nameIterator = this.nameIterator;
-        Iterator<String> valueIterator = this.valueIterator;
+        final HeaderMap headers = exchange.getResponseHeaders();
+        int headerIndex = this.headerIndex;
+        int valueIndex = this.valueIndex;
         int charIndex = this.charIndex;
         int length;
         String string = this.string;
@@ -131,6 +132,8 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                 }
                 case STATE_START: {
                     log.trace("Starting response");
+                    // the headers are about to hit the wire, no further changes can be made
+                    headers.lock();
                     // we assume that our buffer has enough space for the initial response line plus one more CR+LF
                     assert buffer.remaining() >= 0x100;
                     exchange.getProtocol().appendTo(buffer);
@@ -147,9 +150,9 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                         buffer.put((byte) string.charAt(charIndex));
                     }
                     buffer.put((byte) '\r').put((byte) '\n');
-                    HeaderMap headers = exchange.getResponseHeaders();
-                    nameIterator = headers.iterator();
-                    if (! nameIterator.hasNext()) {
+                    writeCommonHeaders(buffer, headers);
+                    headerIndex = headers.fiFirst();
+                    if (headerIndex == -1) {
                         log.trace("No response headers");
                         buffer.put((byte) '\r').put((byte) '\n');
                         buffer.flip();
@@ -165,11 +168,27 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                         log.trace("Body");
                         return STATE_BODY;
                     }
-                    headerName = nameIterator.next();
+                    headerName = headers.fiName(headerIndex);
+                    valueIndex = 0;
                     charIndex = 0;
                     // fall thru
                 }
                 case STATE_HDR_NAME: {
+                    if (charIndex == 0 && valueIndex == 0 && headerName.equals(Headers.CONNECTION) && headers.fiValueCount(headerIndex) == 1) {
+                        // common connection header values are written pre-encoded
+                        final byte[] line = CommonResponseHeaders.getConnectionLine(headers.fiValue(headerIndex, 0));
+                        if (line != null && buffer.remaining() >= line.length) {
+                            buffer.put(line);
+                            headerIndex = headers.fiNext(headerIndex);
+                            if (headerIndex == -1) {
+                                state = STATE_HDR_FINAL_CR;
+                            } else {
+                                headerName = headers.fiName(headerIndex);
+                                state = STATE_HDR_NAME;
+                            }
+                            break;
+                        }
+                    }
                     log.tracef("Processing header '%s'", headerName);
                     length = headerName.length();
                     while (charIndex < length) {
@@ -181,11 +200,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                             do {
                                 res = next.write(buffer);
                                 if (res == 0) {
-                                    this.string = string;
-                                    this.headerName = headerName;
-                                    this.charIndex = charIndex;
-                                    this.valueIterator = valueIterator;
-                                    this.nameIterator = nameIterator;
+                                    saveState(string, headerName, charIndex, headerIndex, valueIndex);
                                     log.trace("Continuation");
                                     return STATE_HDR_NAME;
                                 }
@@ -197,47 +212,23 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                 }
                 case STATE_HDR_D: {
                     if (! buffer.hasRemaining()) {
-                        buffer.flip();
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                log.trace("Continuation");
-                                this.string = string;
-                                this.headerName = headerName;
-                                this.charIndex = charIndex;
-                                this.valueIterator = valueIterator;
-                                this.nameIterator = nameIterator;
-                                return STATE_HDR_D;
-                            }
-                        } while (buffer.hasRemaining());
-                        buffer.clear();
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(string, headerName, charIndex, headerIndex, valueIndex);
+                            return STATE_HDR_D;
+                        }
                     }
                     buffer.put((byte) ':');
                     // fall thru
                 }
                 case STATE_HDR_DS: {
                     if (! buffer.hasRemaining()) {
-                        buffer.flip();
-                        do {
-                            res = next.write(buffer);
-                            if (res == 0) {
-                                log.trace("Continuation");
-                                this.string = string;
-                                this.headerName = headerName;
-                                this.charIndex = charIndex;
-                                this.valueIterator = valueIterator;
-                                this.nameIterator = nameIterator;
-                                return STATE_HDR_DS;
-                            }
-                        } while (buffer.hasRemaining());
-                        buffer.clear();
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(string, headerName, charIndex, headerIndex, valueIndex);
+                            return STATE_HDR_DS;
+                        }
                     }
                     buffer.put((byte) ' ');
-                    if(valueIterator == null) {
-                        valueIterator = exchange.getResponseHeaders().get(headerName).iterator();
-                    }
-                    assert valueIterator.hasNext();
-                    string = valueIterator.next();
+                    string = headers.fiValue(headerIndex, valueIndex++);
                     charIndex = 0;
                     // fall thru
                 }
@@ -252,11 +243,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                             do {
                                 res = next.write(buffer);
                                 if (res == 0) {
-                                    this.string = string;
-                                    this.headerName = headerName;
-                                    this.charIndex = charIndex;
-                                    this.valueIterator = valueIterator;
-                                    this.nameIterator = nameIterator;
+                                    saveState(string, headerName, charIndex, headerIndex, valueIndex);
                                     log.trace("Continuation");
                                     return STATE_HDR_VAL;
                                 }
@@ -265,79 +252,36 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                         }
                     }
                     charIndex = 0;
-                    if (! valueIterator.hasNext()) {
-                        if (! buffer.hasRemaining()) {
-                            if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_CR;
-                        }
-                        buffer.put((byte) 13); // CR
-                        if (! buffer.hasRemaining()) {
-                            if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_LF;
-                        }
-                        buffer.put((byte) 10); // LF
-                        if (nameIterator.hasNext()) {
-                            headerName = nameIterator.next();
-                            valueIterator = null;
-                            state = STATE_HDR_NAME;
-                            break;
-                        } else {
-                            if (! buffer.hasRemaining()) {
-                                if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_CR;
-                            }
-                            buffer.put((byte) 13); // CR
-                            if (! buffer.hasRemaining()) {
-                                if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_LF;
-                            }
-                            buffer.put((byte) 10); // LF
-                            this.nameIterator = null;
-                            this.valueIterator = null;
-                            this.string = null;
-                            buffer.flip();
-                            //for performance reasons we use a gather write if there is user data
-                            if(userData == null) {
-                                do {
-                                    res = next.write(buffer);
-                                    if (res == 0) {
-                                        log.trace("Continuation");
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            } else {
-                                ByteBuffer[] b = {buffer, userData};
-                                do {
-                                    long r = next.write(b, 0, b.length);
-                                    if (r == 0 && buffer.hasRemaining()) {
-                                        log.trace("Continuation");
-                                        return STATE_BUF_FLUSH;
-                                    }
-                                } while (buffer.hasRemaining());
-                            }
-                            pooledBuffer.free();
-                            pooledBuffer = null;
-                            log.trace("Body");
-                            return STATE_BODY;
-                        }
-                        // not reached
-                    }
                     // fall thru
                 }
                 // Clean-up states
                 case STATE_HDR_EOL_CR: {
                     if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_CR;
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(string, headerName, charIndex, headerIndex, valueIndex);
+                            return STATE_HDR_EOL_CR;
+                        }
                     }
                     buffer.put((byte) 13); // CR
+                    // fall thru
                 }
                 case STATE_HDR_EOL_LF: {
                     if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_EOL_LF;
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(string, headerName, charIndex, headerIndex, valueIndex);
+                            return STATE_HDR_EOL_LF;
+                        }
                     }
                     buffer.put((byte) 10); // LF
-                    if(valueIterator.hasNext()) {
+                    if (valueIndex < headers.fiValueCount(headerIndex)) {
+                        // another value for the same header, write it out as a separate header line
                         state = STATE_HDR_NAME;
                         break;
-                    } else if (nameIterator.hasNext()) {
-                        headerName = nameIterator.next();
-                        valueIterator = null;
+                    }
+                    headerIndex = headers.fiNext(headerIndex);
+                    if (headerIndex != -1) {
+                        headerName = headers.fiName(headerIndex);
+                        valueIndex = 0;
                         state = STATE_HDR_NAME;
                         break;
                     }
@@ -345,19 +289,23 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                 }
                 case STATE_HDR_FINAL_CR: {
                     if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_CR;
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(null, null, 0, -1, 0);
+                            return STATE_HDR_FINAL_CR;
+                        }
                     }
                     buffer.put((byte) 13); // CR
                     // fall thru
                 }
                 case STATE_HDR_FINAL_LF: {
                     if (! buffer.hasRemaining()) {
-                        if (flushHeaderBuffer(buffer)) return STATE_HDR_FINAL_LF;
+                        if (flushHeaderBuffer(buffer)) {
+                            saveState(null, null, 0, -1, 0);
+                            return STATE_HDR_FINAL_LF;
+                        }
                     }
                     buffer.put((byte) 10); // LF
-                    this.nameIterator = null;
-                    this.valueIterator = null;
-                    this.string = null;
+                    saveState(null, null, 0, -1, 0);
                     buffer.flip();
                     //for performance reasons we use a gather write if there is user data
                     if(userData == null) {
@@ -372,7 +320,7 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
                         ByteBuffer[] b = {buffer, userData};
                         do {
                             long r = next.write(b, 0, b.length);
-                            if (r == 0) {
+                            if (r == 0 && buffer.hasRemaining()) {
                                 log.trace("Continuation");
                                 return STATE_BUF_FLUSH;
                             }
@@ -393,6 +341,39 @@ final class HttpResponseConduit extends AbstractStreamSinkConduit<StreamSinkCond
         }
     }
 
+    /**
+     * Writes the pre-encoded server wide headers, unless they have been explicitly set on the response.
+     */
+    private void writeCommonHeaders(final ByteBuffer buffer, final HeaderMap headers) {
+        final CommonResponseHeaders common = exchange.getConnection().getCommonResponseHeaders();
+        if (common == null) {
+            return;
+        }
+        final byte[] block = common.getBlock(next.getWriteThread());
+        // leave room for the final CRLF
+        if (block.length + 2 > buffer.remaining()) {
+            return;
+        }
+        final int dateLength = common.getDateLength();
+        final boolean date = dateLength != 0 && !headers.contains(Headers.DATE);
+        final boolean server = block.length != dateLength && !headers.contains(Headers.SERVER);
+        if (date && server) {
+            buffer.put(block);
+        } else if (date) {
+            buffer.put(block, 0, dateLength);
+        } else if (server) {
+            buffer.put(block, dateLength, block.length - dateLength);
+        }
+    }
+
+    private void saveState(final String string, final HttpString headerName, final int charIndex, final int headerIndex, final int valueIndex) {
+        this.string = string;
+        this.headerName = headerName;
+        this.charIndex = charIndex;
+        this.headerIndex = headerIndex;
+        this.valueIndex = valueIndex;
+    }
+
     private boolean flushHeaderBuffer(ByteBuffer buffer) throws IOException {
         int res;
         buffer.flip();
@@ -55,6 +55,10 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
      */
     private Pooled<ByteBuffer> extraBytes;
 
+    private CommonResponseHeaders commonResponseHeaders;
+
+    private HttpParser parser = HttpParser.INSTANCE;
+
     public HttpServerConnection(ConnectedStreamChannel channel, final Pool<ByteBuffer> bufferPool, final HttpHandler rootHandler, final OptionMap undertowOptions, final int bufferSize) {
         this.channel = channel;
         this.bufferPool = bufferPool;
@@ -95,6 +99,28 @@ public final class HttpServerConnection extends AbstractAttachable implements Co
         return closeSetter;
     }
 
+    /**
+     * @return the pre-encoded headers that are added to every response, or null if there are none
+     */
+    CommonResponseHeaders getCommonResponseHeaders() {
+        return commonResponseHeaders;
+    }
+
+    void setCommonResponseHeaders(final CommonResponseHeaders commonResponseHeaders) {
+        this.commonResponseHeaders = commonResponseHeaders;
+    }
+
+    /**
+     * @return the parser that is used to parse requests on this connection
+     */
+    HttpParser getParser() {
+        return parser;
+    }
+
+    void setParser(final HttpParser parser) {
+        this.parser = parser;
+    }
+
     public XnioWorker getWorker() {
         return channel.getWorker();
     }
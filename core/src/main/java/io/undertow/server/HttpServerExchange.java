@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -73,11 +74,11 @@ public final class HttpServerExchange extends AbstractAttachable {
     private static final Logger log = Logger.getLogger(HttpServerExchange.class);
 
     private final HttpServerConnection connection;
-    private final HeaderMap requestHeaders = new HeaderMap();
-    private final HeaderMap responseHeaders = new HeaderMap();
+    private final HeaderMap requestHeaders;
+    private final HeaderMap responseHeaders;
 
-    private List<ExchangeCompletionListener> exchangeCompleteListeners = new ArrayList<>(2);
-    private Deque<DefaultResponseListener> defaultResponseListeners = new ArrayDeque<DefaultResponseListener>(1);
+    private final List<ExchangeCompletionListener> exchangeCompleteListeners;
+    private final Deque<DefaultResponseListener> defaultResponseListeners;
 
     private Map<String, Deque<String>> queryParameters;
 
@@ -126,8 +127,46 @@ public final class HttpServerExchange extends AbstractAttachable {
      */
     private String queryString;
 
-    private List<ConduitWrapper<StreamSourceConduit>> requestWrappers = new ArrayList<ConduitWrapper<StreamSourceConduit>>(3);
-    private List<ConduitWrapper<StreamSinkConduit>> responseWrappers = new ArrayList<ConduitWrapper<StreamSinkConduit>>(3);
+    /**
+     * If this is not null then the query string has been read by the parser, but not yet turned into a string.
+     * The query string occupies {@code rawQueryLength} bytes of this array, starting at {@code rawQueryStart}.
+     */
+    private byte[] rawQueryString;
+    private int rawQueryStart;
+    private int rawQueryLength;
+
+    /**
+     * True if the query parameters still need to be parsed from the query string that was set by the parser
+     */
+    private boolean queryParametersPending;
+
+    /**
+     * The value of {@link System#nanoTime()} when the request headers were fully parsed, or -1 if unknown
+     */
+    private long requestStartTime = -1;
+
+    /**
+     * The wrapper lists are kept so they can be handed on if the exchange is recycled, the fields below are
+     * set to null once the corresponding channel has been provided.
+     */
+    private final List<ConduitWrapper<StreamSourceConduit>> requestWrapperList;
+    private final List<ConduitWrapper<StreamSinkConduit>> responseWrapperList;
+
+    private List<ConduitWrapper<StreamSourceConduit>> requestWrappers;
+    private List<ConduitWrapper<StreamSinkConduit>> responseWrappers;
+
+    /**
+     * If the connector recycles the state of this exchange for the next request on the connection.
+     *
+     * @see io.undertow.UndertowOptions#RECYCLE_EXCHANGES
+     */
+    private final boolean recyclable;
+
+    /**
+     * Set once the header maps, listener lists and attachments of this exchange have been handed on to the
+     * exchange for the next request. After this any attempt to reach that state through this exchange fails.
+     */
+    private boolean recycled;
 
     private static final int MASK_RESPONSE_CODE = intBitMask(0, 9);
     private static final int FLAG_RESPONSE_SENT = 1 << 10;
@@ -136,6 +175,10 @@ public final class HttpServerExchange extends AbstractAttachable {
     private static final int FLAG_PERSISTENT = 1 << 14;
 
     public HttpServerExchange(final HttpServerConnection connection, final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel) {
+        this(connection, requestChannel, responseChannel, false);
+    }
+
+    HttpServerExchange(final HttpServerConnection connection, final StreamSourceChannel requestChannel, final StreamSinkChannel responseChannel, final boolean recyclable) {
         this.connection = connection;
         this.underlyingRequestChannel = requestChannel;
         if(connection == null) {
@@ -144,6 +187,34 @@ public final class HttpServerExchange extends AbstractAttachable {
         } else {
             this.underlyingResponseChannel = responseChannel;
         }
+        this.recyclable = recyclable;
+        this.requestHeaders = new HeaderMap();
+        this.responseHeaders = new HeaderMap();
+        this.exchangeCompleteListeners = new ArrayList<>(2);
+        this.defaultResponseListeners = new ArrayDeque<DefaultResponseListener>(1);
+        this.requestWrapperList = new ArrayList<ConduitWrapper<StreamSourceConduit>>(3);
+        this.responseWrapperList = new ArrayList<ConduitWrapper<StreamSinkConduit>>(3);
+        this.requestWrappers = requestWrapperList;
+        this.responseWrappers = responseWrapperList;
+    }
+
+    /**
+     * Creates the exchange for the next request on a connection, taking over the already reset state of
+     * the previous exchange.
+     */
+    private HttpServerExchange(final HttpServerExchange previous) {
+        this.connection = previous.connection;
+        this.underlyingRequestChannel = previous.underlyingRequestChannel;
+        this.underlyingResponseChannel = previous.underlyingResponseChannel;
+        this.recyclable = true;
+        this.requestHeaders = previous.requestHeaders;
+        this.responseHeaders = previous.responseHeaders;
+        this.exchangeCompleteListeners = previous.exchangeCompleteListeners;
+        this.defaultResponseListeners = previous.defaultResponseListeners;
+        this.requestWrapperList = previous.requestWrapperList;
+        this.responseWrapperList = previous.responseWrapperList;
+        this.requestWrappers = requestWrapperList;
+        this.responseWrappers = responseWrapperList;
     }
 
     /**
@@ -332,13 +403,56 @@ public final class HttpServerExchange extends AbstractAttachable {
     }
 
     public String getQueryString() {
+        final byte[] raw = rawQueryString;
+        if (raw != null) {
+            queryString = rawQueryLength == 0 ? "" : new String(raw, rawQueryStart, rawQueryLength, StandardCharsets.ISO_8859_1);
+            rawQueryString = null;
+        }
         return queryString;
     }
 
     public void setQueryString(final String queryString) {
+        if (queryParametersPending) {
+            //the parameters always reflect the query string that was actually sent
+            parseQueryParameters();
+        }
+        this.rawQueryString = null;
         this.queryString = queryString;
     }
 
+    /**
+     * internal method used by the parser to set the query string. The query string is only turned into a
+     * string, and split into parameters, when it is actually used. The given range of the array must not
+     * be modified while this exchange is in use.
+     */
+    void setRawQueryString(final byte[] data, final int start, final int length) {
+        this.queryString = null;
+        this.rawQueryString = data;
+        this.rawQueryStart = start;
+        this.rawQueryLength = length;
+        this.queryParametersPending = true;
+    }
+
+    /**
+     * Returns the time the request headers were fully parsed, as reported by {@link System#nanoTime()}. This
+     * can be used to measure how long the request took to process.
+     *
+     * @return The request start time, or -1 if it was not recorded by the connector
+     */
+    public long getRequestStartTime() {
+        return requestStartTime;
+    }
+
+    /**
+     * Sets the request start time. This should only be called by the connector once the request
+     * has been parsed.
+     *
+     * @param requestStartTime The start time, as reported by {@link System#nanoTime()}
+     */
+    public void setRequestStartTime(final long requestStartTime) {
+        this.requestStartTime = requestStartTime;
+    }
+
     /**
      * Reconstructs the complete URL as seen by the user. This includes scheme, host name etc,
      * but does not include query string.
@@ -385,6 +499,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      *                               read
      */
     public void upgradeChannel(final ExchangeCompletionListener upgradeCompleteListener){
+        checkNotRecycled();
         setResponseCode(101);
         int oldVal = state;
         exchangeCompleteListeners.add(0, upgradeCompleteListener);
@@ -400,6 +515,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      *                               read
      */
     public void upgradeChannel(String productName, final ExchangeCompletionListener upgradeCompleteListener) {
+        checkNotRecycled();
         setResponseCode(101);
         final HeaderMap headers = getResponseHeaders();
         headers.add(Headers.UPGRADE, productName);
@@ -407,11 +523,29 @@ public final class HttpServerExchange extends AbstractAttachable {
         exchangeCompleteListeners.add(0, upgradeCompleteListener);
     }
 
+    /**
+     * Adds a listener that will be invoked when the exchange is complete.
+     *
+     * @param listener The listener
+     * @throws IllegalStateException if the exchange has already completed and exchanges are being recycled
+     */
     public void addExchangeCompleteListener(final ExchangeCompletionListener listener){
+        if (recyclable && isComplete()) {
+            throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+        }
         exchangeCompleteListeners.add(listener);
     }
 
+    /**
+     * Adds a listener that can generate a response if the exchange is ended without one.
+     *
+     * @param listener The listener
+     * @throws IllegalStateException if the exchange has already completed and exchanges are being recycled
+     */
     public void addDefaultResponseListener(final DefaultResponseListener listener){
+        if (recyclable && isComplete()) {
+            throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+        }
         defaultResponseListeners.add(listener);
     }
 
@@ -439,6 +573,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the request headers
      */
     public HeaderMap getRequestHeaders() {
+        checkNotRecycled();
         return requestHeaders;
     }
 
@@ -448,6 +583,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the response headers
      */
     public HeaderMap getResponseHeaders() {
+        checkNotRecycled();
         return responseHeaders;
     }
 
@@ -457,6 +593,9 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return The query parameters
      */
     public Map<String, Deque<String>> getQueryParameters() {
+        if (queryParametersPending) {
+            parseQueryParameters();
+        }
         if(queryParameters == null) {
             return Collections.emptyMap();
         } else {
@@ -465,6 +604,9 @@ public final class HttpServerExchange extends AbstractAttachable {
     }
 
     public void addQueryParam(final String name, final String param) {
+        if (queryParametersPending) {
+            parseQueryParameters();
+        }
         if(queryParameters == null) {
             queryParameters = new TreeMap<>();
         }
@@ -475,6 +617,32 @@ public final class HttpServerExchange extends AbstractAttachable {
         list.add(param);
     }
 
+    /**
+     * Splits the query string that was set by the parser into parameters. Every {@code &} separated part of the
+     * query string is a parameter, with the value following the first {@code =}, or an empty value if there is none.
+     */
+    private void parseQueryParameters() {
+        queryParametersPending = false;
+        final String queryString = getQueryString();
+        final int length = queryString.length();
+        int start = 0;
+        int equals = -1;
+        for (int i = 0; i <= length; ++i) {
+            final char c = i == length ? '&' : queryString.charAt(i);
+            if (c == '&') {
+                if (equals == -1) {
+                    addQueryParam(queryString.substring(start, i), "");
+                } else {
+                    addQueryParam(queryString.substring(start, equals), queryString.substring(equals + 1, i));
+                }
+                start = i + 1;
+                equals = -1;
+            } else if (c == '=' && equals == -1) {
+                equals = i;
+            }
+        }
+    }
+
     /**
      * @return <code>true</code> If the response has already been started
      */
@@ -491,6 +659,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the channel for the inbound request, or {@code null} if another party already acquired the channel
      */
     public StreamSourceChannel getRequestChannel() {
+        checkNotRecycled();
         final List<ConduitWrapper<StreamSourceConduit>> wrappers = this.requestWrappers;
         this.requestWrappers = null;
         if (wrappers == null) {
@@ -618,6 +787,7 @@ public final class HttpServerExchange extends AbstractAttachable {
      * @return the response channel, or {@code null} if another party already acquired the channel
      */
     public StreamSinkChannel getResponseChannel() {
+        checkNotRecycled();
         final List<ConduitWrapper<StreamSinkConduit>> wrappers = responseWrappers;
         this.responseWrappers = null;
         if (wrappers == null) {
@@ -687,6 +857,9 @@ public final class HttpServerExchange extends AbstractAttachable {
      */
     public void addRequestWrapper(final ConduitWrapper<StreamSourceConduit> wrapper) {
         List<ConduitWrapper<StreamSourceConduit>> wrappers = requestWrappers;
+        if (recyclable && isComplete()) {
+            throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+        }
         if (wrappers == null) {
             throw UndertowMessages.MESSAGES.requestChannelAlreadyProvided();
         }
@@ -700,6 +873,9 @@ public final class HttpServerExchange extends AbstractAttachable {
      */
     public void addResponseWrapper(final ConduitWrapper<StreamSinkConduit> wrapper) {
         List<ConduitWrapper<StreamSinkConduit>> wrappers = responseWrappers;
+        if (recyclable && isComplete()) {
+            throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+        }
         if (wrappers == null) {
             throw UndertowMessages.MESSAGES.requestChannelAlreadyProvided();
         }
@@ -740,6 +916,9 @@ public final class HttpServerExchange extends AbstractAttachable {
      * If the exchange is already complete this method is a noop
      */
     public void endExchange() {
+        if (recycled) {
+            return;
+        }
         while (!defaultResponseListeners.isEmpty()) {
             DefaultResponseListener listener = defaultResponseListeners.poll();
             try {
@@ -771,6 +950,8 @@ public final class HttpServerExchange extends AbstractAttachable {
                 getResponseHeaders().put(Headers.CONTENT_LENGTH, "0");
                 getResponseChannel();
             }
+            //shutting down the channel may complete the exchange, so the field must not be read after this point
+            final StreamSinkChannel responseChannel = this.responseChannel;
             if (responseChannel.isOpen()) {
                 responseChannel.shutdownWrites();
             }
@@ -825,8 +1006,39 @@ public final class HttpServerExchange extends AbstractAttachable {
         this.state = oldVal | FLAG_RESPONSE_SENT;
 
         log.tracef("Starting to write response for %s using channel %s", this, underlyingResponseChannel);
-        final HeaderMap responseHeaders = this.responseHeaders;
-        responseHeaders.lock();
+        //the response headers are not locked here, as wrapping conduits may still adjust them before
+        //the first write. They are locked by the response conduit when the headers are actually encoded
+    }
+
+    /**
+     * Resets the header maps, listener lists, wrapper lists and attachments of this exchange and hands them on
+     * to a new exchange for the next request on the same connection. This must only be called by the connector
+     * once the exchange is complete and all completion listeners have run.
+     * <p/>
+     * Any later attempt to use the reused state through this exchange throws an {@link IllegalStateException},
+     * so a handler that holds on to a completed exchange cannot modify the next request.
+     *
+     * @return The exchange for the next request
+     */
+    HttpServerExchange recycle() {
+        requestHeaders.reset();
+        responseHeaders.reset();
+        exchangeCompleteListeners.clear();
+        defaultResponseListeners.clear();
+        requestWrapperList.clear();
+        responseWrapperList.clear();
+        requestWrappers = null;
+        responseWrappers = null;
+        recycled = true;
+        final HttpServerExchange next = new HttpServerExchange(this);
+        transferAttachments(next);
+        return next;
+    }
+
+    private void checkNotRecycled() {
+        if (recycled) {
+            throw UndertowMessages.MESSAGES.exchangeAlreadyComplete();
+        }
     }
 
     public XnioExecutor getWriteThread() {
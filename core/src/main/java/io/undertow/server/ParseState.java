@@ -18,6 +18,8 @@
 
 package io.undertow.server;
 
+import java.util.Arrays;
+
 import io.undertow.util.HttpString;
 
 /**
@@ -40,6 +42,8 @@ class ParseState {
     public static final int HEADER_VALUE = 5;
     public static final int PARSE_COMPLETE = 6;
 
+    private static final int INITIAL_REQUEST_BYTES = 512;
+
     /**
      * The actual state of request parsing
      */
@@ -66,8 +70,6 @@ class ParseState {
      */
     int pos;
 
-    int queryParamPos;
-
     /**
      * The end of the request string, and start of the query string
      */
@@ -94,12 +96,61 @@ class ParseState {
      */
     HttpString nextHeader;
 
-    String nextQueryParam;
 
+    /**
+     * The bytes of the request path and header values that have been read so far. The exchange holds header
+     * values and the query string as ranges of this array, and only turns them into strings when they are
+     * used, so bytes that have been written must not be modified until the exchange is done with.
+     */
+    byte[] requestBytes;
+
+    /**
+     * The number of bytes of {@link #requestBytes} that are in use
+     */
+    int requestBytesLength;
+
+    /**
+     * The position in {@link #requestBytes} where the path or header value that is currently being parsed
+     * starts, or -1 if we are not currently parsing one.
+     */
+    int valueStart;
 
     public ParseState() {
         this.parseState = 0;
         this.pos = 0;
+        this.valueStart = -1;
+    }
+
+    /**
+     * Resets this state so it can be used to parse the next request on the connection
+     */
+    void reset() {
+        this.state = 0;
+        this.parseState = 0;
+        this.current = null;
+        this.currentBytes = null;
+        this.pos = 0;
+        this.requestEnd = 0;
+        this.stringBuilder = null;
+        this.leftOver = 0;
+        this.nextHeader = null;
+        //the exchange is reset at the same time, so nothing can still refer to the old bytes
+        this.requestBytesLength = 0;
+        this.valueStart = -1;
+    }
+
+    /**
+     * Grows {@link #requestBytes}. As values are held as ranges of the array the existing content is
+     * copied, and the old array is left untouched.
+     *
+     * @return The new array
+     */
+    byte[] growRequestBytes() {
+        final byte[] old = requestBytes;
+        if (old == null) {
+            return requestBytes = new byte[INITIAL_REQUEST_BYTES];
+        }
+        return requestBytes = Arrays.copyOf(old, old.length << 1);
     }
 
     public boolean isComplete() {
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import org.xnio.BufferAllocator;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.XnioIoThread;
+
+/**
+ * A buffer pool that keeps a free list for each IO thread, so that IO threads do not contend with each other when
+ * allocating and freeing buffers.
+ * <p/>
+ * Buffers that are allocated and freed by an IO thread go through that thread's free list without any
+ * synchronization. When a free list grows beyond its maximum size half of it is handed back to a global pool in a
+ * single operation, and an empty free list is refilled from the global pool in the same way. Threads that are not
+ * IO threads, such as worker threads running blocking handlers, use the global pool directly.
+ * <p/>
+ * Like {@link org.xnio.ByteBufferSlicePool} the buffers are slices of larger regions. If leak detection is enabled a
+ * sample of allocations records a stack trace, which is logged if the buffer is garbage collected without having
+ * been freed.
+ */
+public class ThreadAffineBufferPool implements Pool<ByteBuffer> {
+
+    public static final int DEFAULT_THREAD_CACHE_SIZE = 64;
+
+    private final BufferAllocator<ByteBuffer> allocator;
+    private final int bufferSize;
+    private final int buffersPerRegion;
+    private final int threadCacheSize;
+    private final int batchSize;
+    private final int leakDetectionInterval;
+
+    private final ConcurrentLinkedQueue<ByteBuffer[]> globalBatches = new ConcurrentLinkedQueue<ByteBuffer[]>();
+    private final ConcurrentLinkedQueue<ByteBuffer> globalBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>();
+
+    private final ReferenceQueue<PooledBuffer> leakQueue = new ReferenceQueue<PooledBuffer>();
+    private final Set<LeakTracker> leakTrackers = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+
+    /**
+     * Construct a new instance.
+     *
+     * @param allocator             the buffer allocator to use
+     * @param bufferSize            the size of each buffer
+     * @param maxRegionSize         the maximum region size for each backing buffer
+     * @param threadCacheSize       the maximum number of free buffers held by each IO thread
+     * @param leakDetectionInterval on average one in this many allocations is tracked for leaks, or zero to disable leak detection
+     */
+    public ThreadAffineBufferPool(final BufferAllocator<ByteBuffer> allocator, final int bufferSize, final int maxRegionSize, final int threadCacheSize, final int leakDetectionInterval) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        if (maxRegionSize < bufferSize) {
+            throw new IllegalArgumentException("Maximum region size must be greater than or equal to the buffer size");
+        }
+        if (threadCacheSize < 2) {
+            throw new IllegalArgumentException("Thread cache size must be at least two");
+        }
+        this.allocator = allocator;
+        this.bufferSize = bufferSize;
+        this.buffersPerRegion = maxRegionSize / bufferSize;
+        this.threadCacheSize = threadCacheSize;
+        this.batchSize = threadCacheSize / 2;
+        this.leakDetectionInterval = leakDetectionInterval;
+    }
+
+    /**
+     * Construct a new instance with the default thread cache size and leak detection disabled.
+     *
+     * @param allocator     the buffer allocator to use
+     * @param bufferSize    the size of each buffer
+     * @param maxRegionSize the maximum region size for each backing buffer
+     */
+    public ThreadAffineBufferPool(final BufferAllocator<ByteBuffer> allocator, final int bufferSize, final int maxRegionSize) {
+        this(allocator, bufferSize, maxRegionSize, DEFAULT_THREAD_CACHE_SIZE, 0);
+    }
+
+    @Override
+    public Pooled<ByteBuffer> allocate() {
+        final ByteBuffer buffer;
+        if (Thread.currentThread() instanceof XnioIoThread) {
+            ThreadCache cache = threadCache.get();
+            if (cache == null) {
+                threadCache.set(cache = new ThreadCache());
+            }
+            buffer = cache.allocate();
+        } else {
+            buffer = allocateGlobal();
+        }
+        buffer.clear();
+        final PooledBuffer pooled = new PooledBuffer(this, buffer);
+        if (leakDetectionInterval > 0) {
+            reportLeaks();
+            if (ThreadLocalRandom.current().nextInt(leakDetectionInterval) == 0) {
+                final LeakTracker tracker = new LeakTracker(pooled, leakQueue);
+                leakTrackers.add(tracker);
+                pooled.tracker = tracker;
+            }
+        }
+        return pooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The number of batches of buffers that IO threads have handed back to the global pool
+     */
+    int getGlobalBatchCount() {
+        return globalBatches.size();
+    }
+
+    void release(final ByteBuffer buffer) {
+        if (Thread.currentThread() instanceof XnioIoThread) {
+            final ThreadCache cache = threadCache.get();
+            if (cache != null) {
+                cache.free(buffer);
+                return;
+            }
+        }
+        globalBuffers.offer(buffer);
+    }
+
+    private ByteBuffer allocateGlobal() {
+        final ByteBuffer buffer = globalBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        final ByteBuffer[] batch = globalBatches.poll();
+        if (batch != null) {
+            for (int i = 1; i < batch.length; ++i) {
+                globalBuffers.offer(batch[i]);
+            }
+            return batch[0];
+        }
+        final ByteBuffer[] region = allocateRegion();
+        for (int i = 1; i < region.length; ++i) {
+            globalBuffers.offer(region[i]);
+        }
+        return region[0];
+    }
+
+    private ByteBuffer[] allocateRegion() {
+        final ByteBuffer region = allocator.allocate(buffersPerRegion * bufferSize);
+        final ByteBuffer[] buffers = new ByteBuffer[buffersPerRegion];
+        int start = 0;
+        for (int i = 0; i < buffersPerRegion; ++i) {
+            buffers[i] = ((ByteBuffer) region.duplicate().position(start).limit(start + bufferSize)).slice();
+            start += bufferSize;
+        }
+        return buffers;
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> reference;
+        while ((reference = leakQueue.poll()) != null) {
+            if (leakTrackers.remove(reference)) {
+                UndertowLogger.ROOT_LOGGER.bufferLeakDetected(((LeakTracker) reference).allocationSite);
+            }
+        }
+    }
+
+    /**
+     * The free list of a single IO thread. This is only ever accessed by its owning thread.
+     */
+    private final class ThreadCache {
+        private final ByteBuffer[] buffers = new ByteBuffer[threadCacheSize];
+        private int size;
+
+        ByteBuffer allocate() {
+            if (size == 0) {
+                refill();
+            }
+            final ByteBuffer buffer = buffers[--size];
+            buffers[size] = null;
+            return buffer;
+        }
+
+        void free(final ByteBuffer buffer) {
+            buffers[size++] = buffer;
+            if (size == buffers.length) {
+                //hand half of the buffers back to the global pool
+                final ByteBuffer[] batch = new ByteBuffer[batchSize];
+                size -= batchSize;
+                System.arraycopy(buffers, size, batch, 0, batchSize);
+                for (int i = size; i < buffers.length; ++i) {
+                    buffers[i] = null;
+                }
+                globalBatches.offer(batch);
+            }
+        }
+
+        private void refill() {
+            final ByteBuffer[] batch = globalBatches.poll();
+            if (batch != null) {
+                System.arraycopy(batch, 0, buffers, 0, batch.length);
+                size = batch.length;
+                return;
+            }
+            ByteBuffer buffer;
+            while (size < batchSize && (buffer = globalBuffers.poll()) != null) {
+                buffers[size++] = buffer;
+            }
+            if (size > 0) {
+                return;
+            }
+            final ByteBuffer[] region = allocateRegion();
+            for (int i = 0; i < region.length; ++i) {
+                if (size < batchSize) {
+                    buffers[size++] = region[i];
+                } else {
+                    globalBuffers.offer(region[i]);
+                }
+            }
+        }
+    }
+
+    private static final class PooledBuffer implements Pooled<ByteBuffer> {
+
+        private static final AtomicReferenceFieldUpdater<PooledBuffer, ByteBuffer> bufferUpdater = AtomicReferenceFieldUpdater.newUpdater(PooledBuffer.class, ByteBuffer.class, "buffer");
+
+        private final ThreadAffineBufferPool pool;
+        private volatile ByteBuffer buffer;
+        private LeakTracker tracker;
+
+        private PooledBuffer(final ThreadAffineBufferPool pool, final ByteBuffer buffer) {
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void discard() {
+            if (bufferUpdater.getAndSet(this, null) != null) {
+                untrack();
+            }
+        }
+
+        @Override
+        public void free() {
+            final ByteBuffer buffer = bufferUpdater.getAndSet(this, null);
+            if (buffer != null) {
+                untrack();
+                pool.release(buffer);
+            }
+        }
+
+        @Override
+        public ByteBuffer getResource() throws IllegalStateException {
+            final ByteBuffer buffer = this.buffer;
+            if (buffer == null) {
+                throw new IllegalStateException();
+            }
+            return buffer;
+        }
+
+        private void untrack() {
+            final LeakTracker tracker = this.tracker;
+            if (tracker != null) {
+                pool.leakTrackers.remove(tracker);
+                tracker.clear();
+            }
+        }
+
+        public String toString() {
+            return "Pooled buffer " + buffer;
+        }
+    }
+
+    private static final class LeakTracker extends PhantomReference<PooledBuffer> {
+        private final Throwable allocationSite = new Throwable();
+
+        LeakTracker(final PooledBuffer referent, final ReferenceQueue<? super PooledBuffer> queue) {
+            super(referent, queue);
+        }
+    }
+}
@@ -26,6 +26,7 @@ import io.undertow.UndertowMessages;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.CopyOnWriteMap;
+import io.undertow.util.PathMatcher;
 
 /**
  * Handler that dispatches to a given handler based of a prefix match of the path.
@@ -34,6 +35,9 @@ import io.undertow.util.CopyOnWriteMap;
  * <p/>
  * /foo/bar
  * <p/>
+ * Paths are matched on segment boundaries, so <code>/foo</code> will match <code>/foo/bar</code> but not
+ * <code>/foobar</code>. A path segment of <code>*</code> will match any single segment. The paths are compiled
+ * into a {@link PathMatcher} when they are modified, so the cost of a lookup does not depend on the number of paths.
  *
  * @author Stuart Douglas
  */
@@ -41,39 +45,29 @@ public class PathHandler implements HttpHandler {
 
     private volatile HttpHandler defaultHandler = ResponseCodeHandler.HANDLE_404;
     private final ConcurrentMap<String, HttpHandler> paths = new CopyOnWriteMap<String, HttpHandler>();
-    /**
-     * internal tracker of the largest path we have.
-     */
-    private volatile int maxPathLength = 0;
+    private final ConcurrentMap<String, HttpHandler> exactPaths = new CopyOnWriteMap<String, HttpHandler>();
+    private volatile PathMatcher<HttpHandler> matcher = PathMatcher.<HttpHandler>builder().build();
 
     @Override
     public void handleRequest(HttpServerExchange exchange) {
         final String path = exchange.getRelativePath();
-        int length = path.length();
-        int pos = length > maxPathLength ? maxPathLength : length;
-        String part = path.substring(0, pos);
-        HttpHandler next = paths.get(part);
-        if (next != null) {
-            exchange.setRelativePath(path.substring(pos));
-            exchange.setResolvedPath(exchange.getResolvedPath() + part);
-            HttpHandlers.executeHandler(next, exchange);
+        final PathMatcher.Match<HttpHandler> match = matcher.match(path);
+        if (match == null) {
+            HttpHandlers.executeHandler(defaultHandler, exchange);
             return;
         }
-
-        while (pos > 1) {
-            --pos;
-            if (path.charAt(pos) == '/') {
-                part = path.substring(0, pos);
-                next = paths.get(part);
-                if (next != null) {
-                    exchange.setRelativePath(path.substring(pos));
-                    exchange.setResolvedPath(exchange.getResolvedPath() + part);
-                    HttpHandlers.executeHandler(next, exchange);
-                    return;
-                }
-            }
+        final int matched = match.getMatchedLength(path);
+        final String part;
+        if (matched == path.length()) {
+            part = path;
+            exchange.setRelativePath("");
+        } else {
+            part = path.substring(0, matched);
+            exchange.setRelativePath(path.substring(matched));
         }
-        HttpHandlers.executeHandler(defaultHandler, exchange);
+        final String resolvedPath = exchange.getResolvedPath();
+        exchange.setResolvedPath(resolvedPath.isEmpty() ? part : resolvedPath + part);
+        HttpHandlers.executeHandler(match.getValue(), exchange);
     }
 
     public HttpHandler getDefaultHandler() {
@@ -93,43 +87,66 @@ public class PathHandler implements HttpHandler {
      * @param handler The handler
      */
     public synchronized void addPath(final String path, final HttpHandler handler) {
-        if(path.length() > maxPathLength) {
-            maxPathLength = path.length();
-        }
         HttpHandlers.handlerNotNull(handler);
-        if (path == null || path.isEmpty()) {
-            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
-        }
-        if (path.charAt(0) != '/') {
-            paths.put("/" + path, handler);
-        } else {
-            paths.put(path, handler);
-        }
+        paths.put(normalize(path), handler);
+        buildMatcher();
+    }
+
+    /**
+     * Adds a handler for a path that must match exactly. Exact paths take priority over
+     * prefix paths. If the path does not start with a / then one will be prepended
+     *
+     * @param path    The path
+     * @param handler The handler
+     */
+    public synchronized void addExactPath(final String path, final HttpHandler handler) {
+        HttpHandlers.handlerNotNull(handler);
+        exactPaths.put(normalize(path), handler);
+        buildMatcher();
     }
 
     public synchronized void removePath(final String path) {
-        if (path == null || path.isEmpty()) {
-            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
-        }
-        if (path.charAt(0) != '/') {
-            paths.remove("/" + path);
-        } else {
-            paths.remove(path);
-        }
-        int max = 0;
-        for (Map.Entry<String, HttpHandler> entry : paths.entrySet()) {
-            if(entry.getKey().length() > max) {
-                max = entry.getKey().length();
-            }
-        }
-        this.maxPathLength = max;
+        paths.remove(normalize(path));
+        buildMatcher();
+    }
+
+    public synchronized void removeExactPath(final String path) {
+        exactPaths.remove(normalize(path));
+        buildMatcher();
     }
 
     public synchronized void clearPaths() {
         paths.clear();
+        exactPaths.clear();
+        buildMatcher();
     }
 
     public Map<String, HttpHandler> getPaths() {
         return Collections.unmodifiableMap(paths);
     }
+
+    public Map<String, HttpHandler> getExactPaths() {
+        return Collections.unmodifiableMap(exactPaths);
+    }
+
+    private static String normalize(final String path) {
+        if (path == null || path.isEmpty()) {
+            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+        }
+        if (path.charAt(0) != '/') {
+            return "/" + path;
+        }
+        return path;
+    }
+
+    private void buildMatcher() {
+        final PathMatcher.Builder<HttpHandler> builder = PathMatcher.builder();
+        for (Map.Entry<String, HttpHandler> entry : paths.entrySet()) {
+            builder.addPrefixPath(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, HttpHandler> entry : exactPaths.entrySet()) {
+            builder.addExactPath(entry.getKey(), entry.getValue());
+        }
+        this.matcher = builder.build();
+    }
 }
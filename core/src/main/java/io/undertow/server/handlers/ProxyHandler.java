@@ -0,0 +1,590 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientRequest;
+import io.undertow.client.HttpClientResponse;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * A reverse proxy handler that forwards requests to one of a set of backend servers.
+ * <p>
+ * Connections to the backends are pooled by the supplied {@link HttpClient}, and request and response bodies
+ * are streamed between the client and backend connections without being buffered in full.
+ * <p>
+ * A backend that fails to accept a connection or to send a valid response {@link #setMaxFailures(int) several times
+ * in a row} is ejected, and will not be used until the {@link #setEjectionTime(long) ejection time} has elapsed.
+ * If a backend cannot be connected to the request is retried against the next available backend.
+ */
+public final class ProxyHandler implements HttpHandler {
+
+    /**
+     * The policy that is used to pick the backend for a request.
+     */
+    public enum LoadBalancingPolicy {
+        /**
+         * Backends are used in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * The backend with the fewest requests in progress is used.
+         */
+        LEAST_CONNECTIONS
+    }
+
+    private static final HttpString KEEP_ALIVE = new HttpString("Keep-Alive");
+
+    /**
+     * Headers that only apply to a single connection, and so are not forwarded.
+     */
+    private static final Set<HttpString> HOP_BY_HOP_HEADERS = new HashSet<HttpString>(Arrays.asList(
+            Headers.CONNECTION,
+            KEEP_ALIVE,
+            Headers.PROXY_AUTHENTICATE,
+            Headers.PROXY_AUTHORIZATION,
+            Headers.TE,
+            Headers.TRAILER,
+            Headers.TRANSFER_ENCODING,
+            Headers.UPGRADE));
+
+    /**
+     * Returned by {@link #requestContentLength(HeaderMap)} if the Content-Length header is not valid
+     */
+    private static final long INVALID_CONTENT_LENGTH = -2;
+
+    private final HttpClient client;
+    private final LoadBalancingPolicy policy;
+    private final AtomicInteger nextBackend = new AtomicInteger();
+
+    private volatile Backend[] backends = new Backend[0];
+    private volatile int maxFailures = 3;
+    private volatile long ejectionTime = 10000;
+
+    public ProxyHandler(final HttpClient client, final LoadBalancingPolicy policy) {
+        if (client == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("client");
+        }
+        if (policy == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("policy");
+        }
+        this.client = client;
+        this.policy = policy;
+    }
+
+    public ProxyHandler(final HttpClient client) {
+        this(client, LoadBalancingPolicy.ROUND_ROBIN);
+    }
+
+    /**
+     * Adds a backend. The request URI is appended to the path of the backend URI, so a backend of
+     * <code>http://host:8080/app</code> will receive a request for <code>/index.html</code> as <code>/app/index.html</code>.
+     *
+     * @param uri The backend URI
+     * @return this handler
+     */
+    public synchronized ProxyHandler addBackend(final URI uri) {
+        if (uri == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("uri");
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme())) {
+            throw UndertowMessages.MESSAGES.unsupportedUriScheme(uri.getScheme());
+        }
+        final Backend[] old = backends;
+        final Backend[] backends = Arrays.copyOf(old, old.length + 1);
+        backends[old.length] = new Backend(uri);
+        this.backends = backends;
+        return this;
+    }
+
+    /**
+     * Removes a backend. Requests that are already in progress are not affected.
+     *
+     * @param uri The backend URI
+     * @return <code>true</code> if the backend was removed
+     */
+    public synchronized boolean removeBackend(final URI uri) {
+        final Backend[] old = backends;
+        for (int i = 0; i < old.length; ++i) {
+            if (old[i].uri.equals(uri)) {
+                final Backend[] backends = new Backend[old.length - 1];
+                System.arraycopy(old, 0, backends, 0, i);
+                System.arraycopy(old, i + 1, backends, i, old.length - i - 1);
+                this.backends = backends;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which a backend is ejected.
+     */
+    public void setMaxFailures(final int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * Sets the time in milliseconds that an ejected backend is not used for.
+     */
+    public void setEjectionTime(final long ejectionTime) {
+        this.ejectionTime = ejectionTime;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        final long contentLength = requestContentLength(exchange.getRequestHeaders());
+        if (contentLength == INVALID_CONTENT_LENGTH) {
+            exchange.setResponseCode(400);
+            exchange.endExchange();
+            return;
+        }
+        proxyRequest(exchange, contentLength, backends.length);
+    }
+
+    private void proxyRequest(final HttpServerExchange exchange, final long contentLength, final int attempts) {
+        final Backend backend = selectBackend();
+        if (backend == null) {
+            exchange.setResponseCode(503);
+            exchange.endExchange();
+            return;
+        }
+        final String query = exchange.getQueryString();
+        final String target;
+        if (query == null || query.isEmpty()) {
+            target = backend.prefix + requestPath(exchange);
+        } else {
+            target = backend.prefix + requestPath(exchange) + '?' + query;
+        }
+        final IoFuture<HttpClientRequest> future;
+        backend.activeRequests.incrementAndGet();
+        try {
+            future = client.sendRequest(exchange.getRequestMethod().toString(), target, OptionMap.EMPTY);
+        } catch (IllegalArgumentException e) {
+            //the request target is not a valid URI
+            backend.activeRequests.decrementAndGet();
+            UndertowLogger.REQUEST_LOGGER.debugf(e, "Invalid request target %s", target);
+            exchange.setResponseCode(400);
+            exchange.endExchange();
+            return;
+        }
+        future.addNotifier(new IoFuture.HandlingNotifier<HttpClientRequest, Object>() {
+            @Override
+            public void handleDone(final HttpClientRequest request, final Object attachment) {
+                sendRequest(exchange, backend, request, contentLength);
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                //nothing has been sent to the backend yet, so the request can safely be retried elsewhere
+                UndertowLogger.REQUEST_LOGGER.debugf(exception, "Failed to connect to proxy backend %s", backend.uri);
+                backend.activeRequests.decrementAndGet();
+                backend.requestFailed(maxFailures, ejectionTime);
+                if (attempts > 1) {
+                    proxyRequest(exchange, contentLength, attempts - 1);
+                } else {
+                    exchange.setResponseCode(503);
+                    exchange.endExchange();
+                }
+            }
+        }, null);
+    }
+
+    private Backend selectBackend() {
+        final Backend[] backends = this.backends;
+        if (backends.length == 0) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        final int start = (nextBackend.getAndIncrement() & Integer.MAX_VALUE) % backends.length;
+        Backend selected = null;
+        for (int i = 0; i < backends.length; ++i) {
+            final Backend backend = backends[(start + i) % backends.length];
+            if (!backend.isAvailable(now)) {
+                continue;
+            }
+            if (policy == LoadBalancingPolicy.ROUND_ROBIN) {
+                return backend;
+            }
+            if (selected == null || backend.activeRequests.get() < selected.activeRequests.get()) {
+                selected = backend;
+            }
+        }
+        return selected;
+    }
+
+    private void sendRequest(final HttpServerExchange exchange, final Backend backend, final HttpClientRequest request, final long contentLength) {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final HeaderMap backendHeaders = request.getRequestHeaders();
+        copyHeaders(requestHeaders, backendHeaders);
+
+        final String remoteAddress = exchange.getSourceAddress().getAddress().getHostAddress();
+        final String forwardedFor = joinValues(requestHeaders, Headers.X_FORWARDED_FOR);
+        backendHeaders.put(Headers.X_FORWARDED_FOR, forwardedFor == null ? remoteAddress : forwardedFor + ", " + remoteAddress);
+        backendHeaders.put(Headers.X_FORWARDED_PROTO, exchange.getRequestScheme());
+        backendHeaders.put(Headers.X_FORWARDED_PORT, exchange.getDestinationAddress().getPort());
+        final String host = requestHeaders.getFirst(Headers.HOST);
+        if (host != null) {
+            backendHeaders.put(Headers.X_FORWARDED_HOST, host);
+        }
+
+        if (contentLength != 0) {
+            final StreamSinkChannel sink;
+            try {
+                sink = request.writeRequestBody(contentLength);
+            } catch (IOException e) {
+                backend.requestFailed(maxFailures, ejectionTime);
+                backend.activeRequests.decrementAndGet();
+                UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to send request to proxy backend %s", backend.uri);
+                IoUtils.safeClose(request.getConnection());
+                exchange.setResponseCode(502);
+                exchange.endExchange();
+                return;
+            }
+            Transfer.start(exchange.getRequestChannel(), sink, exchange.getConnection().getBufferPool(), new TransferCallback() {
+                @Override
+                public void completed() {
+                    try {
+                        sink.shutdownWrites();
+                        if (!sink.flush()) {
+                            sink.getWriteSetter().set(ChannelListeners.<StreamSinkChannel>flushingChannelListener(ChannelListeners.nullChannelListener(), ChannelListeners.closingChannelExceptionHandler()));
+                            sink.resumeWrites();
+                        }
+                    } catch (IOException e) {
+                        failed(e);
+                    }
+                }
+
+                @Override
+                public void failed(final IOException e) {
+                    //closing the backend connection will fail the response, which ends the exchange
+                    UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to forward request body to proxy backend %s", backend.uri);
+                    IoUtils.safeClose(request.getConnection());
+                }
+            });
+        }
+        request.getResponse().addNotifier(new IoFuture.HandlingNotifier<HttpClientResponse, Object>() {
+            @Override
+            public void handleDone(final HttpClientResponse response, final Object attachment) {
+                if (response.getResponseCode() >= 500) {
+                    backend.requestFailed(maxFailures, ejectionTime);
+                } else {
+                    backend.requestSucceeded();
+                }
+                sendResponse(exchange, backend, request, response);
+            }
+
+            @Override
+            public void handleFailed(final IOException exception, final Object attachment) {
+                backend.requestFailed(maxFailures, ejectionTime);
+                backend.activeRequests.decrementAndGet();
+                UndertowLogger.REQUEST_LOGGER.debugf(exception, "Failed to read response from proxy backend %s", backend.uri);
+                if (exchange.isResponseStarted()) {
+                    IoUtils.safeClose(exchange.getConnection());
+                } else {
+                    exchange.setResponseCode(502);
+                    exchange.endExchange();
+                }
+            }
+        }, null);
+    }
+
+    private void sendResponse(final HttpServerExchange exchange, final Backend backend, final HttpClientRequest request, final HttpClientResponse response) {
+        final StreamSourceChannel source;
+        try {
+            exchange.setResponseCode(response.getResponseCode());
+            copyHeaders(response.getResponseHeaders(), exchange.getResponseHeaders());
+            source = response.readReplyBody();
+        } catch (IOException e) {
+            backend.activeRequests.decrementAndGet();
+            UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to read response from proxy backend %s", backend.uri);
+            IoUtils.safeClose(request.getConnection());
+            exchange.setResponseCode(502);
+            exchange.endExchange();
+            return;
+        }
+        Transfer.start(source, exchange.getResponseChannel(), exchange.getConnection().getBufferPool(), new TransferCallback() {
+            @Override
+            public void completed() {
+                backend.activeRequests.decrementAndGet();
+                IoUtils.safeClose(source);
+                exchange.endExchange();
+            }
+
+            @Override
+            public void failed(final IOException e) {
+                backend.activeRequests.decrementAndGet();
+                UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to forward response from proxy backend %s", backend.uri);
+                IoUtils.safeClose(source);
+                IoUtils.safeClose(exchange.getConnection());
+            }
+        });
+    }
+
+    /**
+     * @return The raw path of the request, without the scheme and host if the request used an absolute URI
+     */
+    private static String requestPath(final HttpServerExchange exchange) {
+        final String uri = exchange.getRequestURI();
+        if (uri.startsWith("/")) {
+            return uri;
+        }
+        final int hostStart = uri.indexOf("://");
+        final int pathStart = hostStart == -1 ? -1 : uri.indexOf('/', hostStart + 3);
+        return pathStart == -1 ? "/" : uri.substring(pathStart);
+    }
+
+    /**
+     * Copies the end to end headers. As well as the standard hop by hop headers, any header that is named in
+     * the Connection header only applies to the current connection, and is not copied (RFC 7230 section 6.1).
+     */
+    private static void copyHeaders(final HeaderMap from, final HeaderMap to) {
+        final Set<HttpString> connectionHeaders = connectionHeaders(from);
+        for (HttpString name : from) {
+            if (!HOP_BY_HOP_HEADERS.contains(name) && (connectionHeaders == null || !connectionHeaders.contains(name))) {
+                to.putAll(name, from.get(name));
+            }
+        }
+    }
+
+    /**
+     * @return The header names listed in the Connection header, or null if there are none
+     */
+    private static Set<HttpString> connectionHeaders(final HeaderMap headers) {
+        final List<String> values = headers.get(Headers.CONNECTION);
+        if (values == null) {
+            return null;
+        }
+        Set<HttpString> result = null;
+        for (String value : values) {
+            for (String token : value.split(",")) {
+                token = token.trim();
+                if (!token.isEmpty()) {
+                    if (result == null) {
+                        result = new HashSet<HttpString>();
+                    }
+                    result.add(new HttpString(token));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String joinValues(final HeaderMap headers, final HttpString name) {
+        final List<String> values = headers.get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder(values.get(0));
+        for (int i = 1; i < values.size(); ++i) {
+            builder.append(", ").append(values.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return The length of the request body, -1 if it is chunked, 0 if there is no body, or
+     *         {@link #INVALID_CONTENT_LENGTH} if the content length is not a valid non-negative number
+     */
+    private static long requestContentLength(final HeaderMap headers) {
+        final String transferEncoding = headers.getLast(Headers.TRANSFER_ENCODING);
+        if (transferEncoding != null && !Headers.IDENTITY.equals(new HttpString(transferEncoding))) {
+            return -1;
+        }
+        final String contentLength = headers.getFirst(Headers.CONTENT_LENGTH);
+        if (contentLength == null) {
+            return 0;
+        }
+        if (contentLength.isEmpty()) {
+            return INVALID_CONTENT_LENGTH;
+        }
+        for (int i = 0; i < contentLength.length(); ++i) {
+            final char c = contentLength.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID_CONTENT_LENGTH;
+            }
+        }
+        try {
+            return Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            //too large to be represented
+            return INVALID_CONTENT_LENGTH;
+        }
+    }
+
+    private static final class Backend {
+        private final URI uri;
+        private final String prefix;
+        private final AtomicInteger activeRequests = new AtomicInteger();
+        private int failures;
+        private volatile long ejectedUntil;
+
+        Backend(final URI uri) {
+            this.uri = uri;
+            String path = uri.getRawPath();
+            if (path == null) {
+                path = "";
+            } else if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            this.prefix = uri.getScheme() + "://" + uri.getRawAuthority() + path;
+        }
+
+        boolean isAvailable(final long now) {
+            return ejectedUntil <= now;
+        }
+
+        synchronized void requestSucceeded() {
+            failures = 0;
+            ejectedUntil = 0;
+        }
+
+        /**
+         * Records a failure. The failure count is only reset by a successful request, so once the ejection time
+         * has elapsed a single further failure will eject the backend again.
+         */
+        synchronized void requestFailed(final int maxFailures, final long ejectionTime) {
+            if (++failures >= maxFailures) {
+                if (ejectedUntil <= System.currentTimeMillis()) {
+                    UndertowLogger.ROOT_LOGGER.proxyBackendEjected(uri, failures, ejectionTime);
+                }
+                ejectedUntil = System.currentTimeMillis() + ejectionTime;
+            }
+        }
+    }
+
+    private interface TransferCallback {
+
+        void completed();
+
+        void failed(IOException e);
+    }
+
+    /**
+     * Copies data from a source to a sink channel without blocking, using a single pooled buffer. When the sink
+     * cannot accept any more data reads are suspended until it becomes writable, so at most one buffer of data is
+     * held in memory.
+     */
+    private static final class Transfer implements ChannelListener<Channel> {
+        private final StreamSourceChannel source;
+        private final StreamSinkChannel sink;
+        private final Pooled<ByteBuffer> pooled;
+        private final TransferCallback callback;
+        private boolean done;
+
+        private Transfer(final StreamSourceChannel source, final StreamSinkChannel sink, final Pooled<ByteBuffer> pooled, final TransferCallback callback) {
+            this.source = source;
+            this.sink = sink;
+            this.pooled = pooled;
+            this.callback = callback;
+        }
+
+        static void start(final StreamSourceChannel source, final StreamSinkChannel sink, final Pool<ByteBuffer> pool, final TransferCallback callback) {
+            final Pooled<ByteBuffer> pooled = pool.allocate();
+            pooled.getResource().clear().limit(0);
+            final Transfer transfer = new Transfer(source, sink, pooled, callback);
+            source.getReadSetter().set(transfer);
+            sink.getWriteSetter().set(transfer);
+            transfer.handleEvent(source);
+        }
+
+        @Override
+        public synchronized void handleEvent(final Channel channel) {
+            if (done) {
+                return;
+            }
+            final ByteBuffer buffer = pooled.getResource();
+            try {
+                for (; ; ) {
+                    while (buffer.hasRemaining()) {
+                        if (sink.write(buffer) == 0) {
+                            source.suspendReads();
+                            sink.resumeWrites();
+                            return;
+                        }
+                    }
+                    buffer.clear();
+                    final int res;
+                    try {
+                        res = source.read(buffer);
+                    } finally {
+                        buffer.flip();
+                    }
+                    if (res == -1) {
+                        finish(null);
+                        return;
+                    } else if (res == 0) {
+                        sink.suspendWrites();
+                        source.resumeReads();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                finish(e);
+            }
+        }
+
+        private void finish(final IOException exception) {
+            done = true;
+            source.suspendReads();
+            sink.suspendWrites();
+            source.getReadSetter().set(null);
+            sink.getWriteSetter().set(null);
+            pooled.free();
+            if (exception == null) {
+                callback.completed();
+            } else {
+                callback.failed(exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.undertow.UndertowMessages;
+import io.undertow.conduits.BytesSentStreamSinkConduit;
+import io.undertow.security.api.SecurityContext;
+import io.undertow.security.idm.Account;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.HttpString;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Handler that writes an access log entry for every request.
+ * <p/>
+ * The format of each entry is given by a pattern, which uses the same tokens as the Apache HTTP server:
+ * <ul>
+ * <li><b>%a</b> - Remote IP address</li>
+ * <li><b>%A</b> - Local IP address</li>
+ * <li><b>%b</b> - Bytes sent, excluding HTTP headers, or '-' if no bytes were sent</li>
+ * <li><b>%B</b> - Bytes sent, excluding HTTP headers</li>
+ * <li><b>%D</b> - Time taken to process the request, in milliseconds</li>
+ * <li><b>%h</b> - Remote host name. Host names are not resolved, so this is the same as <b>%a</b></li>
+ * <li><b>%H</b> - Request protocol</li>
+ * <li><b>%l</b> - Remote logical username from identd (always returns '-')</li>
+ * <li><b>%m</b> - Request method</li>
+ * <li><b>%p</b> - Local port</li>
+ * <li><b>%q</b> - Query string, including the leading '?', or the empty string if there is no query</li>
+ * <li><b>%r</b> - First line of the request</li>
+ * <li><b>%s</b> - HTTP status code of the response</li>
+ * <li><b>%t</b> - Date and time, in Common Log Format</li>
+ * <li><b>%T</b> - Time taken to process the request, in seconds</li>
+ * <li><b>%u</b> - Remote user that was authenticated, or '-'</li>
+ * <li><b>%U</b> - Requested URL path</li>
+ * <li><b>%{Name}i</b> - The value of the named request header, with quotes, backslashes and control characters escaped</li>
+ * <li><b>%{Name}o</b> - The value of the named response header, with quotes, backslashes and control characters escaped</li>
+ * <li><b>%{name}x</b> - The value of a custom {@link AccessLogToken}</li>
+ * <li><b>%%</b> - A literal '%'</li>
+ * </ul>
+ * The names <code>common</code> and <code>combined</code> can be used as shorthand for the standard formats.
+ * <p/>
+ * The pattern is compiled once, and entries are formatted on the thread that completes the exchange. The
+ * formatted entry is then passed to the {@link AccessLogReceiver}, which should hand it off rather than
+ * performing IO itself. {@link DefaultAccessLogReceiver} writes entries to a file from a background thread.
+ */
+public class AccessLogHandler implements HttpHandler {
+
+    public static final String COMMON_PATTERN = "%h %l %u %t \"%r\" %s %b";
+    public static final String COMBINED_PATTERN = COMMON_PATTERN + " \"%{Referer}i\" \"%{User-Agent}i\"";
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final AccessLogReceiver receiver;
+    private final String pattern;
+    private final Token[] tokens;
+    private final boolean recordBytesSent;
+    private volatile HttpHandler next;
+    private volatile CachedDate cachedDate;
+
+    public AccessLogHandler(final HttpHandler next, final AccessLogReceiver receiver, final String pattern) {
+        this(next, receiver, pattern, Collections.<String, AccessLogToken>emptyMap());
+    }
+
+    /**
+     * @param next         The next handler
+     * @param receiver     The receiver that log entries are passed to
+     * @param pattern      The log pattern
+     * @param customTokens Custom tokens that are referenced in the pattern as <code>%{name}x</code>
+     */
+    public AccessLogHandler(final HttpHandler next, final AccessLogReceiver receiver, final String pattern, final Map<String, AccessLogToken> customTokens) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        this.receiver = receiver;
+        this.pattern = pattern;
+        final String resolved = resolvePattern(pattern);
+        this.tokens = compile(resolved, customTokens);
+        boolean recordBytesSent = false;
+        for (Token token : tokens) {
+            if (token == BYTES_SENT || token == BYTES_SENT_DASH) {
+                recordBytesSent = true;
+            }
+        }
+        this.recordBytesSent = recordBytesSent;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        final long start = exchange.getRequestStartTime();
+        final LogEntry entry = new LogEntry(start == -1 ? System.nanoTime() : start);
+        if (recordBytesSent) {
+            exchange.addResponseWrapper(entry);
+        }
+        exchange.addExchangeCompleteListener(entry);
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public AccessLogHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+
+    private String format(final HttpServerExchange exchange, final LogEntry entry) {
+        final StringBuilder sb = BUILDER.get();
+        sb.setLength(0);
+        for (Token token : tokens) {
+            token.append(sb, exchange, entry, this);
+        }
+        return sb.toString();
+    }
+
+    private String currentDate(final long time) {
+        final long second = time / 1000;
+        final CachedDate cached = cachedDate;
+        if (cached != null && cached.second == second) {
+            return cached.formatted;
+        }
+        //a race here is harmless, at worst the date is formatted more than once
+        final String formatted = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.US).format(new Date(second * 1000));
+        cachedDate = new CachedDate(second, formatted);
+        return formatted;
+    }
+
+    private static String resolvePattern(final String pattern) {
+        if (pattern.equalsIgnoreCase("common")) {
+            return COMMON_PATTERN;
+        } else if (pattern.equalsIgnoreCase("combined")) {
+            return COMBINED_PATTERN;
+        }
+        return pattern;
+    }
+
+    private static Token[] compile(final String pattern, final Map<String, AccessLogToken> customTokens) {
+        final List<Token> result = new ArrayList<Token>();
+        final StringBuilder literal = new StringBuilder();
+        final int length = pattern.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = pattern.charAt(i);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (++i == length) {
+                throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+            }
+            final char type = pattern.charAt(i);
+            if (type == '%') {
+                literal.append('%');
+                continue;
+            }
+            final Token token;
+            if (type == '{') {
+                final int close = pattern.indexOf('}', i);
+                if (close == -1 || close + 1 == length) {
+                    throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                }
+                final String name = pattern.substring(i + 1, close);
+                i = close + 1;
+                switch (pattern.charAt(i)) {
+                    case 'i':
+                        token = new RequestHeaderToken(new HttpString(name));
+                        break;
+                    case 'o':
+                        token = new ResponseHeaderToken(new HttpString(name));
+                        break;
+                    case 'x':
+                        final AccessLogToken custom = customTokens.get(name);
+                        if (custom == null) {
+                            throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                        }
+                        token = new CustomToken(custom);
+                        break;
+                    default:
+                        throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                }
+            } else {
+                token = simpleToken(type);
+                if (token == null) {
+                    throw UndertowMessages.MESSAGES.invalidAccessLogPattern(pattern, i);
+                }
+            }
+            if (literal.length() > 0) {
+                result.add(new LiteralToken(literal.toString()));
+                literal.setLength(0);
+            }
+            result.add(token);
+        }
+        if (literal.length() > 0) {
+            result.add(new LiteralToken(literal.toString()));
+        }
+        return result.toArray(new Token[result.size()]);
+    }
+
+    private static Token simpleToken(final char type) {
+        switch (type) {
+            case 'a':
+            case 'h':
+                return REMOTE_IP;
+            case 'A':
+                return LOCAL_IP;
+            case 'b':
+                return BYTES_SENT_DASH;
+            case 'B':
+                return BYTES_SENT;
+            case 'D':
+                return TIME_TAKEN_MILLIS;
+            case 'H':
+                return PROTOCOL;
+            case 'l':
+                return DASH;
+            case 'm':
+                return METHOD;
+            case 'p':
+                return LOCAL_PORT;
+            case 'q':
+                return QUERY_STRING;
+            case 'r':
+                return REQUEST_LINE;
+            case 's':
+                return STATUS;
+            case 't':
+                return DATE_TIME;
+            case 'T':
+                return TIME_TAKEN_SECONDS;
+            case 'u':
+                return REMOTE_USER;
+            case 'U':
+                return REQUEST_PATH;
+            default:
+                return null;
+        }
+    }
+
+    private interface Token {
+        void append(StringBuilder sb, HttpServerExchange exchange, LogEntry entry, AccessLogHandler handler);
+    }
+
+    private static final Token REMOTE_IP = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            appendAddress(sb, exchange.getSourceAddress());
+        }
+    };
+
+    private static final Token LOCAL_IP = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            appendAddress(sb, exchange.getDestinationAddress());
+        }
+    };
+
+    private static final Token LOCAL_PORT = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            final InetSocketAddress address = exchange.getDestinationAddress();
+            if (address == null) {
+                sb.append('-');
+            } else {
+                sb.append(address.getPort());
+            }
+        }
+    };
+
+    private static final Token BYTES_SENT = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(entry.bytesSent());
+        }
+    };
+
+    private static final Token BYTES_SENT_DASH = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            final long bytes = entry.bytesSent();
+            if (bytes == 0) {
+                sb.append('-');
+            } else {
+                sb.append(bytes);
+            }
+        }
+    };
+
+    private static final Token TIME_TAKEN_MILLIS = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append((entry.end - entry.start) / 1000000);
+        }
+    };
+
+    private static final Token TIME_TAKEN_SECONDS = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append((entry.end - entry.start) / 1000000000);
+        }
+    };
+
+    private static final Token PROTOCOL = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(exchange.getProtocol());
+        }
+    };
+
+    private static final Token DASH = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append('-');
+        }
+    };
+
+    private static final Token METHOD = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(exchange.getRequestMethod());
+        }
+    };
+
+    private static final Token QUERY_STRING = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            final String query = exchange.getQueryString();
+            if (query != null && !query.isEmpty()) {
+                sb.append('?');
+                appendHeaderValue(sb, query);
+            }
+        }
+    };
+
+    private static final Token REQUEST_LINE = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(exchange.getRequestMethod()).append(' ');
+            appendHeaderValue(sb, exchange.getRequestURI());
+            QUERY_STRING.append(sb, exchange, entry, handler);
+            sb.append(' ').append(exchange.getProtocol());
+        }
+    };
+
+    private static final Token STATUS = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(exchange.getResponseCode());
+        }
+    };
+
+    private static final Token DATE_TIME = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(handler.currentDate(entry.date));
+        }
+    };
+
+    private static final Token REMOTE_USER = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            final SecurityContext context = exchange.getAttachment(SecurityContext.ATTACHMENT_KEY);
+            final Account account = context == null ? null : context.getAuthenticatedAccount();
+            if (account == null) {
+                sb.append('-');
+            } else {
+                sb.append(account.getPrincipal().getName());
+            }
+        }
+    };
+
+    private static final Token REQUEST_PATH = new Token() {
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            appendHeaderValue(sb, exchange.getRequestURI());
+        }
+    };
+
+    private static void appendAddress(final StringBuilder sb, final InetSocketAddress address) {
+        if (address == null || address.getAddress() == null) {
+            sb.append('-');
+        } else {
+            sb.append(address.getAddress().getHostAddress());
+        }
+    }
+
+    private static final class LiteralToken implements Token {
+        private final String value;
+
+        private LiteralToken(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Appends a header value or request target, escaping characters that would allow a client to break out of
+     * a quoted field or forge additional log entries.
+     */
+    private static void appendHeaderValue(final StringBuilder sb, final String value) {
+        if (value == null) {
+            sb.append('-');
+            return;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        sb.append("\\x");
+                        sb.append(Character.forDigit(c >> 4, 16));
+                        sb.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+
+    private static final class RequestHeaderToken implements Token {
+        private final HttpString header;
+
+        private RequestHeaderToken(final HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            appendHeaderValue(sb, exchange.getRequestHeaders().getFirst(header));
+        }
+    }
+
+    private static final class ResponseHeaderToken implements Token {
+        private final HttpString header;
+
+        private ResponseHeaderToken(final HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            appendHeaderValue(sb, exchange.getResponseHeaders().getFirst(header));
+        }
+    }
+
+    private static final class CustomToken implements Token {
+        private final AccessLogToken token;
+
+        private CustomToken(final AccessLogToken token) {
+            this.token = token;
+        }
+
+        @Override
+        public void append(final StringBuilder sb, final HttpServerExchange exchange, final LogEntry entry, final AccessLogHandler handler) {
+            token.append(sb, exchange);
+        }
+    }
+
+    private static final class CachedDate {
+        private final long second;
+        private final String formatted;
+
+        private CachedDate(final long second, final String formatted) {
+            this.second = second;
+            this.formatted = formatted;
+        }
+    }
+
+    /**
+     * The state of a single request. This counts the response bytes if required, and writes the log
+     * entry once the exchange is complete.
+     */
+    private final class LogEntry implements ExchangeCompletionListener, ConduitWrapper<StreamSinkConduit> {
+
+        private final long start;
+        private final long date = System.currentTimeMillis();
+        private long end;
+        private BytesSentStreamSinkConduit responseConduit;
+
+        private LogEntry(final long start) {
+            this.start = start;
+        }
+
+        long bytesSent() {
+            return responseConduit == null ? 0 : responseConduit.getBytesSent();
+        }
+
+        @Override
+        public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+            return responseConduit = new BytesSentStreamSinkConduit(factory.create());
+        }
+
+        @Override
+        public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+            try {
+                end = System.nanoTime();
+                receiver.logMessage(format(exchange, this));
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+}
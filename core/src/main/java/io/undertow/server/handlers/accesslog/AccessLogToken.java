@@ -0,0 +1,37 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A custom token that can be used in an access log pattern, in the form <code>%{name}x</code>.
+ *
+ * @see AccessLogHandler#AccessLogHandler(io.undertow.server.HttpHandler, AccessLogReceiver, String, java.util.Map)
+ */
+public interface AccessLogToken {
+
+    /**
+     * Appends the value of this token for the completed exchange.
+     *
+     * @param builder  The log line that is being built
+     * @param exchange The exchange
+     */
+    void append(final StringBuilder builder, final HttpServerExchange exchange);
+}
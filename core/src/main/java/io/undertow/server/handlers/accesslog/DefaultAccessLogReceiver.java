@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import org.xnio.IoUtils;
+
+/**
+ * An access log receiver that writes log entries to a file.
+ * <p/>
+ * Entries are added to a lock free queue, and a single background thread drains the queue and writes
+ * the entries in batches through a {@link FileChannel}. Logging a message never blocks and never performs IO,
+ * so it is safe to use from an IO thread. The queue is bounded, if the writer cannot keep up then new entries
+ * are dropped and counted rather than being allowed to exhaust the heap. The writer thread is started when the
+ * first entry is logged.
+ * <p/>
+ * The log is written to <code>&lt;directory&gt;/&lt;baseName&gt;.log</code>. The file is rotated when it grows
+ * past the maximum size, and once every rotation interval. Rotated files are renamed to include the time of
+ * the rotation, e.g. <code>access.2013-01-31-23-59-59.log</code>.
+ */
+public class DefaultAccessLogReceiver implements AccessLogReceiver, Closeable {
+
+    /**
+     * The size of the buffer that batches are written from
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How long the writer waits for new messages before checking if the log needs to be rotated
+     */
+    private static final long IDLE_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+
+    private final File directory;
+    private final String baseName;
+    private final long maxFileSize;
+    private final long rotationInterval;
+    private final int maxQueueSize;
+    private final Queue<String> pending = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writer;
+
+    private volatile boolean waiting;
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    //these are only touched by the writer thread
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private FileChannel channel;
+    private long fileSize;
+    private long nextRotation;
+    private long reportedDropped;
+
+    /**
+     * Creates a receiver that never rotates the log.
+     *
+     * @param directory The directory to write the log to
+     * @param baseName  The base name of the log file
+     */
+    public DefaultAccessLogReceiver(final File directory, final String baseName) {
+        this(directory, baseName, -1, -1);
+    }
+
+    /**
+     * @param directory        The directory to write the log to
+     * @param baseName         The base name of the log file
+     * @param maxFileSize      The size in bytes that the log will be rotated at, or -1 to disable size based rotation
+     * @param rotationInterval The interval in milliseconds that the log will be rotated at, or -1 to disable time based rotation.
+     *                         Rotation times are aligned to the interval, so an interval of one day rotates the log at midnight UTC.
+     */
+    public DefaultAccessLogReceiver(final File directory, final String baseName, final long maxFileSize, final long rotationInterval) {
+        this(directory, baseName, maxFileSize, rotationInterval, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * @param directory        The directory to write the log to
+     * @param baseName         The base name of the log file
+     * @param maxFileSize      The size in bytes that the log will be rotated at, or -1 to disable size based rotation
+     * @param rotationInterval The interval in milliseconds that the log will be rotated at, or -1 to disable time based rotation.
+     * @param maxQueueSize     The maximum number of entries waiting to be written, further entries are dropped
+     */
+    public DefaultAccessLogReceiver(final File directory, final String baseName, final long maxFileSize, final long rotationInterval, final int maxQueueSize) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.maxFileSize = maxFileSize;
+        this.rotationInterval = rotationInterval;
+        this.maxQueueSize = maxQueueSize;
+        this.writer = new Thread(new Writer(), "undertow-access-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    @Override
+    public void logMessage(final String message) {
+        if (!started) {
+            startWriter();
+        }
+        if (closed) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        if (pendingCount.incrementAndGet() > maxQueueSize) {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return;
+        }
+        pending.add(message);
+        if (waiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * @return The number of entries that have been dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The file that log entries are currently being written to
+     */
+    public File getLogFile() {
+        return new File(directory, baseName + ".log");
+    }
+
+    /**
+     * Writes any pending entries and stops the writer thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (!started) {
+                return;
+            }
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void startWriter() {
+        if (!started && !closed) {
+            writer.start();
+            started = true;
+        }
+    }
+
+    private String poll() {
+        final String message = pending.poll();
+        if (message != null) {
+            pendingCount.decrementAndGet();
+        }
+        return message;
+    }
+
+    private void reportDropped() {
+        final long dropped = droppedCount.get();
+        if (dropped != reportedDropped) {
+            UndertowLogger.ROOT_LOGGER.accessLogEntriesDropped(getLogFile(), dropped - reportedDropped);
+            reportedDropped = dropped;
+        }
+    }
+
+    private void writeMessage(final String message) throws IOException {
+        final CharBuffer chars = CharBuffer.wrap(message);
+        encoder.reset();
+        for (;;) {
+            final CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else {
+                break;
+            }
+        }
+        if (!buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            final FileChannel channel = channel();
+            while (buffer.hasRemaining()) {
+                fileSize += channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            directory.mkdirs();
+            channel = FileChannel.open(getLogFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            fileSize = channel.size();
+            if (rotationInterval > 0) {
+                nextRotation = (System.currentTimeMillis() / rotationInterval + 1) * rotationInterval;
+            }
+        }
+        return channel;
+    }
+
+    private void rotateIfRequired() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if ((maxFileSize > 0 && fileSize >= maxFileSize) || (rotationInterval > 0 && System.currentTimeMillis() >= nextRotation)) {
+            channel.close();
+            channel = null;
+            final String date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(new Date());
+            File target = new File(directory, baseName + "." + date + ".log");
+            int count = 1;
+            while (target.exists()) {
+                target = new File(directory, baseName + "." + date + "-" + count++ + ".log");
+            }
+            if (!getLogFile().renameTo(target)) {
+                throw UndertowMessages.MESSAGES.couldNotRotateAccessLog(getLogFile(), target);
+            }
+        }
+    }
+
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    try {
+                        String message = poll();
+                        if (message == null) {
+                            flushBuffer();
+                            rotateIfRequired();
+                            reportDropped();
+                            if (closed) {
+                                if (pending.isEmpty()) {
+                                    return;
+                                }
+                                //entries were added between the poll and close
+                                continue;
+                            }
+                            waiting = true;
+                            if (pending.isEmpty() && !closed) {
+                                LockSupport.parkNanos(DefaultAccessLogReceiver.this, IDLE_WAIT);
+                            }
+                            waiting = false;
+                            continue;
+                        }
+                        do {
+                            writeMessage(message);
+                        } while ((message = poll()) != null);
+                        flushBuffer();
+                        rotateIfRequired();
+                    } catch (IOException e) {
+                        UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(getLogFile(), e);
+                        buffer.clear();
+                        IoUtils.safeClose(channel);
+                        channel = null;
+                        if (closed) {
+                            return;
+                        }
+                    }
+                }
+            } finally {
+                IoUtils.safeClose(channel);
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * A point in time snapshot of the state of a {@link LimitedBufferSlicePool}.
+ */
+public final class BufferPoolMetrics {
+
+    private final int sliceSize;
+    private final int regionCount;
+    private final int slicesAllocated;
+    private final int slicesInUse;
+    private final int slicesFree;
+    private final long allocationFailures;
+
+    public BufferPoolMetrics(final int sliceSize, final int regionCount, final int slicesAllocated, final int slicesInUse, final int slicesFree, final long allocationFailures) {
+        this.sliceSize = sliceSize;
+        this.regionCount = regionCount;
+        this.slicesAllocated = slicesAllocated;
+        this.slicesInUse = slicesInUse;
+        this.slicesFree = slicesFree;
+        this.allocationFailures = allocationFailures;
+    }
+
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    public int getSlicesAllocated() {
+        return slicesAllocated;
+    }
+
+    public int getSlicesInUse() {
+        return slicesInUse;
+    }
+
+    public int getSlicesFree() {
+        return slicesFree;
+    }
+
+    public long getAllocationFailures() {
+        return allocationFailures;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPoolMetrics{" +
+                "sliceSize=" + sliceSize +
+                ", regionCount=" + regionCount +
+                ", slicesAllocated=" + slicesAllocated +
+                ", slicesInUse=" + slicesInUse +
+                ", slicesFree=" + slicesFree +
+                ", allocationFailures=" + allocationFailures +
+                '}';
+    }
+}
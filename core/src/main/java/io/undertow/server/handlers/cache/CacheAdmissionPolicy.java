@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * Decides if a new entry should be given space in a {@link DirectBufferCache} when an existing entry would
+ * have to be evicted to make room for it.
+ * <p/>
+ * Implementations must be thread safe, as they are called concurrently from every thread that uses the cache.
+ *
+ * @see TinyLfuAdmissionPolicy
+ */
+public interface CacheAdmissionPolicy {
+
+    /**
+     * Records an access to the given key. This is called for every lookup, whether or not it is a hit.
+     *
+     * @param key The key
+     */
+    void recordAccess(Object key);
+
+    /**
+     * @param candidate The key of the entry that needs space
+     * @param victim    The key of the entry that would be evicted
+     * @return <code>true</code> if the victim should be evicted in favour of the candidate
+     */
+    boolean admit(Object candidate, Object victim);
+
+}
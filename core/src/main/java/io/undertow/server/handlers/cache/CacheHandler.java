@@ -1,5 +1,7 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.List;
+
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
@@ -8,6 +10,8 @@ import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.util.ConduitFactory;
 import org.xnio.conduits.StreamSinkConduit;
 
+import static io.undertow.util.Headers.CACHE_CONTROL;
+import static io.undertow.util.Headers.CONTENT_ENCODING;
 import static io.undertow.util.Headers.CONTENT_LENGTH;
 
 /**
@@ -47,14 +51,31 @@ public class CacheHandler implements HttpHandler {
                     //we don't cache chunked requests
                     return factory.create();
                 }
+                final int maxAge = getMaxAge(exchange.getResponseHeaders().get(CACHE_CONTROL));
+                if (maxAge == 0) {
+                    return factory.create();
+                }
+                final CachedHttpRequest lookupKey = responseCache.getCacheKey();
+                if (!lookupKey.isVaryCovered(exchange.getResponseHeaders())) {
+                    return factory.create();
+                }
                 int length = Integer.parseInt(lengthString);
-                final CachedHttpRequest key = new CachedHttpRequest(exchange);
-                final DirectBufferCache.CacheEntry entry = cache.add(key, length);
+                //if an encoding wrapper has already been applied then the content encoding is set,
+                //and what we see is the encoded body
+                final String contentEncoding = exchange.getResponseHeaders().getFirst(CONTENT_ENCODING);
+                final CachedHttpRequest key = new CachedHttpRequest(lookupKey, contentEncoding);
+                final DirectBufferCache.CacheEntry<CachedHttpRequest> entry = cache.add(key, length, maxAge);
 
                 if (entry == null || entry.buffers().length == 0 || !entry.claimEnable()) {
                     return factory.create();
                 }
 
+                final String existingEncoding = entry.key().getResponseContentEncoding();
+                if (existingEncoding == null ? contentEncoding != null : !existingEncoding.equals(contentEncoding)) {
+                    entry.disable();
+                    return factory.create();
+                }
+
                 if (!entry.reference()) {
                     entry.disable();
                     return factory.create();
@@ -66,6 +87,46 @@ public class CacheHandler implements HttpHandler {
         HttpHandlers.executeHandler(next, exchange);
     }
 
+    /**
+     * Determines how long a response may be cached for from its Cache-Control header.
+     *
+     * @return The max age in seconds, -1 if there is no limit, or 0 if the response must not be cached
+     */
+    static int getMaxAge(final List<String> cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        int maxAge = -1;
+        int sharedMaxAge = -1;
+        for (String header : cacheControl) {
+            for (String directive : header.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")) {
+                    return 0;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring(8));
+                } else if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = parseSeconds(directive.substring(9));
+                }
+            }
+        }
+        //s-maxage takes precedence, as this is a shared cache
+        return sharedMaxAge != -1 ? sharedMaxAge : maxAge;
+    }
+
+    private static int parseSeconds(final String value) {
+        try {
+            final long seconds = Long.parseLong(value.trim());
+            if (seconds < 0) {
+                return 0;
+            }
+            return (int) Math.min(seconds, Integer.MAX_VALUE / 1000);
+        } catch (NumberFormatException e) {
+            //an invalid max age means the response is already stale
+            return 0;
+        }
+    }
+
     public HttpHandler getNext() {
         return next;
     }
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * A point in time snapshot of the state of a {@link DirectBufferCache}.
+ */
+public final class CacheMetrics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entryCount;
+    private final int cachedEntryCount;
+    private final long bytesCached;
+    private final BufferPoolMetrics bufferPoolMetrics;
+
+    public CacheMetrics(final long hits, final long misses, final long evictions, final int entryCount, final int cachedEntryCount, final long bytesCached, final BufferPoolMetrics bufferPoolMetrics) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entryCount = entryCount;
+        this.cachedEntryCount = cachedEntryCount;
+        this.bytesCached = bytesCached;
+        this.bufferPoolMetrics = bufferPoolMetrics;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries that have been removed to make room for other entries
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of entries in the cache, including entries that do not have any data loaded
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return The number of entries that have data loaded into the cache
+     */
+    public int getCachedEntryCount() {
+        return cachedEntryCount;
+    }
+
+    public long getBytesCached() {
+        return bytesCached;
+    }
+
+    public long getAverageEntrySize() {
+        return cachedEntryCount == 0 ? 0 : bytesCached / cachedEntryCount;
+    }
+
+    public BufferPoolMetrics getBufferPoolMetrics() {
+        return bufferPoolMetrics;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheMetrics{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", entryCount=" + entryCount +
+                ", cachedEntryCount=" + cachedEntryCount +
+                ", bytesCached=" + bytesCached +
+                ", averageEntrySize=" + getAverageEntrySize() +
+                ", bufferPool=" + bufferPoolMetrics +
+                '}';
+    }
+}
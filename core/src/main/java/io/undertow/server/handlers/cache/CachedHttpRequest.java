@@ -1,13 +1,29 @@
 package io.undertow.server.handlers.cache;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.encoding.ContentEncoding;
 import io.undertow.util.DateUtils;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 
 /**
+ * The key for a cached response.
+ * <p/>
+ * As well as the request path and the response validators the key contains the value of every request header that
+ * is listed in the response's Vary header, so different variants of the same resource (e.g. a compressed and an
+ * uncompressed copy) are stored as separate entries. For the Accept-Encoding header the list of encodings that was
+ * negotiated by the {@link ContentEncoding} is used rather than the raw header, so clients that send different
+ * headers but will be sent the same encoding share an entry.
+ * <p/>
+ * The content encoding of the cached body is not part of the key, it is recorded when the entry is stored so it
+ * can be sent with the cached response.
+ *
  * @author Stuart Douglas
  */
 public class CachedHttpRequest {
@@ -19,7 +35,17 @@ public class CachedHttpRequest {
     private final String contentType;
     private final Date lastModified;
     private final int responseCode;
+    private final String varyValues;
 
+    /**
+     * The lower case names of the request headers in the Vary header, or null if the response varies on everything
+     */
+    private final List<String> varyNames;
+
+    /**
+     * The content encoding of the cached body. This is not part of the key.
+     */
+    private final String responseContentEncoding;
 
     public CachedHttpRequest(final HttpServerExchange exchange) {
         this.path = exchange.getRequestPath();
@@ -42,6 +68,92 @@ public class CachedHttpRequest {
             this.contentEncoding = exchange.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
         }
         this.responseCode = exchange.getResponseCode();
+        this.varyNames = parseVary(exchange.getResponseHeaders());
+        this.varyValues = varyNames == null ? null : varyValues(exchange, varyNames, encoding);
+        this.responseContentEncoding = null;
+    }
+
+    /**
+     * Creates the key that a response is stored under. The key is equal to the key that was used to look up the
+     * response, so future lookups made in the same way will find it.
+     *
+     * @param lookupKey               The key that was used to look up the response
+     * @param responseContentEncoding The content encoding of the body that is being cached
+     */
+    CachedHttpRequest(final CachedHttpRequest lookupKey, final String responseContentEncoding) {
+        this.path = lookupKey.path;
+        this.etag = lookupKey.etag;
+        this.contentEncoding = lookupKey.contentEncoding;
+        this.contentLocation = lookupKey.contentLocation;
+        this.language = lookupKey.language;
+        this.contentType = lookupKey.contentType;
+        this.lastModified = lookupKey.lastModified;
+        this.responseCode = lookupKey.responseCode;
+        this.varyNames = lookupKey.varyNames;
+        this.varyValues = lookupKey.varyValues;
+        this.responseContentEncoding = responseContentEncoding;
+    }
+
+    /**
+     * Determines if a response with the given headers can be stored under this key. This is not the case if the
+     * response varies on a request header that was not known when the key was created, as requests with different
+     * values for that header would be served the same response.
+     */
+    boolean isVaryCovered(final HeaderMap responseHeaders) {
+        if (varyNames == null) {
+            return false;
+        }
+        final List<String> names = parseVary(responseHeaders);
+        return names != null && varyNames.containsAll(names);
+    }
+
+    /**
+     * @return The lower case names of the headers in the Vary header, or null if it contains *
+     */
+    private static List<String> parseVary(final HeaderMap responseHeaders) {
+        final List<String> vary = responseHeaders.get(Headers.VARY);
+        if (vary == null || vary.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> names = new ArrayList<String>();
+        for (String header : vary) {
+            for (String name : header.split(",")) {
+                name = name.trim().toLowerCase();
+                if (name.equals("*")) {
+                    return null;
+                }
+                if (!name.isEmpty() && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static String varyValues(final HttpServerExchange exchange, final List<String> names, final ContentEncoding encoding) {
+        if (names.isEmpty()) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            builder.append(name).append(':');
+            if (encoding != null && name.equals("accept-encoding")) {
+                builder.append(encoding.getNegotiatedEncodings());
+            } else {
+                final List<String> values = exchange.getRequestHeaders().get(new HttpString(name));
+                if (values != null) {
+                    for (int i = 0; i < values.size(); ++i) {
+                        if (i != 0) {
+                            builder.append(',');
+                        }
+                        builder.append(values.get(i));
+                    }
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
     }
 
     public String getPath() {
@@ -76,6 +188,10 @@ public class CachedHttpRequest {
         return responseCode;
     }
 
+    public String getResponseContentEncoding() {
+        return responseContentEncoding;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -93,6 +209,8 @@ public class CachedHttpRequest {
         if (language != null ? !language.equals(that.language) : that.language != null) return false;
         if (lastModified != null ? !lastModified.equals(that.lastModified) : that.lastModified != null) return false;
         if (path != null ? !path.equals(that.path) : that.path != null) return false;
+        if (varyValues != null ? !varyValues.equals(that.varyValues) : that.varyValues != null) return false;
+        if (varyNames == null ? that.varyNames != null : that.varyNames == null) return false;
 
         return true;
     }
@@ -107,6 +225,7 @@ public class CachedHttpRequest {
         result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
         result = 31 * result + (lastModified != null ? lastModified.hashCode() : 0);
         result = 31 * result + responseCode;
+        result = 31 * result + (varyValues != null ? varyValues.hashCode() : 0);
         return result;
     }
 }
@@ -20,9 +20,16 @@ package io.undertow.server.handlers.cache;
 
 import static io.undertow.server.handlers.cache.LimitedBufferSlicePool.PooledByteBuffer;
 
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.undertow.UndertowLogger;
 import io.undertow.util.SecureHashMap;
 import org.xnio.BufferAllocator;
 
@@ -32,33 +39,95 @@ import org.xnio.BufferAllocator;
  * a file system cache, where the path corresponds to a file location.
  *
  * <p>To reduce contention, entry allocation and eviction execute in a sampling
- * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity</p>
+ * fashion (entry hits modulo N). Eviction follows a segmented LRU approach when the
+ * cache is out of capacity. New entries are placed in a probation segment, and are
+ * promoted to a protected segment if they are sampled again once their data has been
+ * loaded. Entries are evicted from the probation segment first (oldest sampled entries
+ * are removed first), so entries that are only accessed a few times cannot push out
+ * entries that are accessed repeatedly. If the protected segment grows beyond 80% of
+ * the cache its oldest entries are moved back to the probation segment.</p>
+ *
+ * <p>A {@link CacheAdmissionPolicy} can be used to further restrict eviction, so that an
+ * entry is only evicted in favour of an entry that is accessed more often
+ * (see {@link TinyLfuAdmissionPolicy}).</p>
  *
  * <p>In order to expedite reclamation, cache entries are reference counted as
  * opposed to garbage collected.</p>
  *
+ * <p>Occupancy and hit rate information is available from {@link #getMetrics()}, and the cache can be
+ * exposed over JMX using {@link #registerMBean(String)}.</p>
+ *
  * @author Jason T. Greene
  */
-public class DirectBufferCache<K> {
+public class DirectBufferCache<K> implements DirectBufferCacheMXBean {
     private static final int SAMPLE_INTERVAL = 5;
+    private static final int PROTECTED_PERCENTAGE = 80;
+    private static final int MAX_DEMOTIONS = 4;
+
+    private static final AtomicLongFieldUpdater<DirectBufferCache> hitsUpdater = AtomicLongFieldUpdater.newUpdater(DirectBufferCache.class, "hits");
+    private static final AtomicLongFieldUpdater<DirectBufferCache> missesUpdater = AtomicLongFieldUpdater.newUpdater(DirectBufferCache.class, "misses");
+    private static final AtomicLongFieldUpdater<DirectBufferCache> evictionsUpdater = AtomicLongFieldUpdater.newUpdater(DirectBufferCache.class, "evictions");
+    private static final AtomicLongFieldUpdater<DirectBufferCache> bytesCachedUpdater = AtomicLongFieldUpdater.newUpdater(DirectBufferCache.class, "bytesCached");
+    private static final AtomicIntegerFieldUpdater<DirectBufferCache> cachedEntriesUpdater = AtomicIntegerFieldUpdater.newUpdater(DirectBufferCache.class, "cachedEntries");
+    private static final AtomicLongFieldUpdater<DirectBufferCache> protectedBytesUpdater = AtomicLongFieldUpdater.newUpdater(DirectBufferCache.class, "protectedBytes");
 
     private final LimitedBufferSlicePool pool;
     private final SecureHashMap<K, CacheEntry<K>> cache;
-    private final ConcurrentDirectDeque<CacheEntry<K>> accessQueue;
+    private final ConcurrentDirectDeque<CacheEntry<K>> probationQueue;
+    private final ConcurrentDirectDeque<CacheEntry<K>> protectedQueue;
+    private final CacheAdmissionPolicy admissionPolicy;
     private final int sliceSize;
+    private final long maxProtectedBytes;
+
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long evictions;
+    private volatile long bytesCached;
+    /**
+     * The number of entries that currently hold buffers
+     */
+    private volatile int cachedEntries;
+    /**
+     * The total size of the entries in the protected segment
+     */
+    private volatile long protectedBytes;
+    private volatile ObjectName objectName;
 
     public DirectBufferCache(int sliceSize, int max) {
+        this(sliceSize, max, null);
+    }
+
+    /**
+     * @param sliceSize       The size of the buffer slices that entries are stored in
+     * @param max             The maximum size of the cache in bytes
+     * @param admissionPolicy The admission policy, or null if entries should always be admitted
+     */
+    public DirectBufferCache(int sliceSize, int max, CacheAdmissionPolicy admissionPolicy) {
         this.sliceSize = sliceSize;
         this.pool = new LimitedBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, sliceSize, max, 1);
         this.cache = new SecureHashMap<K, CacheEntry<K>>(16);
-        this.accessQueue = ConcurrentDirectDeque.newInstance();
+        this.probationQueue = ConcurrentDirectDeque.newInstance();
+        this.protectedQueue = ConcurrentDirectDeque.newInstance();
+        this.admissionPolicy = admissionPolicy;
+        this.maxProtectedBytes = (long) max * PROTECTED_PERCENTAGE / 100;
     }
 
     public CacheEntry add(K key, int size) {
+        return add(key, size, -1);
+    }
+
+    /**
+     * Adds an entry to the cache, or returns the existing entry if one is already present.
+     *
+     * @param key    The key
+     * @param size   The size of the entry
+     * @param maxAge The number of seconds the entry may be served for, or -1 if it does not expire
+     * @return The cache entry
+     */
+    public CacheEntry add(K key, int size, int maxAge) {
         CacheEntry<K> value = cache.get(key);
         if (value == null) {
-            value = new CacheEntry<K>(key, size, this);
+            value = new CacheEntry<K>(key, size, maxAge > 0 ? System.currentTimeMillis() + maxAge * 1000L : -1, this);
             CacheEntry result = cache.putIfAbsent(key, value);
             if (result != null) {
                 value = result;
@@ -71,57 +140,143 @@ public class DirectBufferCache<K> {
     }
 
     public CacheEntry<K> get(K key) {
+        final CacheAdmissionPolicy admissionPolicy = this.admissionPolicy;
+        if (admissionPolicy != null) {
+            admissionPolicy.recordAccess(key);
+        }
         CacheEntry<K> cacheEntry = cache.get(key);
         if (cacheEntry == null) {
+            missesUpdater.incrementAndGet(this);
+            return null;
+        }
+        if (cacheEntry.expires != -1 && cacheEntry.expires < System.currentTimeMillis()) {
+            removeEntry(cacheEntry);
+            missesUpdater.incrementAndGet(this);
             return null;
         }
+        hitsUpdater.incrementAndGet(this);
 
         if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
             bumpAccess(cacheEntry);
 
             if (! cacheEntry.allocate()) {
                 // Try and make room
-                int reclaimSize = cacheEntry.size();
-                for (CacheEntry<K> oldest : accessQueue) {
-                    if (oldest == cacheEntry) {
-                        continue;
-                    }
+                makeRoom(cacheEntry);
 
-                    if (oldest.buffers().length > 0) {
-                        reclaimSize -= oldest.size();
-                    }
+                // Maybe lucky?
+                cacheEntry.allocate();
+            }
+        }
 
-                    this.remove(oldest.key());
+        return cacheEntry;
+    }
 
-                    if (reclaimSize <= 0) {
-                        break;
+    /**
+     * Evicts entries to make room for the candidate, oldest probation entries first. If there is an admission policy
+     * then an entry that holds data is only evicted if the policy admits the candidate in its place.
+     */
+    private void makeRoom(CacheEntry<K> candidate) {
+        int reclaimSize = candidate.size();
+        for (int i = 0; i < 2; ++i) {
+            final ConcurrentDirectDeque<CacheEntry<K>> queue = i == 0 ? probationQueue : protectedQueue;
+            for (CacheEntry<K> oldest : queue) {
+                if (oldest == candidate) {
+                    continue;
+                }
+
+                final boolean hasData = oldest.buffers().length > 0;
+                if (hasData && admissionPolicy != null && !admissionPolicy.admit(candidate.key(), oldest.key())) {
+                    return;
+                }
+
+                if (removeEntry(oldest)) {
+                    evictionsUpdater.incrementAndGet(this);
+                    if (hasData) {
+                        reclaimSize -= oldest.size();
                     }
                 }
 
-                // Maybe lucky?
-                cacheEntry.allocate();
+                if (reclaimSize <= 0) {
+                    return;
+                }
             }
         }
-
-        return cacheEntry;
     }
 
     private void bumpAccess(CacheEntry<K> cacheEntry) {
         Object prevToken = cacheEntry.claimToken();
         if (prevToken != Boolean.FALSE) {
+            // if there is no previous token the entry is new, or was unlinked while it was protected,
+            // in which case the protected size has already been adjusted
+            final boolean wasProtected = prevToken != null && cacheEntry.protectedSegment;
             if (prevToken != null) {
-                accessQueue.removeToken(prevToken);
+                (wasProtected ? protectedQueue : probationQueue).removeToken(prevToken);
             }
 
+            // a probation entry that is sampled again after its data is loaded is promoted
+            final boolean promote = !wasProtected && prevToken != null && cacheEntry.buffers().length > 0;
+            boolean isProtected = wasProtected || promote;
+            if (promote) {
+                protectedBytesUpdater.addAndGet(this, cacheEntry.size());
+            }
+            final ConcurrentDirectDeque<CacheEntry<K>> queue = isProtected ? protectedQueue : probationQueue;
+
             Object token = null;
             try {
-                token = accessQueue.offerLastAndReturnToken(cacheEntry);
+                token = queue.offerLastAndReturnToken(cacheEntry);
             } catch (Throwable t) {
                 // In case of disaster (OOME), we need to release the claim, so leave it aas null
             }
+            if (token == null && isProtected) {
+                protectedBytesUpdater.addAndGet(this, -cacheEntry.size());
+                isProtected = false;
+            }
+            cacheEntry.protectedSegment = isProtected;
+
+            if (! cacheEntry.setToken(token)) {
+                // the entry was unlinked while we held the claim
+                if (token != null) {
+                    queue.removeToken(token);
+                }
+                if (isProtected) {
+                    protectedBytesUpdater.addAndGet(this, -cacheEntry.size());
+                }
+            } else if (promote) {
+                demoteOverflow();
+            }
+        }
+    }
+
+    /**
+     * Moves the oldest protected entries back to the probation segment, if the protected segment is too large
+     */
+    private void demoteOverflow() {
+        for (int i = 0; i < MAX_DEMOTIONS && protectedBytes > maxProtectedBytes; ++i) {
+            final CacheEntry<K> oldest = protectedQueue.peekFirst();
+            if (oldest == null) {
+                return;
+            }
+            final Object prevToken = oldest.claimToken();
+            if (prevToken == Boolean.FALSE) {
+                // somebody else is moving it
+                return;
+            }
+            if (prevToken == null || !oldest.protectedSegment) {
+                oldest.setToken(prevToken);
+                return;
+            }
+            protectedQueue.removeToken(prevToken);
+            protectedBytesUpdater.addAndGet(this, -oldest.size());
+            oldest.protectedSegment = false;
 
-            if (! cacheEntry.setToken(token) && token != null) { // Always set if null
-                accessQueue.removeToken(token);
+            Object token = null;
+            try {
+                token = probationQueue.offerLastAndReturnToken(oldest);
+            } catch (Throwable t) {
+                // In case of disaster (OOME), we need to release the claim, so leave it aas null
+            }
+            if (! oldest.setToken(token) && token != null) {
+                probationQueue.removeToken(token);
             }
         }
     }
@@ -130,17 +285,162 @@ public class DirectBufferCache<K> {
     public void remove(K key) {
         CacheEntry<K> remove = cache.remove(key);
         if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
-            }
+            unlink(remove);
             remove.dereference();
         }
     }
 
+    /**
+     * Removes the given entry, if it is still the entry that is mapped to its key. The entry is always removed
+     * from the access queues.
+     *
+     * @return <code>true</code> if the entry was removed from the cache
+     */
+    private boolean removeEntry(CacheEntry<K> entry) {
+        final boolean removed = cache.remove(entry.key(), entry);
+        unlink(entry);
+        if (removed) {
+            entry.dereference();
+        }
+        return removed;
+    }
+
+    private void unlink(CacheEntry<K> entry) {
+        Object old = entry.clearToken();
+        if (old != null) {
+            // the segment only changes while the token is claimed, so it is stable here
+            if (entry.protectedSegment) {
+                protectedBytesUpdater.addAndGet(this, -entry.size());
+                protectedQueue.removeToken(old);
+            } else {
+                probationQueue.removeToken(old);
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the current state of the cache and its buffer pool
+     */
+    public CacheMetrics getMetrics() {
+        return new CacheMetrics(hits, misses, evictions, cache.size(), cachedEntries, bytesCached, pool.getMetrics());
+    }
+
+    /**
+     * Registers this cache with the platform MBean server, under the name
+     * <code>io.undertow:type=DirectBufferCache,name=&lt;name&gt;</code>. Failures are logged rather than
+     * thrown, as the cache is fully functional without management.
+     *
+     * @param name The name of the cache
+     */
+    public synchronized void registerMBean(final String name) {
+        if (objectName != null) {
+            unregisterMBean();
+        }
+        try {
+            final ObjectName objectName = new ObjectName("io.undertow:type=DirectBufferCache,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            UndertowLogger.ROOT_LOGGER.failedToRegisterMBean(name, e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        final ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+        this.objectName = null;
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            UndertowLogger.ROOT_LOGGER.failedToUnregisterMBean(objectName.toString(), e);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return cache.size();
+    }
+
+    @Override
+    public int getCachedEntryCount() {
+        return cachedEntries;
+    }
+
+    @Override
+    public long getBytesCached() {
+        return bytesCached;
+    }
+
+    @Override
+    public long getAverageEntrySize() {
+        final int entries = cachedEntries;
+        return entries <= 0 ? 0 : bytesCached / entries;
+    }
+
+    @Override
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    @Override
+    public int getRegionCount() {
+        return pool.getRegionCount();
+    }
+
+    @Override
+    public int getSlicesAllocated() {
+        return pool.getSlicesAllocated();
+    }
+
+    @Override
+    public int getSlicesInUse() {
+        return pool.getSlicesInUse();
+    }
+
+    @Override
+    public int getSlicesFree() {
+        return pool.getSlicesFree();
+    }
+
+    @Override
+    public long getAllocationFailures() {
+        return pool.getAllocationFailures();
+    }
+
+    private void entryAllocated(final int size) {
+        cachedEntriesUpdater.incrementAndGet(this);
+        bytesCachedUpdater.addAndGet(this, size);
+    }
+
+    private void entryReleased(final int size) {
+        cachedEntriesUpdater.decrementAndGet(this);
+        bytesCachedUpdater.addAndGet(this, -size);
+    }
+
     public static final class CacheEntry<K> {
         private static final PooledByteBuffer[] EMPTY_BUFFERS = new PooledByteBuffer[0];
         private static final PooledByteBuffer[] INIT_BUFFERS = new PooledByteBuffer[0];
+        private static final PooledByteBuffer[] DESTROYED_BUFFERS = new PooledByteBuffer[0];
         private static final Object CLAIM_TOKEN = new Object();
 
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
@@ -152,16 +452,22 @@ public class DirectBufferCache<K> {
 
         private final K key;
         private final int size;
+        private final long expires;
         private final DirectBufferCache<K> cache;
         private volatile PooledByteBuffer[] buffers = INIT_BUFFERS;
         private volatile int refs = 1;
         private volatile int hits = 1;
         private volatile Object accessToken;
         private volatile int enabled;
+        /**
+         * If the entry is in the protected segment. This is only modified while the access token is claimed.
+         */
+        private volatile boolean protectedSegment;
 
-        private CacheEntry(K key, int size, DirectBufferCache cache) {
+        private CacheEntry(K key, int size, long expires, DirectBufferCache cache) {
             this.key = key;
             this.size = size;
+            this.expires = expires;
             this.cache = cache;
         }
 
@@ -169,6 +475,13 @@ public class DirectBufferCache<K> {
             return size;
         }
 
+        /**
+         * @return The time the entry expires, in milliseconds since the epoch, or -1 if it does not expire
+         */
+        public long expires() {
+            return expires;
+        }
+
         public PooledByteBuffer[] buffers() {
             return buffers;
         }
@@ -251,7 +564,8 @@ public class DirectBufferCache<K> {
             // Try to avoid mutations
             LimitedBufferSlicePool slicePool = bufferCache.pool;
             if (! slicePool.canAllocate(n)) {
-                this.buffers = INIT_BUFFERS;
+                slicePool.recordAllocationFailure();
+                bufsUpdater.compareAndSet(this, EMPTY_BUFFERS, INIT_BUFFERS);
                 return false;
             }
 
@@ -263,19 +577,29 @@ public class DirectBufferCache<K> {
                         buffers[i].free();
                     }
 
-                    this.buffers = INIT_BUFFERS;
+                    bufsUpdater.compareAndSet(this, EMPTY_BUFFERS, INIT_BUFFERS);
                     return false;
                 }
 
                 buffers[i] = allocate;
             }
 
-            this.buffers = buffers;
+            if (! bufsUpdater.compareAndSet(this, EMPTY_BUFFERS, buffers)) {
+                // the entry was destroyed while we were allocating
+                for (PooledByteBuffer buffer : buffers) {
+                    buffer.free();
+                }
+                return false;
+            }
+            bufferCache.entryAllocated(size);
             return true;
         }
 
         private void destroy() {
-            this.buffers = EMPTY_BUFFERS;
+            final PooledByteBuffer[] buffers = bufsUpdater.getAndSet(this, DESTROYED_BUFFERS);
+            if (buffers.length > 0) {
+                cache.entryReleased(size);
+            }
             for (PooledByteBuffer buffer : buffers) {
                 buffer.free();
             }
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * Management interface for a {@link DirectBufferCache} and the buffer pool that backs it.
+ *
+ * @see DirectBufferCache#registerMBean(String)
+ */
+public interface DirectBufferCacheMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    int getEntryCount();
+
+    int getCachedEntryCount();
+
+    long getBytesCached();
+
+    long getAverageEntrySize();
+
+    int getSliceSize();
+
+    int getRegionCount();
+
+    int getSlicesAllocated();
+
+    int getSlicesInUse();
+
+    int getSlicesFree();
+
+    long getAllocationFailures();
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A simple non-blocking cache with a bounded number of entries.
+ *
+ * <p>As with {@link DirectBufferCache} the access order is only updated on every Nth hit of an
+ * entry, so that reads do not contend on the access queue. When the cache is full the entries
+ * at the head of the access queue are removed first.</p>
+ */
+public class LRUCache<K, V> {
+
+    private static final int SAMPLE_INTERVAL = 5;
+
+    private final int maxEntries;
+    private final ConcurrentMap<K, CacheEntry<K, V>> cache;
+    private final ConcurrentDirectDeque<CacheEntry<K, V>> accessQueue;
+
+    public LRUCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.cache = new ConcurrentHashMap<K, CacheEntry<K, V>>(16);
+        this.accessQueue = ConcurrentDirectDeque.newInstance();
+    }
+
+    public V get(final K key) {
+        final CacheEntry<K, V> entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.hit() % SAMPLE_INTERVAL == 0) {
+            bumpAccess(entry);
+        }
+        return entry.value;
+    }
+
+    public void add(final K key, final V value) {
+        final CacheEntry<K, V> entry = new CacheEntry<K, V>(key, value);
+        final CacheEntry<K, V> old = cache.put(key, entry);
+        if (old != null) {
+            removeFromQueue(old);
+        }
+        bumpAccess(entry);
+        while (cache.size() > maxEntries) {
+            final CacheEntry<K, V> oldest = accessQueue.peekFirst();
+            if (oldest == null) {
+                break;
+            }
+            removeFromQueue(oldest);
+            if (cache.remove(oldest.key, oldest)) {
+                evicted(oldest.key, oldest.value);
+            }
+        }
+    }
+
+    public void remove(final K key) {
+        final CacheEntry<K, V> entry = cache.remove(key);
+        if (entry != null) {
+            removeFromQueue(entry);
+        }
+    }
+
+    public void clear() {
+        for (K key : cache.keySet()) {
+            remove(key);
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return A view of the keys that are currently in the cache
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(cache.keySet());
+    }
+
+    /**
+     * Called when an entry is removed because the cache is full. Entries that are removed or replaced
+     * explicitly are not reported.
+     *
+     * @param key   The key of the evicted entry
+     * @param value The value of the evicted entry
+     */
+    protected void evicted(final K key, final V value) {
+    }
+
+    private void bumpAccess(final CacheEntry<K, V> entry) {
+        synchronized (entry) {
+            if (entry.removed) {
+                return;
+            }
+            if (entry.token != null) {
+                accessQueue.removeToken(entry.token);
+            }
+            entry.token = accessQueue.offerLastAndReturnToken(entry);
+        }
+    }
+
+    private void removeFromQueue(final CacheEntry<K, V> entry) {
+        synchronized (entry) {
+            entry.removed = true;
+            if (entry.token != null) {
+                accessQueue.removeToken(entry.token);
+                entry.token = null;
+            }
+        }
+    }
+
+    private static final class CacheEntry<K, V> {
+
+        private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
+
+        private final K key;
+        private final V value;
+        private volatile int hits = 1;
+        //guarded by this
+        private Object token;
+        private boolean removed;
+
+        private CacheEntry(final K key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        int hit() {
+            return hitsUpdater.incrementAndGet(this);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.xnio.BufferAllocator;
@@ -39,6 +40,9 @@ import org.xnio.BufferAllocator;
 public final class LimitedBufferSlicePool {
 
     private static AtomicIntegerFieldUpdater regionUpdater = AtomicIntegerFieldUpdater.newUpdater(LimitedBufferSlicePool.class, "regionsUsed");
+    private static final AtomicIntegerFieldUpdater<LimitedBufferSlicePool> regionCountUpdater = AtomicIntegerFieldUpdater.newUpdater(LimitedBufferSlicePool.class, "regionCount");
+    private static final AtomicIntegerFieldUpdater<LimitedBufferSlicePool> slicesInUseUpdater = AtomicIntegerFieldUpdater.newUpdater(LimitedBufferSlicePool.class, "slicesInUse");
+    private static final AtomicLongFieldUpdater<LimitedBufferSlicePool> allocationFailuresUpdater = AtomicLongFieldUpdater.newUpdater(LimitedBufferSlicePool.class, "allocationFailures");
     private static final Class<?> queueClass;
     private final Queue<Slice> sliceQueue;
     private final BufferAllocator<ByteBuffer> allocator;
@@ -46,6 +50,12 @@ public final class LimitedBufferSlicePool {
     private final int buffersPerRegion;
     private final int maxRegions;
     private volatile int regionsUsed;
+    /**
+     * The number of regions that have actually been allocated, regionsUsed can exceed maxRegions
+     */
+    private volatile int regionCount;
+    private volatile int slicesInUse;
+    private volatile long allocationFailures;
 
     static {
         Class<?> c = ConcurrentLinkedQueue.class;
@@ -119,18 +129,72 @@ public final class LimitedBufferSlicePool {
             final int bufferSize = this.bufferSize;
             final int buffersPerRegion = this.buffersPerRegion;
             final ByteBuffer region = allocator.allocate(buffersPerRegion * bufferSize);
+            regionCountUpdater.incrementAndGet(this);
             int idx = bufferSize;
             for (int i = 1; i < buffersPerRegion; i ++) {
                 sliceQueue.add(new Slice(region, idx, bufferSize));
                 idx += bufferSize;
             }
             final Slice newSlice = new Slice(region, 0, bufferSize);
-            return new PooledByteBuffer(newSlice, newSlice.slice(), sliceQueue);
+            slicesInUseUpdater.incrementAndGet(this);
+            return new PooledByteBuffer(this, newSlice, newSlice.slice(), sliceQueue);
         }
         if (slice == null) {
+            recordAllocationFailure();
             return null;
         }
-        return new PooledByteBuffer(slice, slice.slice(), sliceQueue);
+        slicesInUseUpdater.incrementAndGet(this);
+        return new PooledByteBuffer(this, slice, slice.slice(), sliceQueue);
+    }
+
+    /**
+     * Records an allocation that could not be satisfied without calling {@link #allocate()}, for example because
+     * {@link #canAllocate(int)} returned false.
+     */
+    void recordAllocationFailure() {
+        allocationFailuresUpdater.incrementAndGet(this);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return The number of regions that have been allocated
+     */
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * @return The total number of slices in all allocated regions
+     */
+    public int getSlicesAllocated() {
+        return regionCount * buffersPerRegion;
+    }
+
+    public int getSlicesInUse() {
+        return slicesInUse;
+    }
+
+    public int getSlicesFree() {
+        return getSlicesAllocated() - slicesInUse;
+    }
+
+    /**
+     * @return The number of allocations that failed because the pool was exhausted
+     */
+    public long getAllocationFailures() {
+        return allocationFailures;
+    }
+
+    /**
+     * @return A snapshot of the current state of the pool
+     */
+    public BufferPoolMetrics getMetrics() {
+        final int slicesAllocated = getSlicesAllocated();
+        final int slicesInUse = this.slicesInUse;
+        return new BufferPoolMetrics(bufferSize, regionCount, slicesAllocated, slicesInUse, slicesAllocated - slicesInUse, allocationFailures);
     }
 
     public boolean canAllocate(int slices) {
@@ -156,13 +220,15 @@ public final class LimitedBufferSlicePool {
     }
 
     public static final class PooledByteBuffer {
+        private final LimitedBufferSlicePool pool;
         private final Slice region;
         private final Queue<Slice> slices;
         volatile ByteBuffer buffer;
 
         private static final AtomicReferenceFieldUpdater<PooledByteBuffer, ByteBuffer> bufferUpdater = AtomicReferenceFieldUpdater.newUpdater(PooledByteBuffer.class, ByteBuffer.class, "buffer");
 
-        private PooledByteBuffer(final Slice region, final ByteBuffer buffer, final Queue<Slice> slices) {
+        private PooledByteBuffer(final LimitedBufferSlicePool pool, final Slice region, final ByteBuffer buffer, final Queue<Slice> slices) {
+            this.pool = pool;
             this.region = region;
             this.buffer = buffer;
             this.slices = slices;
@@ -172,6 +238,7 @@ public final class LimitedBufferSlicePool {
             if (bufferUpdater.getAndSet(this, null) != null) {
                 // trust the user, repool the buffer
                 slices.add(region);
+                slicesInUseUpdater.decrementAndGet(pool);
             }
         }
 
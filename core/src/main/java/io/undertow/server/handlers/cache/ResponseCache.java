@@ -29,6 +29,12 @@ import static io.undertow.util.Methods.HEAD;
  * This allows it to cache compressed copies of the response, which can significantly reduce
  * CPU load.
  * <p/>
+ * Responses are cached per variant, as determined by the Vary header of the response (see
+ * {@link CachedHttpRequest}). Any Vary headers must be set before {@link #tryServeResponse()} is called,
+ * if a response adds a Vary header afterwards it will not be cached. The lifetime of a cached response
+ * is limited by the max-age or s-maxage directive of its Cache-Control header, and responses marked as
+ * no-store, no-cache or private are not cached.
+ * <p/>
  * NOTE: This cache has no concept of authentication, it assumes that if the underlying handler
  * indicates that a response is cachable, then the current user has been properly authenticated
  * to access that resource, and that the resource will not change per user.
@@ -42,6 +48,7 @@ public class ResponseCache {
     private final DirectBufferCache<CachedHttpRequest> cache;
     private final HttpServerExchange exchange;
     private boolean responseCachable;
+    private CachedHttpRequest cacheKey;
 
     public ResponseCache(final DirectBufferCache<CachedHttpRequest> cache, final HttpServerExchange exchange) {
         this.cache = cache;
@@ -87,15 +94,22 @@ public class ResponseCache {
 
         if (entry == null) {
             this.responseCachable = markCacheable;
+            this.cacheKey = key;
             return false;
         }
 
         // It's loading retry later
         if (!entry.enabled() || !entry.reference()) {
             this.responseCachable = markCacheable;
+            this.cacheKey = key;
             return false;
         }
 
+        final String contentEncoding = entry.key().getResponseContentEncoding();
+        if (contentEncoding != null) {
+            //the cached body is already encoded, so it must not be encoded again
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, contentEncoding);
+        }
         exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
         if (exchange.getRequestMethod().equals(HEAD)) {
             exchange.endExchange();
@@ -130,6 +144,13 @@ public class ResponseCache {
         return responseCachable;
     }
 
+    /**
+     * @return The key that was used to look up the response, which the response should be stored under
+     */
+    CachedHttpRequest getCacheKey() {
+        return cacheKey;
+    }
+
     private static class DereferenceCallback implements IoCallback {
         private final DirectBufferCache.CacheEntry cache;
 
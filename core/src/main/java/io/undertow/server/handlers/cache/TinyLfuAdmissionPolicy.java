@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An admission policy that only evicts an entry in favour of an entry that has been accessed more often.
+ * <p/>
+ * Access frequencies are estimated using a count-min sketch of 4 bit counters, so the policy uses a fixed
+ * amount of memory no matter how many distinct keys are seen. Once the number of recorded accesses reaches
+ * ten times the expected number of entries all counters are halved, so the frequencies follow changes in
+ * popularity. This prevents a burst of keys that are only accessed a few times (e.g. from a crawler) from
+ * pushing the popular entries out of the cache.
+ * <p/>
+ * Counters are updated with CAS operations and are never locked. Concurrent updates may race with the
+ * periodic halving, which only makes the estimates slightly less accurate.
+ */
+public class TinyLfuAdmissionPolicy implements CacheAdmissionPolicy {
+
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private static final AtomicIntegerFieldUpdater<TinyLfuAdmissionPolicy> sizeUpdater = AtomicIntegerFieldUpdater.newUpdater(TinyLfuAdmissionPolicy.class, "size");
+
+    /**
+     * Each long holds 16 counters
+     */
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+
+    /**
+     * The number of increments since the counters were last halved
+     */
+    private volatile int size;
+
+    /**
+     * @param expectedEntries The number of entries the cache is expected to hold
+     */
+    public TinyLfuAdmissionPolicy(final int expectedEntries) {
+        final int entries = Math.max(expectedEntries, 16);
+        int length = 1;
+        while (length < entries && length < (1 << 30)) {
+            length <<= 1;
+        }
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(10L * entries, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void recordAccess(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; ++i) {
+            added |= increment(indexOf(hash, i), (start + i) << 2);
+        }
+        if (added && sizeUpdater.incrementAndGet(this) == sampleSize) {
+            reset();
+        }
+    }
+
+    @Override
+    public boolean admit(final Object candidate, final Object victim) {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    /**
+     * @return The estimated number of times the key has been accessed, up to a maximum of 15
+     */
+    int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; ++i) {
+            final int offset = (start + i) << 2;
+            final int count = (int) ((table.get(indexOf(hash, i)) >>> offset) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    private boolean increment(final int index, final int offset) {
+        final long mask = 0xFL << offset;
+        for (;;) {
+            final long value = table.get(index);
+            if ((value & mask) == mask) {
+                return false;
+            }
+            if (table.compareAndSet(index, value, value + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halves every counter, so old accesses count for less than recent ones
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); ++i) {
+            for (;;) {
+                final long value = table.get(i);
+                if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+        sizeUpdater.set(this, sampleSize / 2);
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
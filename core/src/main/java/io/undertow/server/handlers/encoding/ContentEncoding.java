@@ -31,6 +31,10 @@ public class ContentEncoding implements ConduitWrapper<StreamSinkConduit> {
      * @return The content encoding that will be set, given the current state of the HttpServerExchange
      */
     public String getCurrentContentEncoding() {
+        final String existing = exchange.getResponseHeaders().getFirst(Headers.CONTENT_ENCODING);
+        if (existing != null) {
+            return existing;
+        }
         for (EncodingMapping encoding : encodings) {
             if (encoding.getAllowed().resolve(exchange)) {
                 return encoding.getName();
@@ -39,8 +43,27 @@ public class ContentEncoding implements ConduitWrapper<StreamSinkConduit> {
         return Headers.IDENTITY.toString();
     }
 
+    /**
+     * @return The encodings that were negotiated from the Accept-Encoding header, as a comma separated list in
+     *         order of preference. Requests that negotiate the same list will have the same content encoding applied.
+     */
+    public String getNegotiatedEncodings() {
+        final StringBuilder builder = new StringBuilder();
+        for (EncodingMapping encoding : encodings) {
+            if (builder.length() != 0) {
+                builder.append(',');
+            }
+            builder.append(encoding.getName());
+        }
+        return builder.toString();
+    }
+
     @Override
     public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+        if (exchange.getResponseHeaders().contains(Headers.CONTENT_ENCODING)) {
+            //the response is already encoded, e.g. a precompressed file is being served
+            return factory.create();
+        }
         for (EncodingMapping encoding : encodings) {
             if (encoding.getAllowed().resolve(exchange)) {
                 exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding.getName());
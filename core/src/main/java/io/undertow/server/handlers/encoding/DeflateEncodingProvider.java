@@ -1,5 +1,7 @@
 package io.undertow.server.handlers.encoding;
 
+import java.util.zip.Deflater;
+
 import io.undertow.conduits.DeflatingStreamSinkConduit;
 import io.undertow.server.ConduitWrapper;
 import io.undertow.server.HttpServerExchange;
@@ -8,18 +10,39 @@ import org.xnio.conduits.StreamSinkConduit;
 
 /**
  * Content coding for 'deflate'
+ * <p/>
+ * Deflaters are taken from a {@link DeflaterPool}, so they are reused between responses.
  *
  * @author Stuart Douglas
  */
 public class DeflateEncodingProvider implements ContentEncodingProvider {
 
+    private final DeflaterPool deflaterPool;
+
+    private final ConduitWrapper<StreamSinkConduit> wrapper = new ConduitWrapper<StreamSinkConduit>() {
+        @Override
+        public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+            return new DeflatingStreamSinkConduit(factory, exchange, deflaterPool);
+        }
+    };
+
+    public DeflateEncodingProvider() {
+        this(Deflater.DEFLATED);
+    }
+
+    /**
+     * @param level The compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public DeflateEncodingProvider(final int level) {
+        this(new DeflaterPool(level, true));
+    }
+
+    public DeflateEncodingProvider(final DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
+
     @Override
     public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
-        return new ConduitWrapper<StreamSinkConduit>() {
-            @Override
-            public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
-                return new DeflatingStreamSinkConduit(factory, exchange);
-            }
-        };
+        return wrapper;
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A pool of {@link Deflater} instances.
+ * <p/>
+ * Every deflater holds native memory that is only released when {@link Deflater#end()} is called or the
+ * deflater is finalized, so creating one per response is expensive. The pool is shared by all threads, as a
+ * deflater is usually allocated when the response is wrapped, which may happen on a worker thread, and returned
+ * once the response is complete, which usually happens on an IO thread. The most recently returned deflater is
+ * handed out first. Deflaters are {@link Deflater#reset() reset} when they are returned, and are ended if the
+ * pool is full.
+ */
+public class DeflaterPool {
+
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private final int level;
+    private final boolean nowrap;
+    private final int maxPooled;
+
+    private final ConcurrentLinkedDeque<Deflater> pool = new ConcurrentLinkedDeque<Deflater>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param level     The compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param nowrap    If the deflaters should produce raw deflate data, without the zlib header and checksum
+     * @param maxPooled The maximum number of idle deflaters that are kept
+     */
+    public DeflaterPool(final int level, final boolean nowrap, final int maxPooled) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.nowrap = nowrap;
+        this.maxPooled = maxPooled;
+    }
+
+    public DeflaterPool(final int level, final boolean nowrap) {
+        this(level, nowrap, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * @return A deflater, either from the pool or newly created
+     */
+    public Deflater allocate() {
+        final Deflater deflater = pool.pollFirst();
+        if (deflater != null) {
+            size.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, nowrap);
+    }
+
+    /**
+     * Returns a deflater to the pool. The deflater must have been allocated from this pool, and must not be
+     * used after it has been returned. This may be called from any thread.
+     *
+     * @param deflater The deflater
+     */
+    public void free(final Deflater deflater) {
+        if (size.incrementAndGet() > maxPooled) {
+            size.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        pool.offerFirst(deflater);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
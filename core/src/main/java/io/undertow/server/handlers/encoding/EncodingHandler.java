@@ -44,6 +44,9 @@ import io.undertow.util.QValueParser;
  * If no handler matches then the identity encoding is assumed. If the identity encoding has been
  * specifically disallowed due to a q value of 0 then the handler will set the response code
  * 406 (Not Acceptable) and return.
+ * <p/>
+ * If any encodings are registered a <code>Vary: Accept-Encoding</code> header is added to every response,
+ * as the encoding of the response depends on the request headers.
  *
  * @author Stuart Douglas
  */
@@ -68,6 +71,9 @@ public class EncodingHandler implements HttpHandler {
     public void handleRequest(final HttpServerExchange exchange) {
         final List<String> res = exchange.getRequestHeaders().get(Headers.ACCEPT_ENCODING);
         HttpHandler nextHandler = this.next;
+        if (!encodingMap.isEmpty()) {
+            exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+        }
         if (res == null || res.isEmpty()) {
             if (nextHandler != null) {
                 HttpHandlers.executeHandler(nextHandler, exchange);
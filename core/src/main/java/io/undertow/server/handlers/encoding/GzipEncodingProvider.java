@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.util.zip.Deflater;
+
+import io.undertow.conduits.GzipStreamSinkConduit;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ConduitFactory;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Content coding for 'gzip'
+ * <p/>
+ * Deflaters are taken from a {@link DeflaterPool}, so they are reused between responses. To avoid compressing
+ * small responses the provider can be registered with a size predicate, for example:
+ * <p/>
+ * <code>handler.addEncodingHandler("gzip", new GzipEncodingProvider(), 100, new MaxContentSizePredicate(1024));</code>
+ * <p/>
+ * Note that {@link io.undertow.predicate.MaxContentSizePredicate} resolves to true for responses that are
+ * larger than the given size.
+ */
+public class GzipEncodingProvider implements ContentEncodingProvider {
+
+    private final DeflaterPool deflaterPool;
+
+    private final ConduitWrapper<StreamSinkConduit> wrapper = new ConduitWrapper<StreamSinkConduit>() {
+        @Override
+        public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+            return new GzipStreamSinkConduit(factory, exchange, deflaterPool);
+        }
+    };
+
+    public GzipEncodingProvider() {
+        this(Deflater.DEFLATED);
+    }
+
+    /**
+     * @param level The compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public GzipEncodingProvider(final int level) {
+        this(new DeflaterPool(level, true));
+    }
+
+    /**
+     * @param deflaterPool The pool to take deflaters from. The deflaters must produce raw deflate data.
+     */
+    public GzipEncodingProvider(final DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
+
+    @Override
+    public ConduitWrapper<StreamSinkConduit> getResponseWrapper() {
+        return wrapper;
+    }
+}
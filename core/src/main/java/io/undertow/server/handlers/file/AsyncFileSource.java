@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import io.undertow.UndertowLogger;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.util.HttpString;
+import io.undertow.util.WorkerDispatcher;
+import org.jboss.logging.Logger;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.FileAccess;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Methods.HEAD;
+
+/**
+ * A file source that serves files without blocking.
+ * <p>
+ * The file is opened once on the IO thread and the content is sent using
+ * {@link StreamSinkChannel#transferFrom(FileChannel, long, long)}, which allows the underlying
+ * channel to use zero copy transfer where it is supported. If the socket cannot accept any more data
+ * the transfer is resumed by a write listener, so no worker thread is tied up for the duration of the
+ * download.
+ * <p>
+ * Conditional requests and byte ranges are handled as described by {@link FileResponse}.
+ * <p>
+ * Directory listings are still rendered from a worker thread, as they are generated using blocking IO.
+ */
+public class AsyncFileSource implements FileSource {
+
+    private static final Logger log = Logger.getLogger("io.undertow.server.handlers.file");
+
+    public static final FileSource INSTANCE = new AsyncFileSource();
+
+    private final FileMetadataCache metadataCache = new FileMetadataCache();
+
+    @Override
+    public void serveFile(final HttpServerExchange exchange, final File file, final boolean directoryListingEnabled) {
+        // ignore request body
+
+        //try and serve a cached version, and also mark the response as cachable
+        final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+        if (cache != null) {
+            if (cache.tryServeResponse()) {
+                return;
+            }
+        }
+
+        final HttpString method = exchange.getRequestMethod();
+        final FileChannel fileChannel;
+        final BasicFileAttributes attributes;
+        try {
+            try {
+                fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
+            } catch (FileNotFoundException e) {
+                //we only need to check for a directory if the open fails
+                if (directoryListingEnabled && file.isDirectory()) {
+                    WorkerDispatcher.dispatch(exchange, new DirectoryListingTask(exchange, file));
+                } else {
+                    exchange.setResponseCode(404);
+                    exchange.endExchange();
+                }
+                return;
+            }
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+            exchange.setResponseCode(500);
+            exchange.endExchange();
+            return;
+        }
+        try {
+            //the length and last modified date are read together, so the file is only checked once
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            IoUtils.safeClose(fileChannel);
+            UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+            exchange.setResponseCode(500);
+            exchange.endExchange();
+            return;
+        }
+        if (!method.equals(GET) && !method.equals(HEAD)) {
+            IoUtils.safeClose(fileChannel);
+            exchange.setResponseCode(500);
+            exchange.endExchange();
+            return;
+        }
+
+        final FileResponse fileResponse = FileResponse.prepare(exchange, metadataCache.get(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+        if (fileResponse == null || method.equals(HEAD)) {
+            IoUtils.safeClose(fileChannel);
+            exchange.endExchange();
+            return;
+        }
+        final StreamSinkChannel response = exchange.getResponseChannel();
+        response.getCloseSetter().set(new ChannelListener<Channel>() {
+            public void handleEvent(final Channel channel) {
+                IoUtils.safeClose(fileChannel);
+            }
+        });
+        log.tracef("Serving file %s (async)", fileChannel);
+        new FileTransferListener(exchange, fileChannel, fileResponse).handleEvent(response);
+    }
+
+    /**
+     * Listener that transfers the file content to the response channel. It is invoked directly to start
+     * the transfer, and then registered as the write listener if the channel is not able to accept all the
+     * data at once.
+     */
+    private static final class FileTransferListener implements ChannelListener<StreamSinkChannel>, ChannelExceptionHandler<StreamSinkChannel> {
+
+        private final HttpServerExchange exchange;
+        private final FileChannel fileChannel;
+        private final FileResponse fileResponse;
+        private int range;
+        private long position;
+
+        private FileTransferListener(final HttpServerExchange exchange, final FileChannel fileChannel, final FileResponse fileResponse) {
+            this.exchange = exchange;
+            this.fileChannel = fileChannel;
+            this.fileResponse = fileResponse;
+            this.position = fileResponse.getStart(0);
+        }
+
+        @Override
+        public void handleEvent(final StreamSinkChannel channel) {
+            try {
+                while (range < fileResponse.getRangeCount()) {
+                    final ByteBuffer partHeader = fileResponse.getPartHeader(range);
+                    if (partHeader != null && partHeader.hasRemaining()) {
+                        if (channel.write(partHeader) == 0) {
+                            resumeWrites(channel);
+                            return;
+                        }
+                        continue;
+                    }
+                    final long end = fileResponse.getEnd(range);
+                    while (position < end) {
+                        final long res = channel.transferFrom(fileChannel, position, end - position);
+                        if (res == 0) {
+                            if (fileChannel.size() <= position) {
+                                //the file has been truncated since we started, we can never complete the response
+                                throw new IOException("File " + fileChannel + " was truncated during transfer");
+                            }
+                            resumeWrites(channel);
+                            return;
+                        }
+                        position += res;
+                    }
+                    if (++range < fileResponse.getRangeCount()) {
+                        position = fileResponse.getStart(range);
+                    }
+                }
+                final ByteBuffer trailer = fileResponse.getTrailer();
+                while (trailer != null && trailer.hasRemaining()) {
+                    if (channel.write(trailer) == 0) {
+                        resumeWrites(channel);
+                        return;
+                    }
+                }
+                channel.suspendWrites();
+                channel.getWriteSetter().set(null);
+                log.tracef("Finished serving %s, shutting down", fileChannel);
+                channel.shutdownWrites();
+                if (!channel.flush()) {
+                    channel.getWriteSetter().set(ChannelListeners.<StreamSinkChannel>flushingChannelListener(new ChannelListener<StreamSinkChannel>() {
+                        @Override
+                        public void handleEvent(final StreamSinkChannel channel) {
+                            done();
+                        }
+                    }, this));
+                    channel.resumeWrites();
+                    return;
+                }
+                done();
+            } catch (IOException e) {
+                handleException(channel, e);
+            }
+        }
+
+        private void resumeWrites(final StreamSinkChannel channel) {
+            channel.getWriteSetter().set(this);
+            channel.resumeWrites();
+        }
+
+        private void done() {
+            log.tracef("Finished serving %s (complete)", fileChannel);
+            IoUtils.safeClose(fileChannel);
+            exchange.endExchange();
+        }
+
+        @Override
+        public void handleException(final StreamSinkChannel channel, final IOException exception) {
+            log.tracef("Failed to serve %s: %s", fileChannel, exception);
+            exchange.endExchange();
+            IoUtils.safeClose(channel);
+            IoUtils.safeClose(fileChannel);
+        }
+    }
+
+    private static final class DirectoryListingTask implements Runnable {
+
+        private final HttpServerExchange exchange;
+        private final File file;
+
+        private DirectoryListingTask(final HttpServerExchange exchange, final File file) {
+            this.exchange = exchange;
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            FileHandler.renderDirectoryListing(exchange, file);
+        }
+    }
+}
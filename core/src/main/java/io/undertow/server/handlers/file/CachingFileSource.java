@@ -0,0 +1,599 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.server.handlers.cache.LimitedBufferSlicePool;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.server.handlers.cache.TinyLfuAdmissionPolicy;
+import io.undertow.util.HttpString;
+import org.xnio.FileAccess;
+import org.xnio.IoUtils;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+import static io.undertow.util.Headers.RANGE;
+import static io.undertow.util.Methods.GET;
+import static io.undertow.util.Methods.HEAD;
+
+/**
+ * A file source that caches file content in memory.
+ * <p>
+ * Small files are stored in slices of a {@link DirectBufferCache}, and are served straight from
+ * direct memory with no file system access. Larger files are memory mapped, and the mapped regions
+ * are shared between all requests for the file. Files that are larger than the maximum mapped file
+ * size are served by the {@link AsyncFileSource}.
+ * <p>
+ * Both caches are bounded by a memory budget, with the least recently used entries being evicted
+ * first. The number of files that are tracked is also bounded, once the limit is reached the least
+ * recently used file is no longer tracked and its cached content is released.
+ * <p>
+ * File content is read and mapped on a worker thread. Until that has completed requests for the file
+ * are served from the file system.
+ * <p>
+ * Cached files can be invalidated in one of two ways. If a check interval is specified then the file
+ * will be re-checked if it has not been checked within the interval, and the cached entry discarded if
+ * the last modified date or length has changed. A check interval of zero means the file is checked
+ * on every request, while a negative interval disables checking completely. Alternatively
+ * {@link #startWatchService()} can be used to invalidate entries as soon as the file system reports
+ * a change.
+ * <p>
+ * The validators for each cached file are computed once, so conditional requests for cached files are
+ * answered without any file system access. Range requests are served by the {@link AsyncFileSource}.
+ */
+public class CachingFileSource implements FileSource {
+
+    /**
+     * The default maximum number of files that will be tracked by the cache.
+     */
+    public static final int DEFAULT_MAX_TRACKED_FILES = 10000;
+
+    private final FileSource fallback;
+    private final DirectBufferCache<File> dataCache;
+    private final MappedRegionCache mappedCache;
+    private final TrackedFiles files;
+    private final int maxCachedFileSize;
+    private final long maxMappedFileSize;
+    private final long checkInterval;
+
+    private volatile FileWatcher watcher;
+
+    /**
+     * @param sliceSize         The size of the slices that make up the buffer cache
+     * @param maxMemory         The total amount of direct memory to use to cache small files
+     * @param maxCachedFileSize The largest file that will be stored in the buffer cache
+     * @param maxMappedMemory   The total size of all memory mapped regions
+     * @param maxMappedFileSize The largest file that will be memory mapped
+     * @param checkInterval     The interval in milliseconds between checks of the last modified date. A value of
+     *                          zero checks on every request, a negative value disables checking
+     */
+    public CachingFileSource(final int sliceSize, final int maxMemory, final int maxCachedFileSize, final long maxMappedMemory, final long maxMappedFileSize, final long checkInterval) {
+        this(sliceSize, maxMemory, maxCachedFileSize, maxMappedMemory, maxMappedFileSize, checkInterval, DEFAULT_MAX_TRACKED_FILES);
+    }
+
+    /**
+     * @param sliceSize         The size of the slices that make up the buffer cache
+     * @param maxMemory         The total amount of direct memory to use to cache small files
+     * @param maxCachedFileSize The largest file that will be stored in the buffer cache
+     * @param maxMappedMemory   The total size of all memory mapped regions
+     * @param maxMappedFileSize The largest file that will be memory mapped
+     * @param checkInterval     The interval in milliseconds between checks of the last modified date. A value of
+     *                          zero checks on every request, a negative value disables checking
+     * @param maxTrackedFiles   The maximum number of files that are tracked, once this is reached the least
+     *                          recently used file is evicted
+     */
+    public CachingFileSource(final int sliceSize, final int maxMemory, final int maxCachedFileSize, final long maxMappedMemory, final long maxMappedFileSize, final long checkInterval, final int maxTrackedFiles) {
+        if (maxCachedFileSize > maxMemory) {
+            throw UndertowMessages.MESSAGES.maxCachedFileSizeExceedsBudget(maxCachedFileSize, maxMemory);
+        }
+        if (maxMappedFileSize > maxMappedMemory) {
+            throw UndertowMessages.MESSAGES.maxCachedFileSizeExceedsBudget(maxMappedFileSize, maxMappedMemory);
+        }
+        this.fallback = AsyncFileSource.INSTANCE;
+        this.dataCache = new DirectBufferCache<File>(sliceSize, maxMemory, new TinyLfuAdmissionPolicy(maxMemory / sliceSize));
+        this.mappedCache = new MappedRegionCache(maxMappedMemory);
+        this.maxCachedFileSize = maxCachedFileSize;
+        this.maxMappedFileSize = maxMappedFileSize;
+        this.checkInterval = checkInterval;
+        this.files = new TrackedFiles(maxTrackedFiles);
+    }
+
+    @Override
+    public void serveFile(final HttpServerExchange exchange, final File file, final boolean directoryListingEnabled) {
+        //try and serve a cached version, and also mark the response as cachable
+        final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+        if (cache != null) {
+            if (cache.tryServeResponse()) {
+                return;
+            }
+        }
+        final HttpString method = exchange.getRequestMethod();
+        if (!method.equals(GET) && !method.equals(HEAD)) {
+            fallback.serveFile(exchange, file, directoryListingEnabled);
+            return;
+        }
+
+        if (exchange.getRequestHeaders().contains(RANGE)) {
+            //range requests are relatively rare, so they are always served from the file system
+            fallback.serveFile(exchange, file, directoryListingEnabled);
+            return;
+        }
+
+        //entries are keyed by absolute path, so they can be matched against the paths reported by the watch service
+        final File key = absolute(file);
+        final CachedFile cachedFile = lookup(key);
+        if (cachedFile == null) {
+            fallback.serveFile(exchange, file, directoryListingEnabled);
+            return;
+        }
+        if (FileResponse.prepare(exchange, cachedFile.metadata) == null) {
+            exchange.endExchange();
+        } else if (cachedFile.metadata.getLength() <= maxCachedFileSize) {
+            if (!serveFromBufferCache(exchange, key, cachedFile)) {
+                fallback.serveFile(exchange, file, directoryListingEnabled);
+            }
+        } else if (!serveFromMappedRegion(exchange, key, cachedFile)) {
+            fallback.serveFile(exchange, file, directoryListingEnabled);
+        }
+    }
+
+    /**
+     * Removes a file from the cache. The next request for the file will be served from the file system.
+     *
+     * @param file The file to invalidate
+     */
+    public void invalidate(final File file) {
+        final File key = absolute(file);
+        files.remove(key);
+        release(key);
+    }
+
+    /**
+     * Removes all files from the cache.
+     */
+    public void invalidateAll() {
+        for (File file : trackedFiles()) {
+            files.remove(file);
+            release(file);
+        }
+    }
+
+    private static File absolute(final File file) {
+        return file.isAbsolute() ? file : file.getAbsoluteFile();
+    }
+
+    /**
+     * Frees the cached content of a file that is no longer tracked
+     */
+    private void release(final File file) {
+        dataCache.remove(file);
+        mappedCache.remove(file);
+    }
+
+    /**
+     * @return The buffer cache that holds the content of small files, which can be used to monitor the cache
+     */
+    public DirectBufferCache<File> getDataCache() {
+        return dataCache;
+    }
+
+    /**
+     * Starts a background thread that uses a {@link WatchService} to invalidate cached files as soon
+     * as they are modified. When the watch service is in use the check interval is generally set to
+     * a negative value, to avoid checking the file on request.
+     *
+     * @throws IOException If the watch service could not be created
+     */
+    public synchronized void startWatchService() throws IOException {
+        if (watcher != null) {
+            return;
+        }
+        final FileWatcher watcher = new FileWatcher(FileSystems.getDefault().newWatchService());
+        final Thread thread = new Thread(watcher, "undertow-file-cache-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        this.watcher = watcher;
+        for (File file : trackedFiles()) {
+            watcher.register(file);
+        }
+    }
+
+    /**
+     * Stops the watch service, if it is running.
+     */
+    public synchronized void stopWatchService() {
+        final FileWatcher watcher = this.watcher;
+        if (watcher != null) {
+            this.watcher = null;
+            IoUtils.safeClose(watcher.watchService);
+        }
+    }
+
+    private List<File> trackedFiles() {
+        return new ArrayList<File>(files.keySet());
+    }
+
+    private CachedFile lookup(final File file) {
+        CachedFile cachedFile = files.get(file);
+        if (cachedFile != null) {
+            if (checkInterval < 0) {
+                return cachedFile;
+            }
+            final long now = System.currentTimeMillis();
+            if (now - cachedFile.lastChecked < checkInterval) {
+                return cachedFile;
+            }
+            if (file.lastModified() == cachedFile.lastModified && file.length() == cachedFile.metadata.getLength()) {
+                cachedFile.lastChecked = now;
+                return cachedFile;
+            }
+            invalidate(file);
+            return null;
+        }
+        //not tracked yet, the first request is always served from the file system
+        if (file.isFile()) {
+            final long length = file.length();
+            final long lastModified = file.lastModified();
+            if (length <= Math.max(maxCachedFileSize, maxMappedFileSize)) {
+                //this may evict the least recently used file
+                files.add(file, new CachedFile(new FileMetadata(length, lastModified), lastModified, System.currentTimeMillis()));
+                final FileWatcher watcher = this.watcher;
+                if (watcher != null) {
+                    watcher.register(file);
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean serveFromBufferCache(final HttpServerExchange exchange, final File file, final CachedFile cachedFile) {
+        final DirectBufferCache.CacheEntry<File> entry = dataCache.get(file);
+        if (entry == null) {
+            //buffers are only allocated once the entry has been accessed a few times
+            dataCache.add(file, (int) cachedFile.metadata.getLength());
+            return false;
+        }
+        if (!entry.enabled()) {
+            if (entry.buffers().length == 0 || !entry.claimEnable()) {
+                return false;
+            }
+            //the content is read on a worker thread, this request is served from the file system
+            loadEntry(exchange.getConnection().getWorker(), file, entry);
+            return false;
+        }
+        if (!entry.reference()) {
+            return false;
+        }
+
+        if (exchange.getRequestMethod().equals(HEAD)) {
+            entry.dereference();
+            exchange.endExchange();
+            return true;
+        }
+
+        final LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+        final ByteBuffer[] buffers = new ByteBuffer[pooled.length];
+        for (int i = 0; i < buffers.length; i++) {
+            // Keep position from mutating
+            buffers[i] = pooled[i].getResource().duplicate();
+        }
+        exchange.getResponseSender().send(buffers, new DereferenceCallback(entry));
+        return true;
+    }
+
+    /**
+     * Reads the content of the file into the buffers of the entry, and enables the entry once it has been read.
+     * The entry must have been claimed with {@link DirectBufferCache.CacheEntry#claimEnable()}.
+     */
+    private void loadEntry(final XnioWorker worker, final File file, final DirectBufferCache.CacheEntry<File> entry) {
+        //hold a reference so the buffers are not freed if the entry is evicted while it is being read
+        if (!entry.reference()) {
+            entry.disable();
+            return;
+        }
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (readFile(worker.getXnio(), file, entry)) {
+                        entry.enable();
+                    } else {
+                        entry.disable();
+                        dataCache.remove(file);
+                    }
+                } finally {
+                    entry.dereference();
+                }
+            }
+        };
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            entry.disable();
+            entry.dereference();
+        }
+    }
+
+    private static boolean readFile(final Xnio xnio, final File file, final DirectBufferCache.CacheEntry<File> entry) {
+        final LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+        FileChannel fileChannel = null;
+        try {
+            fileChannel = xnio.openFile(file, FileAccess.READ_ONLY);
+            if (fileChannel.size() != entry.size()) {
+                return false;
+            }
+            long position = 0;
+            for (LimitedBufferSlicePool.PooledByteBuffer buffer : pooled) {
+                final ByteBuffer resource = buffer.getResource();
+                resource.clear();
+                while (resource.hasRemaining() && position < entry.size()) {
+                    final int res = fileChannel.read(resource, position);
+                    if (res == -1) {
+                        return false;
+                    }
+                    position += res;
+                }
+                resource.flip();
+            }
+            return position == entry.size();
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+            return false;
+        } finally {
+            IoUtils.safeClose(fileChannel);
+        }
+    }
+
+    private boolean serveFromMappedRegion(final HttpServerExchange exchange, final File file, final CachedFile cachedFile) {
+        final MappedByteBuffer region = mappedCache.get(file);
+        if (region == null) {
+            //the file is mapped on a worker thread, this request is served from the file system
+            if (CachedFile.mappingUpdater.compareAndSet(cachedFile, 0, 1)) {
+                mapFile(exchange.getConnection().getWorker(), file, cachedFile);
+            }
+            return false;
+        }
+
+        if (exchange.getRequestMethod().equals(HEAD)) {
+            exchange.endExchange();
+            return true;
+        }
+        exchange.getResponseSender().send(region.duplicate(), IoCallback.END_EXCHANGE);
+        return true;
+    }
+
+    private void mapFile(final XnioWorker worker, final File file, final CachedFile cachedFile) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                FileChannel fileChannel = null;
+                try {
+                    fileChannel = worker.getXnio().openFile(file, FileAccess.READ_ONLY);
+                    if (fileChannel.size() != cachedFile.metadata.getLength()) {
+                        invalidate(file);
+                        return;
+                    }
+                    //the mapping remains valid once the channel has been closed
+                    final MappedByteBuffer region = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, cachedFile.metadata.getLength());
+                    if (isTracked(file, cachedFile)) {
+                        mappedCache.put(file, region);
+                    }
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
+                } finally {
+                    IoUtils.safeClose(fileChannel);
+                    cachedFile.mapping = 0;
+                }
+            }
+        };
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            cachedFile.mapping = 0;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the file is still tracked with the given metadata, so a region that was mapped for
+     *         it has not been invalidated or evicted in the meantime
+     */
+    private boolean isTracked(final File file, final CachedFile cachedFile) {
+        return files.get(file) == cachedFile;
+    }
+
+    private static final class CachedFile {
+        private static final AtomicIntegerFieldUpdater<CachedFile> mappingUpdater = AtomicIntegerFieldUpdater.newUpdater(CachedFile.class, "mapping");
+
+        private final FileMetadata metadata;
+        private final long lastModified;
+        private volatile long lastChecked;
+        /**
+         * 1 while the file is being mapped on a worker thread
+         */
+        private volatile int mapping;
+
+        private CachedFile(final FileMetadata metadata, final long lastModified, final long lastChecked) {
+            this.metadata = metadata;
+            this.lastModified = lastModified;
+            this.lastChecked = lastChecked;
+        }
+    }
+
+    /**
+     * The files that are currently tracked, keyed by absolute path. When the limit is reached the least recently
+     * used file is removed and its cached content released. The access order is sampled, so lookups do not lock.
+     */
+    private final class TrackedFiles extends LRUCache<File, CachedFile> {
+
+        private TrackedFiles(final int maxTrackedFiles) {
+            super(maxTrackedFiles);
+        }
+
+        @Override
+        protected void evicted(final File file, final CachedFile cachedFile) {
+            release(file);
+        }
+    }
+
+    /**
+     * A LRU cache of mapped file regions, bounded by the total size of the mapped regions.
+     * <p>
+     * Mapped regions cannot be explicitly unmapped, evicted regions are released once the last response
+     * that is using them has completed and they have been garbage collected.
+     */
+    private static final class MappedRegionCache {
+
+        private final long maxMemory;
+        private final LinkedHashMap<File, MappedByteBuffer> regions = new LinkedHashMap<File, MappedByteBuffer>(16, 0.75f, true);
+        private long currentMemory;
+
+        private MappedRegionCache(final long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        synchronized MappedByteBuffer get(final File file) {
+            return regions.get(file);
+        }
+
+        synchronized void put(final File file, final MappedByteBuffer region) {
+            final MappedByteBuffer old = regions.put(file, region);
+            if (old != null) {
+                currentMemory -= old.capacity();
+            }
+            currentMemory += region.capacity();
+            final Iterator<Map.Entry<File, MappedByteBuffer>> it = regions.entrySet().iterator();
+            while (currentMemory > maxMemory && it.hasNext()) {
+                final Map.Entry<File, MappedByteBuffer> eldest = it.next();
+                if (eldest.getValue() == region) {
+                    continue;
+                }
+                currentMemory -= eldest.getValue().capacity();
+                it.remove();
+            }
+        }
+
+        synchronized void remove(final File file) {
+            final MappedByteBuffer old = regions.remove(file);
+            if (old != null) {
+                currentMemory -= old.capacity();
+            }
+        }
+    }
+
+    private final class FileWatcher implements Runnable {
+
+        private final WatchService watchService;
+        private final Set<Path> directories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+        private FileWatcher(final WatchService watchService) {
+            this.watchService = watchService;
+        }
+
+        void register(final File file) {
+            final File parent = file.getParentFile();
+            if (parent == null) {
+                return;
+            }
+            final Path dir = parent.toPath();
+            if (directories.add(dir)) {
+                try {
+                    dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException e) {
+                    directories.remove(dir);
+                    UndertowLogger.ROOT_LOGGER.failedToWatchDirectory(parent, e);
+                } catch (ClosedWatchServiceException e) {
+                    directories.remove(dir);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final WatchKey key = watchService.take();
+                    final Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            invalidateAll();
+                        } else {
+                            invalidate(dir.resolve((Path) event.context()).toFile());
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(dir);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ClosedWatchServiceException e) {
+                //the watch service has been stopped
+            }
+        }
+    }
+
+    private static class DereferenceCallback implements IoCallback {
+        private final DirectBufferCache.CacheEntry entry;
+
+        public DereferenceCallback(final DirectBufferCache.CacheEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            entry.dereference();
+            exchange.endExchange();
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            entry.dereference();
+            exchange.endExchange();
+        }
+    }
+}
@@ -21,8 +21,11 @@ package io.undertow.server.handlers.file;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.HttpServerExchange;
@@ -36,7 +39,6 @@ import org.xnio.IoUtils;
 import org.xnio.channels.Channels;
 import org.xnio.channels.StreamSinkChannel;
 
-import static io.undertow.util.Headers.CONTENT_LENGTH;
 import static io.undertow.util.Methods.GET;
 import static io.undertow.util.Methods.HEAD;
 
@@ -51,6 +53,8 @@ public class DirectFileSource implements FileSource {
 
     public static final FileSource INSTANCE = new DirectFileSource();
 
+    private final FileMetadataCache metadataCache = new FileMetadataCache();
+
     @Override
     public void serveFile(final HttpServerExchange exchange, final File file, final boolean directoryListingEnabled) {
         // ignore request body
@@ -62,7 +66,7 @@ public class DirectFileSource implements FileSource {
                 return;
             }
         }
-        WorkerDispatcher.dispatch(exchange, new FileWriteTask(exchange, file, directoryListingEnabled));
+        WorkerDispatcher.dispatch(exchange, new FileWriteTask(exchange, file, directoryListingEnabled, metadataCache));
     }
 
     private static class FileWriteTask implements Runnable {
@@ -70,11 +74,13 @@ public class DirectFileSource implements FileSource {
         private final HttpServerExchange exchange;
         private final File file;
         private final boolean directoryListingEnabled;
+        private final FileMetadataCache metadataCache;
 
-        private FileWriteTask(final HttpServerExchange exchange, final File file, final boolean directoryListingEnabled) {
+        private FileWriteTask(final HttpServerExchange exchange, final File file, final boolean directoryListingEnabled, final FileMetadataCache metadataCache) {
             this.exchange = exchange;
             this.file = file;
             this.directoryListingEnabled = directoryListingEnabled;
+            this.metadataCache = metadataCache;
         }
 
         @Override
@@ -92,7 +98,7 @@ public class DirectFileSource implements FileSource {
 
             final HttpString method = exchange.getRequestMethod();
             final FileChannel fileChannel;
-            final long length;
+            final BasicFileAttributes attributes;
             try {
                 try {
                     fileChannel = exchange.getConnection().getWorker().getXnio().openFile(file, FileAccess.READ_ONLY);
@@ -101,7 +107,7 @@ public class DirectFileSource implements FileSource {
                     exchange.endExchange();
                     return;
                 }
-                length = fileChannel.size();
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
             } catch (IOException e) {
                 UndertowLogger.REQUEST_LOGGER.exceptionReadingFile(file, e);
                 exchange.setResponseCode(500);
@@ -114,8 +120,9 @@ public class DirectFileSource implements FileSource {
                 return;
             }
 
-            exchange.getResponseHeaders().put(CONTENT_LENGTH, Long.toString(length));
-            if (method.equals(HEAD)) {
+            final FileResponse fileResponse = FileResponse.prepare(exchange, metadataCache.get(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            if (fileResponse == null || method.equals(HEAD)) {
+                IoUtils.safeClose(fileChannel);
                 exchange.endExchange();
                 return;
             }
@@ -129,7 +136,18 @@ public class DirectFileSource implements FileSource {
 
             try {
                 log.tracef("Serving file %s (blocking)", fileChannel);
-                Channels.transferBlocking(response, fileChannel, 0, length);
+                for (int i = 0; i < fileResponse.getRangeCount(); ++i) {
+                    final ByteBuffer partHeader = fileResponse.getPartHeader(i);
+                    if (partHeader != null) {
+                        Channels.writeBlocking(response, partHeader);
+                    }
+                    final long start = fileResponse.getStart(i);
+                    Channels.transferBlocking(response, fileChannel, start, fileResponse.getEnd(i) - start);
+                }
+                final ByteBuffer trailer = fileResponse.getTrailer();
+                if (trailer != null) {
+                    Channels.writeBlocking(response, trailer);
+                }
                 log.tracef("Finished serving %s, shutting down (blocking)", fileChannel);
                 response.shutdownWrites();
                 log.tracef("Finished serving %s, flushing (blocking)", fileChannel);
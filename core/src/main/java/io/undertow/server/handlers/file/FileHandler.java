@@ -24,29 +24,53 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import io.undertow.UndertowMessages;
 import io.undertow.io.IoCallback;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.util.CopyOnWriteMap;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.MimeMappings;
+import io.undertow.util.QValueParser;
 import org.xnio.channels.Channels;
 
 /**
  *
  * Serves files direct from the file system.
+ * <p/>
+ * If precompressed encodings have been registered using {@link #addPrecompressedEncoding(String, String)} then
+ * the handler will look for a precompressed sibling of the requested file (e.g. <code>foo.js.gz</code>), and
+ * serve it in place of the original if the client accepts that encoding. As the sibling is served by the
+ * {@link FileSource} like any other file it gets the same zero copy transfer and caching, and the Content-Length
+ * is the length of the compressed file. If a precompressed variant exists then a <code>Vary: Accept-Encoding</code>
+ * header is added to the response, whichever variant is served. Encodings are matched case insensitively, and
+ * the variants found for a file are cached for {@link #getPrecompressedCacheTime()} milliseconds.
  *
  * @author Stuart Douglas
  * @author Jason T. Greene
  */
 public class FileHandler implements HttpHandler {
 
+    private static final int DEFAULT_PRECOMPRESSED_CACHE_SIZE = 1024;
+    private static final int DEFAULT_PRECOMPRESSED_CACHE_TIME = 1000;
+
     private volatile File base;
-    private volatile FileSource fileSource = new DirectFileSource();
+    private volatile FileSource fileSource = AsyncFileSource.INSTANCE;
     private volatile boolean directoryListingEnabled = false;
     private volatile MimeMappings mimeMappings = MimeMappings.DEFAULT;
+    private final Map<String, String> precompressedEncodings = new CopyOnWriteMap<String, String>();
+    private final LRUCache<String, PrecompressedVariants> precompressedCache = new LRUCache<String, PrecompressedVariants>(DEFAULT_PRECOMPRESSED_CACHE_SIZE);
+    private volatile int precompressedGeneration;
+    private volatile int precompressedCacheTime = DEFAULT_PRECOMPRESSED_CACHE_TIME;
 
     public FileHandler(final File base) {
         if (base == null) {
@@ -86,7 +110,106 @@ public class FileHandler implements HttpHandler {
                 exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
             }
         }
-        fileSource.serveFile(exchange, file, directoryListingEnabled);
+        if (precompressedEncodings.isEmpty()) {
+            fileSource.serveFile(exchange, file, directoryListingEnabled);
+        } else {
+            fileSource.serveFile(exchange, findPrecompressedFile(exchange, file), directoryListingEnabled);
+        }
+    }
+
+    /**
+     * Negotiates the content encoding against the precompressed variants of the file that are present on disk.
+     * If a variant is selected then the Content-Encoding header is set, and the variant is returned.
+     *
+     * @return The file to serve
+     */
+    private File findPrecompressedFile(final HttpServerExchange exchange, final File file) {
+        if (exchange.getRelativePath().endsWith("/")) {
+            return file;
+        }
+        final PrecompressedVariants variants = findPrecompressedVariants(file);
+        if (variants.available.isEmpty()) {
+            return file;
+        }
+        final List<String> accept = exchange.getRequestHeaders().get(Headers.ACCEPT_ENCODING);
+        if (accept != null && !accept.isEmpty()) {
+            final List<List<QValueParser.QValueResult>> found = QValueParser.parse(accept);
+            //* only matches encodings that are not explicitly listed
+            final Set<String> listed = new HashSet<String>();
+            for (List<QValueParser.QValueResult> result : found) {
+                for (final QValueParser.QValueResult value : result) {
+                    listed.add(value.getValue().toLowerCase(Locale.ENGLISH));
+                }
+            }
+            for (List<QValueParser.QValueResult> result : found) {
+                for (final QValueParser.QValueResult value : result) {
+                    if (value.isQValueZero()) {
+                        continue;
+                    }
+                    final String encoding = value.getValue().toLowerCase(Locale.ENGLISH);
+                    if (encoding.equals("*")) {
+                        for (Map.Entry<String, File> entry : variants.available.entrySet()) {
+                            if (!listed.contains(entry.getKey())) {
+                                return precompressedVariant(exchange, entry.getKey(), entry.getValue());
+                            }
+                        }
+                    } else {
+                        final File candidate = variants.available.get(encoding);
+                        if (candidate != null) {
+                            return precompressedVariant(exchange, encoding, candidate);
+                        }
+                    }
+                }
+            }
+        }
+        //we are serving the identity encoding, but caches still need to know the response varies
+        addVaryHeader(exchange);
+        return file;
+    }
+
+    /**
+     * Looks up the precompressed variants of the file that are present on disk. The result is cached for
+     * {@link #getPrecompressedCacheTime()} milliseconds, so the file system is not hit on every request.
+     */
+    private PrecompressedVariants findPrecompressedVariants(final File file) {
+        final String path = file.getPath();
+        final long now = System.currentTimeMillis();
+        final int generation = precompressedGeneration;
+        final PrecompressedVariants existing = precompressedCache.get(path);
+        if (existing != null && existing.generation == generation && existing.expires > now) {
+            return existing;
+        }
+        final Map<String, File> available = new LinkedHashMap<String, File>();
+        if (!file.isDirectory()) {
+            for (Map.Entry<String, String> entry : precompressedEncodings.entrySet()) {
+                final File candidate = new File(path + entry.getValue());
+                if (candidate.isFile()) {
+                    available.put(entry.getKey(), candidate);
+                }
+            }
+        }
+        final PrecompressedVariants variants = new PrecompressedVariants(available, generation, now + precompressedCacheTime);
+        precompressedCache.add(path, variants);
+        return variants;
+    }
+
+    private static File precompressedVariant(final HttpServerExchange exchange, final String encoding, final File variant) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+        addVaryHeader(exchange);
+        return variant;
+    }
+
+    private static void addVaryHeader(final HttpServerExchange exchange) {
+        final List<String> vary = exchange.getResponseHeaders().get(Headers.VARY);
+        if (vary != null) {
+            for (String value : vary) {
+                //an EncodingHandler may have already added it
+                if (value.equalsIgnoreCase(Headers.ACCEPT_ENCODING_STRING)) {
+                    return;
+                }
+            }
+        }
+        exchange.getResponseHeaders().add(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
     }
 
     public File getBase() {
@@ -255,6 +378,49 @@ public class FileHandler implements HttpHandler {
         this.directoryListingEnabled = directoryListingEnabled;
     }
 
+    /**
+     * Registers a precompressed encoding. When a file is requested the handler will look for a sibling file
+     * with the given extension appended, and will serve it with the given content encoding if the client
+     * accepts it.
+     *
+     * @param encoding  The content encoding, e.g. <code>gzip</code>
+     * @param extension The extension of the precompressed files, e.g. <code>.gz</code>
+     */
+    public void addPrecompressedEncoding(final String encoding, final String extension) {
+        if (encoding == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("encoding");
+        }
+        if (extension == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("extension");
+        }
+        precompressedEncodings.put(encoding.toLowerCase(Locale.ENGLISH), extension);
+        precompressedEncodingsChanged();
+    }
+
+    public void removePrecompressedEncoding(final String encoding) {
+        precompressedEncodings.remove(encoding.toLowerCase(Locale.ENGLISH));
+        precompressedEncodingsChanged();
+    }
+
+    private void precompressedEncodingsChanged() {
+        precompressedGeneration++;
+        precompressedCache.clear();
+    }
+
+    public int getPrecompressedCacheTime() {
+        return precompressedCacheTime;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the result of looking for precompressed variants of a file is cached
+     * for. A value of zero means the file system is checked on every request.
+     *
+     * @param precompressedCacheTime The cache time in milliseconds
+     */
+    public void setPrecompressedCacheTime(final int precompressedCacheTime) {
+        this.precompressedCacheTime = precompressedCacheTime;
+    }
+
     public MimeMappings getMimeMappings() {
         return mimeMappings;
     }
@@ -262,4 +428,19 @@ public class FileHandler implements HttpHandler {
     public void setMimeMappings(final MimeMappings mimeMappings) {
         this.mimeMappings = mimeMappings;
     }
+
+    private static final class PrecompressedVariants {
+        /**
+         * The variants present on disk, keyed by lower case encoding, in registration order
+         */
+        final Map<String, File> available;
+        final int generation;
+        final long expires;
+
+        private PrecompressedVariants(final Map<String, File> available, final int generation, final long expires) {
+            this.available = available;
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
 }
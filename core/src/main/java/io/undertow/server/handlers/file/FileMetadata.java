@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.util.Date;
+
+import io.undertow.util.DateUtils;
+
+/**
+ * The metadata of a file that is being served, including the validators that are sent to the client.
+ * <p>
+ * The last modified date is truncated to a whole number of seconds, as this is the resolution of the
+ * HTTP date format. The entity tag and last modified strings are computed once, and are re-used for
+ * every response that serves this version of the file.
+ */
+public final class FileMetadata {
+
+    private final long length;
+    private final long lastModified;
+    private final String lastModifiedString;
+    private final String etag;
+
+    public FileMetadata(final long length, final long lastModified) {
+        this.length = length;
+        this.lastModified = lastModified - (lastModified % 1000);
+        this.lastModifiedString = DateUtils.toDateString(new Date(this.lastModified));
+        this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(this.lastModified) + "\"";
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getLastModifiedString() {
+        return lastModifiedString;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.io.File;
+
+import io.undertow.server.handlers.cache.LRUCache;
+
+/**
+ * A cache of {@link FileMetadata}, so the validators for a file only have to be generated when the file
+ * changes.
+ * <p>
+ * An entry is only re-used if the length and last modified date of the file still match, so the cache
+ * never returns stale data. Once the cache is full the least recently used entries are evicted.
+ */
+public class FileMetadataCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final LRUCache<File, FileMetadata> cache;
+
+    public FileMetadataCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public FileMetadataCache(final int maxEntries) {
+        this.cache = new LRUCache<File, FileMetadata>(maxEntries);
+    }
+
+    /**
+     * Gets the metadata for the file. The length and last modified date are passed in by the caller, so they
+     * can be read together with a single call to the file system.
+     *
+     * @param file         The file
+     * @param length       The length of the file
+     * @param lastModified The last modified date of the file, in milliseconds
+     * @return The metadata for the current version of the file
+     */
+    public FileMetadata get(final File file, final long length, final long lastModified) {
+        final FileMetadata existing = cache.get(file);
+        if (existing != null && existing.getLength() == length && existing.getLastModified() == lastModified - (lastModified % 1000)) {
+            return existing;
+        }
+        final FileMetadata metadata = new FileMetadata(length, lastModified);
+        cache.add(file, metadata);
+        return metadata;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.DateUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+
+import static io.undertow.util.Headers.ACCEPT_RANGES;
+import static io.undertow.util.Headers.CONTENT_LENGTH;
+import static io.undertow.util.Headers.CONTENT_RANGE;
+import static io.undertow.util.Headers.CONTENT_TYPE;
+import static io.undertow.util.Headers.ETAG;
+import static io.undertow.util.Headers.IF_MODIFIED_SINCE;
+import static io.undertow.util.Headers.IF_NONE_MATCH;
+import static io.undertow.util.Headers.IF_RANGE;
+import static io.undertow.util.Headers.LAST_MODIFIED;
+import static io.undertow.util.Headers.RANGE;
+
+/**
+ * Describes the body of a response that serves a file, taking into account the conditional and range
+ * headers sent by the client.
+ * <p>
+ * The body is made up of one or more byte ranges of the file. If the response is a multipart/byteranges
+ * response then every range is preceded by a part header, and the body is terminated by a trailer. A
+ * response that serves the whole file consists of a single range that covers the whole file.
+ */
+public final class FileResponse {
+
+    /**
+     * The maximum number of ranges that will be served. If a client requests more than this the whole
+     * file is served instead.
+     */
+    private static final int MAX_RANGES = 20;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String BYTES_PREFIX = "bytes=";
+
+    private final long[] ranges;
+    private final ByteBuffer[] partHeaders;
+    private final ByteBuffer trailer;
+    private final long contentLength;
+
+    private FileResponse(final long[] ranges, final ByteBuffer[] partHeaders, final ByteBuffer trailer, final long contentLength) {
+        this.ranges = ranges;
+        this.partHeaders = partHeaders;
+        this.trailer = trailer;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Sets the validator headers on the response, and evaluates the conditional and range headers of the
+     * request. This sets the response code and the content headers of the response.
+     * <p>
+     * If this method returns null then no response body should be sent, as the response is either a 304
+     * Not Modified or a 416 Requested range not satisfiable response.
+     *
+     * @param exchange      The exchange
+     * @param metadata      The metadata of the file being served
+     * @param rangesAllowed If byte ranges can be served
+     * @return The response body to send, or null if there is no response body
+     */
+    public static FileResponse prepare(final HttpServerExchange exchange, final FileMetadata metadata, final boolean rangesAllowed) {
+        return prepare(exchange.getRequestHeaders(), metadata, rangesAllowed, new ExchangeTarget(exchange));
+    }
+
+    public static FileResponse prepare(final HttpServerExchange exchange, final FileMetadata metadata) {
+        return prepare(exchange, metadata, true);
+    }
+
+    /**
+     * Evaluates the conditional and range headers of the request, and writes the response code and headers
+     * to the given target rather than directly to the exchange.
+     *
+     * @param requestHeaders The request headers
+     * @param metadata       The metadata of the file being served
+     * @param rangesAllowed  If byte ranges can be served
+     * @param response       The response the code and headers are written to
+     * @return The response body to send, or null if there is no response body
+     * @see #prepare(HttpServerExchange, FileMetadata, boolean)
+     */
+    public static FileResponse prepare(final HeaderMap requestHeaders, final FileMetadata metadata, final boolean rangesAllowed, final ResponseTarget response) {
+        response.setHeader(LAST_MODIFIED, metadata.getLastModifiedString());
+        response.setHeader(ETAG, metadata.getETag());
+        if (rangesAllowed) {
+            response.setHeader(ACCEPT_RANGES, "bytes");
+        }
+
+        if (isNotModified(requestHeaders, metadata)) {
+            response.setResponseCode(304);
+            return null;
+        }
+
+        final long length = metadata.getLength();
+        final String rangeHeader = requestHeaders.getFirst(RANGE);
+        if (rangesAllowed && rangeHeader != null && ifRangeMatches(requestHeaders.getFirst(IF_RANGE), metadata)) {
+            final long[] ranges = parseRanges(rangeHeader, length);
+            if (ranges != null) {
+                if (ranges.length == 0) {
+                    response.setResponseCode(416);
+                    response.setHeader(CONTENT_RANGE, "bytes */" + length);
+                    response.setHeader(CONTENT_LENGTH, "0");
+                    return null;
+                }
+                response.setResponseCode(206);
+                if (ranges.length == 2) {
+                    final long rangeLength = ranges[1] - ranges[0];
+                    response.setHeader(CONTENT_RANGE, contentRange(ranges[0], ranges[1], length));
+                    response.setHeader(CONTENT_LENGTH, Long.toString(rangeLength));
+                    return new FileResponse(ranges, null, null, rangeLength);
+                }
+                return createMultipartResponse(response, ranges, length);
+            }
+        }
+        response.setHeader(CONTENT_LENGTH, Long.toString(length));
+        return new FileResponse(new long[]{0, length}, null, null, length);
+    }
+
+    public int getRangeCount() {
+        return ranges.length / 2;
+    }
+
+    /**
+     * @return The position of the first byte of the range
+     */
+    public long getStart(final int range) {
+        return ranges[range * 2];
+    }
+
+    /**
+     * @return The position one past the last byte of the range
+     */
+    public long getEnd(final int range) {
+        return ranges[range * 2 + 1];
+    }
+
+    /**
+     * @return The multipart header that must be sent before the range, or null if this is not a multipart response
+     */
+    public ByteBuffer getPartHeader(final int range) {
+        return partHeaders == null ? null : partHeaders[range];
+    }
+
+    /**
+     * @return The multipart trailer that must be sent after the last range, or null if this is not a multipart response
+     */
+    public ByteBuffer getTrailer() {
+        return trailer;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    private static boolean isNotModified(final HeaderMap requestHeaders, final FileMetadata metadata) {
+        final List<String> ifNoneMatch = requestHeaders.get(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            //If-Modified-Since is ignored if If-None-Match is present
+            for (String header : ifNoneMatch) {
+                if (etagListMatches(header, metadata.getETag())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final String ifModifiedSince = requestHeaders.getFirst(IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            final Date date = DateUtils.parseDate(ifModifiedSince);
+            return date != null && metadata.getLastModified() <= date.getTime();
+        }
+        return false;
+    }
+
+    /**
+     * Performs a weak comparison of the entity tag against a list of entity tags.
+     */
+    private static boolean etagListMatches(final String header, final String etag) {
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean ifRangeMatches(final String ifRange, final FileMetadata metadata) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("W/")) {
+            //weak validators cannot be used for ranges
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(metadata.getETag());
+        }
+        final Date date = DateUtils.parseDate(ifRange);
+        return date != null && date.getTime() == metadata.getLastModified();
+    }
+
+    /**
+     * Parses a Range header. Overlapping and adjacent ranges are merged, so the response is never larger than the
+     * file plus the multipart headers, and the ranges are returned in ascending order.
+     *
+     * @return the satisfiable ranges as start and end pairs, an empty array if none of the ranges are satisfiable, or
+     *         null if the header is not valid and should be ignored
+     */
+    static long[] parseRanges(final String header, final long length) {
+        if (!header.startsWith(BYTES_PREFIX)) {
+            return null;
+        }
+        final String[] parts = header.substring(BYTES_PREFIX.length()).split(",");
+        if (parts.length > MAX_RANGES) {
+            return null;
+        }
+        final long[] ranges = new long[parts.length * 2];
+        int count = 0;
+        for (String part : parts) {
+            part = part.trim();
+            final int dash = part.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            final long start;
+            final long end;
+            try {
+                if (dash == 0) {
+                    final long suffix = Long.parseLong(part.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    } else if (suffix == 0 || length == 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length;
+                } else {
+                    start = Long.parseLong(part.substring(0, dash));
+                    final String last = part.substring(dash + 1);
+                    if (last.isEmpty()) {
+                        end = length;
+                    } else {
+                        final long lastByte = Long.parseLong(last);
+                        if (lastByte < start) {
+                            return null;
+                        }
+                        end = Math.min(lastByte + 1, length);
+                    }
+                    if (start < 0) {
+                        return null;
+                    } else if (start >= length) {
+                        continue;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            ranges[count++] = start;
+            ranges[count++] = end;
+        }
+        return coalesce(ranges, count);
+    }
+
+    /**
+     * Sorts the first <code>count / 2</code> ranges by their start, and merges ranges that overlap or are adjacent.
+     *
+     * @return The merged ranges
+     */
+    private static long[] coalesce(final long[] ranges, final int count) {
+        //there are at most MAX_RANGES ranges, so an insertion sort is fine
+        for (int i = 2; i < count; i += 2) {
+            final long start = ranges[i];
+            final long end = ranges[i + 1];
+            int j = i - 2;
+            while (j >= 0 && ranges[j] > start) {
+                ranges[j + 2] = ranges[j];
+                ranges[j + 3] = ranges[j + 1];
+                j -= 2;
+            }
+            ranges[j + 2] = start;
+            ranges[j + 3] = end;
+        }
+        int merged = 0;
+        for (int i = 0; i < count; i += 2) {
+            if (merged > 0 && ranges[i] <= ranges[merged - 1]) {
+                ranges[merged - 1] = Math.max(ranges[merged - 1], ranges[i + 1]);
+            } else {
+                ranges[merged++] = ranges[i];
+                ranges[merged++] = ranges[i + 1];
+            }
+        }
+        return merged == ranges.length ? ranges : Arrays.copyOf(ranges, merged);
+    }
+
+    private static FileResponse createMultipartResponse(final ResponseTarget response, final long[] ranges, final long length) {
+        final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+        final String contentType = response.getHeader(CONTENT_TYPE);
+        final ByteBuffer[] partHeaders = new ByteBuffer[ranges.length / 2];
+        long contentLength = 0;
+        for (int i = 0; i < partHeaders.length; ++i) {
+            final StringBuilder builder = new StringBuilder();
+            builder.append("\r\n--").append(boundary).append("\r\n");
+            if (contentType != null) {
+                builder.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            builder.append("Content-Range: ").append(contentRange(ranges[i * 2], ranges[i * 2 + 1], length)).append("\r\n\r\n");
+            partHeaders[i] = ByteBuffer.wrap(builder.toString().getBytes(ISO_8859_1));
+            contentLength += partHeaders[i].remaining() + ranges[i * 2 + 1] - ranges[i * 2];
+        }
+        final ByteBuffer trailer = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(ISO_8859_1));
+        contentLength += trailer.remaining();
+        response.setHeader(CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        response.setHeader(CONTENT_LENGTH, Long.toString(contentLength));
+        return new FileResponse(ranges, partHeaders, trailer, contentLength);
+    }
+
+    private static String contentRange(final long start, final long end, final long length) {
+        return "bytes " + start + "-" + (end - 1) + "/" + length;
+    }
+
+    /**
+     * The response that the response code and headers are written to. This allows the response to be written
+     * through a servlet response wrapper, rather than directly to the exchange.
+     */
+    public interface ResponseTarget {
+
+        void setResponseCode(int code);
+
+        void setHeader(HttpString name, String value);
+
+        String getHeader(HttpString name);
+    }
+
+    private static final class ExchangeTarget implements ResponseTarget {
+
+        private final HttpServerExchange exchange;
+
+        private ExchangeTarget(final HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void setResponseCode(final int code) {
+            exchange.setResponseCode(code);
+        }
+
+        @Override
+        public void setHeader(final HttpString name, final String value) {
+            exchange.getResponseHeaders().put(name, value);
+        }
+
+        @Override
+        public String getHeader(final HttpString name) {
+            return exchange.getResponseHeaders().getFirst(name);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latency values, in microseconds.
+ * <p/>
+ * Values are recorded into log linear buckets in the same way as an HDR histogram, so every recorded value
+ * is accurate to within about 3% regardless of its magnitude. Values below {@link #SUB_BUCKET_COUNT} are
+ * recorded exactly, and values above {@link #HIGHEST_TRACKABLE_VALUE} are recorded as that value.
+ * <p/>
+ * To avoid contention the histogram is split into a number of stripes, and the stripe is chosen based on
+ * the current thread. Recording a value is a single uncontended atomic add in the common case. Readers merge
+ * all stripes, so values recorded concurrently with a read may or may not be visible.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of exact buckets. Above this each power of two is split into {@code SUB_BUCKET_COUNT / 2} buckets.
+     */
+    static final int SUB_BUCKET_COUNT = 64;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * One hour in microseconds
+     */
+    public static final long HIGHEST_TRACKABLE_VALUE = 60L * 60 * 1000 * 1000;
+
+    static final int BUCKET_COUNT = bucketIndex(HIGHEST_TRACKABLE_VALUE) + 1;
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+    private static final int FIRST_BUCKET = 3;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public LatencyHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency The expected number of threads recording values. This is rounded up to a power of two.
+     */
+    public LatencyHistogram(final int concurrency) {
+        int size = 1;
+        while (size < concurrency) {
+            size <<= 1;
+        }
+        this.stripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; ++i) {
+            stripes[i] = new AtomicLongArray(FIRST_BUCKET + BUCKET_COUNT);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value The value in microseconds. Negative values are recorded as zero.
+     */
+    public void record(final long value) {
+        final long v = value < 0 ? 0 : (value > HIGHEST_TRACKABLE_VALUE ? HIGHEST_TRACKABLE_VALUE : value);
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(FIRST_BUCKET + bucketIndex(v));
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(SUM, v);
+        long max;
+        while ((max = stripe.get(MAX)) < v) {
+            if (stripe.compareAndSet(MAX, max, v)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return sum(COUNT);
+    }
+
+    public long getMax() {
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return max;
+    }
+
+    public long getMean() {
+        final long count = sum(COUNT);
+        return count == 0 ? 0 : sum(SUM) / count;
+    }
+
+    /**
+     * Returns the value at the given percentile. The result is the highest value that is equivalent to the
+     * bucket the percentile falls in, so it may be slightly higher than the actual recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at the percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                final long c = stripe.get(FIRST_BUCKET + i);
+                buckets[i] += c;
+                count += c;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final double p = Math.min(Math.max(percentile, 0), 100);
+        final long target = Math.max(1, (long) Math.ceil(p / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    private long sum(final int index) {
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            total += stripe.get(index);
+        }
+        return total;
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        //shift so the value falls between SUB_BUCKET_HALF and SUB_BUCKET_COUNT
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    static long lowestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        final long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return sub << shift;
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+}
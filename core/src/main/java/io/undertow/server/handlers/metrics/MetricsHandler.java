@@ -0,0 +1,290 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.conduits.BytesReceivedStreamSourceConduit;
+import io.undertow.conduits.BytesSentStreamSinkConduit;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.HttpHandlers;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.CopyOnWriteMap;
+import io.undertow.util.PathMatcher;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+
+/**
+ * Handler that records request counts, response status counts, bytes transferred and latency for every
+ * request that passes through it.
+ * <p/>
+ * Metrics are always recorded for all requests, and are also recorded separately for each registered path
+ * prefix. Prefixes are matched against the relative path in the same way as {@link io.undertow.server.handlers.PathHandler},
+ * with the longest matching prefix being used.
+ * <p/>
+ * Latency is measured from the point the request headers were parsed (see {@link HttpServerExchange#getRequestStartTime()})
+ * until the exchange is complete. Recording is lock free, so the handler can be used under heavy load.
+ * <p/>
+ * Metrics can be read programmatically, exposed over JMX using {@link #registerMBeans(String)}, or served as
+ * plain text by a {@link MetricsReportHandler}.
+ */
+public class MetricsHandler implements HttpHandler {
+
+    /**
+     * The key the recorder is attached under. Each handler has its own key, so that when metrics handlers are
+     * nested each of them records the request with its own conduits.
+     */
+    private final AttachmentKey<RequestRecorder> recorderKey = AttachmentKey.create(RequestRecorder.class);
+
+    private final ConduitWrapper<StreamSourceConduit> requestWrapper = new ConduitWrapper<StreamSourceConduit>() {
+        @Override
+        public StreamSourceConduit wrap(final ConduitFactory<StreamSourceConduit> factory, final HttpServerExchange exchange) {
+            final BytesReceivedStreamSourceConduit conduit = new BytesReceivedStreamSourceConduit(factory.create());
+            exchange.getAttachment(recorderKey).requestConduit = conduit;
+            return conduit;
+        }
+    };
+
+    private final ConduitWrapper<StreamSinkConduit> responseWrapper = new ConduitWrapper<StreamSinkConduit>() {
+        @Override
+        public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+            final BytesSentStreamSinkConduit conduit = new BytesSentStreamSinkConduit(factory.create());
+            exchange.getAttachment(recorderKey).responseConduit = conduit;
+            return conduit;
+        }
+    };
+
+    private volatile HttpHandler next = ResponseCodeHandler.HANDLE_404;
+    private final RequestMetrics totals = new RequestMetrics("");
+    private final ConcurrentMap<String, RequestMetrics> prefixes = new CopyOnWriteMap<String, RequestMetrics>();
+    private volatile PathMatcher<RequestMetrics> matcher = PathMatcher.<RequestMetrics>builder().build();
+    private final List<ObjectName> objectNames = new ArrayList<ObjectName>();
+    private String mbeanName;
+
+    public MetricsHandler() {
+    }
+
+    public MetricsHandler(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        final PathMatcher.Match<RequestMetrics> match = matcher.match(exchange.getRelativePath());
+        final long start = exchange.getRequestStartTime();
+        final RequestRecorder recorder = new RequestRecorder(match == null ? null : match.getValue(), start == -1 ? System.nanoTime() : start);
+        exchange.putAttachment(recorderKey, recorder);
+        exchange.addRequestWrapper(requestWrapper);
+        exchange.addResponseWrapper(responseWrapper);
+        exchange.addExchangeCompleteListener(recorder);
+        HttpHandlers.executeHandler(next, exchange);
+    }
+
+    /**
+     * @return The metrics for all requests
+     */
+    public RequestMetrics getTotals() {
+        return totals;
+    }
+
+    /**
+     * @param prefix The path prefix
+     * @return The metrics for the prefix, or <code>null</code> if the prefix has not been added
+     */
+    public RequestMetrics getMetrics(final String prefix) {
+        return prefixes.get(normalize(prefix));
+    }
+
+    public Map<String, RequestMetrics> getPrefixMetrics() {
+        return Collections.unmodifiableMap(prefixes);
+    }
+
+    /**
+     * Starts recording metrics for the given path prefix. If the prefix does not start with a / then one will be
+     * prepended. Adding a prefix that is already present has no effect.
+     *
+     * @param prefix The path prefix
+     * @return this handler
+     */
+    public synchronized MetricsHandler addPrefix(final String prefix) {
+        final String path = normalize(prefix);
+        if (!prefixes.containsKey(path)) {
+            final RequestMetrics metrics = new RequestMetrics(path);
+            prefixes.put(path, metrics);
+            buildMatcher();
+            if (mbeanName != null) {
+                register(mbeanName, metrics);
+            }
+        }
+        return this;
+    }
+
+    public synchronized MetricsHandler removePrefix(final String prefix) {
+        final RequestMetrics metrics = prefixes.remove(normalize(prefix));
+        if (metrics != null) {
+            buildMatcher();
+            if (mbeanName != null) {
+                final ObjectName objectName = objectName(mbeanName, metrics);
+                if (objectName != null && objectNames.remove(objectName)) {
+                    unregister(objectName);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. The totals are registered under the name
+     * <code>io.undertow:type=RequestMetrics,name=&lt;name&gt;</code>, and each prefix has an additional
+     * <code>prefix</code> key. Prefixes that are added later are registered as they are added.
+     * <p/>
+     * Failures are logged rather than thrown, as the handler is fully functional without management.
+     *
+     * @param name The name of this handler
+     */
+    public synchronized void registerMBeans(final String name) {
+        unregisterMBeans();
+        this.mbeanName = name;
+        register(name, totals);
+        for (RequestMetrics metrics : prefixes.values()) {
+            register(name, metrics);
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        for (ObjectName objectName : objectNames) {
+            unregister(objectName);
+        }
+        objectNames.clear();
+        mbeanName = null;
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    public MetricsHandler setNext(final HttpHandler next) {
+        HttpHandlers.handlerNotNull(next);
+        this.next = next;
+        return this;
+    }
+
+    private void register(final String name, final RequestMetrics metrics) {
+        final ObjectName objectName = objectName(name, metrics);
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            objectNames.add(objectName);
+        } catch (JMException e) {
+            UndertowLogger.ROOT_LOGGER.failedToRegisterMBean(objectName.toString(), e);
+        }
+    }
+
+    private static void unregister(final ObjectName objectName) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            UndertowLogger.ROOT_LOGGER.failedToUnregisterMBean(objectName.toString(), e);
+        }
+    }
+
+    private static ObjectName objectName(final String name, final RequestMetrics metrics) {
+        final StringBuilder sb = new StringBuilder("io.undertow:type=RequestMetrics,name=");
+        sb.append(ObjectName.quote(name));
+        if (!metrics.getPrefix().isEmpty()) {
+            sb.append(",prefix=");
+            sb.append(ObjectName.quote(metrics.getPrefix()));
+        }
+        try {
+            return new ObjectName(sb.toString());
+        } catch (JMException e) {
+            UndertowLogger.ROOT_LOGGER.failedToRegisterMBean(sb.toString(), e);
+            return null;
+        }
+    }
+
+    private static String normalize(final String path) {
+        if (path == null || path.isEmpty()) {
+            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+        }
+        if (path.charAt(0) != '/') {
+            return "/" + path;
+        }
+        return path;
+    }
+
+    private void buildMatcher() {
+        final PathMatcher.Builder<RequestMetrics> builder = PathMatcher.builder();
+        for (Map.Entry<String, RequestMetrics> entry : prefixes.entrySet()) {
+            builder.addPrefixPath(entry.getKey(), entry.getValue());
+        }
+        this.matcher = builder.build();
+    }
+
+    private final class RequestRecorder implements ExchangeCompletionListener {
+
+        private final RequestMetrics prefix;
+        private final long start;
+        BytesReceivedStreamSourceConduit requestConduit;
+        BytesSentStreamSinkConduit responseConduit;
+
+        private RequestRecorder(final RequestMetrics prefix, final long start) {
+            this.prefix = prefix;
+            this.start = start;
+        }
+
+        @Override
+        public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+            try {
+                final long latency = (System.nanoTime() - start) / 1000;
+                final int status = exchange.getResponseCode();
+                final long received = requestConduit == null ? 0 : requestConduit.getBytesReceived();
+                final long sent = responseConduit == null ? 0 : responseConduit.getBytesSent();
+                totals.record(status, received, sent, latency);
+                if (prefix != null) {
+                    prefix.record(status, received, sent, latency);
+                }
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+}
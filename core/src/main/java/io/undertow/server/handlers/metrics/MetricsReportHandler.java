@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.Map;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+/**
+ * Handler that writes out the metrics recorded by a {@link MetricsHandler} as plain text.
+ * <p/>
+ * The output uses one line per value, in the form <code>name{labels} value</code>, which can be read by
+ * most monitoring systems. Metrics for all requests have no labels, metrics for a prefix have a
+ * <code>prefix</code> label. Latencies are in microseconds.
+ */
+public class MetricsReportHandler implements HttpHandler {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final MetricsHandler metrics;
+
+    public MetricsReportHandler(final MetricsHandler metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) {
+        final String report = createReport(metrics);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        exchange.getResponseSender().send(report, IoCallback.END_EXCHANGE);
+    }
+
+    public static String createReport(final MetricsHandler handler) {
+        final StringBuilder sb = new StringBuilder();
+        append(sb, handler.getTotals());
+        for (RequestMetrics metrics : handler.getPrefixMetrics().values()) {
+            append(sb, metrics);
+        }
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final RequestMetrics metrics) {
+        final String prefix = metrics.getPrefix().isEmpty() ? null : "prefix=\"" + escape(metrics.getPrefix()) + "\"";
+        line(sb, "undertow_requests_total", prefix, null, metrics.getRequestCount());
+        for (Map.Entry<Integer, Long> entry : metrics.getStatusCounts().entrySet()) {
+            line(sb, "undertow_responses_total", prefix, "status=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+        line(sb, "undertow_bytes_received_total", prefix, null, metrics.getBytesReceived());
+        line(sb, "undertow_bytes_sent_total", prefix, null, metrics.getBytesSent());
+        final LatencyHistogram latency = metrics.getLatencyHistogram();
+        for (double quantile : QUANTILES) {
+            line(sb, "undertow_request_latency_microseconds", prefix, "quantile=\"" + quantile + "\"", latency.getValueAtPercentile(quantile * 100));
+        }
+        line(sb, "undertow_request_latency_microseconds_mean", prefix, null, latency.getMean());
+        line(sb, "undertow_request_latency_microseconds_max", prefix, null, latency.getMax());
+    }
+
+    private static void line(final StringBuilder sb, final String name, final String label, final String extraLabel, final long value) {
+        sb.append(name);
+        if (label != null || extraLabel != null) {
+            sb.append('{');
+            if (label != null) {
+                sb.append(label);
+                if (extraLabel != null) {
+                    sb.append(',');
+                }
+            }
+            if (extraLabel != null) {
+                sb.append(extraLabel);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The metrics recorded by a {@link MetricsHandler} for a single path prefix, or for all requests.
+ * <p/>
+ * Like {@link LatencyHistogram} the counters are striped by thread, so recording a request does not
+ * contend with other threads.
+ */
+public final class RequestMetrics implements RequestMetricsMXBean {
+
+    /**
+     * Status codes at or above this value are counted together under 0
+     */
+    private static final int MAX_STATUS = 600;
+
+    private static final int BYTES_RECEIVED = 0;
+    private static final int BYTES_SENT = 1;
+    private static final int FIRST_STATUS = 2;
+
+    private final String prefix;
+    private final LatencyHistogram latency;
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    RequestMetrics(final String prefix) {
+        this.prefix = prefix;
+        this.latency = new LatencyHistogram();
+        int size = 1;
+        while (size < Runtime.getRuntime().availableProcessors()) {
+            size <<= 1;
+        }
+        this.stripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; ++i) {
+            stripes[i] = new AtomicLongArray(FIRST_STATUS + MAX_STATUS);
+        }
+        this.mask = size - 1;
+    }
+
+    void record(final int status, final long bytesReceived, final long bytesSent, final long latencyMicros) {
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(FIRST_STATUS + (status < 0 || status >= MAX_STATUS ? 0 : status));
+        if (bytesReceived > 0) {
+            stripe.addAndGet(BYTES_RECEIVED, bytesReceived);
+        }
+        if (bytesSent > 0) {
+            stripe.addAndGet(BYTES_SENT, bytesSent);
+        }
+        latency.record(latencyMicros);
+    }
+
+    /**
+     * @return The path prefix, or the empty string if these are the metrics for all requests
+     */
+    @Override
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return sum(BYTES_RECEIVED);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return sum(BYTES_SENT);
+    }
+
+    /**
+     * @return The number of responses sent with each status code, in status code order
+     */
+    @Override
+    public Map<Integer, Long> getStatusCounts() {
+        final Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (int i = 0; i < MAX_STATUS; ++i) {
+            final long count = sum(FIRST_STATUS + i);
+            if (count > 0) {
+                result.put(i, count);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public long getStatusCount(final int status) {
+        return sum(FIRST_STATUS + (status < 0 || status >= MAX_STATUS ? 0 : status));
+    }
+
+    @Override
+    public long getMeanLatency() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    @Override
+    public long getLatency50thPercentile() {
+        return latency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getLatency90thPercentile() {
+        return latency.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getLatency99thPercentile() {
+        return latency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getLatency999thPercentile() {
+        return latency.getValueAtPercentile(99.9);
+    }
+
+    private long sum(final int index) {
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            total += stripe.get(index);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface for the metrics recorded for a single path prefix. All latencies are in microseconds.
+ *
+ * @see MetricsHandler#registerMBeans(String)
+ */
+public interface RequestMetricsMXBean {
+
+    String getPrefix();
+
+    long getRequestCount();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    Map<Integer, Long> getStatusCounts();
+
+    long getMeanLatency();
+
+    long getMaxLatency();
+
+    long getLatency50thPercentile();
+
+    long getLatency90thPercentile();
+
+    long getLatency99thPercentile();
+
+    long getLatency999thPercentile();
+}
@@ -18,6 +18,7 @@
 
 package io.undertow.util;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -27,12 +28,19 @@ import io.undertow.UndertowMessages;
 
 /**
  * A thing which can have named attachments.
+ * <p/>
+ * Values for indexed keys are stored in an array that is indexed by {@link AttachmentKey#index}, which is
+ * only allocated when the first attachment is added and is grown as required. Keys that are not indexed are
+ * stored in a map, which is only created if such a key is used.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public abstract class AbstractAttachable implements Attachable {
 
-    private final Map<AttachmentKey<?>, Object> attachments = new IdentityHashMap<>(32);
+    private static final int INITIAL_SLOTS = 16;
+
+    private Object[] values;
+    private Map<AttachmentKey<?>, Object> attachments;
 
     /**
      * {@inheritDoc}
@@ -42,7 +50,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        return key.cast(attachments.get(key));
+        return key.cast(get(key));
     }
 
     /**
@@ -53,7 +61,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        List<T> list = key.cast(attachments.get(key));
+        List<T> list = key.cast(get(key));
         if (list == null) {
             return Collections.emptyList();
         }
@@ -68,7 +76,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             throw UndertowMessages.MESSAGES.argumentCannotBeNull("key");
         }
-        return key.cast(attachments.put(key, key.cast(value)));
+        return key.cast(put(key, key.cast(value)));
     }
 
     /**
@@ -79,7 +87,7 @@ public abstract class AbstractAttachable implements Attachable {
         if (key == null) {
             return null;
         }
-        return key.cast(attachments.remove(key));
+        return key.cast(put(key, null));
     }
 
     /**
@@ -88,11 +96,10 @@ public abstract class AbstractAttachable implements Attachable {
     @Override
     public <T> void addToAttachmentList(final AttachmentKey<AttachmentList<T>> key, final T value) {
         if (key != null) {
-            final Map<AttachmentKey<?>, Object> attachments = this.attachments;
-            final AttachmentList<T> list = key.cast(attachments.get(key));
+            final AttachmentList<T> list = key.cast(get(key));
             if (list == null) {
                 final AttachmentList<T> newList = new AttachmentList<T>(((ListAttachmentKey<T>) key).getValueClass());
-                attachments.put(key, newList);
+                put(key, newList);
                 newList.add(value);
             } else {
                 list.add(value);
@@ -100,4 +107,70 @@ public abstract class AbstractAttachable implements Attachable {
         }
     }
 
+    /**
+     * Removes all attachments, and hands the slot array on to the target so it does not need to allocate it
+     * again. The target must not have any attachments.
+     *
+     * @param target The object that takes over the slot array
+     */
+    protected void transferAttachments(final AbstractAttachable target) {
+        final Object[] values = this.values;
+        if (values != null) {
+            Arrays.fill(values, null);
+            target.values = values;
+        }
+        this.values = null;
+        this.attachments = null;
+    }
+
+    private Object get(final AttachmentKey<?> key) {
+        final int index = key.index;
+        if (index >= 0) {
+            final Object[] values = this.values;
+            return values == null || index >= values.length ? null : values[index];
+        }
+        final Map<AttachmentKey<?>, Object> attachments = this.attachments;
+        return attachments == null ? null : attachments.get(key);
+    }
+
+    /**
+     * Sets the value for the key, a null value removes the attachment
+     *
+     * @return The previous value
+     */
+    private Object put(final AttachmentKey<?> key, final Object value) {
+        final int index = key.index;
+        if (index >= 0) {
+            Object[] values = this.values;
+            if (values == null || index >= values.length) {
+                if (value == null) {
+                    return null;
+                }
+                values = grow(values, index);
+            }
+            final Object old = values[index];
+            values[index] = value;
+            return old;
+        }
+        Map<AttachmentKey<?>, Object> attachments = this.attachments;
+        if (attachments == null) {
+            if (value == null) {
+                return null;
+            }
+            attachments = this.attachments = new IdentityHashMap<AttachmentKey<?>, Object>();
+        }
+        return value == null ? attachments.remove(key) : attachments.put(key, value);
+    }
+
+    private Object[] grow(final Object[] values, final int index) {
+        int length = values == null ? INITIAL_SLOTS : values.length;
+        while (length <= index) {
+            length <<= 1;
+        }
+        final Object[] newValues = new Object[Math.min(length, AttachmentKey.MAX_INDEXED_KEYS)];
+        if (values != null) {
+            System.arraycopy(values, 0, newValues, 0, values.length);
+        }
+        return this.values = newValues;
+    }
 }
@@ -18,18 +18,46 @@
 
 package io.undertow.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Stuart Douglas
  */
 
 /**
  * An immutable, type-safe object attachment key.  Such a key has no value outside of its object identity.
+ * <p/>
+ * Each key is given a unique index when it is created, which {@link AbstractAttachable} uses to store the value
+ * in an array slot rather than a map. Only the first {@link #MAX_INDEXED_KEYS} keys are indexed, keys that are
+ * created after that (e.g. keys that are created dynamically rather than held in a static field) are stored in
+ * a map.
  *
  * @param <T> the attachment type
  */
 public abstract class AttachmentKey<T> {
 
+    /**
+     * The maximum number of keys that are given an index
+     */
+    static final int MAX_INDEXED_KEYS = 256;
+
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * The index of this key, or -1 if it is not indexed
+     */
+    final int index;
+
     AttachmentKey() {
+        int index;
+        do {
+            index = nextIndex.get();
+            if (index >= MAX_INDEXED_KEYS) {
+                index = -1;
+                break;
+            }
+        } while (!nextIndex.compareAndSet(index, index + 1));
+        this.index = index;
     }
 
     /**
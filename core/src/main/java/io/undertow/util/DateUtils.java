@@ -18,7 +18,8 @@
 
 package io.undertow.util;
 
-import java.text.ParsePosition;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -26,23 +27,50 @@ import java.util.TimeZone;
 
 /**
  * Utility for parsing and generating dates
+ * <p>
+ * All methods are thread safe, and do not use {@link java.text.SimpleDateFormat}. Dates are formatted
+ * and parsed by hand, which avoids the allocation and synchronization costs of the JDK formatters.
+ * <p>
+ * The current date is cached with a resolution of one second, so that it can be sent on every response
+ * without having to format it each time.
+ * <p>
+ * Only dates with a four digit year can be formatted by hand, dates outside the years 0 to 9999 are
+ * formatted using {@link SimpleDateFormat}.
  *
  * @author Stuart Douglas
  */
 public class DateUtils {
 
-    private static final Locale LOCALE_US = Locale.US;
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
 
-    private static final TimeZone GMT_ZONE = TimeZone.getTimeZone("GMT");
+    /**
+     * The length of a RFC-1123 date, e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>
+     */
+    public static final int RFC1123_LENGTH = 29;
 
-    private static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final String[] DAYS = {"Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"};
 
-    private static final String RFC1036_PATTERN = "EEEEEEEEE, dd-MMM-yy HH:mm:ss z";
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
 
-    private static final String ASCITIME_PATTERN = "EEE MMM d HH:mm:ss yyyyy";
+    private static final String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
 
     private static final String OLD_COOKIE_PATTERN = "EEE, dd-MMM-yyyy HH:mm:ss z";
 
+    /**
+     * The first millisecond of the year 0, the earliest date that can be formatted by hand
+     */
+    private static final long MIN_DATE = daysFromCivil(0, 1, 1) * MILLIS_PER_DAY;
+
+    /**
+     * The first millisecond of the year 10000, which no longer has a four digit year
+     */
+    private static final long MAX_DATE = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+
+    private static volatile CachedDateTime cachedDateTime;
 
     /**
      * Converts a date to a format suitable for use in a HTTP request
@@ -51,16 +79,47 @@ public class DateUtils {
      * @return The RFC-1123 formatted date
      */
     public static String toDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return toString(date.getTime(), ' ');
     }
 
 
     public static String toOldCookieDateString(final Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        return dateFormat.format(date);
+        return toString(date.getTime(), '-');
+    }
+
+    /**
+     * Returns the current date as a RFC-1123 formatted string. The result is cached, and only changes
+     * once per second.
+     *
+     * @return The current date
+     */
+    public static String getCurrentDateTime() {
+        return currentDateTime().string;
+    }
+
+    /**
+     * Writes the current date to the buffer in RFC-1123 format. The buffer must have at least
+     * {@link #RFC1123_LENGTH} bytes remaining.
+     *
+     * @param buffer The target buffer
+     */
+    public static void writeCurrentDateTime(final ByteBuffer buffer) {
+        buffer.put(currentDateTime().bytes);
+    }
+
+    /**
+     * Writes the date to the buffer in RFC-1123 format, without allocating. The buffer must have at
+     * least {@link #RFC1123_LENGTH} bytes remaining, dates outside the years 0 to 9999 may need more.
+     *
+     * @param date   The date, in milliseconds since the epoch
+     * @param buffer The target buffer
+     */
+    public static void formatDate(final long date, final ByteBuffer buffer) {
+        if (date < MIN_DATE || date >= MAX_DATE) {
+            buffer.put(formatOutOfRange(date, RFC1123_PATTERN).getBytes(US_ASCII));
+            return;
+        }
+        format(date, ' ', buffer);
     }
 
     /**
@@ -70,40 +129,278 @@ public class DateUtils {
      * @return The parsed date, or null if parsing failed
      */
     public static Date parseDate(final String date) {
-        ParsePosition pp = new ParsePosition(0);
-        SimpleDateFormat dateFormat = new SimpleDateFormat(RFC1123_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        Date val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+        final long result = parseDateMillis(date);
+        if (result == INVALID) {
+            return null;
         }
+        return new Date(result);
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(RFC1036_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    private static CachedDateTime currentDateTime() {
+        final long second = System.currentTimeMillis() / 1000;
+        final CachedDateTime cached = cachedDateTime;
+        if (cached != null && cached.second == second) {
+            return cached;
         }
+        //a race here is harmless, at worst the date is formatted more than once
+        final byte[] bytes = new byte[RFC1123_LENGTH];
+        format(second * 1000, ' ', ByteBuffer.wrap(bytes));
+        final CachedDateTime result = new CachedDateTime(second, bytes);
+        cachedDateTime = result;
+        return result;
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(ASCITIME_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    private static String toString(final long date, final char separator) {
+        if (date < MIN_DATE || date >= MAX_DATE) {
+            return formatOutOfRange(date, separator == ' ' ? RFC1123_PATTERN : OLD_COOKIE_PATTERN);
         }
+        final byte[] bytes = new byte[RFC1123_LENGTH];
+        format(date, separator, ByteBuffer.wrap(bytes));
+        return new String(bytes, US_ASCII);
+    }
 
-        pp = new ParsePosition(0);
-        dateFormat = new SimpleDateFormat(OLD_COOKIE_PATTERN, LOCALE_US);
-        dateFormat.setTimeZone(GMT_ZONE);
-        val = dateFormat.parse(date, pp);
-        if (val != null && pp.getIndex() == date.length()) {
-            return val;
+    private static String formatOutOfRange(final long date, final String pattern) {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(pattern, Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return dateFormat.format(new Date(date));
+    }
+
+    /**
+     * Formats a date as <code>Sun, 06 Nov 1994 08:49:37 GMT</code>, with the given separator between the
+     * day, month and year. The year of the date must be between 0 and 9999.
+     */
+    private static void format(final long date, final char separator, final ByteBuffer buffer) {
+        final long days = floorDiv(date, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (date - days * MILLIS_PER_DAY);
+        final int secondOfDay = millisOfDay / 1000;
+
+        //civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        final long z = days + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final int doe = (int) (z - era * 146097);
+        final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final int mp = (5 * doy + 2) / 153;
+        final int day = doy - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+        //1970-01-01 was a Thursday
+        final int dayOfWeek = (int) floorMod(days + 4, 7);
+
+        putString(buffer, DAYS[dayOfWeek]);
+        buffer.put((byte) ',');
+        buffer.put((byte) ' ');
+        put2Digits(buffer, day);
+        buffer.put((byte) separator);
+        putString(buffer, MONTHS[month - 1]);
+        buffer.put((byte) separator);
+        put2Digits(buffer, year / 100);
+        put2Digits(buffer, year % 100);
+        buffer.put((byte) ' ');
+        put2Digits(buffer, secondOfDay / 3600);
+        buffer.put((byte) ':');
+        put2Digits(buffer, (secondOfDay / 60) % 60);
+        buffer.put((byte) ':');
+        put2Digits(buffer, secondOfDay % 60);
+        buffer.put((byte) ' ');
+        buffer.put((byte) 'G');
+        buffer.put((byte) 'M');
+        buffer.put((byte) 'T');
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            buffer.put((byte) value.charAt(i));
         }
+    }
 
-        return null;
+    private static void put2Digits(final ByteBuffer buffer, final int value) {
+        buffer.put((byte) ('0' + value / 10));
+        buffer.put((byte) ('0' + value % 10));
     }
 
+    /**
+     * Parses a date in RFC-1123 (<code>Sun, 06 Nov 1994 08:49:37 GMT</code>), RFC-1036
+     * (<code>Sunday, 06-Nov-94 08:49:37 GMT</code>), ANSI C asctime (<code>Sun Nov  6 08:49:37 1994</code>)
+     * or old cookie (<code>Sun, 06-Nov-1994 08:49:37 GMT</code>) format.
+     */
+    private static long parseDateMillis(final String date) {
+        final int length = date.length();
+        final int comma = date.indexOf(',');
+        int i;
+        final int day;
+        final int month;
+        final int year;
+        final int time;
+        if (comma != -1) {
+            i = comma + 1;
+            if (i < length && date.charAt(i) == ' ') {
+                i++;
+            }
+            int start = i;
+            int value = 0;
+            while (i < length && i - start < 2 && isDigit(date.charAt(i))) {
+                value = value * 10 + date.charAt(i++) - '0';
+            }
+            if (i == start || i >= length) {
+                return INVALID;
+            }
+            day = value;
+            final char separator = date.charAt(i++);
+            if (separator != ' ' && separator != '-') {
+                return INVALID;
+            }
+            month = parseMonth(date, i);
+            i += 3;
+            if (month == -1 || i >= length || date.charAt(i++) != separator) {
+                return INVALID;
+            }
+            start = i;
+            value = 0;
+            while (i < length && i - start < 4 && isDigit(date.charAt(i))) {
+                value = value * 10 + date.charAt(i++) - '0';
+            }
+            if (i - start == 2) {
+                year = value < 70 ? 2000 + value : 1900 + value;
+            } else if (i - start == 4) {
+                year = value;
+            } else {
+                return INVALID;
+            }
+            if (i >= length || date.charAt(i++) != ' ') {
+                return INVALID;
+            }
+            time = parseTime(date, i);
+            i += 8;
+            if (time == -1 || !date.regionMatches(i, " GMT", 0, 4) || i + 4 != length) {
+                return INVALID;
+            }
+        } else {
+            //asctime format
+            i = 0;
+            while (i < length && Character.isLetter(date.charAt(i))) {
+                i++;
+            }
+            if (i == 0 || i >= length || date.charAt(i++) != ' ') {
+                return INVALID;
+            }
+            month = parseMonth(date, i);
+            i += 3;
+            if (month == -1 || i >= length || date.charAt(i++) != ' ') {
+                return INVALID;
+            }
+            if (i < length && date.charAt(i) == ' ') {
+                i++;
+            }
+            final int start = i;
+            int value = 0;
+            while (i < length && i - start < 2 && isDigit(date.charAt(i))) {
+                value = value * 10 + date.charAt(i++) - '0';
+            }
+            if (i == start || i >= length || date.charAt(i++) != ' ') {
+                return INVALID;
+            }
+            day = value;
+            time = parseTime(date, i);
+            i += 8;
+            if (time == -1 || i + 5 != length || date.charAt(i++) != ' ') {
+                return INVALID;
+            }
+            value = 0;
+            for (int j = 0; j < 4; ++j) {
+                final char c = date.charAt(i++);
+                if (!isDigit(c)) {
+                    return INVALID;
+                }
+                value = value * 10 + c - '0';
+            }
+            year = value;
+        }
+        if (day < 1 || day > 31) {
+            return INVALID;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY + time * 1000L;
+    }
 
+    /**
+     * Parses a time in the format <code>HH:mm:ss</code>
+     *
+     * @return the second of the day, or -1 if the time is invalid
+     */
+    private static int parseTime(final String date, final int i) {
+        if (i + 8 > date.length() || date.charAt(i + 2) != ':' || date.charAt(i + 5) != ':') {
+            return -1;
+        }
+        final int hours = parse2Digits(date, i);
+        final int minutes = parse2Digits(date, i + 3);
+        final int seconds = parse2Digits(date, i + 6);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60) {
+            return -1;
+        }
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    private static int parse2Digits(final String date, final int i) {
+        final char c1 = date.charAt(i);
+        final char c2 = date.charAt(i + 1);
+        if (!isDigit(c1) || !isDigit(c2)) {
+            return -1;
+        }
+        return (c1 - '0') * 10 + c2 - '0';
+    }
+
+    /**
+     * @return the month, from 1 to 12, or -1 if the month is invalid
+     */
+    private static int parseMonth(final String date, final int i) {
+        if (i + 3 > date.length()) {
+            return -1;
+        }
+        for (int m = 0; m < MONTHS.length; ++m) {
+            if (date.regionMatches(true, i, MONTHS[m], 0, 3)) {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * days from civil, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final long era = (y >= 0 ? y : y - 399) / 400;
+        final long yoe = y - era * 400;
+        final long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            r--;
+        }
+        return r;
+    }
+
+    private static long floorMod(final long x, final long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static final class CachedDateTime {
+        private final long second;
+        private final byte[] bytes;
+        private final String string;
+
+        private CachedDateTime(final long second, final byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+            this.string = new String(bytes, US_ASCII);
+        }
+    }
 }
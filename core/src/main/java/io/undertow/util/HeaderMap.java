@@ -18,72 +18,276 @@
 
 package io.undertow.util;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.undertow.UndertowMessages;
 
 /**
- * This implementation sucks and is incomplete.  It's just here to illustrate.
+ * A map of HTTP headers.
+ * <p/>
+ * Entries are kept in insertion order in a set of dense arrays, and are located through an open
+ * addressed (linear probing) index table that is keyed by the precomputed {@link HttpString#hashCode()}.
+ * A header with a single value stores the {@code String} directly, multiple values are stored inline
+ * in a {@code String[]}, so no per header node or list objects are created.
+ * <p/>
+ * Values can also be added as a range of bytes with {@link #addRaw(HttpString, byte[], int, int)}, in which
+ * case they are only decoded into a {@code String} the first time they are read. This allows the parser to
+ * avoid creating strings for request headers that are never used.
+ * <p/>
+ * Removed entries leave a hole in the dense arrays that is reclaimed the next time the table is
+ * rebuilt. {@link #clear()} retains the backing arrays, so a map can be reused for multiple requests.
+ * <p/>
+ * Hot paths can walk the map without creating an iterator:
+ * <pre>
+ * for (int i = map.fiFirst(); i != -1; i = map.fiNext(i)) {
+ *     HttpString name = map.fiName(i);
+ *     for (int j = 0; j &lt; map.fiValueCount(i); ++j) {
+ *         String value = map.fiValue(i, j);
+ *     }
+ * }
+ * </pre>
+ * <p/>
+ * This class is not thread safe.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class HeaderMap implements Iterable<HttpString> {
 
-    private final Map<HttpString, Object> values = new TreeMap<>();
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The index table. Each slot holds the entry index plus one, or zero if the slot is empty.
+     * Always twice the size of the entry arrays, so the load factor never exceeds 0.5.
+     */
+    private int[] table;
+
+    /**
+     * The header names, in insertion order. A {@code null} name is a removed entry.
+     */
+    private HttpString[] names;
+
+    /**
+     * The header values, either a {@code String} or a {@code String[]}.
+     */
+    private Object[] values;
+
+    /**
+     * The number of values held by each entry.
+     */
+    private int[] valueCounts;
+
+    /**
+     * The start and length of values that are held as a {@code byte[]}. These are only allocated once a raw
+     * value has been added, and are always the same size as the other entry arrays.
+     */
+    private int[] rawStarts;
+    private int[] rawLengths;
+
+    /**
+     * The number of entry slots that have been used, including removed entries.
+     */
+    private int used;
+
+    /**
+     * The number of live headers.
+     */
+    private int size;
+
+    private boolean locked;
+
+    public HeaderMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new header map that can hold at least the given number of headers before it needs to resize.
+     *
+     * @param expectedHeaders The expected number of headers
+     */
+    public HeaderMap(int expectedHeaders) {
+        int capacity = Integer.highestOneBit(Math.max(expectedHeaders, 4) - 1) << 1;
+        table = new int[capacity << 1];
+        names = new HttpString[capacity];
+        values = new Object[capacity];
+        valueCounts = new int[capacity];
+    }
 
     public Iterator<HttpString> iterator() {
-        return values.keySet().iterator();
+        return new Iterator<HttpString>() {
+            int current = -1;
+            int next = fiFirst();
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public HttpString next() {
+                if (next == -1) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = fiNext(next);
+                return names[current];
+            }
+
+            @Override
+            public void remove() {
+                if (current == -1) {
+                    throw new IllegalStateException();
+                }
+                checkLocked();
+                removeEntry(current);
+                current = -1;
+            }
+        };
+    }
+
+    /**
+     * Gets the index of the first header in this map, for use with the other {@code fi*} methods.
+     *
+     * @return The index of the first header, or -1 if the map is empty
+     */
+    public int fiFirst() {
+        return fiNext(-1);
+    }
+
+    /**
+     * Gets the index of the header that follows the given index.
+     *
+     * @param index The current index
+     * @return The index of the next header, or -1 if there are no more headers
+     */
+    public int fiNext(int index) {
+        final HttpString[] names = this.names;
+        final int used = this.used;
+        for (int i = index + 1; i < used; ++i) {
+            if (names[i] != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index The header index
+     * @return The name of the header at the given index
+     */
+    public HttpString fiName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index The header index
+     * @return The number of values held by the header at the given index
+     */
+    public int fiValueCount(int index) {
+        return valueCounts[index];
+    }
+
+    /**
+     * @param index      The header index
+     * @param valueIndex The index of the value
+     * @return The value
+     */
+    public String fiValue(int index, int valueIndex) {
+        final Object value = value(index);
+        if (value instanceof String) {
+            if (valueIndex != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            return (String) value;
+        }
+        if (valueIndex >= valueCounts[index]) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ((String[]) value)[valueIndex];
     }
 
     public String getFirst(HttpString headerName) {
-        Object value = values.get(headerName);
-        if(value instanceof List) {
-            return ((List<String>) value).get(0);
-        } else {
-            return (String)value;
+        final int index = find(headerName);
+        if (index == -1) {
+            return null;
+        }
+        final Object value = value(index);
+        if (value instanceof String) {
+            return (String) value;
         }
+        return ((String[]) value)[0];
     }
 
     public String getLast(HttpString headerName) {
-        Object value = values.get(headerName);
-        if(value instanceof List) {
-            List<String> list = (List<String>) value;
-            return list.get(list.size()-1);
-        } else {
-            return (String)value;
+        final int index = find(headerName);
+        if (index == -1) {
+            return null;
         }
+        final Object value = value(index);
+        if (value instanceof String) {
+            return (String) value;
+        }
+        return ((String[]) value)[valueCounts[index] - 1];
     }
 
+    /**
+     * Gets the values of a header. The returned list is a snapshot and cannot be modified.
+     *
+     * @param headerName The header name
+     * @return The header values, or {@code null} if the header is not present
+     */
     public List<String> get(HttpString headerName) {
-        Object value = values.get(headerName);
-        if(value == null) {
+        final int index = find(headerName);
+        if (index == -1) {
             return null;
-        } else if(value instanceof List) {
-            return (List<String>)value;
-        } else {
-            return Collections.<String>singletonList((String)value);
         }
+        final Object value = value(index);
+        if (value instanceof String) {
+            return Collections.singletonList((String) value);
+        }
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf((String[]) value, valueCounts[index])));
     }
 
     public void add(HttpString headerName, String headerValue) {
-        final Object value = values.get(headerName);
-        if (value == null) {
-            values.put(headerName, headerValue);
+        checkLocked();
+        final int index = find(headerName);
+        if (index == -1) {
+            insert(headerName, headerValue, 1);
         } else {
-            if(value instanceof List) {
-                ((List) value).add(headerValue);
-            } else {
-                final ArrayList<String> list = new ArrayList<String>(1);
-                list.add((String) value);
-                list.add(headerValue);
-                values.put(headerName, list);
-            }
+            appendValue(index, headerValue);
+        }
+    }
+
+    /**
+     * Adds a header value that is held as a range of ISO-8859-1 bytes, and only decoded the first time it is
+     * read. The given array must not be modified while this map may still hold a reference to it.
+     *
+     * @param headerName The header name
+     * @param data       The array that holds the value
+     * @param start      The start of the value in the array
+     * @param length     The length of the value
+     */
+    public void addRaw(HttpString headerName, byte[] data, int start, int length) {
+        checkLocked();
+        final int index = find(headerName);
+        if (index != -1) {
+            appendValue(index, new String(data, start, length, StandardCharsets.ISO_8859_1));
+            return;
         }
+        insert(headerName, data, 1);
+        int[] rawStarts = this.rawStarts;
+        if (rawStarts == null) {
+            this.rawStarts = rawStarts = new int[names.length];
+            this.rawLengths = new int[names.length];
+        }
+        rawStarts[used - 1] = start;
+        rawLengths[used - 1] = length;
     }
 
     public void add(HttpString headerName, long headerValue) {
@@ -92,61 +296,130 @@ public final class HeaderMap implements Iterable<HttpString> {
 
 
     public void addAll(HttpString headerName, Collection<String> headerValues) {
-        final Object value = values.get(headerName);
-        if (value == null) {
-            values.put(headerName, new ArrayList<>(headerValues));
+        checkLocked();
+        if (headerValues.isEmpty()) {
+            return;
+        }
+        final int index = find(headerName);
+        if (index == -1) {
+            insertAll(headerName, headerValues);
         } else {
-            if(value instanceof List) {
-                ((List) value).addAll(headerValues);
-            } else {
-                final ArrayList<String> list = new ArrayList<String>(1);
-                list.add((String) value);
-                list.addAll(headerValues);
-                values.put(headerName, list);
+            for (String value : headerValues) {
+                appendValue(index, value);
             }
         }
     }
 
+    /**
+     * Removes all headers. The backing storage is retained so the map can be refilled without allocating.
+     */
     public void clear() {
-        values.clear();
+        checkLocked();
+        final int used = this.used;
+        if (used == 0) {
+            return;
+        }
+        Arrays.fill(names, 0, used, null);
+        Arrays.fill(values, 0, used, null);
+        Arrays.fill(valueCounts, 0, used, 0);
+        Arrays.fill(table, 0);
+        this.used = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Removes all headers and unlocks the map. This should only be used by the connector when the
+     * exchange that owns this map is reused for a new request.
+     */
+    public void reset() {
+        locked = false;
+        clear();
     }
 
     public Collection<HttpString> getHeaderNames() {
-        return new HashSet<HttpString>(values.keySet());
+        final HashSet<HttpString> result = new HashSet<HttpString>((int) (size / 0.75f) + 1);
+        for (int i = fiFirst(); i != -1; i = fiNext(i)) {
+            result.add(names[i]);
+        }
+        return result;
     }
 
     public void put(HttpString headerName, String headerValue) {
-        values.put(headerName, headerValue);
+        checkLocked();
+        final int index = find(headerName);
+        if (index == -1) {
+            insert(headerName, headerValue, 1);
+        } else {
+            values[index] = headerValue;
+            valueCounts[index] = 1;
+        }
     }
 
     public void put(HttpString headerName, long headerValue) {
-        values.put(headerName, Long.toString(headerValue));
+        put(headerName, Long.toString(headerValue));
     }
 
     public void putAll(HttpString headerName, Collection<String> headerValues) {
-        final ArrayList<String> list = new ArrayList<>(headerValues);
-        values.put(headerName, list);
+        checkLocked();
+        final int index = find(headerName);
+        if (headerValues.isEmpty()) {
+            if (index != -1) {
+                removeEntry(index);
+            }
+        } else if (index == -1) {
+            insertAll(headerName, headerValues);
+        } else {
+            values[index] = headerValues.size() == 1 ? headerValues.iterator().next() : headerValues.toArray(new String[headerValues.size()]);
+            valueCounts[index] = headerValues.size();
+        }
     }
 
+    /**
+     * Removes a header.
+     *
+     * @param headerName The header name
+     * @return The values that were removed, or an empty collection if the header was not present
+     */
     public Collection<String> remove(HttpString headerName) {
-        Object value = values.remove(headerName);
-        if(value instanceof List) {
-            return (Collection<String>) value;
-        } else {
-            return Collections.singletonList((String)value);
+        checkLocked();
+        final int index = find(headerName);
+        if (index == -1) {
+            return Collections.emptyList();
         }
+        final Object value = value(index);
+        final int count = valueCounts[index];
+        removeEntry(index);
+        if (value instanceof String) {
+            return Collections.singletonList((String) value);
+        }
+        return Arrays.asList(Arrays.copyOf((String[]) value, count));
     }
 
     /**
      * Lock this header map to make it immutable.  This method is idempotent.
+     * <p/>
+     * Once locked any attempt to modify the map will result in an {@link IllegalStateException}.
      */
     public void lock() {
+        locked = true;
+    }
 
+    /**
+     * @return <code>true</code> if {@link #lock()} has been called
+     */
+    public boolean isLocked() {
+        return locked;
     }
 
     public boolean contains(HttpString headerName) {
-        final Object value = values.get(headerName);
-        return value != null;
+        return find(headerName) != -1;
+    }
+
+    /**
+     * @return The number of distinct header names in this map
+     */
+    public int size() {
+        return size;
     }
 
     @Override
@@ -161,8 +434,181 @@ public final class HeaderMap implements Iterable<HttpString> {
 
     @Override
     public String toString() {
-        return "HeaderMap{" +
-                "values=" + values +
-                '}';
+        final StringBuilder sb = new StringBuilder("HeaderMap{values={");
+        boolean first = true;
+        for (int i = fiFirst(); i != -1; i = fiNext(i)) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(names[i]).append('=');
+            final Object value = value(i);
+            if (value instanceof String) {
+                sb.append(value);
+            } else {
+                sb.append(Arrays.asList(Arrays.copyOf((String[]) value, valueCounts[i])));
+            }
+        }
+        return sb.append("}}").toString();
+    }
+
+    /**
+     * Gets the value of an entry, decoding it first if it is held as bytes.
+     *
+     * @return The value, either a {@code String} or a {@code String[]}
+     */
+    private Object value(final int index) {
+        final Object value = values[index];
+        if (value instanceof byte[]) {
+            final String decoded = new String((byte[]) value, rawStarts[index], rawLengths[index], StandardCharsets.ISO_8859_1);
+            values[index] = decoded;
+            return decoded;
+        }
+        return value;
+    }
+
+    private void checkLocked() {
+        if (locked) {
+            throw UndertowMessages.MESSAGES.headerMapLocked();
+        }
+    }
+
+    /**
+     * Locates the entry index of the given header.
+     *
+     * @return The entry index, or -1 if not present
+     */
+    private int find(final HttpString headerName) {
+        final int hashCode = headerName.hashCode();
+        final int[] table = this.table;
+        final HttpString[] names = this.names;
+        final int mask = table.length - 1;
+        int slot = hashCode & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            final HttpString name = names[entry - 1];
+            if (name == headerName || name != null && name.hashCode() == hashCode && name.equals(headerName)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(final HttpString headerName, final Object value, final int count) {
+        if (used == names.length) {
+            resize();
+        }
+        final int index = used++;
+        names[index] = headerName;
+        values[index] = value;
+        valueCounts[index] = count;
+        ++size;
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        int slot = headerName.hashCode() & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private void insertAll(final HttpString headerName, final Collection<String> headerValues) {
+        if (headerValues.size() == 1) {
+            insert(headerName, headerValues.iterator().next(), 1);
+        } else {
+            insert(headerName, headerValues.toArray(new String[headerValues.size()]), headerValues.size());
+        }
+    }
+
+    private void appendValue(final int index, final String headerValue) {
+        final Object value = value(index);
+        final int count = valueCounts[index];
+        if (value instanceof String) {
+            values[index] = new String[]{(String) value, headerValue, null, null};
+        } else {
+            String[] array = (String[]) value;
+            if (count == array.length) {
+                values[index] = array = Arrays.copyOf(array, count << 1);
+            }
+            array[count] = headerValue;
+        }
+        valueCounts[index] = count + 1;
+    }
+
+    /**
+     * Removes an entry. The index table slot is left pointing at the now empty entry, so that probe
+     * sequences that pass through it are not broken. It is reclaimed when the table is next rebuilt.
+     */
+    private void removeEntry(final int index) {
+        names[index] = null;
+        values[index] = null;
+        valueCounts[index] = 0;
+        --size;
+        if (size == 0) {
+            //nothing left, so we can cheaply reclaim all the holes
+            Arrays.fill(names, 0, used, null);
+            Arrays.fill(table, 0);
+            used = 0;
+        }
+    }
+
+    /**
+     * Rebuilds the table, compacting out removed entries and growing the storage if it is more than half full.
+     */
+    private void resize() {
+        final HttpString[] oldNames = names;
+        final Object[] oldValues = values;
+        final int[] oldCounts = valueCounts;
+        final int[] oldRawStarts = rawStarts;
+        final int[] oldRawLengths = rawLengths;
+        final int oldUsed = used;
+        final int capacity = size >= oldNames.length >> 1 ? oldNames.length << 1 : oldNames.length;
+        if (capacity != oldNames.length) {
+            names = new HttpString[capacity];
+            values = new Object[capacity];
+            valueCounts = new int[capacity];
+            table = new int[capacity << 1];
+            if (oldRawStarts != null) {
+                rawStarts = new int[capacity];
+                rawLengths = new int[capacity];
+            }
+        } else {
+            Arrays.fill(table, 0);
+        }
+        final HttpString[] names = this.names;
+        final Object[] values = this.values;
+        final int[] valueCounts = this.valueCounts;
+        final int[] rawStarts = this.rawStarts;
+        final int[] rawLengths = this.rawLengths;
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        int index = 0;
+        for (int i = 0; i < oldUsed; ++i) {
+            final HttpString name = oldNames[i];
+            if (name != null) {
+                final Object value = oldValues[i];
+                final int count = oldCounts[i];
+                names[index] = name;
+                values[index] = value;
+                valueCounts[index] = count;
+                if (value instanceof byte[]) {
+                    rawStarts[index] = oldRawStarts[i];
+                    rawLengths[index] = oldRawLengths[i];
+                }
+                int slot = name.hashCode() & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = index + 1;
+                ++index;
+            }
+        }
+        if (names == oldNames) {
+            Arrays.fill(names, index, oldUsed, null);
+            Arrays.fill(values, index, oldUsed, null);
+            Arrays.fill(valueCounts, index, oldUsed, 0);
+        }
+        used = index;
     }
 }
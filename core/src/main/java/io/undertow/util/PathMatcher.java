@@ -0,0 +1,321 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * An immutable radix trie that maps request paths to values.
+ * <p/>
+ * Three kinds of path can be registered:
+ * <ul>
+ * <li>exact paths, that only match a request path that is identical</li>
+ * <li>prefix paths, that match the path itself and any path below it, so <code>/foo</code> matches
+ * <code>/foo</code> and <code>/foo/bar</code> but not <code>/foobar</code></li>
+ * <li>paths containing wildcard segments, where a <code>*</code> segment matches any single non empty path segment,
+ * e.g. <code>/api/&#42;/users</code></li>
+ * </ul>
+ * <p/>
+ * Matching walks the trie over the characters of the path, so the cost depends on the length of the path rather than
+ * the number of registered paths, and does not allocate. If more than one path matches an exact match is preferred,
+ * then the longest literal match, then wildcard matches.
+ */
+public final class PathMatcher<T> {
+
+    private final Node<T> root;
+
+    private PathMatcher(final Node<T> root) {
+        this.root = root;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    /**
+     * Finds the best match for a path.
+     *
+     * @param path The path to match
+     * @return The match, or <code>null</code> if no registered path matches
+     */
+    public Match<T> match(final String path) {
+        return match(root, path, 0);
+    }
+
+    private static <T> Match<T> match(final Node<T> node, final String path, final int pos) {
+        final int length = path.length();
+        if (pos == length) {
+            return node.exact != null ? node.exact : node.prefix;
+        }
+        final Node<T> child = node.child(path.charAt(pos));
+        if (child != null && path.regionMatches(pos, child.label, 0, child.label.length())) {
+            final Match<T> result = match(child, path, pos + child.label.length());
+            if (result != null) {
+                return result;
+            }
+        }
+        if (node.wildcard != null && node.segmentStart) {
+            int end = path.indexOf('/', pos);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > pos) {
+                final Match<T> result = match(node.wildcard, path, end);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        if (node.prefix != null && (node.segmentStart || path.charAt(pos) == '/')) {
+            return node.prefix;
+        }
+        return null;
+    }
+
+    private static boolean isWildcardSegment(final String pattern, final int pos) {
+        return pattern.charAt(pos) == '*'
+                && pos > 0 && pattern.charAt(pos - 1) == '/'
+                && (pos + 1 == pattern.length() || pattern.charAt(pos + 1) == '/');
+    }
+
+    /**
+     * The result of a match. Instances are created when the matcher is built, and are shared between requests.
+     */
+    public static final class Match<T> {
+        private final String pattern;
+        private final T value;
+        private final boolean exact;
+        private final boolean wildcard;
+
+        Match(final String pattern, final T value, final boolean exact, final boolean wildcardSegments) {
+            this.pattern = pattern;
+            this.value = value;
+            this.exact = exact;
+            boolean wildcard = false;
+            if (wildcardSegments) {
+                for (int i = 0; i < pattern.length(); ++i) {
+                    if (isWildcardSegment(pattern, i)) {
+                        wildcard = true;
+                        break;
+                    }
+                }
+            }
+            this.wildcard = wildcard;
+        }
+
+        /**
+         * @return The path that was registered
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return <code>true</code> if this was registered as an exact path
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * Returns the number of characters of the given path that were matched by the pattern. Unless the pattern
+         * contains wildcard segments this is just the length of the pattern.
+         *
+         * @param path The path that was passed to {@link PathMatcher#match(String)}
+         * @return The length of the matched part of the path
+         */
+        public int getMatchedLength(final String path) {
+            if (!wildcard) {
+                return pattern.length();
+            }
+            int pos = 0;
+            for (int i = 0; i < pattern.length(); ++i) {
+                if (isWildcardSegment(pattern, i)) {
+                    final int end = path.indexOf('/', pos);
+                    pos = end == -1 ? path.length() : end;
+                } else {
+                    ++pos;
+                }
+            }
+            return pos;
+        }
+    }
+
+    private static final class Node<T> {
+        private final String label;
+        private final boolean segmentStart;
+        private final char[] keys;
+        private final Node<T>[] children;
+        private final Node<T> wildcard;
+        private final Match<T> exact;
+        private final Match<T> prefix;
+
+        Node(final String label, final char[] keys, final Node<T>[] children, final Node<T> wildcard, final Match<T> exact, final Match<T> prefix) {
+            this.label = label;
+            this.segmentStart = !label.isEmpty() && label.charAt(label.length() - 1) == '/';
+            this.keys = keys;
+            this.children = children;
+            this.wildcard = wildcard;
+            this.exact = exact;
+            this.prefix = prefix;
+        }
+
+        Node<T> child(final char c) {
+            int low = 0;
+            int high = keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final char key = keys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Collects the paths and compiles them into a {@link PathMatcher}. Registering the same path twice replaces
+     * the previous value.
+     */
+    public static final class Builder<T> {
+
+        private final Map<String, T> exactPaths = new LinkedHashMap<String, T>();
+        private final Map<String, T> prefixPaths = new LinkedHashMap<String, T>();
+        private boolean wildcardSegments = true;
+
+        Builder() {
+        }
+
+        /**
+         * Sets whether <code>*</code> segments are treated as wildcards. If this is <code>false</code> then
+         * a <code>*</code> is matched literally. Defaults to <code>true</code>.
+         */
+        public Builder<T> setWildcardSegments(final boolean wildcardSegments) {
+            this.wildcardSegments = wildcardSegments;
+            return this;
+        }
+
+        public Builder<T> addExactPath(final String path, final T value) {
+            if (path == null || path.isEmpty()) {
+                throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+            }
+            exactPaths.put(path, value);
+            return this;
+        }
+
+        public Builder<T> addPrefixPath(final String path, final T value) {
+            if (path == null || path.isEmpty()) {
+                throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+            }
+            prefixPaths.put(path, value);
+            return this;
+        }
+
+        public PathMatcher<T> build() {
+            final BuildNode<T> root = new BuildNode<T>("");
+            for (Map.Entry<String, T> entry : exactPaths.entrySet()) {
+                insert(root, entry.getKey()).exact = new Match<T>(entry.getKey(), entry.getValue(), true, wildcardSegments);
+            }
+            for (Map.Entry<String, T> entry : prefixPaths.entrySet()) {
+                insert(root, entry.getKey()).prefix = new Match<T>(entry.getKey(), entry.getValue(), false, wildcardSegments);
+            }
+            return new PathMatcher<T>(root.compile());
+        }
+
+        private BuildNode<T> insert(final BuildNode<T> root, final String pattern) {
+            BuildNode<T> node = root;
+            int start = 0;
+            for (int i = 0; i < pattern.length(); ++i) {
+                if (wildcardSegments && isWildcardSegment(pattern, i)) {
+                    node = insertLiteral(node, pattern, start, i);
+                    if (node.wildcard == null) {
+                        node.wildcard = new BuildNode<T>("");
+                    }
+                    node = node.wildcard;
+                    start = i + 1;
+                }
+            }
+            return insertLiteral(node, pattern, start, pattern.length());
+        }
+
+        private static <T> BuildNode<T> insertLiteral(BuildNode<T> node, final String pattern, int start, final int end) {
+            while (start < end) {
+                final char c = pattern.charAt(start);
+                BuildNode<T> child = node.children.get(c);
+                if (child == null) {
+                    child = new BuildNode<T>(pattern.substring(start, end));
+                    node.children.put(c, child);
+                    return child;
+                }
+                final int max = Math.min(child.label.length(), end - start);
+                int common = 0;
+                while (common < max && child.label.charAt(common) == pattern.charAt(start + common)) {
+                    ++common;
+                }
+                if (common < child.label.length()) {
+                    final BuildNode<T> split = new BuildNode<T>(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    split.children.put(child.label.charAt(0), child);
+                    node.children.put(c, split);
+                    child = split;
+                }
+                node = child;
+                start += common;
+            }
+            return node;
+        }
+    }
+
+    private static final class BuildNode<T> {
+        private String label;
+        private final TreeMap<Character, BuildNode<T>> children = new TreeMap<Character, BuildNode<T>>();
+        private BuildNode<T> wildcard;
+        private Match<T> exact;
+        private Match<T> prefix;
+
+        BuildNode(final String label) {
+            this.label = label;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<T> compile() {
+            final char[] keys = new char[children.size()];
+            final Node<T>[] compiled = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, BuildNode<T>> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                compiled[i++] = entry.getValue().compile();
+            }
+            return new Node<T>(label, keys, compiled, wildcard == null ? null : wildcard.compile(), exact, prefix);
+        }
+    }
+}
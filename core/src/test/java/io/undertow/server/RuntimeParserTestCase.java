@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests parsers that are created at runtime with additional headers and header values.
+ */
+public class RuntimeParserTestCase {
+
+    private static final HttpString REQUEST_ID = new HttpString("X-Request-Id");
+
+    private static final byte[] REQUEST = ("GET /somepath?a=b HTTP/1.1\r\n" +
+            "Host: www.somehost.net\r\n" +
+            "X-Request-Id: 1234\r\n" +
+            "Accept-Encoding: gzip,  deflate\r\n" +
+            "Connection: keep-alive\r\n\r\n").getBytes();
+
+    @Test
+    public void testDefaultParserIsUsedIfNothingIsAdded() {
+        Assert.assertSame(HttpParser.INSTANCE, HttpParser.create(Collections.<String>emptyList(), Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testAdditionalHeaders() {
+        final HttpParser parser = HttpParser.create(Arrays.asList("X-Request-Id", "X-Forwarded-For"), Collections.<String>emptyList());
+        Assert.assertNotSame(HttpParser.INSTANCE.getClass(), parser.getClass());
+        //each parser is defined in its own loader, so it can be unloaded once it is no longer used
+        Assert.assertNotSame(HttpParser.class.getClassLoader(), parser.getClass().getClassLoader());
+        Assert.assertSame(HttpParser.class.getClassLoader(), parser.getClass().getClassLoader().getParent());
+        Assert.assertNotSame(parser.getClass(), HttpParser.create(Arrays.asList("X-Request-Id"), Collections.<String>emptyList()).getClass());
+
+        final HttpServerExchange first = parse(parser, REQUEST);
+        final HttpServerExchange second = parse(parser, REQUEST);
+        Assert.assertSame(headerName(first, REQUEST_ID), headerName(second, REQUEST_ID));
+        Assert.assertSame(Headers.HOST, headerName(first, Headers.HOST));
+        Assert.assertSame(Methods.GET, first.getRequestMethod());
+        Assert.assertEquals("/somepath", first.getRelativePath());
+        Assert.assertEquals("a=b", first.getQueryString());
+        Assert.assertEquals("1234", first.getRequestHeaders().getFirst(REQUEST_ID));
+        Assert.assertEquals("gzip, deflate", first.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+
+        //the default parser creates a new string every time
+        Assert.assertNotSame(headerName(parse(HttpParser.INSTANCE, REQUEST), REQUEST_ID), headerName(parse(HttpParser.INSTANCE, REQUEST), REQUEST_ID));
+    }
+
+    @Test
+    public void testHeaderValues() {
+        final String encoding = "gzip, deflate";
+        final String connection = "keep-alive";
+        final HttpParser parser = HttpParser.create(Collections.<String>emptyList(), Arrays.asList(encoding, connection, "close", "1235"));
+
+        final HttpServerExchange exchange = parse(parser, REQUEST);
+        Assert.assertSame(encoding, exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+        Assert.assertSame(connection, exchange.getRequestHeaders().getFirst(Headers.CONNECTION));
+        Assert.assertEquals("1234", exchange.getRequestHeaders().getFirst(REQUEST_ID));
+        Assert.assertEquals("www.somehost.net", exchange.getRequestHeaders().getFirst(Headers.HOST));
+
+        //the shared parser is not changed
+        Assert.assertNotSame(encoding, parse(HttpParser.INSTANCE, REQUEST).getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+    }
+
+    @Test
+    public void testHeadersAndValuesSplitAcrossReads() {
+        final String encoding = "gzip, deflate";
+        final HttpParser parser = HttpParser.create(Arrays.asList("X-Request-Id"), Arrays.asList(encoding));
+        final HttpServerExchange complete = parse(parser, REQUEST);
+        for (int i = 1; i < REQUEST.length; ++i) {
+            final ParseState context = new ParseState();
+            final HttpServerExchange result = new HttpServerExchange(null, null, null);
+            final ByteBuffer buffer = ByteBuffer.wrap(REQUEST);
+            buffer.limit(i);
+            parser.handle(buffer, i, context, result);
+            buffer.limit(REQUEST.length);
+            parser.handle(buffer, REQUEST.length - i, context, result);
+            Assert.assertTrue(context.isComplete());
+            Assert.assertSame(headerName(complete, REQUEST_ID), headerName(result, REQUEST_ID));
+            Assert.assertSame(encoding, result.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+            Assert.assertEquals("1234", result.getRequestHeaders().getFirst(REQUEST_ID));
+        }
+    }
+
+    private static HttpServerExchange parse(final HttpParser parser, final byte[] in) {
+        final ParseState context = new ParseState();
+        final HttpServerExchange result = new HttpServerExchange(null, null, null);
+        parser.handle(ByteBuffer.wrap(in), in.length, context, result);
+        Assert.assertTrue(context.isComplete());
+        return result;
+    }
+
+    private static HttpString headerName(final HttpServerExchange exchange, final HttpString name) {
+        for (HttpString header : exchange.getRequestHeaders().getHeaderNames()) {
+            if (header.equals(name)) {
+                return header;
+            }
+        }
+        Assert.fail("Header " + name + " not found");
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.BufferAllocator;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Pooled;
+import org.xnio.Xnio;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+
+public class ThreadAffineBufferPoolTestCase {
+
+    @Test
+    public void testBuffersAreReused() {
+        final ThreadAffineBufferPool pool = new ThreadAffineBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 100, 1000, 8, 0);
+        final Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        for (int i = 0; i < 1000; ++i) {
+            final Pooled<ByteBuffer> pooled = pool.allocate();
+            Assert.assertEquals(100, pooled.getResource().remaining());
+            buffers.add(pooled.getResource());
+            pooled.free();
+        }
+        //all allocations should have come from the first region
+        Assert.assertEquals(10, buffers.size());
+
+        final List<Pooled<ByteBuffer>> allocated = new ArrayList<Pooled<ByteBuffer>>();
+        for (int i = 0; i < 25; ++i) {
+            final Pooled<ByteBuffer> pooled = pool.allocate();
+            allocated.add(pooled);
+            buffers.add(pooled.getResource());
+        }
+        Assert.assertEquals(25, buffers.size());
+        for (Pooled<ByteBuffer> pooled : allocated) {
+            pooled.free();
+        }
+    }
+
+    @Test
+    public void testIoThreadCacheIsReusedAndHandsBackHalfBatches() throws Exception {
+        final ThreadAffineBufferPool pool = new ThreadAffineBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 100, 1000, 8, 0);
+        runOnIoThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                Assert.assertTrue(Thread.currentThread() instanceof XnioIoThread);
+                final Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+                for (int i = 0; i < 1000; ++i) {
+                    final Pooled<ByteBuffer> pooled = pool.allocate();
+                    buffers.add(pooled.getResource());
+                    pooled.free();
+                }
+                //the thread cache is a stack, so the same buffer is handed out every time
+                Assert.assertEquals(1, buffers.size());
+                Assert.assertEquals(0, pool.getGlobalBatchCount());
+
+                //the thread cache holds half a batch, take all of it and another half batch from the global pool
+                final List<Pooled<ByteBuffer>> allocated = new ArrayList<Pooled<ByteBuffer>>();
+                for (int i = 0; i < 8; ++i) {
+                    allocated.add(pool.allocate());
+                }
+                for (Pooled<ByteBuffer> pooled : allocated) {
+                    pooled.free();
+                }
+                //filling the thread cache hands half of it back to the global pool in a single batch
+                Assert.assertEquals(1, pool.getGlobalBatchCount());
+
+                allocated.clear();
+                for (int i = 0; i < 5; ++i) {
+                    allocated.add(pool.allocate());
+                }
+                //once the thread cache is empty it is refilled from the batch
+                Assert.assertEquals(0, pool.getGlobalBatchCount());
+                for (Pooled<ByteBuffer> pooled : allocated) {
+                    pooled.free();
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testFreedBufferCannotBeUsed() {
+        final ThreadAffineBufferPool pool = new ThreadAffineBufferPool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 100, 1000);
+        final Pooled<ByteBuffer> pooled = pool.allocate();
+        pooled.getResource().put((byte) 1);
+        pooled.free();
+        try {
+            pooled.getResource();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        //freeing twice must not return the buffer to the pool twice
+        pooled.free();
+        final Pooled<ByteBuffer> first = pool.allocate();
+        final Pooled<ByteBuffer> second = pool.allocate();
+        Assert.assertNotSame(first.getResource(), second.getResource());
+        Assert.assertEquals(0, first.getResource().position());
+        first.free();
+        second.free();
+    }
+
+    private static void runOnIoThread(final Callable<Void> task) throws Exception {
+        final XnioWorker worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+        try {
+            final FutureTask<Void> future = new FutureTask<Void>(task);
+            worker.getIoThread().execute(future);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        } finally {
+            worker.shutdown();
+            worker.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultAccessLogReceiverTestCase {
+
+    private File directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("access-log").toFile();
+    }
+
+    @After
+    public void cleanup() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testMessagesWritten() throws IOException {
+        final DefaultAccessLogReceiver receiver = new DefaultAccessLogReceiver(directory, "access");
+        for (int i = 0; i < 1000; ++i) {
+            receiver.logMessage("message " + i);
+        }
+        receiver.close();
+        final List<String> lines = Files.readAllLines(receiver.getLogFile().toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals("message " + i, lines.get(i));
+        }
+    }
+
+    @Test
+    public void testSizeBasedRotation() throws IOException, InterruptedException {
+        final DefaultAccessLogReceiver receiver = new DefaultAccessLogReceiver(directory, "access", 1000, -1);
+        for (int i = 0; i < 100; ++i) {
+            receiver.logMessage("message " + i);
+            if (i % 10 == 0) {
+                //give the writer a chance to write smaller batches
+                Thread.sleep(5);
+            }
+        }
+        receiver.close();
+
+        boolean rotated = false;
+        final Set<String> lines = new HashSet<String>();
+        for (File file : directory.listFiles()) {
+            if (!file.equals(receiver.getLogFile())) {
+                rotated = true;
+            }
+            //the order of the rotated files is not known, but each one should be in order
+            int last = -1;
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                final int value = Integer.parseInt(line.substring("message ".length()));
+                Assert.assertTrue(value > last);
+                last = value;
+                lines.add(line);
+            }
+        }
+        Assert.assertTrue(rotated);
+        Assert.assertEquals(100, lines.size());
+    }
+
+    @Test
+    public void testOverflowingEntriesAreDropped() throws IOException {
+        final DefaultAccessLogReceiver receiver = new DefaultAccessLogReceiver(directory, "access", -1, -1, 1);
+        for (int i = 0; i < 10000; ++i) {
+            receiver.logMessage("message " + i);
+        }
+        receiver.close();
+        final List<String> lines = Files.readAllLines(receiver.getLogFile().toPath(), StandardCharsets.UTF_8);
+        //every entry is either written or counted as dropped
+        Assert.assertEquals(10000, lines.size() + receiver.getDroppedCount());
+    }
+
+    @Test
+    public void testWriterIsNotStartedUntilFirstMessage() throws IOException {
+        final DefaultAccessLogReceiver receiver = new DefaultAccessLogReceiver(directory, "access");
+        receiver.close();
+        Assert.assertFalse(receiver.getLogFile().exists());
+        receiver.logMessage("message");
+        Assert.assertEquals(1, receiver.getDroppedCount());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DirectBufferCacheTestCase {
+
+    @Test
+    public void testOccupancyMetrics() {
+        //a single region of four slices
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(1024, 4096);
+        Assert.assertNull(cache.get("missing"));
+
+        cache.add("a", 2000);
+        loadEntry(cache, "a");
+
+        CacheMetrics metrics = cache.getMetrics();
+        Assert.assertEquals(1, metrics.getMisses());
+        Assert.assertEquals(5, metrics.getHits());
+        Assert.assertEquals(1, metrics.getEntryCount());
+        Assert.assertEquals(1, metrics.getCachedEntryCount());
+        Assert.assertEquals(2000, metrics.getBytesCached());
+        Assert.assertEquals(2000, metrics.getAverageEntrySize());
+
+        BufferPoolMetrics poolMetrics = metrics.getBufferPoolMetrics();
+        Assert.assertEquals(1024, poolMetrics.getSliceSize());
+        Assert.assertEquals(1, poolMetrics.getRegionCount());
+        Assert.assertEquals(4, poolMetrics.getSlicesAllocated());
+        Assert.assertEquals(2, poolMetrics.getSlicesInUse());
+        Assert.assertEquals(2, poolMetrics.getSlicesFree());
+
+        cache.remove("a");
+        metrics = cache.getMetrics();
+        Assert.assertEquals(0, metrics.getEntryCount());
+        Assert.assertEquals(0, metrics.getCachedEntryCount());
+        Assert.assertEquals(0, metrics.getBytesCached());
+        Assert.assertEquals(0, metrics.getBufferPoolMetrics().getSlicesInUse());
+        Assert.assertEquals(4, metrics.getBufferPoolMetrics().getSlicesFree());
+    }
+
+    @Test
+    public void testEvictionMetrics() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(1024, 4096);
+        cache.add("a", 3000);
+        loadEntry(cache, "a");
+        Assert.assertEquals(3, cache.getSlicesInUse());
+
+        //there is not enough room for both entries, so the first one is evicted
+        cache.add("b", 3000);
+        loadEntry(cache, "b");
+        Assert.assertEquals(1, cache.getAllocationFailures());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertEquals(1, cache.getCachedEntryCount());
+        Assert.assertEquals(3000, cache.getBytesCached());
+        Assert.assertEquals(3, cache.getSlicesInUse());
+        Assert.assertEquals(1, cache.getSlicesFree());
+        Assert.assertTrue(cache.get("b").buffers().length > 0);
+    }
+
+    @Test
+    public void testProtectedEntrySurvivesScan() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(1024, 4096);
+        cache.add("hot", 1000);
+        loadEntry(cache, "hot");
+        //the next sampled access promotes the entry to the protected segment
+        for (int i = 0; i < 5; ++i) {
+            cache.get("hot");
+        }
+
+        //entries that are only used a few times only evict each other
+        cache.add("cold1", 2000);
+        loadEntry(cache, "cold1");
+        cache.add("cold2", 2000);
+        loadEntry(cache, "cold2");
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertNull(cache.get("cold1"));
+        Assert.assertTrue(cache.get("hot").buffers().length > 0);
+        Assert.assertTrue(cache.get("cold2").buffers().length > 0);
+    }
+
+    @Test
+    public void testAdmissionPolicyRejectsInfrequentEntries() {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(1024, 4096, new TinyLfuAdmissionPolicy(16));
+        cache.add("a", 3000);
+        for (int i = 0; i < 10; ++i) {
+            cache.get("a");
+        }
+        Assert.assertTrue(cache.get("a").buffers().length > 0);
+
+        //b has been used less than a, so it does not replace it
+        cache.add("b", 3000);
+        for (int i = 0; i < 5; ++i) {
+            cache.get("b");
+        }
+        Assert.assertEquals(0, cache.get("b").buffers().length);
+        Assert.assertTrue(cache.get("a").buffers().length > 0);
+        Assert.assertEquals(0, cache.getEvictions());
+
+        //once b is used more often it replaces a
+        for (int i = 0; i < 20; ++i) {
+            cache.get("b");
+        }
+        Assert.assertTrue(cache.get("b").buffers().length > 0);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testExpiredEntryIsRemoved() throws InterruptedException {
+        final DirectBufferCache<String> cache = new DirectBufferCache<String>(1024, 4096);
+        cache.add("a", 2000, 1);
+        cache.add("b", 2000, -1);
+        loadEntry(cache, "a");
+        Assert.assertTrue(cache.get("a").expires() > System.currentTimeMillis());
+        Assert.assertEquals(-1, cache.get("b").expires());
+
+        Thread.sleep(1100);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("b"));
+        Assert.assertEquals(1, cache.getEntryCount());
+        Assert.assertEquals(0, cache.getCachedEntryCount());
+        Assert.assertEquals(0, cache.getSlicesInUse());
+    }
+
+    /**
+     * Allocation is sampled, so the entry needs to be accessed several times before data is allocated
+     */
+    private static void loadEntry(final DirectBufferCache<String> cache, final String key) {
+        for (int i = 0; i < 4; ++i) {
+            cache.get(key);
+        }
+        Assert.assertTrue(cache.get(key).buffers().length > 0);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LRUCacheTestCase {
+
+    @Test
+    public void testSizeIsBounded() {
+        final LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10);
+        for (int i = 0; i < 100; ++i) {
+            cache.add("key" + i, i);
+            Assert.assertTrue(cache.size() <= 10);
+        }
+        for (int i = 90; i < 100; ++i) {
+            Assert.assertEquals(Integer.valueOf(i), cache.get("key" + i));
+        }
+        Assert.assertNull(cache.get("key0"));
+    }
+
+    @Test
+    public void testRecentlyUsedEntriesAreKept() {
+        final LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10);
+        cache.add("hot", -1);
+        for (int i = 0; i < 100; ++i) {
+            //access order is sampled, so the entry has to be read several times to be moved to the back of the queue
+            for (int j = 0; j < 5; ++j) {
+                Assert.assertEquals(Integer.valueOf(-1), cache.get("hot"));
+            }
+            cache.add("key" + i, i);
+        }
+        Assert.assertEquals(10, cache.size());
+        Assert.assertEquals(Integer.valueOf(-1), cache.get("hot"));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        final LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10);
+        cache.add("a", 1);
+        cache.add("a", 2);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+        cache.remove("a");
+        Assert.assertNull(cache.get("a"));
+        for (int i = 0; i < 5; ++i) {
+            cache.add("key" + i, i);
+        }
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictionIsReported() {
+        final List<String> evicted = new ArrayList<String>();
+        final LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10) {
+            @Override
+            protected void evicted(final String key, final Integer value) {
+                evicted.add(key);
+            }
+        };
+        for (int i = 0; i < 15; ++i) {
+            cache.add("key" + i, i);
+        }
+        cache.remove("key14");
+        Assert.assertEquals(Arrays.asList("key0", "key1", "key2", "key3", "key4"), evicted);
+        Assert.assertEquals(9, cache.keySet().size());
+        Assert.assertFalse(cache.keySet().contains("key0"));
+        Assert.assertTrue(cache.keySet().contains("key13"));
+    }
+}
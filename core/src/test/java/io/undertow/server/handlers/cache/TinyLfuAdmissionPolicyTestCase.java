@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TinyLfuAdmissionPolicyTestCase {
+
+    @Test
+    public void testFrequencyIsEstimated() {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(256);
+        for (int i = 0; i < 5; ++i) {
+            policy.recordAccess("/index.html");
+        }
+        policy.recordAccess("/other.html");
+        //the sketch can over estimate, but never under estimates
+        Assert.assertTrue(policy.frequency("/index.html") >= 5);
+        Assert.assertTrue(policy.frequency("/other.html") >= 1);
+        Assert.assertTrue(policy.admit("/index.html", "/other.html"));
+        Assert.assertFalse(policy.admit("/other.html", "/index.html"));
+
+        for (int i = 0; i < 100; ++i) {
+            policy.recordAccess("/index.html");
+        }
+        Assert.assertEquals(15, policy.frequency("/index.html"));
+    }
+
+    @Test
+    public void testFrequenciesAreAged() {
+        final TinyLfuAdmissionPolicy policy = new TinyLfuAdmissionPolicy(256);
+        for (int i = 0; i < 15; ++i) {
+            policy.recordAccess("/index.html");
+        }
+        Assert.assertEquals(15, policy.frequency("/index.html"));
+
+        //a scan of one time keys triggers a reset, which halves all the counters
+        for (int i = 0; i < 2560; ++i) {
+            policy.recordAccess("/scan/" + i);
+        }
+        final int frequency = policy.frequency("/index.html");
+        Assert.assertTrue(Integer.toString(frequency), frequency < 15);
+        Assert.assertTrue(Integer.toString(frequency), frequency >= 7);
+        Assert.assertTrue(policy.admit("/index.html", "/scan/1"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.server.handlers.encoding;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeflaterPoolTestCase {
+
+    @Test
+    public void testDeflatersAreReused() throws DataFormatException {
+        final DeflaterPool pool = new DeflaterPool(Deflater.BEST_SPEED, true, 2);
+        final Deflater first = pool.allocate();
+        Assert.assertEquals("first message", roundTrip(first, "first message"));
+        pool.free(first);
+
+        //the deflater is reset when it is returned, so it can be used for another response
+        final Deflater second = pool.allocate();
+        Assert.assertSame(first, second);
+        Assert.assertEquals("second message", roundTrip(second, "second message"));
+        pool.free(second);
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, 2);
+        final Deflater d1 = pool.allocate();
+        final Deflater d2 = pool.allocate();
+        final Deflater d3 = pool.allocate();
+        pool.free(d1);
+        pool.free(d2);
+        pool.free(d3);
+        //d3 was ended, as the pool was full
+        final Deflater a = pool.allocate();
+        final Deflater b = pool.allocate();
+        final Deflater c = pool.allocate();
+        Assert.assertSame(d2, a);
+        Assert.assertSame(d1, b);
+        Assert.assertNotSame(d3, c);
+    }
+
+    @Test
+    public void testDeflaterCanBeReturnedFromAnotherThread() throws InterruptedException {
+        final DeflaterPool pool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, 2);
+        final Deflater deflater = pool.allocate();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.free(deflater);
+            }
+        });
+        thread.start();
+        thread.join();
+        //the deflater is available to every thread, not just the one that freed it
+        Assert.assertSame(deflater, pool.allocate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new DeflaterPool(10, true);
+    }
+
+    private static String roundTrip(final Deflater deflater, final String message) throws DataFormatException {
+        deflater.setInput(message.getBytes());
+        deflater.finish();
+        final byte[] compressed = new byte[1024];
+        final int length = deflater.deflate(compressed);
+        Assert.assertTrue(deflater.finished());
+
+        final Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, 0, length);
+        final byte[] result = new byte[1024];
+        final int resultLength = inflater.inflate(result);
+        inflater.end();
+        return new String(result, 0, resultLength);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that when exchange recycling is enabled no state leaks from one request to the next
+ * on a persistent connection.
+ */
+@RunWith(DefaultServer.class)
+public class RecycledExchangeTestCase {
+
+    private static final AttachmentKey<String> KEY = AttachmentKey.create(String.class);
+    private static final HttpString ECHO = new HttpString("Echo");
+    private static final HttpString STALE = new HttpString("Stale");
+    private static final AtomicReference<HttpServerExchange> lastExchange = new AtomicReference<HttpServerExchange>();
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                final HttpServerExchange previous = lastExchange.getAndSet(exchange);
+                exchange.getResponseHeaders().put(new HttpString("StaleRejected"), Boolean.toString(staleAccessRejected(previous)));
+                exchange.getResponseHeaders().put(new HttpString("HadAttachment"), Boolean.toString(exchange.getAttachment(KEY) != null));
+                exchange.putAttachment(KEY, "value");
+                final String echo = exchange.getRequestHeaders().getFirst(ECHO);
+                exchange.getResponseHeaders().put(ECHO, echo == null ? "none" : echo);
+                final Deque<String> param = exchange.getQueryParameters().get("param");
+                exchange.getResponseHeaders().put(new HttpString("Param"), param == null ? "none" : param.getFirst());
+                exchange.endExchange();
+            }
+        });
+    }
+
+    /**
+     * Attempts to modify the current request through the exchange of the previous request
+     */
+    private static boolean staleAccessRejected(final HttpServerExchange previous) {
+        if (previous == null) {
+            return false;
+        }
+        previous.putAttachment(KEY, "stale");
+        try {
+            previous.getResponseHeaders().put(STALE, "true");
+            return false;
+        } catch (IllegalStateException expected) {
+            return true;
+        }
+    }
+
+    @Test
+    public void testStateIsNotRetainedBetweenRequests() throws IOException {
+        Assume.assumeTrue(!DefaultServer.isAjp());
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            DefaultServer.setUndertowOptions(OptionMap.builder().addAll(existing)
+                    .set(UndertowOptions.RECYCLE_EXCHANGES, true)
+                    .getMap());
+            lastExchange.set(null);
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path?param=first");
+            get.addHeader(ECHO.toString(), "first");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("false", result.getFirstHeader("HadAttachment").getValue());
+            Assert.assertEquals("first", result.getFirstHeader("Echo").getValue());
+            Assert.assertEquals("first", result.getFirstHeader("Param").getValue());
+
+            for (int i = 0; i < 3; ++i) {
+                get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+                result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+                Assert.assertEquals("true", result.getFirstHeader("StaleRejected").getValue());
+                Assert.assertNull(result.getFirstHeader(STALE.toString()));
+                Assert.assertEquals("false", result.getFirstHeader("HadAttachment").getValue());
+                Assert.assertEquals("none", result.getFirstHeader("Echo").getValue());
+                Assert.assertEquals("none", result.getFirstHeader("Param").getValue());
+                Assert.assertEquals("0", result.getFirstHeader("Content-Length").getValue());
+            }
+        } finally {
+            DefaultServer.setUndertowOptions(existing);
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
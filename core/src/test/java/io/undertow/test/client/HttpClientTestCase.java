@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.undertow.client.HttpClient;
+import io.undertow.client.HttpClientOptions;
+import io.undertow.client.HttpClientRequest;
+import io.undertow.client.HttpClientResponse;
+import io.undertow.server.HttpServerConnection;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoFuture;
+import org.xnio.OptionMap;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.streams.ChannelInputStream;
+import org.xnio.streams.ChannelOutputStream;
+
+@AjpIgnore
+@RunWith(DefaultServer.class)
+public class HttpClientTestCase {
+
+    private static final String MESSAGE = "Hello from the client";
+
+    private static final Set<HttpServerConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<HttpServerConnection, Boolean>());
+
+    @BeforeClass
+    public static void setup() {
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        DefaultServer.setRootHandler(blockingHandler);
+        blockingHandler.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleBlockingRequest(final HttpServerExchange exchange) throws Exception {
+                connections.add(exchange.getConnection());
+                if (exchange.getRequestMethod().equals(Methods.POST)) {
+                    final InputStream inputStream = new ChannelInputStream(exchange.getRequestChannel());
+                    final String body = HttpClientUtils.readResponse(inputStream);
+                    inputStream.close();
+                    final OutputStream outputStream = new ChannelOutputStream(exchange.getResponseChannel());
+                    outputStream.write(body.getBytes());
+                    outputStream.close();
+                } else {
+                    final byte[] body = exchange.getRelativePath().getBytes();
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, body.length);
+                    final OutputStream outputStream = new ChannelOutputStream(exchange.getResponseChannel());
+                    outputStream.write(body);
+                    outputStream.close();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws IOException {
+        connections.clear();
+        final HttpClient client = HttpClient.create(DefaultServer.getWorker(), OptionMap.EMPTY);
+        try {
+            for (int i = 0; i < 5; ++i) {
+                final HttpClientRequest request = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/path" + i, OptionMap.EMPTY).get();
+                final HttpClientResponse response = request.getResponse().get();
+                Assert.assertEquals(200, response.getResponseCode());
+                Assert.assertEquals(("/path" + i).length(), response.getContentLength());
+                Assert.assertEquals("/path" + i, readBody(response));
+            }
+            Assert.assertEquals(1, connections.size());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testChunkedAndFixedLengthRequestBodies() throws IOException {
+        final HttpClient client = HttpClient.create(DefaultServer.getWorker(), OptionMap.EMPTY);
+        try {
+            for (long length : new long[]{-1, MESSAGE.length()}) {
+                final HttpClientRequest request = client.sendRequest(Methods.POST_STRING, DefaultServer.getDefaultServerAddress() + "/path", OptionMap.EMPTY).get();
+                final StreamSinkChannel requestChannel = request.writeRequestBody(length);
+                final OutputStream outputStream = new ChannelOutputStream(requestChannel);
+                outputStream.write(MESSAGE.getBytes());
+                outputStream.close();
+                final HttpClientResponse response = request.getResponse().get();
+                Assert.assertEquals(200, response.getResponseCode());
+                Assert.assertEquals(Headers.CHUNKED.toString(), response.getResponseHeaders().getFirst(Headers.TRANSFER_ENCODING));
+                Assert.assertEquals(MESSAGE, readBody(response));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        connections.clear();
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.PIPELINE, true)
+                .set(HttpClientOptions.MAX_CONNECTIONS_PER_HOST, 1)
+                .getMap();
+        final HttpClient client = HttpClient.create(DefaultServer.getWorker(), options);
+        try {
+            final List<IoFuture<HttpClientRequest>> requests = new ArrayList<IoFuture<HttpClientRequest>>();
+            for (int i = 0; i < 5; ++i) {
+                final IoFuture<HttpClientRequest> future = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/path" + i, OptionMap.EMPTY);
+                requests.add(future);
+                if (future.getStatus() == IoFuture.Status.DONE) {
+                    //send the request straight away, so that it is pipelined
+                    future.get().getResponse();
+                }
+            }
+            for (int i = 0; i < 5; ++i) {
+                final HttpClientResponse response = requests.get(i).get().getResponse().get();
+                Assert.assertEquals(200, response.getResponseCode());
+                Assert.assertEquals("/path" + i, readBody(response));
+            }
+            Assert.assertEquals(1, connections.size());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testOversizedResponseHeaderClosesConnection() throws IOException {
+        final OptionMap options = OptionMap.builder()
+                .set(HttpClientOptions.MAX_CONNECTIONS_PER_HOST, 1)
+                .getMap();
+        final HttpClient client = HttpClient.create(DefaultServer.getWorker(), options);
+        try {
+            final OptionMap smallHeaders = OptionMap.create(HttpClientOptions.MAX_HEADER_SIZE, 16);
+            final HttpClientRequest request = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/path", smallHeaders).get();
+            try {
+                request.getResponse().get();
+                Assert.fail("response with oversized headers should have failed");
+            } catch (IOException expected) {
+            }
+            //the only connection slot is only freed if the failed connection was closed
+            final HttpClientRequest next = client.sendRequest(Methods.GET_STRING, DefaultServer.getDefaultServerAddress() + "/path", OptionMap.EMPTY).get();
+            final HttpClientResponse response = next.getResponse().get();
+            Assert.assertEquals(200, response.getResponseCode());
+            Assert.assertEquals("/path", readBody(response));
+        } finally {
+            client.close();
+        }
+    }
+
+    private static String readBody(final HttpClientResponse response) throws IOException {
+        final InputStream stream = new ChannelInputStream(response.readReplyBody());
+        try {
+            return HttpClientUtils.readResponse(stream);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers;
+
+import java.io.IOException;
+
+import io.undertow.UndertowOptions;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.test.utils.SetHeaderHandler;
+import io.undertow.util.DateUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+
+/**
+ * Tests the Date, Server and Connection headers that are added to every response.
+ */
+@RunWith(DefaultServer.class)
+public class CommonResponseHeadersTestCase {
+
+    @BeforeClass
+    public static void setup() {
+        DefaultServer.setRootHandler(new SetHeaderHandler("MyHeader", "MyValue"));
+    }
+
+    @Test
+    public void testDateAndConnectionHeaders() throws IOException {
+        Assume.assumeTrue(!DefaultServer.isAjp());
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            final Header[] date = result.getHeaders("Date");
+            Assert.assertEquals(1, date.length);
+            Assert.assertNotNull(date[0].getValue(), DateUtils.parseDate(date[0].getValue()));
+            Assert.assertEquals("keep-alive", result.getFirstHeader("Connection").getValue());
+            Assert.assertEquals("MyValue", result.getFirstHeader("MyHeader").getValue());
+            Assert.assertNull(result.getFirstHeader("Server"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testServerHeader() throws IOException {
+        Assume.assumeTrue(!DefaultServer.isAjp());
+        final OptionMap existing = DefaultServer.getUndertowOptions();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            DefaultServer.setUndertowOptions(OptionMap.builder().addAll(existing)
+                    .set(UndertowOptions.SERVER_HEADER, "undertow-test")
+                    .set(UndertowOptions.ALWAYS_SET_DATE, false)
+                    .getMap());
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("undertow-test", result.getFirstHeader("Server").getValue());
+            Assert.assertNull(result.getFirstHeader("Date"));
+        } finally {
+            DefaultServer.setUndertowOptions(existing);
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.accesslog;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.accesslog.AccessLogHandler;
+import io.undertow.server.handlers.accesslog.AccessLogReceiver;
+import io.undertow.server.handlers.accesslog.AccessLogToken;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class AccessLogTestCase {
+
+    private static final String MESSAGE = "hello";
+
+    private static final HttpHandler HELLO_HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) {
+            exchange.getResponseSender().send(MESSAGE, IoCallback.END_EXCHANGE);
+        }
+    };
+
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<String>();
+
+    private final AccessLogReceiver receiver = new AccessLogReceiver() {
+        @Override
+        public void logMessage(final String message) {
+            messages.add(message);
+        }
+    };
+
+    @Test
+    public void testCustomPattern() throws IOException, InterruptedException {
+        final AccessLogToken token = new AccessLogToken() {
+            @Override
+            public void append(final StringBuilder builder, final HttpServerExchange exchange) {
+                builder.append("custom");
+            }
+        };
+        DefaultServer.setRootHandler(new AccessLogHandler(HELLO_HANDLER, receiver, "%m %U%q %s %b %{Test}i %{Missing}i %{token}x 100%%", Collections.singletonMap("token", token)));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path?a=b");
+            get.addHeader("Test", "value");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            Assert.assertEquals("GET /path?a=b 200 5 value - custom 100%", messages.poll(10, TimeUnit.SECONDS));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testCommonPattern() throws IOException, InterruptedException {
+        DefaultServer.setRootHandler(new AccessLogHandler(HELLO_HANDLER, receiver, "common"));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            final String message = messages.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(message);
+            Assert.assertTrue(message, message.matches("\\S+ - - \\[[^\\]]+\\] \"GET /path HTTP/1.1\" 200 5"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testHeaderValuesAreEscaped() throws IOException, InterruptedException {
+        final HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                exchange.getResponseHeaders().put(new HttpString("Out"), "x\"y");
+                exchange.getResponseSender().send(MESSAGE, IoCallback.END_EXCHANGE);
+            }
+        };
+        DefaultServer.setRootHandler(new AccessLogHandler(handler, receiver, "\"%{Test}i\" \"%{Out}o\""));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            get.addHeader("Test", "a\" b\\c");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals("\"a\\\" b\\\\c\" \"x\\\"y\"", messages.poll(10, TimeUnit.SECONDS));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestTargetIsEscaped() throws IOException, InterruptedException {
+        DefaultServer.setRootHandler(new AccessLogHandler(HELLO_HANDLER, receiver, "\"%r\" %U%q"));
+        final Socket socket = new Socket(DefaultServer.getHostAddress("default"), DefaultServer.getHostPort("default"));
+        try {
+            socket.getOutputStream().write("GET /a\"b\\c?d\"e HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+            final String response = HttpClientUtils.readResponse(socket.getInputStream());
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            Assert.assertEquals("\"GET /a\\\"b\\\\c?d\\\"e HTTP/1.1\" /a\\\"b\\\\c?d\\\"e", messages.poll(10, TimeUnit.SECONDS));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        new AccessLogHandler(HELLO_HANDLER, receiver, "%m %Z");
+    }
+}
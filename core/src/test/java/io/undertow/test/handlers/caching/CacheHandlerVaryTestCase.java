@@ -0,0 +1,196 @@
+package io.undertow.test.handlers.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import io.undertow.io.IoCallback;
+import io.undertow.predicate.MaxContentSizePredicate;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.cache.CacheHandler;
+import io.undertow.server.handlers.cache.CachedHttpRequest;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ResponseCache;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that the cache stores a separate entry for each variant of a response, and that
+ * the Cache-Control header of the response is respected.
+ * <p/>
+ * The cache handler is installed before the encoding handler, so compressed responses are cached.
+ */
+@RunWith(DefaultServer.class)
+public class CacheHandlerVaryTestCase {
+
+    private static final AtomicInteger responseCount = new AtomicInteger();
+
+    /**
+     * The value of this header is sent as the Cache-Control header of the response
+     */
+    private static final HttpString RESPONSE_CACHE_CONTROL = new HttpString("ResponseCacheControl");
+
+    /**
+     * The value of this header is added to the Vary header of the response
+     */
+    private static final HttpString RESPONSE_VARY = new HttpString("ResponseVary");
+
+    @BeforeClass
+    public static void setup() {
+
+        final HttpHandler messageHandler = new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                final String cacheControl = exchange.getRequestHeaders().getFirst(RESPONSE_CACHE_CONTROL);
+                if (cacheControl != null) {
+                    exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, cacheControl);
+                }
+                final String vary = exchange.getRequestHeaders().getFirst(RESPONSE_VARY);
+                if (vary != null) {
+                    exchange.getResponseHeaders().add(Headers.VARY, vary);
+                }
+                final ResponseCache cache = exchange.getAttachment(ResponseCache.ATTACHMENT_KEY);
+                if (!cache.tryServeResponse()) {
+                    final String data = "Response " + responseCount.incrementAndGet();
+                    exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length() + "");
+                    exchange.getResponseSender().send(data, IoCallback.END_EXCHANGE);
+                }
+            }
+        };
+        final EncodingHandler encodingHandler = new EncodingHandler(messageHandler);
+        encodingHandler.addEncodingHandler("gzip", new GzipEncodingProvider(), 50, new MaxContentSizePredicate(5));
+        final CacheHandler cacheHandler = new CacheHandler(new DirectBufferCache<CachedHttpRequest>(100, 10000), encodingHandler);
+        DefaultServer.setRootHandler(cacheHandler);
+    }
+
+    @Test
+    public void testCompressedAndIdentityVariantsAreCachedSeparately() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int start = responseCount.get();
+            final HttpGet gzip = new HttpGet(DefaultServer.getDefaultServerAddress() + "/variants");
+            gzip.addHeader(Headers.ACCEPT_ENCODING_STRING, "gzip");
+            //it takes 5 hits to make an entry actually get cached
+            for (int i = 1; i <= 5; ++i) {
+                Assert.assertEquals("Response " + (start + i), readGzipResponse(client.execute(gzip)));
+            }
+            Assert.assertEquals("Response " + (start + 5), readGzipResponse(client.execute(gzip)));
+            Assert.assertEquals("Response " + (start + 5), readGzipResponse(client.execute(gzip)));
+
+            //a client that does not accept gzip must not be sent the cached compressed response
+            final HttpGet identity = new HttpGet(DefaultServer.getDefaultServerAddress() + "/variants");
+            for (int i = 6; i <= 10; ++i) {
+                Assert.assertEquals("Response " + (start + i), readIdentityResponse(client.execute(identity)));
+            }
+            Assert.assertEquals("Response " + (start + 10), readIdentityResponse(client.execute(identity)));
+
+            //both variants are now cached
+            Assert.assertEquals("Response " + (start + 5), readGzipResponse(client.execute(gzip)));
+            Assert.assertEquals("Response " + (start + 10), readIdentityResponse(client.execute(identity)));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testVaryOnRequestHeader() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int start = responseCount.get();
+            final HttpGet first = new HttpGet(DefaultServer.getDefaultServerAddress() + "/vary");
+            first.addHeader(RESPONSE_VARY.toString(), "Accept-Language");
+            first.addHeader(Headers.ACCEPT_LANGUAGE_STRING, "en");
+            for (int i = 1; i <= 5; ++i) {
+                Assert.assertEquals("Response " + (start + i), readIdentityResponse(client.execute(first)));
+            }
+            Assert.assertEquals("Response " + (start + 5), readIdentityResponse(client.execute(first)));
+
+            final HttpGet second = new HttpGet(DefaultServer.getDefaultServerAddress() + "/vary");
+            second.addHeader(RESPONSE_VARY.toString(), "Accept-Language");
+            second.addHeader(Headers.ACCEPT_LANGUAGE_STRING, "fr");
+            Assert.assertEquals("Response " + (start + 6), readIdentityResponse(client.execute(second)));
+            Assert.assertEquals("Response " + (start + 5), readIdentityResponse(client.execute(first)));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testVaryStarIsNotCached() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int start = responseCount.get();
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/vary-star");
+            get.addHeader(RESPONSE_VARY.toString(), "*");
+            for (int i = 1; i <= 7; ++i) {
+                Assert.assertEquals("Response " + (start + i), readIdentityResponse(client.execute(get)));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testNoStoreIsNotCached() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int start = responseCount.get();
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/no-store");
+            get.addHeader(RESPONSE_CACHE_CONTROL.toString(), "public, no-store");
+            for (int i = 1; i <= 7; ++i) {
+                Assert.assertEquals("Response " + (start + i), readIdentityResponse(client.execute(get)));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testEntryExpiresAfterMaxAge() throws IOException, InterruptedException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final int start = responseCount.get();
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/max-age");
+            get.addHeader(RESPONSE_CACHE_CONTROL.toString(), "max-age=1");
+            for (int i = 1; i <= 5; ++i) {
+                Assert.assertEquals("Response " + (start + i), readIdentityResponse(client.execute(get)));
+            }
+            Assert.assertEquals("Response " + (start + 5), readIdentityResponse(client.execute(get)));
+
+            Thread.sleep(1500);
+            Assert.assertEquals("Response " + (start + 6), readIdentityResponse(client.execute(get)));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String readGzipResponse(final HttpResponse result) throws IOException {
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        final Header[] encoding = result.getHeaders(Headers.CONTENT_ENCODING_STRING);
+        Assert.assertEquals(1, encoding.length);
+        Assert.assertEquals("gzip", encoding[0].getValue());
+        Assert.assertEquals(Headers.ACCEPT_ENCODING_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+        final byte[] data = HttpClientUtils.readRawResponse(result);
+        return HttpClientUtils.readResponse(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static String readIdentityResponse(final HttpResponse result) throws IOException {
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        Assert.assertEquals(0, result.getHeaders(Headers.CONTENT_ENCODING_STRING).length);
+        return HttpClientUtils.readResponse(result);
+    }
+}
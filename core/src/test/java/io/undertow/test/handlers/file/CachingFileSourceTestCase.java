@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.CachingFileSource;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class CachingFileSourceTestCase {
+
+    @Test
+    public void testCachedFileIsServed() throws IOException {
+        runTest(new CachingFileSource(1024, 1024 * 1024, 100 * 1024, 1024 * 1024, 1024 * 1024, -1), new File(getClass().getResource("page.html").getFile()).getParentFile(), "page.html", "A web page");
+    }
+
+    @Test
+    public void testMappedFileIsServed() throws IOException {
+        //max cached file size of zero forces the file to be memory mapped
+        runTest(new CachingFileSource(1024, 1024 * 1024, 0, 1024 * 1024, 1024 * 1024, -1), new File(getClass().getResource("page.html").getFile()).getParentFile(), "page.html", "A web page");
+    }
+
+    @Test
+    public void testModifiedFileIsInvalidated() throws IOException {
+        final File dir = File.createTempFile("undertow", "cache");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        final File file = new File(dir, "data.txt");
+        try {
+            writeFile(file, "first version");
+            final CachingFileSource source = new CachingFileSource(1024, 1024 * 1024, 100 * 1024, 1024 * 1024, 1024 * 1024, 0);
+            runTest(source, dir, "data.txt", "first version");
+            writeFile(file, "second, longer, version");
+            runTest(source, dir, "data.txt", "second, longer, version");
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testCachedContentIsServedWithoutReadingTheFile() throws IOException, InterruptedException {
+        final File dir = createTempDir();
+        final File file = new File(dir, "data.txt");
+        try {
+            writeFile(file, "first version");
+            //checking is disabled, so the cached content is served even though the file has changed
+            final CachingFileSource source = new CachingFileSource(1024, 1024 * 1024, 100 * 1024, 1024 * 1024, 1024 * 1024, -1);
+            warmUp(source, dir, "data.txt");
+            Assert.assertEquals(1, source.getDataCache().getCachedEntryCount());
+            writeFile(file, "other version");
+            runTest(source, dir, "data.txt", "first version");
+
+            source.invalidate(file);
+            Assert.assertEquals(0, source.getDataCache().getEntryCount());
+            runTest(source, dir, "data.txt", "other version");
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testWatchServiceInvalidatesModifiedFile() throws IOException, InterruptedException {
+        final File dir = createTempDir();
+        final File file = new File(dir, "data.txt");
+        final CachingFileSource source = new CachingFileSource(1024, 1024 * 1024, 100 * 1024, 1024 * 1024, 1024 * 1024, -1);
+        try {
+            writeFile(file, "first version");
+            source.startWatchService();
+            warmUp(source, dir, "data.txt");
+            Assert.assertEquals(1, source.getDataCache().getCachedEntryCount());
+            writeFile(file, "other version");
+            //the watch service reports the change asynchronously
+            for (int i = 0; i < 100 && source.getDataCache().getEntryCount() != 0; ++i) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(0, source.getDataCache().getEntryCount());
+            runTest(source, dir, "data.txt", "other version");
+        } finally {
+            source.stopWatchService();
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testMappedContentIsServedWithoutReadingTheFile() throws IOException, InterruptedException {
+        final File dir = createTempDir();
+        final File file = new File(dir, "data.txt");
+        try {
+            writeFile(file, "mapped version");
+            final CachingFileSource source = new CachingFileSource(1024, 1024 * 1024, 0, 1024 * 1024, 1024 * 1024, -1);
+            warmUp(source, dir, "data.txt");
+            //the mapped region is still valid once the file has been deleted
+            Assert.assertTrue(file.delete());
+            runTest(source, dir, "data.txt", "mapped version");
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFileIsEvicted() throws IOException, InterruptedException {
+        final File dir = createTempDir();
+        final File a = new File(dir, "a.txt");
+        final File b = new File(dir, "b.txt");
+        final File c = new File(dir, "c.txt");
+        try {
+            writeFile(a, "a version 1");
+            writeFile(b, "b version 1");
+            writeFile(c, "c version 1");
+            final CachingFileSource source = new CachingFileSource(1024, 1024 * 1024, 100 * 1024, 1024 * 1024, 1024 * 1024, -1, 2);
+            warmUp(source, dir, "a.txt");
+            warmUp(source, dir, "b.txt");
+            Assert.assertEquals(2, source.getDataCache().getCachedEntryCount());
+
+            //a is used more recently than b, so tracking c evicts b
+            runTest(source, dir, "a.txt", "a version 1");
+            runTest(source, dir, "c.txt", "c version 1", 1);
+            Assert.assertEquals(1, source.getDataCache().getCachedEntryCount());
+            Assert.assertEquals(1, source.getDataCache().getEntryCount());
+
+            writeFile(a, "a version 2");
+            writeFile(b, "b version 2");
+            runTest(source, dir, "a.txt", "a version 1");
+            runTest(source, dir, "b.txt", "b version 2");
+        } finally {
+            a.delete();
+            b.delete();
+            c.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Makes enough requests for the file to be loaded into the cache, and then waits for the worker thread
+     * that loads the content to complete.
+     */
+    private void warmUp(final CachingFileSource source, final File base, final String file) throws IOException, InterruptedException {
+        runTest(source, base, file, "");
+        Thread.sleep(200);
+    }
+
+    private void runTest(final CachingFileSource source, final File base, final String file, final String expected) throws IOException {
+        //make enough requests that the content is loaded into the cache
+        runTest(source, base, file, expected, 20);
+    }
+
+    private void runTest(final CachingFileSource source, final File base, final String file, final String expected, final int requests) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final FileHandler handler = new FileHandler(base);
+            handler.setFileSource(source);
+            final PathHandler path = new PathHandler();
+            path.addPath("/path", handler);
+            final CanonicalPathHandler root = new CanonicalPathHandler();
+            root.setNext(path);
+            DefaultServer.setRootHandler(root);
+
+            for (int i = 0; i < requests; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/" + file);
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                final String response = HttpClientUtils.readResponse(result);
+                Assert.assertTrue(response, response.contains(expected));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static File createTempDir() throws IOException {
+        final File dir = File.createTempFile("undertow", "cache");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        return dir;
+    }
+
+    private static void writeFile(final File file, final String content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.file;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests conditional and range requests for served files.
+ */
+@RunWith(DefaultServer.class)
+public class FileHandlerConditionalRequestTestCase {
+
+    private static final String PATH = "/path/page.html";
+
+    @BeforeClass
+    public static void setup() {
+        final FileHandler handler = new FileHandler(new File(FileHandlerConditionalRequestTestCase.class.getResource("page.html").getFile()).getParentFile());
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", handler);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+    }
+
+    @Test
+    public void testIfNoneMatch() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            final String etag = result.getFirstHeader(Headers.ETAG_STRING).getValue();
+            Assert.assertNotNull(result.getFirstHeader(Headers.LAST_MODIFIED_STRING));
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, "\"other\", " + etag);
+            result = client.execute(get);
+            Assert.assertEquals(304, result.getStatusLine().getStatusCode());
+            Assert.assertNull(result.getEntity());
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, "\"other\"");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testIfModifiedSince() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            final String lastModified = result.getFirstHeader(Headers.LAST_MODIFIED_STRING).getValue();
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.IF_MODIFIED_SINCE_STRING, lastModified);
+            result = client.execute(get);
+            Assert.assertEquals(304, result.getStatusLine().getStatusCode());
+            Assert.assertNull(result.getEntity());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testSingleRange() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            HttpResponse result = client.execute(get);
+            final String full = HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=0-3");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes 0-3/" + full.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+            Assert.assertEquals(full.substring(0, 4), HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=-10");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(full.substring(full.length() - 10), HttpClientUtils.readResponse(result));
+
+            //a range that does not match the If-Range validator returns the whole file
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=0-3");
+            get.addHeader(Headers.IF_RANGE_STRING, "\"other\"");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(full, HttpClientUtils.readResponse(result));
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=100000-");
+            result = client.execute(get);
+            Assert.assertEquals(416, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testMultipleRanges() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            HttpResponse result = client.execute(get);
+            final String full = HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=0-3,10-19");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            final String contentType = result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue();
+            Assert.assertTrue(contentType, contentType.startsWith("multipart/byteranges; boundary="));
+            final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+            final String response = HttpClientUtils.readResponse(result);
+            Assert.assertTrue(response, response.contains("--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 0-3/" + full.length() + "\r\n\r\n" + full.substring(0, 4)));
+            Assert.assertTrue(response, response.contains("Content-Range: bytes 10-19/" + full.length() + "\r\n\r\n" + full.substring(10, 20)));
+            Assert.assertTrue(response, response.endsWith("--" + boundary + "--\r\n"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            HttpResponse result = client.execute(get);
+            final String full = HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + PATH);
+            get.addHeader(Headers.RANGE_STRING, "bytes=10-19,0-5,4-9");
+            result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("bytes 0-19/" + full.length(), result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue());
+            Assert.assertEquals(full.substring(0, 20), HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
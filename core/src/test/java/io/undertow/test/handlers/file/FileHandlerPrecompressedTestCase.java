@@ -0,0 +1,251 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.CanonicalPathHandler;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.encoding.EncodingHandler;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
+import io.undertow.server.handlers.file.FileHandler;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests serving of precompressed .gz files
+ */
+@RunWith(DefaultServer.class)
+public class FileHandlerPrecompressedTestCase {
+
+    private static final String PLAIN = "the plain version of the file";
+    private static final String COMPRESSED = "the precompressed version of the file";
+
+    private static File dir;
+    private static File plain;
+    private static File compressed;
+    private static File uncompressedOnly;
+    private static File subDir;
+    private static File subDirCompressed;
+
+    private final TestHttpClient client = new TestHttpClient();
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        dir = File.createTempFile("undertow", "precompressed");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        plain = new File(dir, "data.txt");
+        compressed = new File(dir, "data.txt.gz");
+        uncompressedOnly = new File(dir, "other.txt");
+        writeFile(plain, PLAIN.getBytes("UTF-8"));
+        writeFile(compressed, gzip(COMPRESSED));
+        writeFile(uncompressedOnly, PLAIN.getBytes("UTF-8"));
+        subDir = new File(dir, "sub");
+        Assert.assertTrue(subDir.mkdir());
+        subDirCompressed = new File(dir, "sub.gz");
+        writeFile(subDirCompressed, gzip(COMPRESSED));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        plain.delete();
+        compressed.delete();
+        uncompressedOnly.delete();
+        subDir.delete();
+        subDirCompressed.delete();
+        dir.delete();
+    }
+
+    @After
+    public void shutdownClient() {
+        client.getConnectionManager().shutdown();
+    }
+
+    @Test
+    public void testPrecompressedFileIsServed() throws IOException {
+        setRootHandler(createFileHandler());
+        final HttpResponse result = request("data.txt", "gzip, deflate");
+        Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+        Assert.assertEquals(Headers.ACCEPT_ENCODING_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+        Assert.assertEquals(Long.toString(compressed.length()), result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+        Assert.assertEquals("text/plain", result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+        Assert.assertEquals(COMPRESSED, gunzip(HttpClientUtils.readRawResponse(result)));
+    }
+
+    @Test
+    public void testPlainFileIsServedWithoutAcceptEncoding() throws IOException {
+        setRootHandler(createFileHandler());
+        HttpResponse result = request("data.txt", null);
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        Assert.assertEquals(Headers.ACCEPT_ENCODING_STRING, result.getFirstHeader(Headers.VARY_STRING).getValue());
+        Assert.assertEquals(Long.toString(plain.length()), result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+        Assert.assertEquals(PLAIN, HttpClientUtils.readResponse(result));
+
+        result = request("data.txt", "deflate");
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        Assert.assertEquals(PLAIN, HttpClientUtils.readResponse(result));
+    }
+
+    @Test
+    public void testEncodingRejectedByQValue() throws IOException {
+        setRootHandler(createFileHandler());
+        HttpResponse result = request("data.txt", "gzip;q=0, *");
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        Assert.assertEquals(PLAIN, HttpClientUtils.readResponse(result));
+
+        result = request("data.txt", "*");
+        Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+        Assert.assertEquals(COMPRESSED, gunzip(HttpClientUtils.readRawResponse(result)));
+    }
+
+    @Test
+    public void testEncodingIsCaseInsensitive() throws IOException {
+        final FileHandler handler = new FileHandler(dir);
+        handler.addPrecompressedEncoding("GZip", ".gz");
+        setRootHandler(handler);
+        final HttpResponse result = request("data.txt", "GZIP");
+        Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+        Assert.assertEquals(COMPRESSED, gunzip(HttpClientUtils.readRawResponse(result)));
+    }
+
+    @Test
+    public void testDirectoryIsNotReplacedByPrecompressedFile() throws IOException {
+        final FileHandler handler = createFileHandler();
+        handler.setDirectoryListingEnabled(true);
+        setRootHandler(handler);
+        HttpResponse result = request("sub", "gzip");
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        Assert.assertNull(result.getFirstHeader(Headers.VARY_STRING));
+        HttpClientUtils.readResponse(result);
+
+        result = request("sub/", "gzip");
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        HttpClientUtils.readResponse(result);
+    }
+
+    @Test
+    public void testNewPrecompressedFileIsFoundOnceCacheExpires() throws IOException {
+        final File late = new File(dir, "late.txt");
+        final File lateCompressed = new File(dir, "late.txt.gz");
+        writeFile(late, PLAIN.getBytes("UTF-8"));
+        try {
+            final FileHandler handler = createFileHandler();
+            handler.setPrecompressedCacheTime(0);
+            setRootHandler(handler);
+            HttpResponse result = request("late.txt", "gzip");
+            Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+            Assert.assertEquals(PLAIN, HttpClientUtils.readResponse(result));
+
+            writeFile(lateCompressed, gzip(COMPRESSED));
+            result = request("late.txt", "gzip");
+            Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+            Assert.assertEquals(COMPRESSED, gunzip(HttpClientUtils.readRawResponse(result)));
+        } finally {
+            late.delete();
+            lateCompressed.delete();
+        }
+    }
+
+    @Test
+    public void testNoVaryHeaderWithoutPrecompressedFile() throws IOException {
+        setRootHandler(createFileHandler());
+        final HttpResponse result = request("other.txt", "gzip");
+        Assert.assertNull(result.getFirstHeader(Headers.CONTENT_ENCODING_STRING));
+        Assert.assertNull(result.getFirstHeader(Headers.VARY_STRING));
+        Assert.assertEquals(PLAIN, HttpClientUtils.readResponse(result));
+    }
+
+    @Test
+    public void testPrecompressedFileIsNotCompressedAgain() throws IOException {
+        final EncodingHandler encoding = new EncodingHandler(createFileHandler());
+        encoding.addEncodingHandler("gzip", new GzipEncodingProvider(), 50);
+        setRootHandler(encoding);
+        HttpResponse result = request("data.txt", "gzip");
+        Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+        Assert.assertEquals(COMPRESSED, gunzip(HttpClientUtils.readRawResponse(result)));
+
+        //files without a precompressed version are still compressed on the fly
+        result = request("other.txt", "gzip");
+        Assert.assertEquals("gzip", result.getFirstHeader(Headers.CONTENT_ENCODING_STRING).getValue());
+        Assert.assertEquals(PLAIN, gunzip(HttpClientUtils.readRawResponse(result)));
+    }
+
+    private static FileHandler createFileHandler() {
+        final FileHandler handler = new FileHandler(dir);
+        handler.addPrecompressedEncoding("gzip", ".gz");
+        return handler;
+    }
+
+    private static void setRootHandler(final HttpHandler handler) {
+        final PathHandler path = new PathHandler();
+        path.addPath("/path", handler);
+        final CanonicalPathHandler root = new CanonicalPathHandler();
+        root.setNext(path);
+        DefaultServer.setRootHandler(root);
+    }
+
+    private HttpResponse request(final String file, final String acceptEncoding) throws IOException {
+        final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path/" + file);
+        if (acceptEncoding != null) {
+            get.addHeader(Headers.ACCEPT_ENCODING_STRING, acceptEncoding);
+        }
+        final HttpResponse result = client.execute(get);
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        return result;
+    }
+
+    private static byte[] gzip(final String data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data.getBytes("UTF-8"));
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static String gunzip(final byte[] data) throws IOException {
+        return HttpClientUtils.readResponse(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static void writeFile(final File file, final byte[] content) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
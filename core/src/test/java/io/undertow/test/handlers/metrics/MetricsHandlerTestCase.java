@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.metrics;
+
+import java.io.IOException;
+
+import io.undertow.io.IoCallback;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.metrics.MetricsHandler;
+import io.undertow.server.handlers.metrics.MetricsReportHandler;
+import io.undertow.server.handlers.metrics.RequestMetrics;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(DefaultServer.class)
+public class MetricsHandlerTestCase {
+
+    private static final String MESSAGE = "hello world";
+
+    private static MetricsHandler metricsHandler;
+    private static MetricsHandler outerHandler;
+    private static MetricsHandler innerHandler;
+
+    @BeforeClass
+    public static void setup() {
+        final PathHandler paths = new PathHandler();
+        paths.addPath("/api", new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                exchange.getResponseSender().send(MESSAGE, IoCallback.END_EXCHANGE);
+            }
+        });
+        metricsHandler = new MetricsHandler(paths);
+        metricsHandler.addPrefix("/api");
+
+        final PathHandler root = new PathHandler();
+        root.setDefaultHandler(metricsHandler);
+        root.addPath("/metrics", new MetricsReportHandler(metricsHandler));
+
+        innerHandler = new MetricsHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                exchange.getResponseSender().send(MESSAGE, IoCallback.END_EXCHANGE);
+            }
+        });
+        outerHandler = new MetricsHandler(innerHandler);
+        root.addPath("/nested", outerHandler);
+        DefaultServer.setRootHandler(root);
+    }
+
+    @Test
+    public void testMetricsRecorded() throws IOException, InterruptedException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/api/path");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerAddress() + "/api/path");
+            post.setEntity(new StringEntity("request body"));
+            result = client.execute(post);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/other");
+            result = client.execute(get);
+            Assert.assertEquals(404, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+
+            final RequestMetrics totals = metricsHandler.getTotals();
+            //metrics are recorded once the exchange is complete, which can be after the client has the response
+            waitForRequests(totals, 3);
+            Assert.assertEquals(3, totals.getRequestCount());
+            Assert.assertEquals(2, totals.getStatusCount(200));
+            Assert.assertEquals(1, totals.getStatusCount(404));
+            Assert.assertEquals(MESSAGE.length() * 2, totals.getBytesSent());
+            Assert.assertTrue(totals.getMaxLatency() >= totals.getLatency50thPercentile());
+
+            final RequestMetrics api = metricsHandler.getMetrics("/api");
+            Assert.assertEquals(2, api.getRequestCount());
+            Assert.assertEquals(0, api.getStatusCount(404));
+            Assert.assertEquals(MESSAGE.length() * 2, api.getBytesSent());
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/metrics");
+            result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            final String report = HttpClientUtils.readResponse(result);
+            Assert.assertTrue(report, report.contains("undertow_requests_total 3\n"));
+            Assert.assertTrue(report, report.contains("undertow_requests_total{prefix=\"/api\"} 2\n"));
+            Assert.assertTrue(report, report.contains("undertow_responses_total{status=\"404\"} 1\n"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testNestedHandlersRecordSeparately() throws IOException, InterruptedException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpPost post = new HttpPost(DefaultServer.getDefaultServerAddress() + "/nested");
+            post.setEntity(new StringEntity("request body"));
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+
+            waitForRequests(outerHandler.getTotals(), 1);
+            waitForRequests(innerHandler.getTotals(), 1);
+            for (MetricsHandler handler : new MetricsHandler[]{outerHandler, innerHandler}) {
+                final RequestMetrics totals = handler.getTotals();
+                Assert.assertEquals(1, totals.getRequestCount());
+                Assert.assertEquals(MESSAGE.length(), totals.getBytesSent());
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void waitForRequests(final RequestMetrics metrics, final long count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (metrics.getRequestCount() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.handlers.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+
+import io.undertow.Undertow;
+import io.undertow.client.HttpClient;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ProxyHandler;
+import io.undertow.server.handlers.blocking.BlockingHandler;
+import io.undertow.server.handlers.blocking.BlockingHttpHandler;
+import io.undertow.test.utils.AjpIgnore;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.streams.ChannelInputStream;
+import org.xnio.streams.ChannelOutputStream;
+
+/**
+ * Tests the proxy handler against backend servers running on the loopback interface.
+ */
+@AjpIgnore
+@RunWith(DefaultServer.class)
+public class ProxyHandlerTestCase {
+
+    private static final HttpString BACKEND = new HttpString("backend");
+    private static final HttpString FORWARDED_FOR = new HttpString("forwarded-for");
+    private static final HttpString FORWARDED_PROTO = new HttpString("forwarded-proto");
+    private static final HttpString PRIVATE = new HttpString("X-Private");
+    private static final HttpString PRIVATE_RECEIVED = new HttpString("private-received");
+
+    private static Undertow backend1;
+    private static Undertow backend2;
+    private static HttpClient client;
+
+    @BeforeClass
+    public static void setup() {
+        backend1 = createBackend(getBackendPort(0), "backend1");
+        backend2 = createBackend(getBackendPort(1), "backend2");
+        backend1.start();
+        backend2.start();
+        client = HttpClient.create(DefaultServer.getWorker(), OptionMap.EMPTY);
+    }
+
+    @AfterClass
+    public static void teardown() throws IOException {
+        client.close();
+        backend1.stop();
+        backend2.stop();
+    }
+
+    @Test
+    public void testRoundRobin() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client, ProxyHandler.LoadBalancingPolicy.ROUND_ROBIN)
+                .addBackend(getBackendUri(0))
+                .addBackend(getBackendUri(1)));
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            int backend1Count = 0;
+            for (int i = 0; i < 4; ++i) {
+                final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path?a=" + i);
+                final HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                final String backend = result.getHeaders(BACKEND.toString())[0].getValue();
+                if (backend.equals("backend1")) {
+                    ++backend1Count;
+                }
+                Assert.assertEquals("/path?a=" + i, HttpClientUtils.readResponse(result));
+            }
+            Assert.assertEquals(2, backend1Count);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testForwardedHeaders() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client, ProxyHandler.LoadBalancingPolicy.LEAST_CONNECTIONS)
+                .addBackend(getBackendUri(0)));
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            get.addHeader(Headers.X_FORWARDED_FOR_STRING, "10.0.0.1");
+            final HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertTrue(result.getHeaders(FORWARDED_FOR.toString())[0].getValue().startsWith("10.0.0.1, "));
+            Assert.assertEquals("http", result.getHeaders(FORWARDED_PROTO.toString())[0].getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestBodyIsForwarded() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client)
+                .addBackend(getBackendUri(0))
+                .addBackend(getBackendUri(1)));
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            builder.append("message ").append(i).append(' ');
+        }
+        final String message = builder.toString();
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            for (boolean chunked : new boolean[]{true, false}) {
+                final HttpPost post = new HttpPost(DefaultServer.getDefaultServerAddress() + "/path");
+                final StringEntity entity = new StringEntity(message);
+                entity.setChunked(chunked);
+                post.setEntity(entity);
+                final HttpResponse result = client.execute(post);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(message, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testUnavailableBackendIsSkipped() throws IOException {
+        final ProxyHandler proxyHandler = new ProxyHandler(client)
+                .addBackend(getBackendUri(2))
+                .addBackend(getBackendUri(1));
+        proxyHandler.setMaxFailures(1);
+        DefaultServer.setRootHandler(proxyHandler);
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 4; ++i) {
+                final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+                final HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("backend2", result.getHeaders(BACKEND.toString())[0].getValue());
+                HttpClientUtils.readResponse(result);
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testServerErrorCountsAsFailure() throws IOException {
+        final ProxyHandler proxyHandler = new ProxyHandler(client, ProxyHandler.LoadBalancingPolicy.ROUND_ROBIN)
+                .addBackend(getBackendUri(0))
+                .addBackend(getBackendUri(1));
+        proxyHandler.setMaxFailures(1);
+        DefaultServer.setRootHandler(proxyHandler);
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            int errors = 0;
+            for (int i = 0; i < 4; ++i) {
+                final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path?fail=backend1");
+                final HttpResponse result = client.execute(get);
+                if (result.getStatusLine().getStatusCode() == 500) {
+                    ++errors;
+                } else {
+                    Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                    Assert.assertEquals("backend2", result.getHeaders(BACKEND.toString())[0].getValue());
+                }
+                HttpClientUtils.readResponse(result);
+            }
+            //the first 500 response ejects backend1
+            Assert.assertEquals(1, errors);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testHeadersNamedByConnectionAreNotForwarded() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client).addBackend(getBackendUri(0)));
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            get.addHeader(Headers.CONNECTION_STRING, "keep-alive, " + PRIVATE);
+            get.addHeader(PRIVATE.toString(), "secret");
+            final HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("false", result.getHeaders(PRIVATE_RECEIVED.toString())[0].getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidRequestTarget() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client).addBackend(getBackendUri(0)));
+        final Socket socket = new Socket(DefaultServer.getHostAddress("default"), DefaultServer.getHostPort("default"));
+        try {
+            socket.getOutputStream().write("GET /pa|th HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+            final String response = HttpClientUtils.readResponse(socket.getInputStream());
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 400"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testNoBackendAvailable() throws IOException {
+        DefaultServer.setRootHandler(new ProxyHandler(client).addBackend(getBackendUri(2)));
+        final TestHttpClient client = new TestHttpClient();
+        try {
+            final HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/path");
+            final HttpResponse result = client.execute(get);
+            Assert.assertEquals(503, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static int getBackendPort(final int backend) {
+        return DefaultServer.getHostPort("default") + 20 + backend;
+    }
+
+    private static URI getBackendUri(final int backend) {
+        return URI.create("http://" + DefaultServer.getHostAddress("default") + ":" + getBackendPort(backend));
+    }
+
+    private static Undertow createBackend(final int port, final String name) {
+        final BlockingHandler blockingHandler = new BlockingHandler();
+        blockingHandler.setRootHandler(new BlockingHttpHandler() {
+            @Override
+            public void handleBlockingRequest(final HttpServerExchange exchange) throws Exception {
+                exchange.getResponseHeaders().put(BACKEND, name);
+                exchange.getResponseHeaders().put(PRIVATE_RECEIVED, Boolean.toString(exchange.getRequestHeaders().contains(PRIVATE)));
+                if (exchange.getQueryString().equals("fail=" + name)) {
+                    exchange.setResponseCode(500);
+                }
+                final String forwardedFor = exchange.getRequestHeaders().getFirst(Headers.X_FORWARDED_FOR);
+                if (forwardedFor != null) {
+                    exchange.getResponseHeaders().put(FORWARDED_FOR, forwardedFor);
+                }
+                final String forwardedProto = exchange.getRequestHeaders().getFirst(Headers.X_FORWARDED_PROTO);
+                if (forwardedProto != null) {
+                    exchange.getResponseHeaders().put(FORWARDED_PROTO, forwardedProto);
+                }
+                final String body;
+                if (exchange.getRequestMethod().equals(Methods.POST)) {
+                    final InputStream inputStream = new ChannelInputStream(exchange.getRequestChannel());
+                    body = HttpClientUtils.readResponse(inputStream);
+                    inputStream.close();
+                } else if (exchange.getQueryString().isEmpty()) {
+                    body = exchange.getRequestURI();
+                } else {
+                    body = exchange.getRequestURI() + "?" + exchange.getQueryString();
+                }
+                final OutputStream outputStream = new ChannelOutputStream(exchange.getResponseChannel());
+                outputStream.write(body.getBytes());
+                outputStream.close();
+            }
+        });
+        return Undertow.builder()
+                .addListener(port, DefaultServer.getHostAddress("default"))
+                .setIoThreads(1)
+                .setWorkerThreads(2)
+                .setDefaultHandler(blockingHandler)
+                .build();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.test.ssl;
+
+import java.io.IOException;
+
+import javax.net.ssl.SSLContext;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests a HTTPS listener that is set up through the {@link Undertow} builder.
+ */
+public class HttpsListenerTestCase {
+
+    private static final String MESSAGE = "Hello over HTTPS";
+
+    @Test
+    public void testHttpsListener() throws IOException {
+        final int port = DefaultServer.getHostSSLPort("default") + 10;
+        final String host = DefaultServer.getHostAddress("default");
+        final SSLContext serverContext = DefaultServer.createServerSSLContext();
+        final Undertow undertow = Undertow.builder()
+                .addHttpsListener(port, host, serverContext)
+                .setSslSessionCacheSize(100)
+                .setSslSessionTimeout(60)
+                .setIoThreads(1)
+                .setWorkerThreads(1)
+                .setDefaultHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) {
+                        exchange.getResponseHeaders().put(HttpString.tryFromString("scheme"), exchange.getRequestScheme());
+                        exchange.getResponseSender().send(MESSAGE);
+                    }
+                }).build();
+        undertow.start();
+        Assert.assertEquals(100, serverContext.getServerSessionContext().getSessionCacheSize());
+        Assert.assertEquals(60, serverContext.getServerSessionContext().getSessionTimeout());
+
+        TestHttpClient client = new TestHttpClient();
+        client.setSSLContext(DefaultServer.createClientSSLContext());
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpGet get = new HttpGet("https://" + host + ":" + port + "/path");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("https", result.getHeaders("scheme")[0].getValue());
+                Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+            undertow.stop();
+        }
+    }
+}
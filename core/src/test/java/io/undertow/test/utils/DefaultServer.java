@@ -257,6 +257,20 @@ public class DefaultServer extends BlockJUnit4ClassRunner {
         return clientSslContext;
     }
 
+    /**
+     * Creates a server side SSLContext using the default key and trust stores, for test cases that start their own server.
+     */
+    public static SSLContext createServerSSLContext() throws IOException {
+        return createSSLContext(loadKeyStore(SERVER_KEY_STORE), loadKeyStore(SERVER_TRUST_STORE));
+    }
+
+    /**
+     * Creates a client side SSLContext that trusts the server created by {@link #createServerSSLContext()}.
+     */
+    public static SSLContext createClientSSLContext() throws IOException {
+        return createSSLContext(loadKeyStore(CLIENT_KEY_STORE), loadKeyStore(CLIENT_TRUST_STORE));
+    }
+
     /**
      * Start the SSL server using the default settings.
      *
@@ -311,6 +325,10 @@ public class DefaultServer extends BlockJUnit4ClassRunner {
         return Integer.getInteger(serverName + ".server.sslPort", 7778);
     }
 
+    public static XnioWorker getWorker() {
+        return worker;
+    }
+
     public static OptionMap getUndertowOptions() {
         return openListener.getUndertowOptions();
     }
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AttachableTestCase {
+
+    private static final AttachmentKey<String> STRING_KEY = AttachmentKey.create(String.class);
+    private static final AttachmentKey<Integer> INTEGER_KEY = AttachmentKey.create(Integer.class);
+    private static final AttachmentKey<AttachmentList<String>> LIST_KEY = AttachmentKey.createList(String.class);
+
+    @Test
+    public void testPutGetAndRemove() {
+        final Attachable attachable = new AbstractAttachable() {
+        };
+        Assert.assertNull(attachable.getAttachment(STRING_KEY));
+        Assert.assertNull(attachable.removeAttachment(STRING_KEY));
+
+        Assert.assertNull(attachable.putAttachment(STRING_KEY, "a"));
+        Assert.assertNull(attachable.putAttachment(INTEGER_KEY, 1));
+        Assert.assertEquals("a", attachable.putAttachment(STRING_KEY, "b"));
+        Assert.assertEquals("b", attachable.getAttachment(STRING_KEY));
+        Assert.assertEquals(Integer.valueOf(1), attachable.getAttachment(INTEGER_KEY));
+
+        Assert.assertEquals("b", attachable.removeAttachment(STRING_KEY));
+        Assert.assertNull(attachable.getAttachment(STRING_KEY));
+        Assert.assertEquals(Integer.valueOf(1), attachable.getAttachment(INTEGER_KEY));
+
+        //a null value removes the attachment
+        Assert.assertEquals(Integer.valueOf(1), attachable.putAttachment(INTEGER_KEY, null));
+        Assert.assertNull(attachable.getAttachment(INTEGER_KEY));
+    }
+
+    @Test
+    public void testAttachmentList() {
+        final Attachable attachable = new AbstractAttachable() {
+        };
+        Assert.assertTrue(attachable.getAttachmentList(LIST_KEY).isEmpty());
+        attachable.addToAttachmentList(LIST_KEY, "a");
+        attachable.addToAttachmentList(LIST_KEY, "b");
+        Assert.assertEquals(Arrays.asList("a", "b"), attachable.getAttachmentList(LIST_KEY));
+    }
+
+    @Test
+    public void testManyKeys() {
+        //more keys than can be indexed, so some of them are stored in a map
+        final List<AttachmentKey<Integer>> keys = new ArrayList<AttachmentKey<Integer>>();
+        for (int i = 0; i < AttachmentKey.MAX_INDEXED_KEYS + 10; ++i) {
+            keys.add(AttachmentKey.create(Integer.class));
+        }
+        Assert.assertEquals(-1, keys.get(keys.size() - 1).index);
+
+        final Attachable attachable = new AbstractAttachable() {
+        };
+        for (int i = 0; i < keys.size(); ++i) {
+            attachable.putAttachment(keys.get(i), i);
+        }
+        attachable.putAttachment(STRING_KEY, "value");
+        for (int i = 0; i < keys.size(); ++i) {
+            Assert.assertEquals(Integer.valueOf(i), attachable.getAttachment(keys.get(i)));
+        }
+        Assert.assertEquals("value", attachable.getAttachment(STRING_KEY));
+        for (int i = 0; i < keys.size(); i += 2) {
+            Assert.assertEquals(Integer.valueOf(i), attachable.removeAttachment(keys.get(i)));
+        }
+        for (int i = 0; i < keys.size(); ++i) {
+            Assert.assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), attachable.getAttachment(keys.get(i)));
+        }
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testWrongType() {
+        final Attachable attachable = new AbstractAttachable() {
+        };
+        final AttachmentKey raw = INTEGER_KEY;
+        attachable.putAttachment(raw, "not an integer");
+    }
+}
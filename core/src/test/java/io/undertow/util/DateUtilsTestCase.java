@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DateUtilsTestCase {
+
+    private static final long EXPECTED = 784111777000L;
+
+    @Test
+    public void testFormatMatchesSimpleDateFormat() {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final SimpleDateFormat cookieFormat = new SimpleDateFormat("EEE, dd-MMM-yyyy HH:mm:ss z", Locale.US);
+        cookieFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final Random random = new Random(0);
+        for (int i = 0; i < 10000; ++i) {
+            final long time = (random.nextLong() & Long.MAX_VALUE) % 4102444800000L;
+            final Date date = new Date(time);
+            final String expected = format.format(date);
+            Assert.assertEquals(expected, DateUtils.toDateString(date));
+            Assert.assertEquals(cookieFormat.format(date), DateUtils.toOldCookieDateString(date));
+            Assert.assertEquals(time - time % 1000, DateUtils.parseDate(expected).getTime());
+
+            final ByteBuffer buffer = ByteBuffer.allocate(DateUtils.RFC1123_LENGTH);
+            DateUtils.formatDate(time, buffer);
+            Assert.assertEquals(expected, new String(buffer.array()));
+        }
+    }
+
+    @Test
+    public void testFormatYearEdges() {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final SimpleDateFormat cookieFormat = new SimpleDateFormat("EEE, dd-MMM-yyyy HH:mm:ss z", Locale.US);
+        cookieFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        //the last second of 9999 is still formatted by hand
+        final long lastFourDigitYear = 253402300799000L;
+        Assert.assertEquals("Fri, 31 Dec 9999 23:59:59 GMT", DateUtils.toDateString(new Date(lastFourDigitYear)));
+        final ByteBuffer buffer = ByteBuffer.allocate(DateUtils.RFC1123_LENGTH);
+        DateUtils.formatDate(lastFourDigitYear, buffer);
+        Assert.assertEquals("Fri, 31 Dec 9999 23:59:59 GMT", new String(buffer.array()));
+
+        final long[] outOfRange = {lastFourDigitYear + 1000, Long.MAX_VALUE / 2, -62167219200001L, -100000000000000L};
+        for (long time : outOfRange) {
+            final Date date = new Date(time);
+            Assert.assertEquals(format.format(date), DateUtils.toDateString(date));
+            Assert.assertEquals(cookieFormat.format(date), DateUtils.toOldCookieDateString(date));
+            final ByteBuffer large = ByteBuffer.allocate(64);
+            DateUtils.formatDate(time, large);
+            Assert.assertEquals(format.format(date), new String(large.array(), 0, large.position()));
+        }
+    }
+
+    @Test
+    public void testParseFormats() {
+        Assert.assertEquals(EXPECTED, DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37 GMT").getTime());
+        Assert.assertEquals(EXPECTED, DateUtils.parseDate("Sunday, 06-Nov-94 08:49:37 GMT").getTime());
+        Assert.assertEquals(EXPECTED, DateUtils.parseDate("Sun Nov  6 08:49:37 1994").getTime());
+        Assert.assertEquals(EXPECTED, DateUtils.parseDate("Sun, 06-Nov-1994 08:49:37 GMT").getTime());
+    }
+
+    @Test
+    public void testParseInvalidDates() {
+        Assert.assertNull(DateUtils.parseDate(""));
+        Assert.assertNull(DateUtils.parseDate("not a date"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 08:49:37"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Foo 1994 08:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun, 06 Nov 1994 25:49:37 GMT"));
+        Assert.assertNull(DateUtils.parseDate("Sun Nov  6 08:49:37"));
+    }
+
+    @Test
+    public void testCurrentDateTime() {
+        final long before = System.currentTimeMillis();
+        final String current = DateUtils.getCurrentDateTime();
+        final long after = System.currentTimeMillis();
+        final long parsed = DateUtils.parseDate(current).getTime();
+        Assert.assertTrue(current, parsed >= before - before % 1000 && parsed <= after);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderMapTestCase {
+
+    @Test
+    public void testSingleAndMultipleValues() {
+        final HeaderMap map = new HeaderMap();
+        map.put(Headers.HOST, "localhost");
+        map.add(Headers.COOKIE, "a=b");
+        map.add(Headers.COOKIE, "c=d");
+        map.add(Headers.COOKIE, "e=f");
+
+        Assert.assertEquals("localhost", map.getFirst(Headers.HOST));
+        Assert.assertEquals("localhost", map.getFirst(new HttpString("host")));
+        Assert.assertEquals("a=b", map.getFirst(Headers.COOKIE));
+        Assert.assertEquals("e=f", map.getLast(Headers.COOKIE));
+        Assert.assertEquals(Arrays.asList("a=b", "c=d", "e=f"), map.get(Headers.COOKIE));
+        Assert.assertEquals(2, map.size());
+        Assert.assertNull(map.get(Headers.ACCEPT));
+        Assert.assertNull(map.getFirst(Headers.ACCEPT));
+
+        map.put(Headers.COOKIE, "g=h");
+        Assert.assertEquals(Arrays.asList("g=h"), map.get(Headers.COOKIE));
+    }
+
+    @Test
+    public void testIterationOrderAndRemoval() {
+        final HeaderMap map = new HeaderMap();
+        for (int i = 0; i < 100; ++i) {
+            map.add(new HttpString("X-Header-" + i), Integer.toString(i));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            Assert.assertEquals(Arrays.asList(Integer.toString(i)), map.remove(new HttpString("x-header-" + i)));
+        }
+        Assert.assertEquals(50, map.size());
+        Assert.assertFalse(map.contains(new HttpString("X-Header-0")));
+
+        int expected = 1;
+        for (int i = map.fiFirst(); i != -1; i = map.fiNext(i)) {
+            Assert.assertEquals(new HttpString("X-Header-" + expected), map.fiName(i));
+            Assert.assertEquals(1, map.fiValueCount(i));
+            Assert.assertEquals(Integer.toString(expected), map.fiValue(i, 0));
+            expected += 2;
+        }
+        Assert.assertEquals(101, expected);
+
+        //re-adding after removal should work and keep the table consistent
+        for (int i = 0; i < 100; i += 2) {
+            map.put(new HttpString("X-Header-" + i), Integer.toString(i));
+        }
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals(Integer.toString(i), map.getFirst(new HttpString("X-Header-" + i)));
+        }
+        Assert.assertEquals(100, map.getHeaderNames().size());
+
+        final Iterator<HttpString> it = map.iterator();
+        while (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        Assert.assertEquals(0, map.size());
+        Assert.assertEquals(-1, map.fiFirst());
+    }
+
+    @Test
+    public void testClearAllowsReuse() {
+        final HeaderMap map = new HeaderMap();
+        for (int round = 0; round < 3; ++round) {
+            for (int i = 0; i < 20; ++i) {
+                map.add(new HttpString("X-Header-" + i), "value");
+            }
+            Assert.assertEquals(20, map.size());
+            map.clear();
+            Assert.assertEquals(0, map.size());
+            Assert.assertFalse(map.contains(new HttpString("X-Header-1")));
+        }
+    }
+
+    @Test
+    public void testLockedMapCannotBeModified() {
+        final HeaderMap map = new HeaderMap();
+        map.put(Headers.CONTENT_LENGTH, 10);
+        map.lock();
+        Assert.assertTrue(map.isLocked());
+        Assert.assertEquals("10", map.getFirst(Headers.CONTENT_LENGTH));
+        try {
+            map.put(Headers.CONTENT_LENGTH, 20);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            map.remove(Headers.CONTENT_LENGTH);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            map.clear();
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals("10", map.getFirst(Headers.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testRawValues() {
+        final HeaderMap map = new HeaderMap();
+        final byte[] data = "xlocalhostgzip, deflate\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+        map.addRaw(Headers.HOST, data, 1, 9);
+        map.addRaw(Headers.ACCEPT_ENCODING, data, 10, 13);
+        map.addRaw(Headers.ACCEPT_ENCODING, data, 23, 1);
+        //enough other headers that the map has to be rebuilt
+        for (int i = 0; i < 40; ++i) {
+            map.add(new HttpString("X-Header-" + i), Integer.toString(i));
+        }
+        map.remove(new HttpString("X-Header-0"));
+        map.add(new HttpString("X-Header-40"), "40");
+
+        Assert.assertEquals("localhost", map.getFirst(Headers.HOST));
+        Assert.assertEquals(Arrays.asList("gzip, deflate", "\u00e9"), map.get(Headers.ACCEPT_ENCODING));
+        Assert.assertEquals("39", map.getFirst(new HttpString("X-Header-39")));
+        Assert.assertEquals(Arrays.asList("localhost"), map.remove(Headers.HOST));
+        Assert.assertFalse(map.contains(Headers.HOST));
+    }
+}
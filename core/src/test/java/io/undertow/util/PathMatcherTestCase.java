@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PathMatcherTestCase {
+
+    @Test
+    public void testPrefixMatchesOnSegmentBoundaries() {
+        final PathMatcher<String> matcher = PathMatcher.<String>builder()
+                .addPrefixPath("/a", "a")
+                .addPrefixPath("/aa", "aa")
+                .addPrefixPath("/aa/anotherSubPath", "sub")
+                .addPrefixPath("/static/", "static")
+                .build();
+        assertMatch(matcher, "/a", "a", 2);
+        assertMatch(matcher, "/a/b", "a", 2);
+        assertMatch(matcher, "/aa", "aa", 3);
+        assertMatch(matcher, "/aa/anotherSubPat", "aa", 3);
+        assertMatch(matcher, "/aa/anotherSubPath/bob", "sub", 18);
+        assertMatch(matcher, "/static/style.css", "static", 8);
+        Assert.assertNull(matcher.match("/ab"));
+        Assert.assertNull(matcher.match("/aab"));
+        Assert.assertNull(matcher.match("/static"));
+        Assert.assertNull(matcher.match("/"));
+    }
+
+    @Test
+    public void testExactMatchesTakePriority() {
+        final PathMatcher<String> matcher = PathMatcher.<String>builder()
+                .addPrefixPath("/", "root")
+                .addPrefixPath("/exact", "prefix")
+                .addExactPath("/exact", "exact")
+                .build();
+        assertMatch(matcher, "/exact", "exact", 6);
+        Assert.assertTrue(matcher.match("/exact").isExact());
+        assertMatch(matcher, "/exact/more", "prefix", 6);
+        assertMatch(matcher, "/", "root", 1);
+        assertMatch(matcher, "/exactly", "root", 1);
+    }
+
+    @Test
+    public void testWildcardSegments() {
+        final PathMatcher<String> matcher = PathMatcher.<String>builder()
+                .addPrefixPath("/api/*", "api")
+                .addPrefixPath("/api/*/users", "users")
+                .addPrefixPath("/api/v1/users", "v1")
+                .build();
+        assertMatch(matcher, "/api/v2/users/5", "users", 13);
+        assertMatch(matcher, "/api/v1/users/5", "v1", 13);
+        assertMatch(matcher, "/api/v1/orders", "api", 7);
+        assertMatch(matcher, "/api/version", "api", 12);
+        Assert.assertNull(matcher.match("/api"));
+        Assert.assertNull(matcher.match("/api//users"));
+    }
+
+    @Test
+    public void testManyPaths() {
+        final PathMatcher.Builder<Integer> builder = PathMatcher.builder();
+        for (int i = 0; i < 500; ++i) {
+            builder.addPrefixPath("/api/resource" + i, i);
+        }
+        final PathMatcher<Integer> matcher = builder.build();
+        for (int i = 0; i < 500; ++i) {
+            final String path = "/api/resource" + i + "/item";
+            final PathMatcher.Match<Integer> match = matcher.match(path);
+            Assert.assertEquals(Integer.valueOf(i), match.getValue());
+            Assert.assertEquals(path.length() - 5, match.getMatchedLength(path));
+        }
+        Assert.assertNull(matcher.match("/api/resource500"));
+    }
+
+    private static void assertMatch(final PathMatcher<String> matcher, final String path, final String expected, final int length) {
+        final PathMatcher.Match<String> match = matcher.match(path);
+        Assert.assertNotNull(path, match);
+        Assert.assertEquals(path, expected, match.getValue());
+        Assert.assertEquals(path, length, match.getMatchedLength(path));
+    }
+}
@@ -26,10 +26,13 @@ import java.lang.annotation.Target;
 /**
  *
  * If this annotation is applied to a class it will be replaced with a generated HTTP parser.
+ * <p/>
+ * The annotation is retained at runtime, so that a parser that matches additional values can be generated
+ * from the same configuration when a server is started.
  *
  * @author Stuart Douglas
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
 public @interface HttpParserConfig {
     String[] methods();
@@ -89,7 +89,33 @@ public class ParserGenerator {
     public static final String CLASS_NAME_SUFFIX = "$$generated";
 
     public static byte[] createTokenizer(final String existingClassName, final String[] httpVerbs, String[] httpVersions, String[] standardHeaders) {
-        final String className = existingClassName + CLASS_NAME_SUFFIX;
+        return createTokenizer(existingClassName, existingClassName + CLASS_NAME_SUFFIX, httpVerbs, httpVersions, standardHeaders, null);
+    }
+
+    /**
+     * Creates a parser with the given class name. This is used to generate parsers at runtime, which need a name
+     * that is different to the parser that was generated at build time.
+     * <p/>
+     * A parser generated at runtime is defined in its own class loader, so it is not in the same runtime package
+     * as the parse state. Instead of accessing the fields of the parse state directly the generated code calls
+     * static accessor methods on the existing class, e.g. <code>getParseState(ParseState)</code> and
+     * <code>setParseState(ParseState, int)</code>.
+     *
+     * @param existingClassName The name of the parser class to extend
+     * @param className         The name of the generated class
+     * @param httpVerbs         The methods to match
+     * @param httpVersions      The protocols to match
+     * @param standardHeaders   The header names to match
+     * @return The bytes of the generated class
+     */
+    public static byte[] createTokenizer(final String existingClassName, final String className, final String[] httpVerbs, String[] httpVersions, String[] standardHeaders) {
+        return createTokenizer(existingClassName, className, httpVerbs, httpVersions, standardHeaders, existingClassName);
+    }
+
+    /**
+     * @param stateAccessor The class with static accessors for the parse state fields, or null to access them directly
+     */
+    private static byte[] createTokenizer(final String existingClassName, final String className, final String[] httpVerbs, String[] httpVersions, String[] standardHeaders, final String stateAccessor) {
         final ClassFile file = new ClassFile(className, existingClassName);
 
         final ClassMethod ctor = file.addMethod(AccessFlag.PUBLIC, "<init>", "V");
@@ -103,15 +129,15 @@ public class ParserGenerator {
         sctor.getCodeAttribute().invokestatic(existingClassName, "httpStrings", "()" + DescriptorUtils.makeDescriptor(Map.class));
         sctor.getCodeAttribute().astore(CONSTRUCTOR_HTTP_STRING_MAP_VAR);
 
-        createStateMachine(httpVerbs, className, file, sctor, fieldCounter, HANDLE_HTTP_VERB, new VerbStateMachine());
-        createStateMachine(httpVersions, className, file, sctor, fieldCounter, HANDLE_HTTP_VERSION, new VersionStateMachine());
-        createStateMachine(standardHeaders, className, file, sctor, fieldCounter, HANDLE_HEADER, new HeaderStateMachine());
+        createStateMachine(httpVerbs, className, file, sctor, fieldCounter, HANDLE_HTTP_VERB, new VerbStateMachine(stateAccessor), stateAccessor);
+        createStateMachine(httpVersions, className, file, sctor, fieldCounter, HANDLE_HTTP_VERSION, new VersionStateMachine(stateAccessor), stateAccessor);
+        createStateMachine(standardHeaders, className, file, sctor, fieldCounter, HANDLE_HEADER, new HeaderStateMachine(stateAccessor), stateAccessor);
 
         sctor.getCodeAttribute().returnInstruction();
         return file.toBytecode();
     }
 
-    private static void createStateMachine(final String[] originalItems, final String className, final ClassFile file, final ClassMethod sctor, final AtomicInteger fieldCounter, final String methodName, final CustomStateMachine stateMachine) {
+    private static void createStateMachine(final String[] originalItems, final String className, final ClassFile file, final ClassMethod sctor, final AtomicInteger fieldCounter, final String methodName, final CustomStateMachine stateMachine, final String stateAccessor) {
 
         //list of all states except the initial
         final List<State> allStates = new ArrayList<State>();
@@ -130,7 +156,7 @@ public class ParserGenerator {
         final int noStates = stateCounter.get();
 
         final ClassMethod handle = file.addMethod(Modifier.PROTECTED, methodName, "I", DescriptorUtils.makeDescriptor(ByteBuffer.class), "I", PARSE_STATE_DESCRIPTOR, HTTP_EXCHANGE_DESCRIPTOR);
-        writeStateMachine(className, file, handle.getCodeAttribute(), initial, allStates, noStates, stateMachine, sctor);
+        writeStateMachine(className, file, handle.getCodeAttribute(), initial, allStates, noStates, stateMachine, sctor, stateAccessor);
     }
 
     private static void createStateField(final State state, final ClassFile file, final CodeAttribute sc) {
@@ -206,7 +232,7 @@ public class ParserGenerator {
         state.httpStringFieldName = "HTTP_STRING_" + fieldCounter.incrementAndGet();
     }
 
-    private static void writeStateMachine(final String className, final ClassFile file, final CodeAttribute c, final State initial, final List<State> allStates, int noStates, final CustomStateMachine stateMachine, final ClassMethod sctor) {
+    private static void writeStateMachine(final String className, final ClassFile file, final CodeAttribute c, final State initial, final List<State> allStates, int noStates, final CustomStateMachine stateMachine, final ClassMethod sctor, final String stateAccessor) {
 
         final List<State> states = new ArrayList<State>();
         states.add(initial);
@@ -219,15 +245,15 @@ public class ParserGenerator {
         c.dup();
         c.dup();
         c.dup();
-        c.getfield(PARSE_STATE_CLASS, "parseState", "I");
+        getStateField(c, stateAccessor, "parseState", "I");
         c.istore(CURRENT_STATE_VAR);
-        c.getfield(PARSE_STATE_CLASS, "pos", "I");
+        getStateField(c, stateAccessor, "pos", "I");
         c.istore(STATE_POS_VAR);
-        c.getfield(PARSE_STATE_CLASS, "current", HTTP_STRING_DESCRIPTOR);
+        getStateField(c, stateAccessor, "current", HTTP_STRING_DESCRIPTOR);
         c.astore(STATE_CURRENT_VAR);
-        c.getfield(PARSE_STATE_CLASS, "currentBytes", "[B");
+        getStateField(c, stateAccessor, "currentBytes", "[B");
         c.astore(STATE_CURRENT_BYTES_VAR);
-        c.getfield(PARSE_STATE_CLASS, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
+        getStateField(c, stateAccessor, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
         c.astore(STATE_STRING_BUILDER_VAR);
 
 
@@ -267,15 +293,15 @@ public class ParserGenerator {
         c.dup();
 
         c.iload(STATE_POS_VAR);
-        c.putfield(PARSE_STATE_CLASS, "pos", "I");
+        putStateField(c, stateAccessor, "pos", "I");
         c.aload(STATE_CURRENT_VAR);
-        c.putfield(PARSE_STATE_CLASS, "current", HTTP_STRING_DESCRIPTOR);
+        putStateField(c, stateAccessor, "current", HTTP_STRING_DESCRIPTOR);
         c.aload(STATE_CURRENT_BYTES_VAR);
-        c.putfield(PARSE_STATE_CLASS, "currentBytes", "[B");
+        putStateField(c, stateAccessor, "currentBytes", "[B");
         c.aload(STATE_STRING_BUILDER_VAR);
-        c.putfield(PARSE_STATE_CLASS, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
+        putStateField(c, stateAccessor, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
         c.iload(CURRENT_STATE_VAR);
-        c.putfield(PARSE_STATE_CLASS, "parseState", "I");
+        putStateField(c, stateAccessor, "parseState", "I");
         c.iload(BYTES_REMAINING_VAR);
         c.returnInstruction();
         setupLocalVariables(c);
@@ -287,15 +313,15 @@ public class ParserGenerator {
         c.dup();
 
         c.iconst(0);
-        c.putfield(PARSE_STATE_CLASS, "pos", "I");
+        putStateField(c, stateAccessor, "pos", "I");
         c.aconstNull();
-        c.putfield(PARSE_STATE_CLASS, "current", HTTP_STRING_DESCRIPTOR);
+        putStateField(c, stateAccessor, "current", HTTP_STRING_DESCRIPTOR);
         c.aconstNull();
-        c.putfield(PARSE_STATE_CLASS, "currentBytes", "[B");
+        putStateField(c, stateAccessor, "currentBytes", "[B");
         c.aconstNull();
-        c.putfield(PARSE_STATE_CLASS, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
+        putStateField(c, stateAccessor, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
         c.iconst(0);
-        c.putfield(PARSE_STATE_CLASS, "parseState", "I");
+        putStateField(c, stateAccessor, "parseState", "I");
         c.iload(BYTES_REMAINING_VAR);
         c.returnInstruction();
 
@@ -443,9 +469,9 @@ public class ParserGenerator {
         c.aload(PARSE_STATE_VAR);
         c.dup();
         c.aload(STATE_STRING_BUILDER_VAR);
-        c.putfield(PARSE_STATE_CLASS, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
+        putStateField(c, stateAccessor, "stringBuilder", DescriptorUtils.makeDescriptor(StringBuilder.class));
         c.iload(CURRENT_STATE_VAR);
-        c.putfield(PARSE_STATE_CLASS, "parseState", "I");
+        putStateField(c, stateAccessor, "parseState", "I");
         c.iconst(0);
         c.returnInstruction();
         for (BranchEnd b : nostateHandleSpace) {
@@ -465,15 +491,41 @@ public class ParserGenerator {
         tokenDone(c, returnCompleteCode, stateMachine);
 
 
-        invokeState(className, file, c, ends.get(initial).get(), initial, initial, noStateLoop, prefixLoop, returnIncompleteCode, returnCompleteCode, stateMachine);
+        invokeState(className, file, c, ends.get(initial).get(), initial, initial, noStateLoop, prefixLoop, returnIncompleteCode, returnCompleteCode, stateMachine, stateAccessor);
         for (final State s : allStates) {
             if (s.stateno >= 0) {
-                invokeState(className, file, c, ends.get(s).get(), s, initial, noStateLoop, prefixLoop, returnIncompleteCode, returnCompleteCode, stateMachine);
+                invokeState(className, file, c, ends.get(s).get(), s, initial, noStateLoop, prefixLoop, returnIncompleteCode, returnCompleteCode, stateMachine, stateAccessor);
             }
         }
 
     }
 
+    /**
+     * Reads a field of the parse state, which must be on top of the stack
+     */
+    private static void getStateField(final CodeAttribute c, final String stateAccessor, final String name, final String descriptor) {
+        if (stateAccessor == null) {
+            c.getfield(PARSE_STATE_CLASS, name, descriptor);
+        } else {
+            c.invokestatic(stateAccessor, accessorName("get", name), "(" + PARSE_STATE_DESCRIPTOR + ")" + descriptor);
+        }
+    }
+
+    /**
+     * Writes a field of the parse state, the parse state and the value must be on top of the stack
+     */
+    private static void putStateField(final CodeAttribute c, final String stateAccessor, final String name, final String descriptor) {
+        if (stateAccessor == null) {
+            c.putfield(PARSE_STATE_CLASS, name, descriptor);
+        } else {
+            c.invokestatic(stateAccessor, accessorName("set", name), "(" + PARSE_STATE_DESCRIPTOR + descriptor + ")V");
+        }
+    }
+
+    private static String accessorName(final String prefix, final String field) {
+        return prefix + Character.toUpperCase(field.charAt(0)) + field.substring(1);
+    }
+
     private static void setupLocalVariables(final CodeAttribute c) {
         c.setupFrame(DescriptorUtils.makeDescriptor("fakeclass"),
                 "[B",
@@ -497,7 +549,7 @@ public class ParserGenerator {
         c.gotoInstruction(returnCode);
     }
 
-    private static void invokeState(final String className, final ClassFile file, final CodeAttribute c, BranchEnd methodState, final State currentState, final State initialState, final CodeLocation noStateStart, final CodeLocation prefixStart, final CodeLocation returnIncompleteCode, final CodeLocation returnCompleteCode, final CustomStateMachine stateMachine) {
+    private static void invokeState(final String className, final ClassFile file, final CodeAttribute c, BranchEnd methodState, final State currentState, final State initialState, final CodeLocation noStateStart, final CodeLocation prefixStart, final CodeLocation returnIncompleteCode, final CodeLocation returnCompleteCode, final CustomStateMachine stateMachine, final String stateAccessor) {
         c.branchEnd(methodState);
         currentState.mark(c);
 
@@ -507,7 +559,7 @@ public class ParserGenerator {
             //if this is the initial state there is a possibility that we need to deal with a left over character first
             //we need to see if we start with a left over character
             c.aload(PARSE_STATE_VAR);
-            c.getfield(PARSE_STATE_CLASS, "leftOver", "B");
+            getStateField(c, stateAccessor, "leftOver", "B");
             c.dup();
             final BranchEnd end = c.ifne();
             c.pop();
@@ -520,7 +572,7 @@ public class ParserGenerator {
             c.branchEnd(end);
             c.aload(PARSE_STATE_VAR);
             c.iconst(0);
-            c.putfield(PARSE_STATE_CLASS, "leftOver", "B");
+            putStateField(c, stateAccessor, "leftOver", "B");
 
             c.branchEnd(cont);
 
@@ -639,7 +691,7 @@ public class ParserGenerator {
 
             c.aload(PARSE_STATE_VAR);
             c.iconst(PARSE_COMPLETE);
-            c.putfield(PARSE_STATE_CLASS, "state", "I");
+            putStateField(c, stateAccessor, "state", "I");
             c.iconst(0);
             c.returnInstruction();
         }
@@ -745,6 +797,12 @@ public class ParserGenerator {
 
     private static class HeaderStateMachine implements CustomStateMachine {
 
+        private final String stateAccessor;
+
+        HeaderStateMachine(final String stateAccessor) {
+            this.stateAccessor = stateAccessor;
+        }
+
         @Override
         public boolean isHeader() {
             return true;
@@ -754,14 +812,14 @@ public class ParserGenerator {
         public void handleOtherToken(final CodeAttribute c) {
             c.aload(PARSE_STATE_VAR);
             c.swap();
-            c.putfield(PARSE_STATE_CLASS, "nextHeader", HTTP_STRING_DESCRIPTOR);
+            putStateField(c, stateAccessor, "nextHeader", HTTP_STRING_DESCRIPTOR);
         }
 
         @Override
         public void handleStateMachineMatchedToken(final CodeAttribute c) {
             c.aload(PARSE_STATE_VAR);
             c.swap();
-            c.putfield(PARSE_STATE_CLASS, "nextHeader", HTTP_STRING_DESCRIPTOR);
+            putStateField(c, stateAccessor, "nextHeader", HTTP_STRING_DESCRIPTOR);
         }
 
         @Override
@@ -769,7 +827,7 @@ public class ParserGenerator {
             c.pop();
             c.aload(PARSE_STATE_VAR);
             c.iconst(HEADER_VALUE);
-            c.putfield(PARSE_STATE_CLASS, "state", "I");
+            putStateField(c, stateAccessor, "state", "I");
         }
 
         @Override
@@ -780,6 +838,12 @@ public class ParserGenerator {
 
     private static class VerbStateMachine implements CustomStateMachine {
 
+        private final String stateAccessor;
+
+        VerbStateMachine(final String stateAccessor) {
+            this.stateAccessor = stateAccessor;
+        }
+
         @Override
         public boolean isHeader() {
             return false;
@@ -804,7 +868,7 @@ public class ParserGenerator {
             c.pop();
             c.aload(PARSE_STATE_VAR);
             c.iconst(PATH);
-            c.putfield(PARSE_STATE_CLASS, "state", "I");
+            putStateField(c, stateAccessor, "state", "I");
         }
 
         @Override
@@ -815,6 +879,12 @@ public class ParserGenerator {
 
     private static class VersionStateMachine implements CustomStateMachine {
 
+        private final String stateAccessor;
+
+        VersionStateMachine(final String stateAccessor) {
+            this.stateAccessor = stateAccessor;
+        }
+
         @Override
         public boolean isHeader() {
             return false;
@@ -838,10 +908,10 @@ public class ParserGenerator {
         public void updateParseState(final CodeAttribute c) {
             c.aload(PARSE_STATE_VAR);
             c.swap();
-            c.putfield(PARSE_STATE_CLASS, "leftOver", "B");
+            putStateField(c, stateAccessor, "leftOver", "B");
             c.aload(PARSE_STATE_VAR);
             c.iconst(AFTER_VERSION);
-            c.putfield(PARSE_STATE_CLASS, "state", "I");
+            putStateField(c, stateAccessor, "state", "I");
         }
 
         @Override
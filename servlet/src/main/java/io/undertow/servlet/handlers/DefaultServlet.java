@@ -19,6 +19,7 @@
 package io.undertow.servlet.handlers;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -27,6 +28,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 
 import javax.servlet.DispatcherType;
@@ -40,10 +47,14 @@ import javax.servlet.http.HttpServletResponse;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.file.DirectFileSource;
+import io.undertow.server.handlers.file.FileMetadataCache;
+import io.undertow.server.handlers.file.FileResponse;
 import io.undertow.server.handlers.file.FileSource;
 import io.undertow.servlet.api.DefaultServletConfig;
 import io.undertow.servlet.api.Deployment;
 import io.undertow.servlet.spec.HttpServletRequestImpl;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
 import org.xnio.IoUtils;
 
 /**
@@ -58,7 +69,6 @@ import org.xnio.IoUtils;
  * - caching for blocking requests
  * - correct mime type
  * - directory listings
- * - range/last-modified and other headers to be handled properly
  * - head requests
  * - and probably heaps of other things
  *
@@ -70,6 +80,7 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
     private final Deployment deployment;
     private volatile FileSource fileSource = DirectFileSource.INSTANCE;
     private final DefaultServletConfig config;
+    private final FileMetadataCache metadataCache = new FileMetadataCache();
 
     private final List<String> welcomePages;
 
@@ -98,14 +109,13 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
         } else if (resource.isDirectory()) {
             handleWelcomePage(req, resp, resource);
         } else {
-            serveFileBlocking(resp, resource);
+            serveFileBlocking(req, resp, resource);
         }
     }
 
-    private void serveFileBlocking(final HttpServletResponse resp, final File resource) throws IOException {
+    private void serveFileBlocking(final HttpServletRequest req, final HttpServletResponse resp, final File resource) throws IOException {
         ServletOutputStream out = null;
         PrintWriter writer = null;
-        InputStream in = new BufferedInputStream(new FileInputStream(resource));
 
         // Trying to retrieve the servlet output stream
         try {
@@ -114,6 +124,11 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
             //todo: only allow this for text files
             writer = resp.getWriter();
         }
+        if (out != null && req.getDispatcherType() != DispatcherType.INCLUDE) {
+            serveFileRanges(req, resp, out, resource);
+            return;
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(resource));
         try {
             if (out != null) {
                 int read;
@@ -135,6 +150,44 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
         }
     }
 
+    /**
+     * Serves the file to the output stream, taking the conditional and range headers into account.
+     */
+    private void serveFileRanges(final HttpServletRequest req, final HttpServletResponse resp, final ServletOutputStream out, final File resource) throws IOException {
+        final FileChannel fileChannel = new FileInputStream(resource).getChannel();
+        try {
+            final HttpServerExchange exchange = HttpServletRequestImpl.getRequestImpl(req).getExchange();
+            //the response is written through the servlet response, so any wrappers see the status and headers
+            final BasicFileAttributes attributes = Files.readAttributes(resource.toPath(), BasicFileAttributes.class);
+            final FileResponse fileResponse = FileResponse.prepare(exchange.getRequestHeaders(), metadataCache.get(resource, attributes.size(), attributes.lastModifiedTime().toMillis()), true, new ServletResponseTarget(resp));
+            if (fileResponse == null) {
+                return;
+            }
+            final WritableByteChannel target = Channels.newChannel(out);
+            for (int i = 0; i < fileResponse.getRangeCount(); ++i) {
+                final ByteBuffer partHeader = fileResponse.getPartHeader(i);
+                while (partHeader != null && partHeader.hasRemaining()) {
+                    target.write(partHeader);
+                }
+                long position = fileResponse.getStart(i);
+                final long end = fileResponse.getEnd(i);
+                while (position < end) {
+                    final long res = fileChannel.transferTo(position, end - position, target);
+                    if (res <= 0) {
+                        throw new EOFException();
+                    }
+                    position += res;
+                }
+            }
+            final ByteBuffer trailer = fileResponse.getTrailer();
+            while (trailer != null && trailer.hasRemaining()) {
+                target.write(trailer);
+            }
+        } finally {
+            IoUtils.safeClose(fileChannel);
+        }
+    }
+
     @Override
     public void handleRequest(final HttpServerExchange exchange) {
         if (!isAllowed(exchange.getRelativePath())) {
@@ -174,7 +227,7 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
     private void handleWelcomePage(final HttpServletRequest req, final HttpServletResponse resp, final File resource) throws IOException, ServletException {
         File welcomePage = findWelcomeFile(resource);
         if (welcomePage != null) {
-            serveFileBlocking(resp, welcomePage);
+            serveFileBlocking(req, resp, welcomePage);
         } else {
             String pathInfo = req.getPathInfo();
             if (pathInfo == null) {
@@ -281,4 +334,38 @@ public class DefaultServlet extends HttpServlet implements HttpHandler {
     public void setFileSource(final FileSource fileSource) {
         this.fileSource = fileSource;
     }
+
+    /**
+     * Writes the response code and headers of a {@link FileResponse} through the servlet response.
+     */
+    private static final class ServletResponseTarget implements FileResponse.ResponseTarget {
+
+        private final HttpServletResponse response;
+
+        private ServletResponseTarget(final HttpServletResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void setResponseCode(final int code) {
+            response.setStatus(code);
+        }
+
+        @Override
+        public void setHeader(final HttpString name, final String value) {
+            if (name.equals(Headers.CONTENT_LENGTH)) {
+                final long length = Long.parseLong(value);
+                if (length <= Integer.MAX_VALUE) {
+                    response.setContentLength((int) length);
+                    return;
+                }
+            }
+            response.setHeader(name.toString(), value);
+        }
+
+        @Override
+        public String getHeader(final HttpString name) {
+            return response.getHeader(name.toString());
+        }
+    }
 }
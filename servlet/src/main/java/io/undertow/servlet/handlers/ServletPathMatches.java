@@ -21,8 +21,15 @@ package io.undertow.servlet.handlers;
 import java.util.HashMap;
 import java.util.Map;
 
+import io.undertow.util.PathMatcher;
+
 /**
- * Class that maintains the complete set of servlet path matches
+ * Class that maintains the complete set of servlet path matches.
+ * <p/>
+ * The mappings are compiled when the deployment is set up. Prefix mappings are held in a {@link PathMatcher}, so the
+ * cost of resolving a path does not depend on the number of mappings, and exact matches and prefix matches that
+ * consume the whole path return match objects that are created up front. Resolved paths are not cached, as the
+ * request path is controlled by the client, and a cache keyed on it would only be churned by unique paths.
  *
  * @author Stuart Douglas
  */
@@ -30,22 +37,38 @@ public class ServletPathMatches {
 
     private final Map<String, ServletPathMatch> exactPathMatches;
 
-    private final Map<String, PathMatch> prefixMatches;
+    private final PathMatcher<PathMatch> prefixMatches;
+
+    /**
+     * The match for the empty prefix, which is used if no other prefix matches
+     */
+    private final PathMatch defaultPathMatch;
 
     private final Map<String, ServletInitialHandler> nameMatches;
 
     private final ServletInitialHandler defaultServlet;
 
-    public ServletPathMatches(final Map<String, ServletInitialHandler> exactPathMatches, final Map<String, PathMatch> prefixMatches, final Map<String, ServletInitialHandler> nameMatches, final ServletInitialHandler defaultServlet) {
-        this.prefixMatches = prefixMatches;
-        this.nameMatches = nameMatches;
-        this.defaultServlet = defaultServlet;
-        Map<String, ServletPathMatch> newExactPathMatches = new HashMap<String, ServletPathMatch>();
-        for (Map.Entry<String, ServletInitialHandler> entry : exactPathMatches.entrySet()) {
+    private ServletPathMatches(final Builder builder) {
+        this.nameMatches = new HashMap<String, ServletInitialHandler>(builder.nameMatches);
+        this.defaultServlet = builder.defaultServlet;
+        final Map<String, ServletPathMatch> newExactPathMatches = new HashMap<String, ServletPathMatch>();
+        for (Map.Entry<String, ServletInitialHandler> entry : builder.exactPathMatches.entrySet()) {
             newExactPathMatches.put(entry.getKey(), new ServletPathMatch(entry.getValue(), entry.getKey(), null));
         }
         this.exactPathMatches = newExactPathMatches;
 
+        final PathMatcher.Builder<PathMatch> prefixBuilder = PathMatcher.<PathMatch>builder().setWildcardSegments(false);
+        PathMatch defaultPathMatch = null;
+        for (Map.Entry<String, PathMatchBuilder> entry : builder.prefixMatches.entrySet()) {
+            final PathMatch match = entry.getValue().build(entry.getKey());
+            if (entry.getKey().isEmpty()) {
+                defaultPathMatch = match;
+            } else {
+                prefixBuilder.addPrefixPath(entry.getKey(), match);
+            }
+        }
+        this.prefixMatches = prefixBuilder.build();
+        this.defaultPathMatch = defaultPathMatch;
     }
 
     public ServletInitialHandler getServletHandlerByName(final String name) {
@@ -57,67 +80,51 @@ public class ServletPathMatches {
     }
 
     public ServletPathMatch getServletHandlerByPath(final String path) {
-        ServletPathMatch exact = exactPathMatches.get(path);
-        if (exact != null) {
-            return exact;
-        }
-        PathMatch match = prefixMatches.get(path);
+        final ServletPathMatch match = exactPathMatches.get(path);
         if (match != null) {
-            return handleMatch(path, match, path, null, -1, path.lastIndexOf('.'));
-        }
-        int qsPos = -1;
-        int extensionPos = -1;
-        for (int i = path.length() - 1; i >= 0; --i) {
-            final char c = path.charAt(i);
-            if (c == '?') {
-                //there was a query string, check the exact matches again
-                final String part = path.substring(0, i);
-                exact = exactPathMatches.get(part);
-                if (exact != null) {
-                    return exact;
-                }
-                qsPos = i;
-                extensionPos = -1;
-            } else if (c == '/') {
-                final String part = path.substring(0, i);
-                match = prefixMatches.get(part);
-                if (match != null) {
-                    return handleMatch(path, match, part, path.substring(i), qsPos, extensionPos);
-                }
-            } else if (c == '.') {
-                if (extensionPos == -1) {
-                    extensionPos = i;
-                }
-            }
+            return match;
         }
-        return new ServletPathMatch(defaultServlet, "", path);
+        return resolve(path);
     }
 
-    private ServletPathMatch handleMatch(final String path, final PathMatch match, String matched, String remaining, final int qsPos, final int extensionPos) {
-        if (match.extensionMatches.isEmpty()) {
-            return new ServletPathMatch(match.defaultHandler, matched, remaining);
+    private ServletPathMatch resolve(final String path) {
+        final int qsPos = path.indexOf('?');
+        final String pathWithoutQuery;
+        if (qsPos == -1) {
+            pathWithoutQuery = path;
         } else {
-            if (extensionPos == -1) {
-                return new ServletPathMatch(match.defaultHandler, matched, remaining);
-            } else {
-                final String ext;
-                if (qsPos == -1) {
-                    ext = path.substring(extensionPos + 1, path.length());
-                } else {
-                    ext = path.substring(extensionPos + 1, qsPos);
-                }
-                ServletInitialHandler handler = match.extensionMatches.get(ext);
+            pathWithoutQuery = path.substring(0, qsPos);
+            final ServletPathMatch exact = exactPathMatches.get(pathWithoutQuery);
+            if (exact != null) {
+                return exact;
+            }
+        }
+        final PathMatcher.Match<PathMatch> prefix = prefixMatches.match(pathWithoutQuery);
+        final PathMatch match;
+        final int matchedLength;
+        if (prefix != null) {
+            match = prefix.getValue();
+            matchedLength = prefix.getMatchedLength(pathWithoutQuery);
+        } else if (defaultPathMatch != null) {
+            match = defaultPathMatch;
+            matchedLength = 0;
+        } else {
+            return new ServletPathMatch(defaultServlet, "", path);
+        }
+
+        if (!match.extensionMatches.isEmpty()) {
+            final int extensionPos = pathWithoutQuery.lastIndexOf('.');
+            if (extensionPos >= matchedLength) {
+                final ServletInitialHandler handler = match.extensionMatches.get(pathWithoutQuery.substring(extensionPos + 1));
                 if (handler != null) {
-                    if(qsPos == -1) {
-                        return new ServletPathMatch(handler, path, null);
-                    } else {
-                        return new ServletPathMatch(handler, path.substring(0, qsPos), null);
-                    }
-                } else {
-                    return new ServletPathMatch(match.defaultHandler, matched, remaining);
+                    return new ServletPathMatch(handler, pathWithoutQuery, null);
                 }
             }
         }
+        if (matchedLength == pathWithoutQuery.length()) {
+            return match.fullMatch;
+        }
+        return new ServletPathMatch(match.defaultHandler, match.prefix, path.substring(matchedLength));
     }
 
     public static Builder builder() {
@@ -128,7 +135,7 @@ public class ServletPathMatches {
 
         private final Map<String, ServletInitialHandler> exactPathMatches = new HashMap<String, ServletInitialHandler>();
 
-        private final Map<String, PathMatch> prefixMatches = new HashMap<String, PathMatch>();
+        private final Map<String, PathMatchBuilder> prefixMatches = new HashMap<String, PathMatchBuilder>();
 
         private final Map<String, ServletInitialHandler> nameMatches = new HashMap<String, ServletInitialHandler>();
 
@@ -139,17 +146,17 @@ public class ServletPathMatches {
         }
 
         public void addPrefixMatch(final String prefix, final ServletInitialHandler match) {
-            PathMatch m = prefixMatches.get(prefix);
+            PathMatchBuilder m = prefixMatches.get(prefix);
             if (m == null) {
-                prefixMatches.put(prefix, m = new PathMatch(match));
+                prefixMatches.put(prefix, m = new PathMatchBuilder());
             }
             m.defaultHandler = match;
         }
 
         public void addExtensionMatch(final String prefix, final String extension, final ServletInitialHandler match) {
-            PathMatch m = prefixMatches.get(prefix);
+            PathMatchBuilder m = prefixMatches.get(prefix);
             if (m == null) {
-                prefixMatches.put(prefix, m = new PathMatch(null));
+                prefixMatches.put(prefix, m = new PathMatchBuilder());
             }
             m.extensionMatches.put(extension, match);
         }
@@ -167,19 +174,36 @@ public class ServletPathMatches {
         }
 
         public ServletPathMatches build() {
-            return new ServletPathMatches(exactPathMatches, prefixMatches, nameMatches, defaultServlet);
+            return new ServletPathMatches(this);
         }
 
     }
 
-
-    private static class PathMatch {
+    private static final class PathMatchBuilder {
 
         private final Map<String, ServletInitialHandler> extensionMatches = new HashMap<String, ServletInitialHandler>();
-        private volatile ServletInitialHandler defaultHandler;
+        private ServletInitialHandler defaultHandler;
+
+        PathMatch build(final String prefix) {
+            return new PathMatch(prefix, defaultHandler, new HashMap<String, ServletInitialHandler>(extensionMatches));
+        }
+    }
+
+    private static final class PathMatch {
+
+        private final String prefix;
+        private final ServletInitialHandler defaultHandler;
+        private final Map<String, ServletInitialHandler> extensionMatches;
+        /**
+         * The match that is returned if the path is equal to the prefix
+         */
+        private final ServletPathMatch fullMatch;
 
-        public PathMatch(final ServletInitialHandler defaultHandler) {
+        PathMatch(final String prefix, final ServletInitialHandler defaultHandler, final Map<String, ServletInitialHandler> extensionMatches) {
+            this.prefix = prefix;
             this.defaultHandler = defaultHandler;
+            this.extensionMatches = extensionMatches;
+            this.fullMatch = new ServletPathMatch(defaultHandler, prefix, null);
         }
     }
 
@@ -185,7 +185,7 @@ public final class HttpServletResponseImpl implements HttpServletResponse {
 
 
     public void setHeader(final HttpString name, final String value) {
-        if (insideInclude) {
+        if (insideInclude || exchange.isResponseStarted()) {
             return;
         }
         exchange.getResponseHeaders().put(name, value);
@@ -197,7 +197,7 @@ public final class HttpServletResponseImpl implements HttpServletResponse {
     }
 
     public void addHeader(final HttpString name, final String value) {
-        if (insideInclude) {
+        if (insideInclude || exchange.isResponseStarted()) {
             return;
         }
         exchange.getResponseHeaders().add(name, value);
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.servlet.test.defaultservlet;
+
+import java.io.IOException;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.FilterInfo;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.test.util.TestResourceLoader;
+import io.undertow.test.utils.DefaultServer;
+import io.undertow.test.utils.HttpClientUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that range requests served by the default servlet go through the servlet response, so that
+ * response wrappers see the status and headers.
+ */
+@RunWith(DefaultServer.class)
+public class DefaultServletRangeTestCase {
+
+    @BeforeClass
+    public static void setup() throws ServletException {
+
+        final PathHandler root = new PathHandler();
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .setClassLoader(DefaultServletRangeTestCase.class.getClassLoader())
+                .setContextPath("/servletContext")
+                .setDeploymentName("servletContext.war")
+                .setResourceLoader(new TestResourceLoader(DefaultServletRangeTestCase.class));
+
+        builder.addFilter(new FilterInfo("Filter", StatusRecordingFilter.class));
+        builder.addFilterUrlMapping("Filter", "/*", DispatcherType.REQUEST);
+
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        root.addPath(builder.getContextPath(), manager.start());
+
+        DefaultServer.setRootHandler(root);
+    }
+
+    @Test
+    public void testRangeIsWrittenThroughResponseWrapper() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/servletContext/index.html");
+            get.addHeader(Headers.RANGE_STRING, "bytes=0-3");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("206", result.getFirstHeader(StatusRecordingFilter.HEADER).getValue());
+            Assert.assertTrue(result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue().startsWith("bytes 0-3/"));
+            Assert.assertEquals("<!--", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/servletContext/index.html");
+            get.addHeader(Headers.RANGE_STRING, "bytes=2-3,0-1,1-2");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(206, result.getStatusLine().getStatusCode());
+            Assert.assertTrue(result.getFirstHeader(Headers.CONTENT_RANGE_STRING).getValue().startsWith("bytes 0-3/"));
+            Assert.assertEquals("4", result.getFirstHeader(Headers.CONTENT_LENGTH_STRING).getValue());
+            Assert.assertEquals("<!--", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testNotModifiedIsWrittenThroughResponseWrapper() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/servletContext/index.html");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+            final String etag = result.getFirstHeader(Headers.ETAG_STRING).getValue();
+            HttpClientUtils.readResponse(result);
+
+            get = new HttpGet(DefaultServer.getDefaultServerAddress() + "/servletContext/index.html");
+            get.addHeader(Headers.IF_NONE_MATCH_STRING, etag);
+            result = client.execute(get);
+            Assert.assertEquals(304, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("304", result.getFirstHeader(StatusRecordingFilter.HEADER).getValue());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.undertow.servlet.test.path;
+
+import io.undertow.servlet.handlers.ServletInitialHandler;
+import io.undertow.servlet.handlers.ServletPathMatch;
+import io.undertow.servlet.handlers.ServletPathMatches;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServletPathMatchesTestCase {
+
+    private final ServletInitialHandler exact = handler();
+    private final ServletInitialHandler prefix = handler();
+    private final ServletInitialHandler extension = handler();
+    private final ServletInitialHandler prefixExtension = handler();
+    private final ServletInitialHandler defaultPath = handler();
+    private final ServletInitialHandler defaultServlet = handler();
+
+    @Test
+    public void testExactMatch() {
+        final ServletPathMatches matches = createMatches(true);
+        assertMatch(matches.getServletHandlerByPath("/exact"), exact, "/exact", null);
+        assertMatch(matches.getServletHandlerByPath("/exact?a=b"), exact, "/exact", null);
+        //an exact mapping does not match longer paths
+        assertMatch(matches.getServletHandlerByPath("/exact/more"), defaultPath, "", "/exact/more");
+    }
+
+    @Test
+    public void testPrefixMatch() {
+        final ServletPathMatches matches = createMatches(true);
+        assertMatch(matches.getServletHandlerByPath("/prefix"), prefix, "/prefix", null);
+        assertMatch(matches.getServletHandlerByPath("/prefix/a/b"), prefix, "/prefix", "/a/b");
+        assertMatch(matches.getServletHandlerByPath("/prefix/a?b=c"), prefix, "/prefix", "/a?b=c");
+        //different paths with the same prefix must not share a result
+        assertMatch(matches.getServletHandlerByPath("/prefix/c"), prefix, "/prefix", "/c");
+    }
+
+    @Test
+    public void testExtensionMatch() {
+        final ServletPathMatches matches = createMatches(true);
+        assertMatch(matches.getServletHandlerByPath("/a/b.jsp"), extension, "/a/b.jsp", null);
+        assertMatch(matches.getServletHandlerByPath("/a/c.jsp?d=e"), extension, "/a/c.jsp", null);
+        assertMatch(matches.getServletHandlerByPath("/prefix/a.txt"), prefixExtension, "/prefix/a.txt", null);
+        //the extension must be in the part of the path after the prefix
+        assertMatch(matches.getServletHandlerByPath("/a.jsp/b"), defaultPath, "", "/a.jsp/b");
+    }
+
+    @Test
+    public void testDefaultMatch() {
+        assertMatch(createMatches(true).getServletHandlerByPath("/other"), defaultPath, "", "/other");
+        assertMatch(createMatches(false).getServletHandlerByPath("/other"), defaultServlet, "", "/other");
+        assertMatch(createMatches(false).getServletHandlerByPath("/other.jsp"), defaultServlet, "", "/other.jsp");
+    }
+
+    private ServletPathMatches createMatches(final boolean defaultMapping) {
+        final ServletPathMatches.Builder builder = ServletPathMatches.builder();
+        builder.addExactMatch("/exact", exact);
+        builder.addPrefixMatch("/prefix", prefix);
+        builder.addExtensionMatch("/prefix", "txt", prefixExtension);
+        if (defaultMapping) {
+            builder.addPrefixMatch("", defaultPath);
+            builder.addExtensionMatch("", "jsp", extension);
+        }
+        builder.setDefaultServlet(defaultServlet);
+        return builder.build();
+    }
+
+    private static void assertMatch(final ServletPathMatch match, final ServletInitialHandler handler, final String matched, final String remaining) {
+        Assert.assertSame(handler, match.getHandler());
+        Assert.assertEquals(matched, match.getMatched());
+        Assert.assertEquals(remaining, match.getRemaining());
+    }
+
+    private static ServletInitialHandler handler() {
+        return new ServletInitialHandler(null, null, null, null);
+    }
+}